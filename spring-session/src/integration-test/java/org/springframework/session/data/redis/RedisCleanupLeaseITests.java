@@ -0,0 +1,78 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.session.data.redis.config.annotation.web.http.EnableRedisHttpSession;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration
+@WebAppConfiguration
+public class RedisCleanupLeaseITests {
+	private static final String LEASE_KEY = "spring:session:RedisCleanupLeaseITests:expirations:lease";
+
+	@Autowired
+	RedisOperations<Object, Object> redis;
+
+	@After
+	public void cleanup() {
+		redis.delete(LEASE_KEY);
+	}
+
+	@Test
+	public void tryAcquireOnlyOnce() {
+		RedisCleanupLease lease = new RedisCleanupLease();
+		RedisCleanupLease otherLease = new RedisCleanupLease();
+
+		assertThat(lease.tryAcquire(redis, LEASE_KEY)).isTrue();
+		assertThat(otherLease.tryAcquire(redis, LEASE_KEY)).isFalse();
+		assertThat(lease.tryAcquire(redis, LEASE_KEY)).isFalse();
+	}
+
+	@Test
+	public void tryAcquireSetsExpiration() {
+		RedisCleanupLease lease = new RedisCleanupLease(TimeUnit.SECONDS.toMillis(30));
+
+		assertThat(lease.tryAcquire(redis, LEASE_KEY)).isTrue();
+
+		assertThat(redis.getExpire(LEASE_KEY, TimeUnit.SECONDS)).isGreaterThan(0L).isLessThanOrEqualTo(30L);
+	}
+
+	@Configuration
+	@EnableRedisHttpSession(redisNamespace = "RedisCleanupLeaseITests")
+	static class Config {
+		@Bean
+		public JedisConnectionFactory connectionFactory() throws Exception {
+			JedisConnectionFactory factory = new JedisConnectionFactory();
+			factory.setUsePool(false);
+			return factory;
+		}
+	}
+}
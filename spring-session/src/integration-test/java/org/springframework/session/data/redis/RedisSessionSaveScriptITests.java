@@ -0,0 +1,136 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.session.data.redis.RedisOperationsSessionRepository.RedisSession;
+import org.springframework.session.data.redis.config.annotation.web.http.EnableRedisHttpSession;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration
+@WebAppConfiguration
+public class RedisSessionSaveScriptITests {
+	private static final String PREFIX = "spring:session:RedisSessionSaveScriptITests:";
+
+	@Autowired
+	private RedisOperationsSessionRepository repository;
+
+	@Autowired
+	RedisOperations<Object, Object> redis;
+
+	@Before
+	public void setup() {
+		repository.setSessionSaveScript(new RedisSessionSaveScript());
+	}
+
+	@After
+	public void cleanup() {
+		repository.setSessionSaveScript(null);
+	}
+
+	@Test
+	public void saves() {
+		RedisSession toSave = repository.createSession();
+		toSave.setAttribute("a", "b");
+
+		repository.save(toSave);
+
+		RedisSession session = repository.getSession(toSave.getId());
+		assertThat(session.getAttributeNames()).containsOnly("a");
+		assertThat(session.getAttribute("a")).isEqualTo("b");
+		assertThat(session.getCreationTime()).isEqualTo(toSave.getCreationTime());
+		assertThat(session.getMaxInactiveIntervalInSeconds()).isEqualTo(toSave.getMaxInactiveIntervalInSeconds());
+
+		String expirationsKey = getExpirationsKey(toSave);
+		String expiresMember = "expires:" + toSave.getId();
+		assertThat(redis.boundSetOps(expirationsKey).members()).contains(expiresMember);
+		assertThat(redis.getExpire(PREFIX + "sessions:" + expiresMember, TimeUnit.SECONDS)).isGreaterThan(0L);
+		assertThat(redis.getExpire(PREFIX + "sessions:" + toSave.getId(), TimeUnit.SECONDS))
+				.isGreaterThan((long) toSave.getMaxInactiveIntervalInSeconds());
+
+		repository.delete(toSave.getId());
+
+		assertThat(repository.getSession(toSave.getId())).isNull();
+	}
+
+	@Test
+	public void putAllOnSingleAttrDoesNotRemoveOld() {
+		RedisSession toSave = repository.createSession();
+		toSave.setAttribute("a", "b");
+
+		repository.save(toSave);
+		toSave = repository.getSession(toSave.getId());
+
+		toSave.setAttribute("1", "2");
+		toSave.removeAttribute("a");
+
+		repository.save(toSave);
+
+		RedisSession session = repository.getSession(toSave.getId());
+		assertThat(session.getAttributeNames()).containsOnly("1");
+		assertThat(session.getAttribute("1")).isEqualTo("2");
+
+		repository.delete(toSave.getId());
+	}
+
+	@Test
+	public void movesBetweenExpirations() {
+		RedisSession toSave = repository.createSession();
+		repository.save(toSave);
+		String originalExpirationsKey = getExpirationsKey(toSave);
+		String expiresMember = "expires:" + toSave.getId();
+
+		RedisSession session = repository.getSession(toSave.getId());
+		session.setLastAccessedTime(session.getLastAccessedTime() + TimeUnit.MINUTES.toMillis(2));
+		repository.save(session);
+
+		assertThat(redis.boundSetOps(originalExpirationsKey).members()).doesNotContain(expiresMember);
+		assertThat(redis.boundSetOps(getExpirationsKey(session)).members()).contains(expiresMember);
+
+		repository.delete(toSave.getId());
+	}
+
+	private String getExpirationsKey(RedisSession session) {
+		long expiration = RedisSessionExpirationPolicy.roundUpToNextMinute(RedisSessionExpirationPolicy.expiresInMillis(session));
+		return PREFIX + "expirations:" + expiration;
+	}
+
+	@Configuration
+	@EnableRedisHttpSession(redisNamespace = "RedisSessionSaveScriptITests")
+	static class Config {
+		@Bean
+		public JedisConnectionFactory connectionFactory() throws Exception {
+			JedisConnectionFactory factory = new JedisConnectionFactory();
+			factory.setUsePool(false);
+			return factory;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A copy of a session kept in the JVM that keeps track of the attributes that
+ * were changed, so that only those are written to the {@link SessionRepository}
+ * that stores the session.
+ *
+ * @author agent
+ * @since 1.1
+ * @see WriteBehindSessionRepository
+ * @see TieredSessionRepository
+ */
+final class ChangeTrackingSession implements ExpiringSession, DirtyTrackingSession {
+	final MapSession cached;
+
+	final Set<String> changedAttributeNames = new HashSet<String>();
+
+	/**
+	 * The session created by the {@link SessionRepository} that stores the session if this is a new session that was
+	 * not saved yet.
+	 */
+	ExpiringSession target;
+
+	ChangeTrackingSession(MapSession cached) {
+		this.cached = cached;
+	}
+
+	/**
+	 * Marks the changes as written.
+	 */
+	void markClean() {
+		this.changedAttributeNames.clear();
+		this.cached.markClean(0);
+		this.target = null;
+	}
+
+	public String getId() {
+		return this.cached.getId();
+	}
+
+	public long getCreationTime() {
+		return this.cached.getCreationTime();
+	}
+
+	public void setLastAccessedTime(long lastAccessedTime) {
+		this.cached.setLastAccessedTime(lastAccessedTime);
+	}
+
+	public long getLastAccessedTime() {
+		return this.cached.getLastAccessedTime();
+	}
+
+	public void setMaxInactiveIntervalInSeconds(int interval) {
+		this.cached.setMaxInactiveIntervalInSeconds(interval);
+	}
+
+	public int getMaxInactiveIntervalInSeconds() {
+		return this.cached.getMaxInactiveIntervalInSeconds();
+	}
+
+	public boolean isExpired() {
+		return this.cached.isExpired();
+	}
+
+	public <T> T getAttribute(String attributeName) {
+		return this.cached.getAttribute(attributeName);
+	}
+
+	public Set<String> getAttributeNames() {
+		return this.cached.getAttributeNames();
+	}
+
+	public void setAttribute(String attributeName, Object attributeValue) {
+		this.cached.setAttribute(attributeName, attributeValue);
+		this.changedAttributeNames.add(attributeName);
+	}
+
+	public void removeAttribute(String attributeName) {
+		this.cached.removeAttribute(attributeName);
+		this.changedAttributeNames.add(attributeName);
+	}
+
+	public boolean isDirty() {
+		return this.target != null || !this.changedAttributeNames.isEmpty() || this.cached.isDirty();
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.util.ClassUtils;
+
+/**
+ * <p>
+ * The {@link PrincipalNameExtractor} used by default. The principal name is
+ * resolved from:
+ * </p>
+ *
+ * <ul>
+ * <li>the {@link FindByIndexNameSessionRepository#PRINCIPAL_NAME_INDEX_NAME}
+ * attribute if it is set</li>
+ * <li>otherwise the name of the authentication in the Spring Security
+ * SecurityContext stored in the {@link #SPRING_SECURITY_CONTEXT} attribute</li>
+ * </ul>
+ *
+ * <p>
+ * If Spring Security is on the classpath, a SecurityContext is read directly
+ * without using an expression or reflection. Any other object stored in the
+ * {@link #SPRING_SECURITY_CONTEXT} attribute is evaluated using the
+ * precompiled expression "authentication?.name".
+ * </p>
+ *
+ * @author agent
+ * @since 1.1
+ */
+public class DefaultPrincipalNameExtractor implements PrincipalNameExtractor {
+	/**
+	 * The name of the session attribute Spring Security stores the SecurityContext in.
+	 */
+	public static final String SPRING_SECURITY_CONTEXT = "SPRING_SECURITY_CONTEXT";
+
+	private static final boolean springSecurityPresent = ClassUtils.isPresent(
+			"org.springframework.security.core.context.SecurityContext", DefaultPrincipalNameExtractor.class.getClassLoader());
+
+	private final SpelPrincipalNameExtractor securityContextExtractor = new SpelPrincipalNameExtractor(SPRING_SECURITY_CONTEXT, "authentication?.name");
+
+	public String extractPrincipalName(Session session) {
+		String principalName = session.getAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME);
+		if(principalName != null) {
+			return principalName;
+		}
+		Object securityContext = session.getAttribute(SPRING_SECURITY_CONTEXT);
+		if(securityContext == null) {
+			return null;
+		}
+		if(springSecurityPresent && SecurityContextAccessor.isSecurityContext(securityContext)) {
+			return SecurityContextAccessor.getName(securityContext);
+		}
+		return securityContextExtractor.getValue(securityContext);
+	}
+
+	public boolean isPrincipalAttribute(String attributeName) {
+		return FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME.equals(attributeName) || SPRING_SECURITY_CONTEXT.equals(attributeName);
+	}
+
+	/**
+	 * Isolates the references to Spring Security so that it is only loaded if it is on the classpath.
+	 */
+	private static class SecurityContextAccessor {
+		static boolean isSecurityContext(Object securityContext) {
+			return securityContext instanceof SecurityContext;
+		}
+
+		static String getName(Object securityContext) {
+			Authentication authentication = ((SecurityContext) securityContext).getAuthentication();
+			return authentication == null ? null : authentication.getName();
+		}
+	}
+}
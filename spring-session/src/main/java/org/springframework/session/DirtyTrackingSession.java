@@ -0,0 +1,43 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.session;
+
+/**
+ * A {@link Session} that keeps track of whether it has changed since it was retrieved from a {@link SessionRepository}.
+ * This allows the {@link org.springframework.session.web.http.SessionRepositoryFilter} to avoid invoking
+ * {@link SessionRepository#save(Session)} for a {@link Session} that has not changed.
+ *
+ * <p>
+ * Only changes made through the {@link Session} are tracked. If an attribute value is mutable and is modified, the
+ * attribute must be set again using {@link Session#setAttribute(String, Object)} for the change to be saved. For
+ * this reason, a {@link SessionRepository} that used to save the whole {@link Session} every time only reports its
+ * {@link Session Sessions} as clean if it was configured to do so.
+ * </p>
+ *
+ * @since 1.1
+ * @author agent
+ */
+public interface DirtyTrackingSession extends Session {
+
+	/**
+	 * Determines if this {@link Session} needs to be saved. A {@link Session} that was just created, or that has had an
+	 * attribute or the maximum inactive interval changed is dirty. A change to only the last accessed time is dirty if
+	 * the change is meaningful to the {@link SessionRepository} (i.e. it is outside of any touch granularity).
+	 *
+	 * @return true if this {@link Session} needs to be saved, else false.
+	 */
+	boolean isDirty();
+}
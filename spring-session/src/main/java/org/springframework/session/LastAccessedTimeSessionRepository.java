@@ -0,0 +1,42 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+/**
+ * Extends a basic {@link SessionRepository} to allow reading the last accessed
+ * time of a session without reading the whole session. This allows a copy of
+ * the session that is kept elsewhere (i.e. by the
+ * {@link WriteBehindSessionRepository}) to be checked against the
+ * {@link SessionRepository} with a single cheap lookup.
+ *
+ * @author agent
+ * @since 1.1
+ *
+ * @param <S>
+ *            the type of Session being managed by this
+ *            {@link LastAccessedTimeSessionRepository}
+ */
+public interface LastAccessedTimeSessionRepository<S extends ExpiringSession> extends SessionRepository<S> {
+
+	/**
+	 * Gets the last accessed time of a session.
+	 *
+	 * @param id the session id
+	 * @return the last accessed time in milliseconds, or null if the session does not exist. The last accessed time of
+	 *         a session that is expired, but was not removed yet, may be returned.
+	 */
+	Long getLastAccessedTime(String id);
+}
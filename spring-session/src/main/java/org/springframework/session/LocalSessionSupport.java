@@ -0,0 +1,81 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Merges saved sessions into the copies kept in the JVM by the
+ * {@link SessionRepository SessionRepositories} that sit in front of another
+ * {@link SessionRepository}, and writes the copies to the sessions of that
+ * {@link SessionRepository}.
+ *
+ * @author agent
+ * @since 1.1
+ * @see WriteBehindSessionRepository
+ * @see TieredSessionRepository
+ */
+final class LocalSessionSupport {
+
+	private LocalSessionSupport() {
+	}
+
+	/**
+	 * Applies the changes of a saved session to the copy kept in the JVM. Only the attributes that were changed are
+	 * applied if the session is a {@link ChangeTrackingSession}, otherwise every attribute is.
+	 *
+	 * @param local the copy of the session kept in the JVM
+	 * @param saved the session that was saved
+	 * @return the names of the attributes that were applied
+	 */
+	static Set<String> merge(MapSession local, ExpiringSession saved) {
+		Set<String> attributeNames;
+		if(saved instanceof ChangeTrackingSession) {
+			attributeNames = new HashSet<String>(((ChangeTrackingSession) saved).changedAttributeNames);
+		} else {
+			attributeNames = new HashSet<String>(local.getAttributeNames());
+			attributeNames.addAll(saved.getAttributeNames());
+		}
+		for(String attributeName : attributeNames) {
+			local.setAttribute(attributeName, saved.getAttribute(attributeName));
+		}
+		local.setMaxInactiveIntervalInSeconds(saved.getMaxInactiveIntervalInSeconds());
+		local.setLastAccessedTime(Math.max(local.getLastAccessedTime(), saved.getLastAccessedTime()));
+		return attributeNames;
+	}
+
+	/**
+	 * Writes the attributes that changed and the expiration of the copy kept in the JVM to the session of the
+	 * {@link SessionRepository} that stores it.
+	 *
+	 * @param local the copy of the session kept in the JVM
+	 * @param attributeNames the names of the attributes that changed
+	 * @param target the session of the {@link SessionRepository} that stores the session
+	 */
+	static void write(ExpiringSession local, Set<String> attributeNames, ExpiringSession target) {
+		for(String attributeName : attributeNames) {
+			Object attributeValue = local.getAttribute(attributeName);
+			if(attributeValue == null) {
+				target.removeAttribute(attributeName);
+			} else {
+				target.setAttribute(attributeName, attributeValue);
+			}
+		}
+		target.setMaxInactiveIntervalInSeconds(local.getMaxInactiveIntervalInSeconds());
+		target.setLastAccessedTime(local.getLastAccessedTime());
+	}
+}
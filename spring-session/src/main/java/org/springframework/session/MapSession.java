@@ -16,7 +16,9 @@
 package org.springframework.session;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -34,13 +36,19 @@ import java.util.concurrent.TimeUnit;
  * </ul>
  *
  * <p>
+ * A {@link MapSession} keeps track of whether it has been changed so that it implements {@link DirtyTrackingSession}.
+ * Every instance that was not retrieved from a {@link MapSessionRepository} that only saves changed sessions is
+ * considered to be dirty.
+ * </p>
+ *
+ * <p>
  * This implementation has no synchronization, so it is best to use the copy constructor when working on multiple threads.
  * </p>
  *
  * @since 1.0
  * @author Rob Winch
  */
-public final class MapSession implements ExpiringSession, Serializable {
+public final class MapSession implements ExpiringSession, DirtyTrackingSession, Serializable {
 	/**
 	 * Default {@link #setMaxInactiveIntervalInSeconds(int)} (30 minutes)
 	 */
@@ -56,6 +64,37 @@ public final class MapSession implements ExpiringSession, Serializable {
 	 */
 	private int maxInactiveInterval = DEFAULT_MAX_INACTIVE_INTERVAL_SECONDS;
 
+	/**
+	 * True if anything other than the last accessed time has changed since {@link #markClean(long)} was invoked.
+	 */
+	private transient boolean changed = true;
+
+	/**
+	 * The last accessed time when {@link #markClean(long)} was invoked.
+	 */
+	private transient long cleanLastAccessedTime;
+
+	/**
+	 * The number of milliseconds within which a change to only the last accessed time is not considered dirty.
+	 */
+	private transient long touchGranularityInMillis;
+
+	/**
+	 * True if the attribute {@link Map} may be shared with another instance, in which case it is copied before it is
+	 * changed.
+	 */
+	private transient boolean sharedAttributes;
+
+	/**
+	 * The attributes of the snapshot this instance was created from or was last saved as.
+	 */
+	private transient Map<String, Object> originalAttrs;
+
+	/**
+	 * The version of the snapshot this instance was created from or was last saved as.
+	 */
+	private transient long version;
+
 	/**
 	 * Creates a new instance with a secure randomly generated identifier.
 	 */
@@ -111,6 +150,7 @@ public final class MapSession implements ExpiringSession, Serializable {
 	}
 
 	public void setMaxInactiveIntervalInSeconds(int interval) {
+		this.changed |= (this.maxInactiveInterval != interval);
 		this.maxInactiveInterval = interval;
 	}
 
@@ -135,19 +175,132 @@ public final class MapSession implements ExpiringSession, Serializable {
 	}
 
 	public Set<String> getAttributeNames() {
-		return sessionAttrs.keySet();
+		return Collections.unmodifiableSet(sessionAttrs.keySet());
 	}
 
 	public void setAttribute(String attributeName, Object attributeValue) {
 		if (attributeValue == null) {
 			removeAttribute(attributeName);
 		} else {
+			copyAttributesOnWrite();
 			sessionAttrs.put(attributeName, attributeValue);
+			changed = true;
 		}
 	}
 
 	public void removeAttribute(String attributeName) {
+		if(!sessionAttrs.containsKey(attributeName)) {
+			return;
+		}
+		copyAttributesOnWrite();
 		sessionAttrs.remove(attributeName);
+		changed = true;
+	}
+
+	private void copyAttributesOnWrite() {
+		if(sharedAttributes) {
+			sessionAttrs = new HashMap<String, Object>(sessionAttrs);
+			sharedAttributes = false;
+		}
+	}
+
+	/**
+	 * Creates a copy that shares the attribute {@link Map} with this instance until either of them changes an
+	 * attribute. The copy remembers the attributes and the version of this instance, so that
+	 * {@link #merge(MapSession)} can determine what was changed.
+	 *
+	 * @return the copy
+	 */
+	MapSession snapshot() {
+		MapSession snapshot = new MapSession(id);
+		snapshot.creationTime = creationTime;
+		snapshot.lastAccessedTime = lastAccessedTime;
+		snapshot.maxInactiveInterval = maxInactiveInterval;
+		snapshot.sessionAttrs = sessionAttrs;
+		snapshot.sharedAttributes = true;
+		snapshot.originalAttrs = sessionAttrs;
+		snapshot.version = version;
+		if(!sharedAttributes) {
+			sharedAttributes = true;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Creates a snapshot of the provided session with the changes of this instance applied. An attribute is
+	 * considered changed if its value is not the same instance as when this instance was created or last saved.
+	 *
+	 * @param current the snapshot to apply the changes to
+	 * @return the merged snapshot
+	 */
+	MapSession merge(ExpiringSession current) {
+		MapSession merged = new MapSession(current);
+		Set<String> attributeNames = new HashSet<String>(sessionAttrs.keySet());
+		if(originalAttrs != null) {
+			attributeNames.addAll(originalAttrs.keySet());
+		}
+		for(String attributeName : attributeNames) {
+			Object attributeValue = sessionAttrs.get(attributeName);
+			if(originalAttrs == null || attributeValue != originalAttrs.get(attributeName)) {
+				merged.setAttribute(attributeName, attributeValue);
+			}
+		}
+		merged.lastAccessedTime = Math.max(lastAccessedTime, current.getLastAccessedTime());
+		merged.maxInactiveInterval = maxInactiveInterval;
+		merged.sharedAttributes = true;
+		return merged;
+	}
+
+	/**
+	 * Gets the version of the snapshot this instance was created from or was last saved as.
+	 *
+	 * @return the version or 0 if it was never saved
+	 */
+	long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Records that this instance was saved.
+	 *
+	 * @param version the version it was saved as, or -1 if it was merged with changes that it does not contain
+	 */
+	void markSaved(long version) {
+		this.version = version;
+		this.originalAttrs = sessionAttrs;
+		if(!sharedAttributes) {
+			sharedAttributes = true;
+		}
+	}
+
+	/**
+	 * Sets the version of this snapshot.
+	 *
+	 * @param version the version
+	 */
+	void setVersion(long version) {
+		this.version = version;
+	}
+
+	public boolean isDirty() {
+		if(changed) {
+			return true;
+		}
+		long touched = lastAccessedTime - cleanLastAccessedTime;
+		return touched != 0 && touched >= touchGranularityInMillis;
+	}
+
+	/**
+	 * Marks this {@link MapSession} as not dirty. Subsequently, a change to only the last accessed time is only
+	 * considered dirty if it differs from the current last accessed time by at least the touch granularity.
+	 *
+	 * @param touchGranularityInMillis the number of milliseconds within which a change to only the last accessed time
+	 * is not considered dirty
+	 */
+	void markClean(long touchGranularityInMillis) {
+		this.changed = false;
+		this.cleanLastAccessedTime = lastAccessedTime;
+		this.touchGranularityInMillis = touchGranularityInMillis;
 	}
 
 	/**
@@ -155,6 +308,7 @@ public final class MapSession implements ExpiringSession, Serializable {
 	 * @param creationTime the time that this {@link Session} was created in milliseconds since midnight of 1/1/1970 GMT.
 	 */
 	public void setCreationTime(long creationTime) {
+		this.changed |= (this.creationTime != creationTime);
 		this.creationTime = creationTime;
 	}
 
@@ -164,6 +318,7 @@ public final class MapSession implements ExpiringSession, Serializable {
 	 * @param id the identifier for this session.
 	 */
 	public void setId(String id) {
+		this.changed = true;
 		this.id = id;
 	}
 
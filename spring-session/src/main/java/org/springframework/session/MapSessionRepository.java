@@ -15,11 +15,26 @@
  */
 package org.springframework.session;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.session.events.SessionDeletedEvent;
+import org.springframework.session.events.SessionEvictedEvent;
 import org.springframework.session.events.SessionExpiredEvent;
+import org.springframework.util.Assert;
 
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A {@link SessionRepository} backed by a {@link java.util.Map} and that uses a {@link MapSession}. By default a
@@ -27,25 +42,113 @@ import java.util.concurrent.ConcurrentHashMap;
  * distributed maps provided by NoSQL stores like Redis and Hazelcast.
  *
  * <p>
- * The implementation does NOT support firing {@link SessionDeletedEvent} or {@link SessionExpiredEvent}.
+ * Sessions that are not used anymore are removed when they expire, rather than when they are requested again. The
+ * expiration of every saved session is tracked by a timing wheel that a single background thread advances once a
+ * second, and a {@link SessionExpiredEvent} is published for every session that expired. Since a distributed
+ * {@link java.util.Map} usually expires entries itself and may contain sessions saved by other instances, this is
+ * only enabled by default if the repository is backed by its own {@link java.util.concurrent.ConcurrentHashMap} (see
+ * {@link #setActiveExpiration(boolean)}).
+ * </p>
+ *
+ * <p>
+ * By default the number of sessions is unbounded. To protect the JVM from a burst of new sessions (i.e. created by
+ * bots), the repository can be bounded by a maximum number of sessions ({@link #setMaxSessions(int)}) and an
+ * approximate maximum size ({@link #setMaxSizeInBytes(long)}). When a save exceeds either, sessions are evicted
+ * according to the {@link SessionEvictionPolicy}. An evicted session is saved to the overflow
+ * {@link SessionRepository} if there is one ({@link #setOverflowSessionRepository(SessionRepository)}) and is moved
+ * back when it is requested again. Otherwise it is lost and a {@link SessionEvictedEvent} is published.
+ * </p>
+ *
+ * <p>
+ * The implementation does NOT support firing {@link SessionDeletedEvent}.
  * </p>
  *
  * @author Rob Winch
  * @since 1.0
  */
-public class MapSessionRepository implements SessionRepository<ExpiringSession> {
+public class MapSessionRepository implements LastAccessedTimeSessionRepository<ExpiringSession>, ApplicationEventPublisherAware, DisposableBean {
+	private static final Log logger = LogFactory.getLog(MapSessionRepository.class);
+
+	/**
+	 * The number of milliseconds between two runs of the background thread that removes the expired sessions.
+	 */
+	private static final long EXPIRATION_TICK_IN_MILLIS = 1000;
+
 	/**
 	 * If non-null, this value is used to override {@link ExpiringSession#setMaxInactiveIntervalInSeconds(int)}.
 	 */
 	private Integer defaultMaxInactiveInterval;
 
+	/**
+	 * The number of milliseconds within which a change to only {@link ExpiringSession#getLastAccessedTime()} is not saved.
+	 */
+	private long touchGranularityInMillis;
+
+	/**
+	 * True if a session that was not changed through the {@link Session} API is not saved.
+	 */
+	private boolean saveOnlyChangedSessions;
+
 	private final Map<String,ExpiringSession> sessions;
 
 	/**
-	 * Creates an instance backed by a {@link java.util.concurrent.ConcurrentHashMap}
+	 * The expiration of the sessions. Guarded by itself.
+	 */
+	private final TimingWheel expirations = new TimingWheel(EXPIRATION_TICK_IN_MILLIS, System.currentTimeMillis());
+
+	private boolean activeExpiration;
+
+	/**
+	 * True if the sessions are stored as immutable snapshots that share their attributes with the sessions that are
+	 * read and saved. This is only possible if the {@link java.util.Map} does not copy its values.
+	 */
+	private boolean sharedSnapshots;
+
+	private int maxSessions;
+
+	private long maxSizeInBytes;
+
+	private SessionEvictionPolicy evictionPolicy = SessionEvictionPolicy.LRU;
+
+	/**
+	 * The order the sessions are evicted in if the repository is bounded, else null. Guarded by itself.
+	 */
+	private SessionEvictionQueue evictionQueue;
+
+	private SessionRepository<ExpiringSession> overflowSessionRepository;
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	private volatile ScheduledExecutorService reaper;
+
+	private volatile boolean destroyed;
+
+	private ApplicationEventPublisher eventPublisher = new ApplicationEventPublisher() {
+		public void publishEvent(ApplicationEvent event) {
+		}
+	};
+
+	private final Runnable expirer = new Runnable() {
+		public void run() {
+			try {
+				expireSessions(System.currentTimeMillis());
+			}
+			catch(Throwable ex) {
+				logger.error("Error removing expired sessions", ex);
+			}
+		}
+	};
+
+	/**
+	 * Creates an instance backed by a {@link java.util.concurrent.ConcurrentHashMap} that removes the sessions when
+	 * they expire. Reading and saving a session does not copy its attributes unless they are changed. If two requests
+	 * change the same session concurrently, the changes to the attributes are merged when the session is saved.
 	 */
 	public MapSessionRepository() {
 		this(new ConcurrentHashMap<String, ExpiringSession>());
+		this.activeExpiration = true;
+		this.sharedSnapshots = true;
+		this.saveOnlyChangedSessions = true;
 	}
 
 	/**
@@ -68,24 +171,446 @@ public class MapSessionRepository implements SessionRepository<ExpiringSession>
 		this.defaultMaxInactiveInterval = Integer.valueOf(defaultMaxInactiveInterval);
 	}
 
+	/**
+	 * Sets the number of seconds within which a change to only {@link ExpiringSession#getLastAccessedTime()} is not
+	 * saved. This is useful for distributed maps where every save is a remote write. Since the session expires based
+	 * upon the last accessed time that was saved, a session may expire up to this many seconds early. The default is 0
+	 * which means the session is saved every time. This only applies if {@link #setSaveOnlyChangedSessions(boolean)}
+	 * is true.
+	 *
+	 * @param touchGranularityInSeconds the number of seconds within which only touching a {@link Session} is not saved
+	 */
+	public void setTouchGranularityInSeconds(int touchGranularityInSeconds) {
+		this.touchGranularityInMillis = TimeUnit.SECONDS.toMillis(touchGranularityInSeconds);
+	}
+
+	/**
+	 * Sets if a session that was retrieved from this repository is only saved if it was changed through the
+	 * {@link Session} API (i.e. {@link Session#setAttribute(String, Object)}). This avoids writing sessions that were
+	 * only read, but an attribute value that is modified in place (i.e. an element added to a {@link java.util.List})
+	 * is not saved unless the attribute is set again. The default is true if the repository is backed by its own
+	 * {@link java.util.concurrent.ConcurrentHashMap}, which holds the attribute values by reference, else false.
+	 *
+	 * @param saveOnlyChangedSessions true if only changed sessions are saved, else false
+	 */
+	public void setSaveOnlyChangedSessions(boolean saveOnlyChangedSessions) {
+		this.saveOnlyChangedSessions = saveOnlyChangedSessions;
+	}
+
+	/**
+	 * Sets if sessions are removed by a background thread when they expire. Otherwise, a session is only removed if
+	 * it is requested after it expired. The default is true if the repository is backed by its own
+	 * {@link java.util.concurrent.ConcurrentHashMap}, else false. Only sessions saved by this instance are removed.
+	 * This must be set before the first session is saved.
+	 *
+	 * @param activeExpiration true if sessions are removed when they expire, else false
+	 */
+	public void setActiveExpiration(boolean activeExpiration) {
+		this.activeExpiration = activeExpiration;
+	}
+
+	/**
+	 * Sets the maximum number of sessions. If a save exceeds it, sessions are evicted according to the
+	 * {@link #setEvictionPolicy(SessionEvictionPolicy)}. Only sessions saved by this instance are counted. The
+	 * default is 0 which means the number of sessions is unbounded. This must be set before the first session is
+	 * saved.
+	 *
+	 * @param maxSessions the maximum number of sessions or 0 if unbounded. Cannot be negative.
+	 */
+	public void setMaxSessions(int maxSessions) {
+		Assert.isTrue(maxSessions >= 0, "maxSessions cannot be negative");
+		this.maxSessions = maxSessions;
+		this.evictionQueue = createEvictionQueue();
+	}
+
+	/**
+	 * Sets the approximate maximum number of bytes of heap used by the sessions. If a save exceeds it, sessions are
+	 * evicted according to the {@link #setEvictionPolicy(SessionEvictionPolicy)}. The size of a session is estimated
+	 * every time it is saved, which serializes attribute values other than strings, boxed primitives and arrays of
+	 * bytes and chars. The default is 0 which means the size is unbounded. This must be set before the first session
+	 * is saved.
+	 *
+	 * @param maxSizeInBytes the approximate maximum number of bytes or 0 if unbounded. Cannot be negative.
+	 */
+	public void setMaxSizeInBytes(long maxSizeInBytes) {
+		Assert.isTrue(maxSizeInBytes >= 0, "maxSizeInBytes cannot be negative");
+		this.maxSizeInBytes = maxSizeInBytes;
+		this.evictionQueue = createEvictionQueue();
+	}
+
+	/**
+	 * Sets which sessions are evicted when the repository is bounded. The default is {@link SessionEvictionPolicy#LRU}.
+	 * This must be set before the first session is saved.
+	 *
+	 * @param evictionPolicy the {@link SessionEvictionPolicy} to use. Cannot be null.
+	 */
+	public void setEvictionPolicy(SessionEvictionPolicy evictionPolicy) {
+		Assert.notNull(evictionPolicy, "evictionPolicy cannot be null");
+		this.evictionPolicy = evictionPolicy;
+		this.evictionQueue = createEvictionQueue();
+	}
+
+	/**
+	 * Sets the {@link SessionRepository} evicted sessions are saved to. A session that is requested and not found is
+	 * looked up in it and, if it is found, moved back to this repository. Deleting a session also deletes it from the
+	 * overflow {@link SessionRepository}. The default is null which means evicted sessions are lost.
+	 *
+	 * @param overflowSessionRepository the {@link SessionRepository} evicted sessions are saved to or null
+	 */
+	public void setOverflowSessionRepository(SessionRepository<ExpiringSession> overflowSessionRepository) {
+		this.overflowSessionRepository = overflowSessionRepository;
+	}
+
+	/**
+	 * Gets the number of sessions that were evicted.
+	 *
+	 * @return the number of sessions that were evicted
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * Gets the estimated number of bytes of heap used by the sessions if {@link #setMaxSizeInBytes(long)} is set.
+	 *
+	 * @return the estimated number of bytes or 0 if the size is not bounded
+	 */
+	public long getEstimatedSizeInBytes() {
+		SessionEvictionQueue evictionQueue = this.evictionQueue;
+		if(evictionQueue == null) {
+			return 0;
+		}
+		synchronized(evictionQueue) {
+			return evictionQueue.getSizeInBytes();
+		}
+	}
+
+	/**
+	 * Sets the {@link ApplicationEventPublisher} that is used to publish a {@link SessionExpiredEvent} when a session
+	 * expires and a {@link SessionEvictedEvent} when it is evicted. The default is to not publish any events.
+	 *
+	 * @param applicationEventPublisher the {@link ApplicationEventPublisher} that is used to publish session events.
+	 * Cannot be null.
+	 */
+	public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
+		Assert.notNull(applicationEventPublisher, "applicationEventPublisher cannot be null");
+		this.eventPublisher = applicationEventPublisher;
+	}
+
 	public void save(ExpiringSession session) {
-		sessions.put(session.getId(), new MapSession(session));
+		if(session instanceof MapSession && !((MapSession) session).isDirty()) {
+			return;
+		}
+		store(session);
+		if(evictionQueue != null) {
+			trackEviction(session);
+			evictIfNecessary();
+		}
 	}
 
 	public ExpiringSession getSession(String id) {
 		ExpiringSession saved = sessions.get(id);
 		if(saved == null) {
-			return null;
+			return overflowSessionRepository == null ? null : moveFromOverflow(id);
 		}
 		if(saved.isExpired()) {
-			delete(saved.getId());
+			expire(saved);
 			return null;
 		}
-		return new MapSession(saved);
+		if(evictionQueue != null) {
+			synchronized(evictionQueue) {
+				evictionQueue.touch(id);
+			}
+		}
+		MapSession result = sharedSnapshots && saved instanceof MapSession ? ((MapSession) saved).snapshot() : new MapSession(saved);
+		if(saveOnlyChangedSessions) {
+			result.markClean(touchGranularityInMillis);
+		}
+		return result;
+	}
+
+	public Long getLastAccessedTime(String id) {
+		ExpiringSession saved = sessions.get(id);
+		if(saved == null && overflowSessionRepository != null) {
+			saved = overflowSessionRepository.getSession(id);
+		}
+		return saved == null ? null : saved.getLastAccessedTime();
 	}
 
 	public void delete(String id) {
+		// the expiration is left in the timing wheel, so that it cannot be cancelled for a session saved concurrently
 		sessions.remove(id);
+		if(evictionQueue != null) {
+			synchronized(evictionQueue) {
+				evictionQueue.remove(id);
+			}
+		}
+		if(overflowSessionRepository != null) {
+			overflowSessionRepository.delete(id);
+		}
+	}
+
+	/**
+	 * Stops the background thread that removes the expired sessions.
+	 */
+	public void destroy() {
+		this.destroyed = true;
+		synchronized(this) {
+			if(reaper != null) {
+				reaper.shutdown();
+				reaper = null;
+			}
+		}
+	}
+
+	/**
+	 * Removes the sessions that expired and publishes a {@link SessionExpiredEvent} for each of them. This is invoked
+	 * once a second by a background thread.
+	 *
+	 * @param now the current time in milliseconds
+	 */
+	void expireSessions(long now) {
+		List<String> expiredIds;
+		synchronized(expirations) {
+			expiredIds = expirations.advance(now);
+		}
+		for(String id : expiredIds) {
+			ExpiringSession saved = sessions.get(id);
+			if(saved == null) {
+				continue;
+			}
+			if(isExpired(saved, now)) {
+				expire(saved);
+			} else {
+				// the session was changed in the Map without being saved by this instance
+				scheduleExpiration(saved);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of sessions whose expiration is tracked.
+	 *
+	 * @return the number of sessions whose expiration is tracked
+	 */
+	int getScheduledExpirationCount() {
+		synchronized(expirations) {
+			return expirations.size();
+		}
+	}
+
+	/**
+	 * Stores the session and tracks its expiration.
+	 *
+	 * @param session the session to store
+	 */
+	private void store(ExpiringSession session) {
+		if(sharedSnapshots && session instanceof MapSession) {
+			saveSnapshot((MapSession) session);
+		} else {
+			sessions.put(session.getId(), new MapSession(session));
+		}
+		if(activeExpiration) {
+			scheduleExpiration(session);
+			if(reaper == null) {
+				startReaper();
+			}
+		}
+	}
+
+	/**
+	 * Adds the session to the eviction queue, or moves it to the back of the queue.
+	 *
+	 * @param session the session that was stored
+	 */
+	private void trackEviction(ExpiringSession session) {
+		long size = maxSizeInBytes > 0 ? SessionSizeEstimator.estimateSize(session) : 0;
+		synchronized(evictionQueue) {
+			evictionQueue.add(session.getId(), size);
+		}
+	}
+
+	/**
+	 * Stores a snapshot of the session. If the session was saved by another request since it was read, the changes to
+	 * the attributes are merged into the latest snapshot. A snapshot is only replaced while holding its monitor.
+	 *
+	 * @param session the session to save
+	 */
+	private void saveSnapshot(MapSession session) {
+		ConcurrentMap<String,ExpiringSession> snapshots = (ConcurrentMap<String,ExpiringSession>) sessions;
+		String id = session.getId();
+		while(true) {
+			ExpiringSession current = snapshots.get(id);
+			if(current == null) {
+				MapSession snapshot = session.snapshot();
+				long version = session.getVersion() + 1;
+				snapshot.setVersion(version);
+				if(snapshots.putIfAbsent(id, snapshot) == null) {
+					session.markSaved(version);
+					return;
+				}
+				continue;
+			}
+			synchronized(current) {
+				if(snapshots.get(id) != current) {
+					continue;
+				}
+				long currentVersion = current instanceof MapSession ? ((MapSession) current).getVersion() : 0;
+				boolean conflict = currentVersion != session.getVersion();
+				MapSession snapshot = conflict ? session.merge(current) : session.snapshot();
+				snapshot.setVersion(currentVersion + 1);
+				snapshots.put(id, snapshot);
+				// after a merge the session no longer matches any snapshot, so it is merged again if saved again
+				session.markSaved(conflict ? -1 : currentVersion + 1);
+				return;
+			}
+		}
+	}
+
+	private void scheduleExpiration(ExpiringSession session) {
+		int maxInactiveInterval = session.getMaxInactiveIntervalInSeconds();
+		synchronized(expirations) {
+			if(maxInactiveInterval < 0) {
+				expirations.cancel(session.getId());
+			} else {
+				expirations.schedule(session.getId(), session.getLastAccessedTime() + TimeUnit.SECONDS.toMillis(maxInactiveInterval));
+			}
+		}
+	}
+
+	/**
+	 * Removes an expired session unless it was replaced concurrently.
+	 *
+	 * @param saved the session to remove
+	 */
+	private void expire(ExpiringSession saved) {
+		String id = saved.getId();
+		if(!remove(saved)) {
+			return;
+		}
+		if(evictionQueue != null) {
+			synchronized(evictionQueue) {
+				evictionQueue.remove(id);
+			}
+		}
+		publishEvent(new SessionExpiredEvent(this, saved));
+	}
+
+	/**
+	 * Removes a session unless it was replaced concurrently. A snapshot is only removed while holding its monitor, like
+	 * it is only replaced while holding it.
+	 *
+	 * @param saved the session to remove
+	 * @return true if the session was removed
+	 */
+	private boolean remove(ExpiringSession saved) {
+		String id = saved.getId();
+		if(sharedSnapshots) {
+			synchronized(saved) {
+				return sessions.get(id) == saved && sessions.remove(id) != null;
+			}
+		}
+		if(sessions instanceof ConcurrentMap) {
+			return ((ConcurrentMap<String,ExpiringSession>) sessions).remove(id, saved);
+		}
+		return sessions.remove(id) != null;
+	}
+
+	/**
+	 * Evicts sessions until the repository is within its bounds.
+	 */
+	private void evictIfNecessary() {
+		while(true) {
+			String id;
+			synchronized(evictionQueue) {
+				boolean exceeded = (maxSessions > 0 && evictionQueue.size() > maxSessions)
+						|| (maxSizeInBytes > 0 && evictionQueue.getSizeInBytes() > maxSizeInBytes);
+				id = exceeded ? evictionQueue.peek() : null;
+				if(id == null) {
+					return;
+				}
+				evictionQueue.remove(id);
+			}
+			evict(id);
+		}
+	}
+
+	private void evict(String id) {
+		ExpiringSession evicted;
+		do {
+			evicted = sessions.get(id);
+			if(evicted == null) {
+				return;
+			}
+		}
+		// retried if the session was saved concurrently, since it was already removed from the eviction queue
+		while(!remove(evicted));
+		evictions.incrementAndGet();
+		if(overflowSessionRepository != null) {
+			try {
+				overflowSessionRepository.save(new MapSession(evicted));
+				return;
+			}
+			catch(RuntimeException ex) {
+				logger.error("Error saving evicted session " + id + " to the overflow SessionRepository.", ex);
+			}
+		}
+		publishEvent(new SessionEvictedEvent(this, evicted));
+	}
+
+	/**
+	 * Moves a session that was evicted back from the overflow {@link SessionRepository}.
+	 *
+	 * @param id the id of the session
+	 * @return the session or null if it was not found
+	 */
+	private ExpiringSession moveFromOverflow(String id) {
+		ExpiringSession overflow = overflowSessionRepository.getSession(id);
+		if(overflow == null) {
+			// moved back by a concurrent request
+			return sessions.containsKey(id) ? getSession(id) : null;
+		}
+		MapSession result = new MapSession(overflow);
+		// stored before it is deleted from the overflow, so that a concurrent request finds it in either of them, but
+		// only tracked for eviction afterwards, so that it is not deleted from the overflow after it was evicted again
+		store(result);
+		overflowSessionRepository.delete(id);
+		if(evictionQueue != null) {
+			trackEviction(result);
+			evictIfNecessary();
+		}
+		if(saveOnlyChangedSessions) {
+			result.markClean(touchGranularityInMillis);
+		}
+		return result;
+	}
+
+	private void publishEvent(ApplicationEvent event) {
+		try {
+			eventPublisher.publishEvent(event);
+		}
+		catch(Throwable ex) {
+			logger.error("Error publishing " + event + ".", ex);
+		}
+	}
+
+	private SessionEvictionQueue createEvictionQueue() {
+		return maxSessions > 0 || maxSizeInBytes > 0 ? new SessionEvictionQueue(evictionPolicy) : null;
+	}
+
+	private static boolean isExpired(ExpiringSession session, long now) {
+		int maxInactiveInterval = session.getMaxInactiveIntervalInSeconds();
+		return maxInactiveInterval >= 0 && now - TimeUnit.SECONDS.toMillis(maxInactiveInterval) >= session.getLastAccessedTime();
+	}
+
+	private synchronized void startReaper() {
+		if(reaper != null || destroyed) {
+			return;
+		}
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("spring-session-expiration-");
+		threadFactory.setDaemon(true);
+		reaper = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		reaper.scheduleWithFixedDelay(expirer, EXPIRATION_TICK_IN_MILLIS, EXPIRATION_TICK_IN_MILLIS, TimeUnit.MILLISECONDS);
 	}
 
 	public ExpiringSession createSession() {
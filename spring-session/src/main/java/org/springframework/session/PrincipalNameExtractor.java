@@ -0,0 +1,48 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+/**
+ * Determines the principal name of a {@link Session} that a
+ * {@link FindByIndexNameSessionRepository} indexes the session by.
+ * Implementations are invoked whenever a session is saved with a changed
+ * principal, so they should prepare any expensive work (i.e. parsing an
+ * expression) up front.
+ *
+ * @author agent
+ * @since 1.1
+ * @see DefaultPrincipalNameExtractor
+ * @see SpelPrincipalNameExtractor
+ */
+public interface PrincipalNameExtractor {
+
+	/**
+	 * Gets the principal name of the session.
+	 *
+	 * @param session the {@link Session} to get the principal name of
+	 * @return the principal name or null if the session has no principal
+	 */
+	String extractPrincipalName(Session session);
+
+	/**
+	 * Determines if changing the attribute can change the principal name. The
+	 * principal name is only determined again if such an attribute changed.
+	 *
+	 * @param attributeName the name of the attribute
+	 * @return true if the principal name depends on the attribute, else false
+	 */
+	boolean isPrincipalAttribute(String attributeName);
+}
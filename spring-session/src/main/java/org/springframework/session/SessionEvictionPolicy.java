@@ -0,0 +1,39 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+/**
+ * Determines which session {@link MapSessionRepository} evicts when it
+ * exceeds its maximum number of sessions or its maximum size.
+ *
+ * @author agent
+ * @since 1.1
+ * @see MapSessionRepository#setEvictionPolicy(SessionEvictionPolicy)
+ */
+public enum SessionEvictionPolicy {
+	/**
+	 * The session that was least recently read or saved is evicted.
+	 */
+	LRU,
+
+	/**
+	 * The session that was read the least number of times is evicted. Of the
+	 * sessions that were read equally often, the least recently added one is
+	 * evicted. This protects the sessions of returning users from a burst of
+	 * sessions that are used only once (i.e. created by bots).
+	 */
+	LFU
+}
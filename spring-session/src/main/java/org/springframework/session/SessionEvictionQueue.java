@@ -0,0 +1,229 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Keeps track of the order in which sessions are evicted according to a
+ * {@link SessionEvictionPolicy}, along with the estimated size of the
+ * sessions. Every operation takes constant time.
+ * </p>
+ *
+ * <p>
+ * The sessions are kept in buckets of sessions that were read equally often,
+ * ordered by that frequency. Within a bucket, the sessions are ordered by when
+ * they were added to it. For {@link SessionEvictionPolicy#LRU} there is a
+ * single bucket and every access moves the session to its end. Instances are
+ * not thread safe.
+ * </p>
+ *
+ * @author agent
+ * @since 1.1
+ */
+final class SessionEvictionQueue {
+	private final boolean leastFrequentlyUsed;
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	/**
+	 * The sentinel of the circular list of buckets ordered by ascending frequency.
+	 */
+	private final Bucket buckets = new Bucket(0);
+
+	private long sizeInBytes;
+
+	/**
+	 * Creates a new instance
+	 *
+	 * @param policy the policy that determines the order sessions are evicted in
+	 */
+	SessionEvictionQueue(SessionEvictionPolicy policy) {
+		this.leastFrequentlyUsed = policy == SessionEvictionPolicy.LFU;
+	}
+
+	/**
+	 * Adds a session that was saved or updates its size if it was added before.
+	 *
+	 * @param id the id of the session
+	 * @param size the estimated size of the session in bytes
+	 */
+	void add(String id, long size) {
+		Entry entry = this.entries.get(id);
+		if(entry == null) {
+			entry = new Entry(id);
+			this.entries.put(id, entry);
+			Bucket first = this.buckets.next;
+			if(first == this.buckets || first.frequency != 1) {
+				first = new Bucket(1);
+				first.linkAfter(this.buckets);
+			}
+			entry.linkInto(first);
+		} else if(!this.leastFrequentlyUsed) {
+			moveToEnd(entry);
+		}
+		this.sizeInBytes += size - entry.size;
+		entry.size = size;
+	}
+
+	/**
+	 * Records that a session was read.
+	 *
+	 * @param id the id of the session
+	 */
+	void touch(String id) {
+		Entry entry = this.entries.get(id);
+		if(entry == null) {
+			return;
+		}
+		if(!this.leastFrequentlyUsed) {
+			moveToEnd(entry);
+			return;
+		}
+		Bucket bucket = entry.bucket;
+		if(bucket.frequency == Integer.MAX_VALUE) {
+			return;
+		}
+		Bucket next = bucket.next;
+		if(next == this.buckets || next.frequency != bucket.frequency + 1) {
+			next = new Bucket(bucket.frequency + 1);
+			next.linkAfter(bucket);
+		}
+		unlink(entry);
+		entry.linkInto(next);
+	}
+
+	/**
+	 * Removes a session.
+	 *
+	 * @param id the id of the session
+	 */
+	void remove(String id) {
+		Entry entry = this.entries.remove(id);
+		if(entry != null) {
+			unlink(entry);
+			this.sizeInBytes -= entry.size;
+		}
+	}
+
+	/**
+	 * Gets the id of the session that should be evicted next.
+	 *
+	 * @return the id of the session or null if there are no sessions
+	 */
+	String peek() {
+		Bucket first = this.buckets.next;
+		return first == this.buckets ? null : first.entries.next.id;
+	}
+
+	/**
+	 * Gets the number of sessions.
+	 *
+	 * @return the number of sessions
+	 */
+	int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Gets the sum of the estimated sizes of the sessions.
+	 *
+	 * @return the estimated size in bytes
+	 */
+	long getSizeInBytes() {
+		return this.sizeInBytes;
+	}
+
+	private void moveToEnd(Entry entry) {
+		Bucket bucket = entry.bucket;
+		entry.unlink();
+		entry.linkInto(bucket);
+	}
+
+	/**
+	 * Unlinks the entry from its bucket and drops the bucket if it became empty.
+	 */
+	private void unlink(Entry entry) {
+		Bucket bucket = entry.bucket;
+		entry.unlink();
+		if(bucket.entries.next == bucket.entries) {
+			bucket.unlink();
+		}
+	}
+
+	private static final class Bucket {
+		private final int frequency;
+
+		/**
+		 * The sentinel of the circular list of entries.
+		 */
+		private final Entry entries = new Entry(null);
+
+		private Bucket prev = this;
+
+		private Bucket next = this;
+
+		Bucket(int frequency) {
+			this.frequency = frequency;
+		}
+
+		void linkAfter(Bucket bucket) {
+			this.prev = bucket;
+			this.next = bucket.next;
+			bucket.next.prev = this;
+			bucket.next = this;
+		}
+
+		void unlink() {
+			this.prev.next = this.next;
+			this.next.prev = this.prev;
+		}
+	}
+
+	private static final class Entry {
+		private final String id;
+
+		private long size;
+
+		private Bucket bucket;
+
+		private Entry prev = this;
+
+		private Entry next = this;
+
+		Entry(String id) {
+			this.id = id;
+		}
+
+		void linkInto(Bucket bucket) {
+			Entry sentinel = bucket.entries;
+			this.bucket = bucket;
+			this.prev = sentinel.prev;
+			this.next = sentinel;
+			sentinel.prev.next = this;
+			sentinel.prev = this;
+		}
+
+		void unlink() {
+			this.prev.next = this.next;
+			this.next.prev = this.prev;
+			this.prev = this;
+			this.next = this;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * <p>
+ * Estimates the number of bytes of heap a session occupies. Strings, boxed
+ * primitives and arrays of bytes and chars are estimated from their length.
+ * Any other {@link Serializable} attribute value is estimated by the length of
+ * its serialized form, which is counted without being buffered. Values that
+ * cannot be serialized are assumed to have a fixed size.
+ * </p>
+ *
+ * <p>
+ * The estimate is meant to bound the memory used by many sessions rather than
+ * to measure a single session exactly.
+ * </p>
+ *
+ * @author agent
+ * @since 1.1
+ */
+final class SessionSizeEstimator {
+	/**
+	 * The size of a session without attributes, including its attribute Map.
+	 */
+	static final int SESSION_SIZE = 200;
+
+	/**
+	 * The size of an entry of the attribute Map without the name and value.
+	 */
+	static final int ATTRIBUTE_SIZE = 48;
+
+	/**
+	 * The size assumed for a value that cannot be serialized.
+	 */
+	static final int UNKNOWN_VALUE_SIZE = 1024;
+
+	private static final int OBJECT_SIZE = 16;
+
+	private SessionSizeEstimator() {
+	}
+
+	/**
+	 * Estimates the size of the session.
+	 *
+	 * @param session the session to estimate
+	 * @return the estimated size in bytes
+	 */
+	static long estimateSize(ExpiringSession session) {
+		long size = SESSION_SIZE;
+		for(String attributeName : session.getAttributeNames()) {
+			size += ATTRIBUTE_SIZE + estimateSize(attributeName) + estimateSize(session.getAttribute(attributeName));
+		}
+		return size;
+	}
+
+	static long estimateSize(Object value) {
+		if(value == null || value instanceof Enum<?> || value instanceof Boolean) {
+			// shared instances
+			return 0;
+		}
+		if(value instanceof String) {
+			return 2 * OBJECT_SIZE + 2L * ((String) value).length();
+		}
+		if(value instanceof Number || value instanceof Character) {
+			return OBJECT_SIZE + 8;
+		}
+		if(value instanceof byte[]) {
+			return OBJECT_SIZE + ((byte[]) value).length;
+		}
+		if(value instanceof char[]) {
+			return OBJECT_SIZE + 2L * ((char[]) value).length;
+		}
+		if(!(value instanceof Serializable)) {
+			return UNKNOWN_VALUE_SIZE;
+		}
+		CountingOutputStream counter = new CountingOutputStream();
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(counter);
+			out.writeObject(value);
+			out.flush();
+			return counter.count;
+		}
+		catch(IOException ex) {
+			// i.e. a value that contains something that is not Serializable
+			return UNKNOWN_VALUE_SIZE;
+		}
+	}
+
+	private static final class CountingOutputStream extends OutputStream {
+		private long count;
+
+		@Override
+		public void write(int b) {
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			this.count += len;
+		}
+	}
+}
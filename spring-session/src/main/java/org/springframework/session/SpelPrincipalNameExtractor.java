@@ -0,0 +1,83 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.util.Assert;
+
+/**
+ * <p>
+ * A {@link PrincipalNameExtractor} that evaluates a SpEL expression against the
+ * value of a single session attribute. For example, the following resolves the
+ * name of a custom user object stored in the "user" attribute:
+ * </p>
+ *
+ * <pre>
+ * new SpelPrincipalNameExtractor("user", "account?.login");
+ * </pre>
+ *
+ * <p>
+ * The expression is parsed once when the instance is created and is compiled
+ * to byte code once it has been evaluated a few times (see
+ * {@link SpelCompilerMode#MIXED}).
+ * </p>
+ *
+ * @author agent
+ * @since 1.1
+ */
+public class SpelPrincipalNameExtractor implements PrincipalNameExtractor {
+	private final String attributeName;
+
+	private final Expression expression;
+
+	/**
+	 * Creates a new instance
+	 *
+	 * @param attributeName the name of the session attribute the expression is evaluated against. Cannot be null or
+	 * empty.
+	 * @param expression the SpEL expression that resolves the principal name from the attribute value. Cannot be null
+	 * or empty.
+	 */
+	public SpelPrincipalNameExtractor(String attributeName, String expression) {
+		Assert.hasText(attributeName, "attributeName cannot be null or empty");
+		Assert.hasText(expression, "expression cannot be null or empty");
+		this.attributeName = attributeName;
+		SpelParserConfiguration configuration = new SpelParserConfiguration(SpelCompilerMode.MIXED, getClass().getClassLoader());
+		this.expression = new SpelExpressionParser(configuration).parseExpression(expression);
+	}
+
+	public String extractPrincipalName(Session session) {
+		Object value = session.getAttribute(this.attributeName);
+		return value == null ? null : getValue(value);
+	}
+
+	public boolean isPrincipalAttribute(String attributeName) {
+		return this.attributeName.equals(attributeName);
+	}
+
+	/**
+	 * Evaluates the expression.
+	 *
+	 * @param value the attribute value to evaluate the expression against
+	 * @return the principal name
+	 */
+	String getValue(Object value) {
+		return this.expression.getValue(value, String.class);
+	}
+}
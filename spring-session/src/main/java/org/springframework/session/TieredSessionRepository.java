@@ -0,0 +1,374 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+/**
+ * <p>
+ * A {@link SessionRepository} that keeps a bounded number of sessions in the
+ * JVM (the local tier) in front of another {@link SessionRepository} (the
+ * remote tier, i.e. RedisOperationsSessionRepository or
+ * GemFireOperationsSessionRepository). Every save is written through to the
+ * remote tier, so the remote tier always has the latest state of a session.
+ * </p>
+ *
+ * <p>
+ * Since another JVM may have changed or deleted a session since its local
+ * copy was kept, the local copy is only used after reading the last accessed
+ * time of the session from the remote tier. If the session no longer exists,
+ * it is not found. If it was accessed after the local copy, the session is
+ * read from the remote tier and replaces the local copy. This requires the
+ * remote tier to be a {@link LastAccessedTimeSessionRepository} (i.e.
+ * RedisOperationsSessionRepository, which reads a single field of the session
+ * hash). For any other remote tier every session is read from the remote tier.
+ * </p>
+ *
+ * <p>
+ * The route that
+ * {@link org.springframework.session.web.http.DefaultCookieSerializer#setJvmRoute(String)}
+ * appends to the session cookie saves the check when the load balancer fails
+ * over to this JVM. The cookie serializer removes the route from the session
+ * id only if it is the route of this JVM, so:
+ * </p>
+ *
+ * <ul>
+ * <li>A session id that still ends with a route was last written by another
+ * JVM. The session is read from the remote tier without checking the local
+ * copy. Since the id of the returned session no longer has the route, the
+ * session cookie is written again with the route of this JVM and the load
+ * balancer sticks to this JVM from then on.</li>
+ * <li>Nothing is known about a session id without a route (i.e. the cookie
+ * was written before routes were used), so the local copy is checked as
+ * described above.</li>
+ * </ul>
+ *
+ * <p>
+ * The route must be set to the same value as the
+ * {@link org.springframework.session.web.http.DefaultCookieSerializer}:
+ * </p>
+ *
+ * <pre>
+ * {@literal @Bean}
+ * {@literal @Primary}
+ * public TieredSessionRepository&lt;RedisSession&gt; tieredSessionRepository(RedisOperationsSessionRepository sessionRepository) {
+ *     TieredSessionRepository&lt;RedisSession&gt; tieredSessionRepository = new TieredSessionRepository&lt;RedisSession&gt;(sessionRepository);
+ *     tieredSessionRepository.setJvmRoute(jvmRoute);
+ *     return tieredSessionRepository;
+ * }
+ * </pre>
+ *
+ * <p>
+ * Routes assume session ids do not contain a ".", which is true for the ids
+ * of every {@link SessionRepository} provided by Spring Session.
+ * </p>
+ *
+ * @param <S> the type of {@link ExpiringSession} stored by the remote tier
+ * @author agent
+ * @since 1.1
+ */
+public class TieredSessionRepository<S extends ExpiringSession> implements SessionRepository<ExpiringSession> {
+	/**
+	 * The default maximum number of sessions kept in the JVM.
+	 */
+	public static final int DEFAULT_MAX_LOCAL_SESSIONS = 10000;
+
+	private static final Log logger = LogFactory.getLog(TieredSessionRepository.class);
+
+	private final SessionRepository<S> remote;
+
+	/**
+	 * The sessions kept in the JVM in least recently used order.
+	 */
+	private final Map<String, LocalSession> sessions = Collections.synchronizedMap(new LinkedHashMap<String, LocalSession>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, LocalSession> eldest) {
+			return size() > maxLocalSessions;
+		}
+	});
+
+	private volatile int maxLocalSessions = DEFAULT_MAX_LOCAL_SESSIONS;
+
+	private String jvmRoute;
+
+	private final AtomicLong localHits = new AtomicLong();
+
+	private final AtomicLong localMisses = new AtomicLong();
+
+	private final AtomicLong remoteReads = new AtomicLong();
+
+	private final AtomicLong remoteChecks = new AtomicLong();
+
+	/**
+	 * Creates a new instance
+	 *
+	 * @param remote the {@link SessionRepository} the sessions are read from and written to. Cannot be null.
+	 */
+	public TieredSessionRepository(SessionRepository<S> remote) {
+		Assert.notNull(remote, "remote cannot be null");
+		this.remote = remote;
+	}
+
+	/**
+	 * Sets the route of this JVM. This must be the same value that is set with
+	 * {@link org.springframework.session.web.http.DefaultCookieSerializer#setJvmRoute(String)}. The default is null
+	 * which means the local copy of every session is checked against the remote tier.
+	 *
+	 * @param jvmRoute the route of this JVM
+	 */
+	public void setJvmRoute(String jvmRoute) {
+		this.jvmRoute = jvmRoute == null ? null : "." + jvmRoute;
+	}
+
+	/**
+	 * Sets the maximum number of sessions that are kept in the JVM. If more sessions are used, the least recently
+	 * used session is dropped from the JVM and read from the remote tier the next time it is used. The default is
+	 * {@link #DEFAULT_MAX_LOCAL_SESSIONS}.
+	 *
+	 * @param maxLocalSessions the maximum number of sessions kept in the JVM. Must be greater than 0.
+	 */
+	public void setMaxLocalSessions(int maxLocalSessions) {
+		Assert.isTrue(maxLocalSessions > 0, "maxLocalSessions must be greater than 0");
+		this.maxLocalSessions = maxLocalSessions;
+	}
+
+	/**
+	 * Gets the number of sessions that were served from the JVM.
+	 *
+	 * @return the number of sessions served from the JVM
+	 */
+	public long getLocalHitCount() {
+		return this.localHits.get();
+	}
+
+	/**
+	 * Gets the number of sessions that could not be served from the JVM, either because they were not kept in the
+	 * JVM, because the route did not match or because the session was changed by another JVM.
+	 *
+	 * @return the number of sessions that could not be served from the JVM
+	 */
+	public long getLocalMissCount() {
+		return this.localMisses.get();
+	}
+
+	/**
+	 * Gets the number of sessions that were read from the remote tier.
+	 *
+	 * @return the number of sessions read from the remote tier
+	 */
+	public long getRemoteReadCount() {
+		return this.remoteReads.get();
+	}
+
+	/**
+	 * Gets the number of times the last accessed time of a session was read from the remote tier to check the local
+	 * copy.
+	 *
+	 * @return the number of checks against the remote tier
+	 */
+	public long getRemoteCheckCount() {
+		return this.remoteChecks.get();
+	}
+
+	/**
+	 * Gets the number of sessions that are kept in the JVM.
+	 *
+	 * @return the number of sessions kept in the JVM
+	 */
+	public int getLocalSessionCount() {
+		return this.sessions.size();
+	}
+
+	public ExpiringSession createSession() {
+		S target = this.remote.createSession();
+		ChangeTrackingSession result = new ChangeTrackingSession(new MapSession(target));
+		result.target = target;
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	public void save(ExpiringSession session) {
+		if(session instanceof DirtyTrackingSession && !((DirtyTrackingSession) session).isDirty()) {
+			return;
+		}
+		String id = session.getId();
+		LocalSession local = this.sessions.get(id);
+		if(local == null) {
+			S target = session instanceof ChangeTrackingSession ? (S) ((ChangeTrackingSession) session).target : null;
+			if(target == null) {
+				// the session was dropped from the JVM since it was read
+				target = readRemote(id);
+				if(target == null) {
+					if(logger.isDebugEnabled()) {
+						logger.debug("Not saving session " + id + " since it no longer exists in the remote tier");
+					}
+					return;
+				}
+			}
+			local = putLocal(new LocalSession(new MapSession(target), target));
+		}
+		try {
+			local.save(session);
+		}
+		catch(RuntimeException ex) {
+			// the local copy may contain changes the remote tier does not have
+			this.sessions.remove(id);
+			throw ex;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public ExpiringSession getSession(String id) {
+		int routeIndex = this.jvmRoute == null ? -1 : id.lastIndexOf('.');
+		if(routeIndex >= 0) {
+			String sessionId = id.substring(0, routeIndex);
+			if(!this.jvmRoute.equals(id.substring(routeIndex))) {
+				// last written by another JVM
+				this.localMisses.incrementAndGet();
+				return loadRemote(sessionId);
+			}
+			id = sessionId;
+		}
+
+		LocalSession local = this.sessions.get(id);
+		if(local == null || !(this.remote instanceof LastAccessedTimeSessionRepository)) {
+			this.localMisses.incrementAndGet();
+			return loadRemote(id);
+		}
+		this.remoteChecks.incrementAndGet();
+		Long remoteLastAccessedTime = ((LastAccessedTimeSessionRepository<S>) this.remote).getLastAccessedTime(id);
+		if(remoteLastAccessedTime == null) {
+			// deleted by another JVM
+			this.sessions.remove(id);
+			return null;
+		}
+		if(!local.isCurrent(remoteLastAccessedTime)) {
+			// changed by another JVM
+			this.localMisses.incrementAndGet();
+			return loadRemote(id);
+		}
+		MapSession copy = local.copy();
+		if(copy == null) {
+			this.sessions.remove(id);
+			return null;
+		}
+		this.localHits.incrementAndGet();
+		copy.markClean(0);
+		return new ChangeTrackingSession(copy);
+	}
+
+	public void delete(String id) {
+		this.sessions.remove(id);
+		this.remote.delete(id);
+	}
+
+	/**
+	 * Reads the session from the remote tier and replaces the local copy with it.
+	 *
+	 * @param id the id of the session
+	 * @return a copy of the session or null if it does not exist
+	 */
+	private ExpiringSession loadRemote(String id) {
+		S loaded = readRemote(id);
+		if(loaded == null) {
+			this.sessions.remove(id);
+			return null;
+		}
+		MapSession session = new MapSession(loaded);
+		this.sessions.put(id, new LocalSession(new MapSession(session), loaded));
+		session.markClean(0);
+		return new ChangeTrackingSession(session);
+	}
+
+	private S readRemote(String id) {
+		this.remoteReads.incrementAndGet();
+		return this.remote.getSession(id);
+	}
+
+	private LocalSession putLocal(LocalSession local) {
+		String id = local.session.getId();
+		synchronized(this.sessions) {
+			LocalSession existing = this.sessions.get(id);
+			if(existing != null) {
+				return existing;
+			}
+			this.sessions.put(id, local);
+			return local;
+		}
+	}
+
+	/**
+	 * The copy of a session that is kept in the JVM along with the session of the remote tier that the changes are
+	 * written to.
+	 */
+	private final class LocalSession {
+		private final MapSession session;
+
+		private final S target;
+
+		LocalSession(MapSession session, S target) {
+			this.session = session;
+			this.target = target;
+		}
+
+		/**
+		 * Applies the changes of a saved session to the local copy and writes them to the remote tier.
+		 *
+		 * @param saved the session that was saved
+		 */
+		synchronized void save(ExpiringSession saved) {
+			LocalSessionSupport.write(this.session, LocalSessionSupport.merge(this.session, saved), this.target);
+
+			remote.save(this.target);
+
+			if(saved instanceof ChangeTrackingSession) {
+				((ChangeTrackingSession) saved).markClean();
+			}
+		}
+
+		/**
+		 * Determines if the local copy has every change of the remote tier. The remote tier may have an older last
+		 * accessed time, since it may skip saves that only update the last accessed time.
+		 *
+		 * @param remoteLastAccessedTime the last accessed time of the session in the remote tier
+		 * @return true if the session was not accessed by another JVM since the local copy was kept
+		 */
+		synchronized boolean isCurrent(long remoteLastAccessedTime) {
+			return remoteLastAccessedTime <= this.session.getLastAccessedTime();
+		}
+
+		/**
+		 * Copies the session unless it is expired.
+		 *
+		 * @return a copy of the session or null if it is expired
+		 */
+		synchronized MapSession copy() {
+			if(this.session.isExpired()) {
+				return null;
+			}
+			return new MapSession(this.session);
+		}
+	}
+}
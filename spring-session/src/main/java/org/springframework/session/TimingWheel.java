@@ -0,0 +1,225 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A hierarchical timing wheel that keeps track of when the sessions with a
+ * given id expire. Scheduling, rescheduling and cancelling the expiration of a
+ * session takes constant time regardless of the number of sessions.
+ * </p>
+ *
+ * <p>
+ * Time is divided into ticks. The wheel has 4 levels of 64 slots each. A
+ * slot of the first level holds the sessions that expire within a single
+ * tick, a slot of the next level those that expire within 64 ticks and so
+ * on. Whenever the first level completes a revolution, the sessions of the
+ * next slot of the level above are moved down. Expirations that are further
+ * away than the wheel can represent (about 194 days with one second ticks)
+ * are parked in the last level and moved down once they are within range.
+ * </p>
+ *
+ * <p>
+ * The expiration of a session is never reported early, but may be reported up
+ * to one tick late. Instances are not thread safe.
+ * </p>
+ *
+ * @author agent
+ * @since 1.1
+ */
+final class TimingWheel {
+	private static final int SLOT_BITS = 6;
+
+	private static final int SLOTS = 1 << SLOT_BITS;
+
+	private static final int SLOT_MASK = SLOTS - 1;
+
+	private static final int LEVELS = 4;
+
+	private static final long MAX_TICKS = 1L << (SLOT_BITS * LEVELS);
+
+	private final long tickInMillis;
+
+	/**
+	 * The sentinel of the circular list of each slot.
+	 */
+	private final Entry[][] slots = new Entry[LEVELS][SLOTS];
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	/**
+	 * The next tick to process.
+	 */
+	private long currentTick;
+
+	/**
+	 * Creates a new instance
+	 *
+	 * @param tickInMillis the number of milliseconds of a tick
+	 * @param now the current time in milliseconds
+	 */
+	TimingWheel(long tickInMillis, long now) {
+		this.tickInMillis = tickInMillis;
+		this.currentTick = now / tickInMillis;
+		for(int level = 0; level < LEVELS; level++) {
+			for(int index = 0; index < SLOTS; index++) {
+				this.slots[level][index] = new Entry(null);
+			}
+		}
+	}
+
+	/**
+	 * Schedules the expiration of a session, replacing the previous expiration of the session if there is one.
+	 *
+	 * @param id the id of the session
+	 * @param expirationTime the time in milliseconds the session expires at
+	 */
+	void schedule(String id, long expirationTime) {
+		Entry entry = this.entries.get(id);
+		if(entry == null) {
+			entry = new Entry(id);
+			this.entries.put(id, entry);
+		} else {
+			entry.unlink();
+		}
+		// round up, so that the expiration is never reported early
+		entry.expirationTick = (expirationTime + this.tickInMillis - 1) / this.tickInMillis;
+		link(entry);
+	}
+
+	/**
+	 * Cancels the expiration of a session.
+	 *
+	 * @param id the id of the session
+	 */
+	void cancel(String id) {
+		Entry entry = this.entries.remove(id);
+		if(entry != null) {
+			entry.unlink();
+		}
+	}
+
+	/**
+	 * Gets the number of sessions that are scheduled to expire.
+	 *
+	 * @return the number of sessions that are scheduled to expire
+	 */
+	int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Advances the wheel to the current time and removes the sessions that expired.
+	 *
+	 * @param now the current time in milliseconds
+	 * @return the ids of the sessions that expired
+	 */
+	List<String> advance(long now) {
+		long nowTick = now / this.tickInMillis;
+		List<String> expired = new ArrayList<String>();
+		if(this.entries.isEmpty()) {
+			this.currentTick = Math.max(this.currentTick, nowTick + 1);
+			return expired;
+		}
+		while(this.currentTick <= nowTick) {
+			int index = (int) (this.currentTick & SLOT_MASK);
+			if(index == 0) {
+				cascade();
+			}
+			Entry sentinel = this.slots[0][index];
+			while(sentinel.next != sentinel) {
+				Entry entry = sentinel.next;
+				entry.unlink();
+				this.entries.remove(entry.id);
+				expired.add(entry.id);
+			}
+			this.currentTick++;
+		}
+		return expired;
+	}
+
+	/**
+	 * Moves the sessions of the current slot of the higher levels down.
+	 */
+	private void cascade() {
+		for(int level = 1; level < LEVELS; level++) {
+			int index = (int) ((this.currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+			Entry sentinel = this.slots[level][index];
+			Entry entry = sentinel.next;
+			sentinel.next = sentinel;
+			sentinel.prev = sentinel;
+			while(entry != sentinel) {
+				Entry next = entry.next;
+				link(entry);
+				entry = next;
+			}
+			if(index != 0) {
+				return;
+			}
+		}
+	}
+
+	private void link(Entry entry) {
+		long tick = Math.max(entry.expirationTick, this.currentTick);
+		long ticks = tick - this.currentTick;
+		if(ticks >= MAX_TICKS) {
+			ticks = MAX_TICKS - 1;
+			tick = this.currentTick + ticks;
+		}
+		int level = 0;
+		while(ticks >= 1L << (SLOT_BITS * (level + 1))) {
+			level++;
+		}
+		int index = (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+		entry.linkBefore(this.slots[level][index]);
+	}
+
+	/**
+	 * An entry of the circular doubly linked list of a slot.
+	 */
+	private static final class Entry {
+		private final String id;
+
+		private long expirationTick;
+
+		private Entry prev = this;
+
+		private Entry next = this;
+
+		Entry(String id) {
+			this.id = id;
+		}
+
+		void linkBefore(Entry sentinel) {
+			this.prev = sentinel.prev;
+			this.next = sentinel;
+			sentinel.prev.next = this;
+			sentinel.prev = this;
+		}
+
+		void unlink() {
+			this.prev.next = this.next;
+			this.next.prev = this.prev;
+			this.prev = this;
+			this.next = this;
+		}
+	}
+}
@@ -0,0 +1,513 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+/**
+ * <p>
+ * A {@link SessionRepository} that keeps the authoritative copy of each session
+ * it serves in the JVM and writes the changes to another
+ * {@link SessionRepository} (i.e. RedisOperationsSessionRepository or
+ * GemFireOperationsSessionRepository) on a background thread. This takes the
+ * session store off the request path: {@link #save(ExpiringSession)} only
+ * updates the local copy and {@link #getSession(String)} only reads the store
+ * the first time a session is served by this JVM.
+ * </p>
+ *
+ * <p>
+ * Every save of a session marks it dirty. The dirty sessions are written at
+ * most {@link #setFlushIntervalInMillis(long)} later in batches of
+ * {@link #setBatchSize(int)} sessions. Saves of the same session that happen
+ * within the interval are coalesced into a single write of the attributes that
+ * changed. If a write fails, it is retried with the next flush. Deleting a
+ * session is written through immediately, so that an invalidated session is
+ * never left in the store.
+ * </p>
+ *
+ * <p>
+ * Before the changes of a session that exists in the delegate are written, the
+ * delegate is checked for the session. A session that was deleted from the
+ * delegate by another JVM (i.e. after looking it up with
+ * {@link FindByIndexNameSessionRepository#findByIndexNameAndIndexValue(String, String)})
+ * is dropped from this JVM rather than written again. If the delegate is a
+ * {@link LastAccessedTimeSessionRepository} this is a cheap lookup, otherwise
+ * the session is read from the delegate.
+ * </p>
+ *
+ * <p>
+ * The local copy is only authoritative if every request for a session is
+ * routed to the same JVM until the session is idle (i.e. by a load balancer
+ * that uses the route appended by
+ * {@link org.springframework.session.web.http.DefaultCookieSerializer#setJvmRoute(String)}).
+ * A session that was not used for {@link #setLocalIdleTimeoutInSeconds(int)}
+ * and has been written is dropped from the JVM, so that the next request may be
+ * served by any JVM.
+ * </p>
+ *
+ * <p>
+ * To use it, expose it as the primary {@link SessionRepository} so that it is
+ * used by the SessionRepositoryFilter:
+ * </p>
+ *
+ * <pre>
+ * {@literal @Bean}
+ * {@literal @Primary}
+ * public WriteBehindSessionRepository&lt;RedisSession&gt; writeBehindSessionRepository(RedisOperationsSessionRepository sessionRepository) {
+ *     return new WriteBehindSessionRepository&lt;RedisSession&gt;(sessionRepository);
+ * }
+ * </pre>
+ *
+ * <p>
+ * The remaining dirty sessions are written by {@link #destroy()} when the
+ * ApplicationContext is closed. Changes that were not written when the JVM
+ * stops abruptly are lost.
+ * </p>
+ *
+ * @param <S> the type of {@link ExpiringSession} the sessions are written to
+ * @author agent
+ * @since 1.1
+ */
+public class WriteBehindSessionRepository<S extends ExpiringSession> implements SessionRepository<ExpiringSession>, DisposableBean {
+	/**
+	 * The default maximum number of milliseconds a change is kept before it is written.
+	 */
+	public static final long DEFAULT_FLUSH_INTERVAL_IN_MILLIS = 1000;
+
+	/**
+	 * The default maximum number of sessions written by a single batch.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	/**
+	 * The default number of seconds a session that is not used is kept in the JVM.
+	 */
+	public static final int DEFAULT_LOCAL_IDLE_TIMEOUT_IN_SECONDS = 300;
+
+	private static final Log logger = LogFactory.getLog(WriteBehindSessionRepository.class);
+
+	private final SessionRepository<S> delegate;
+
+	private final ConcurrentMap<String, LocalSession> sessions = new ConcurrentHashMap<String, LocalSession>();
+
+	/**
+	 * The ids of the dirty sessions. Each id is queued at most once until the session is written.
+	 */
+	private final BlockingQueue<String> dirtySessionIds = new LinkedBlockingQueue<String>();
+
+	/**
+	 * Ensures only one thread writes to the delegate at any time.
+	 */
+	private final Object flushMonitor = new Object();
+
+	private long flushIntervalInMillis = DEFAULT_FLUSH_INTERVAL_IN_MILLIS;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	private long localIdleTimeoutInMillis = TimeUnit.SECONDS.toMillis(DEFAULT_LOCAL_IDLE_TIMEOUT_IN_SECONDS);
+
+	/**
+	 * The time the next flush should look for idle sessions to drop. Only used while holding the flushMonitor.
+	 */
+	private long nextEvictionTime;
+
+	private volatile ScheduledExecutorService scheduler;
+
+	private volatile boolean destroyed;
+
+	private final Runnable flusher = new Runnable() {
+		public void run() {
+			try {
+				flush();
+			}
+			catch(Throwable ex) {
+				logger.error("Error writing sessions", ex);
+			}
+		}
+	};
+
+	/**
+	 * Creates a new instance
+	 *
+	 * @param delegate the {@link SessionRepository} the sessions are read from and written to. Cannot be null.
+	 */
+	public WriteBehindSessionRepository(SessionRepository<S> delegate) {
+		Assert.notNull(delegate, "delegate cannot be null");
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Sets the maximum number of milliseconds a change to a session is kept before it is written. The default is
+	 * {@link #DEFAULT_FLUSH_INTERVAL_IN_MILLIS}. This must be set before the first session is saved.
+	 *
+	 * @param flushIntervalInMillis the maximum number of milliseconds a change is kept. Must be greater than 0.
+	 */
+	public void setFlushIntervalInMillis(long flushIntervalInMillis) {
+		Assert.isTrue(flushIntervalInMillis > 0, "flushIntervalInMillis must be greater than 0");
+		this.flushIntervalInMillis = flushIntervalInMillis;
+	}
+
+	/**
+	 * Sets the maximum number of sessions that are removed from the queue of dirty sessions at once. The default is
+	 * {@link #DEFAULT_BATCH_SIZE}.
+	 *
+	 * @param batchSize the maximum number of sessions written by a single batch. Must be greater than 0.
+	 */
+	public void setBatchSize(int batchSize) {
+		Assert.isTrue(batchSize > 0, "batchSize must be greater than 0");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Sets the number of seconds a session that is not used is kept in the JVM. Afterwards the session is read from
+	 * the delegate again, so the session can move to another JVM once it is idle. The default is
+	 * {@link #DEFAULT_LOCAL_IDLE_TIMEOUT_IN_SECONDS}.
+	 *
+	 * @param localIdleTimeoutInSeconds the number of seconds a session that is not used is kept in the JVM
+	 */
+	public void setLocalIdleTimeoutInSeconds(int localIdleTimeoutInSeconds) {
+		this.localIdleTimeoutInMillis = TimeUnit.SECONDS.toMillis(localIdleTimeoutInSeconds);
+	}
+
+	/**
+	 * Gets the number of sessions that have changes that were not written yet.
+	 *
+	 * @return the number of dirty sessions
+	 */
+	public int getDirtySessionCount() {
+		return this.dirtySessionIds.size();
+	}
+
+	/**
+	 * Gets the number of sessions that are kept in the JVM.
+	 *
+	 * @return the number of sessions kept in the JVM
+	 */
+	public int getLocalSessionCount() {
+		return this.sessions.size();
+	}
+
+	public ExpiringSession createSession() {
+		S target = this.delegate.createSession();
+		ChangeTrackingSession result = new ChangeTrackingSession(new MapSession(target));
+		result.target = target;
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	public void save(ExpiringSession session) {
+		if(session instanceof DirtyTrackingSession && !((DirtyTrackingSession) session).isDirty()) {
+			return;
+		}
+		LocalSession local;
+		boolean queue;
+		while(true) {
+			local = this.sessions.get(session.getId());
+			if(local == null) {
+				S target = session instanceof ChangeTrackingSession ? (S) ((ChangeTrackingSession) session).target : null;
+				// a session with a target was created by this JVM and is not in the delegate yet
+				LocalSession created = new LocalSession(new MapSession(session), target, target == null);
+				local = this.sessions.putIfAbsent(session.getId(), created);
+				if(local == null) {
+					local = created;
+				}
+			}
+			Boolean updated = local.update(session);
+			if(updated != null) {
+				queue = updated;
+				break;
+			}
+			// the session was dropped from the JVM concurrently
+			this.sessions.remove(session.getId(), local);
+		}
+
+		if(this.destroyed) {
+			synchronized(this.flushMonitor) {
+				flush(local);
+			}
+			return;
+		}
+		if(queue) {
+			this.dirtySessionIds.offer(session.getId());
+			if(this.scheduler == null) {
+				startScheduler();
+			}
+		}
+	}
+
+	public ExpiringSession getSession(String id) {
+		LocalSession local = this.sessions.get(id);
+		if(local == null) {
+			S loaded = this.delegate.getSession(id);
+			if(loaded == null) {
+				return null;
+			}
+			LocalSession created = new LocalSession(new MapSession(loaded), loaded, true);
+			local = this.sessions.putIfAbsent(id, created);
+			if(local == null) {
+				local = created;
+			}
+		}
+		MapSession copy = local.copy();
+		if(copy == null) {
+			this.sessions.remove(id, local);
+			return null;
+		}
+		copy.markClean(0);
+		return new ChangeTrackingSession(copy);
+	}
+
+	/**
+	 * Removes the session from the JVM and deletes it from the delegate immediately.
+	 */
+	public void delete(String id) {
+		LocalSession local = this.sessions.remove(id);
+		if(local != null) {
+			local.deleted = true;
+		}
+		this.delegate.delete(id);
+	}
+
+	/**
+	 * Writes every dirty session to the delegate and drops the idle sessions from the JVM. This is invoked
+	 * periodically on a background thread, but can also be invoked directly.
+	 */
+	public void flush() {
+		synchronized(this.flushMonitor) {
+			// only write the sessions that are dirty now, so a failing delegate does not keep this busy
+			int remaining = this.dirtySessionIds.size();
+			List<String> batch = new ArrayList<String>(Math.min(remaining, this.batchSize));
+			while(remaining > 0 && this.dirtySessionIds.drainTo(batch, Math.min(remaining, this.batchSize)) > 0) {
+				remaining -= batch.size();
+				for(String id : batch) {
+					LocalSession local = this.sessions.get(id);
+					if(local != null) {
+						flush(local);
+					}
+				}
+				batch.clear();
+			}
+
+			long now = System.currentTimeMillis();
+			if(now >= this.nextEvictionTime) {
+				evictIdleSessions(now);
+				this.nextEvictionTime = now + Math.min(this.localIdleTimeoutInMillis, TimeUnit.MINUTES.toMillis(1));
+			}
+		}
+	}
+
+	/**
+	 * Stops the background thread and writes the remaining dirty sessions on the calling thread. Sessions saved
+	 * afterwards are written immediately.
+	 */
+	public void destroy() {
+		this.destroyed = true;
+		synchronized(this) {
+			if(this.scheduler != null) {
+				this.scheduler.shutdown();
+				this.scheduler = null;
+			}
+		}
+		flush();
+	}
+
+	/**
+	 * Drops the sessions that are expired, or that are not dirty and were not used for the local idle timeout.
+	 *
+	 * @param now the current time in milliseconds
+	 */
+	void evictIdleSessions(long now) {
+		Iterator<LocalSession> locals = this.sessions.values().iterator();
+		while(locals.hasNext()) {
+			if(locals.next().evictIfIdle(now, this.localIdleTimeoutInMillis)) {
+				locals.remove();
+			}
+		}
+	}
+
+	/**
+	 * Writes the changes of a session to the delegate. Must be invoked while holding the flushMonitor.
+	 *
+	 * @param local the session to write
+	 */
+	private void flush(LocalSession local) {
+		MapSession snapshot;
+		Set<String> changedAttributeNames;
+		synchronized(local) {
+			if(!local.dirty) {
+				return;
+			}
+			local.dirty = false;
+			snapshot = new MapSession(local.session);
+			changedAttributeNames = local.changedAttributeNames;
+			local.changedAttributeNames = new HashSet<String>();
+		}
+		if(local.deleted) {
+			return;
+		}
+
+		String id = snapshot.getId();
+		try {
+			S target = local.target;
+			if(target == null || (local.stored && !(this.delegate instanceof LastAccessedTimeSessionRepository))) {
+				target = this.delegate.getSession(id);
+			} else if(local.stored && ((LastAccessedTimeSessionRepository<?>) this.delegate).getLastAccessedTime(id) == null) {
+				target = null;
+			}
+			if(target == null) {
+				if(logger.isDebugEnabled()) {
+					logger.debug("Dropping session " + id + " since it no longer exists in the delegate");
+				}
+				local.evict();
+				this.sessions.remove(id, local);
+				return;
+			}
+			LocalSessionSupport.write(snapshot, changedAttributeNames, target);
+			this.delegate.save(target);
+			local.target = target;
+			local.stored = true;
+			if(local.deleted) {
+				// deleted while it was written
+				this.delegate.delete(id);
+			}
+		}
+		catch(RuntimeException ex) {
+			logger.error("Error writing session " + id + ". Retrying with the next flush.", ex);
+			if(local.retry(changedAttributeNames)) {
+				this.dirtySessionIds.offer(id);
+			}
+		}
+	}
+
+	private synchronized void startScheduler() {
+		if(this.scheduler != null || this.destroyed) {
+			return;
+		}
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("spring-session-write-behind-");
+		threadFactory.setDaemon(true);
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		this.scheduler.scheduleWithFixedDelay(this.flusher, this.flushIntervalInMillis, this.flushIntervalInMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * The authoritative copy of a session that is kept in the JVM.
+	 */
+	private final class LocalSession {
+		private final MapSession session;
+
+		/**
+		 * The attributes that changed since the session was last written.
+		 */
+		private Set<String> changedAttributeNames = new HashSet<String>();
+
+		private boolean dirty;
+
+		private boolean evicted;
+
+		private volatile boolean deleted;
+
+		/**
+		 * The session of the delegate that the changes are written to. Only used while holding the flushMonitor.
+		 */
+		private S target;
+
+		/**
+		 * True if the session was read from or written to the delegate, so that it must be deleted if it no longer
+		 * exists in the delegate. Only used while holding the flushMonitor.
+		 */
+		private boolean stored;
+
+		LocalSession(MapSession session, S target, boolean stored) {
+			this.session = session;
+			this.target = target;
+			this.stored = stored;
+		}
+
+		/**
+		 * Applies the changes of a saved session.
+		 *
+		 * @param saved the session that was saved
+		 * @return true if the session became dirty, false if it already was dirty, or null if the session was dropped
+		 * from the JVM and must be added again
+		 */
+		synchronized Boolean update(ExpiringSession saved) {
+			if(this.evicted) {
+				return null;
+			}
+			this.changedAttributeNames.addAll(LocalSessionSupport.merge(this.session, saved));
+			if(saved instanceof ChangeTrackingSession) {
+				((ChangeTrackingSession) saved).markClean();
+			}
+			boolean becameDirty = !this.dirty;
+			this.dirty = true;
+			return becameDirty;
+		}
+
+		/**
+		 * Copies the session unless it is expired, in which case it is dropped from the JVM.
+		 *
+		 * @return a copy of the session or null if it is expired
+		 */
+		synchronized MapSession copy() {
+			if(this.evicted || this.session.isExpired()) {
+				this.evicted = true;
+				return null;
+			}
+			return new MapSession(this.session);
+		}
+
+		synchronized boolean evictIfIdle(long now, long idleTimeoutInMillis) {
+			if(this.session.isExpired(now) || (!this.dirty && now - this.session.getLastAccessedTime() >= idleTimeoutInMillis)) {
+				this.evicted = true;
+			}
+			return this.evicted;
+		}
+
+		synchronized void evict() {
+			this.evicted = true;
+		}
+
+		/**
+		 * Marks the changes that failed to be written as dirty again.
+		 *
+		 * @param changedAttributeNames the attributes that failed to be written
+		 * @return true if the session must be queued again
+		 */
+		synchronized boolean retry(Set<String> changedAttributeNames) {
+			this.changedAttributeNames.addAll(changedAttributeNames);
+			boolean becameDirty = !this.dirty && !this.evicted;
+			this.dirty = true;
+			return becameDirty;
+		}
+	}
+}
@@ -22,11 +22,13 @@ import javax.servlet.ServletContext;
 import javax.servlet.http.HttpSessionListener;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.session.ExpiringSession;
 import org.springframework.session.SessionRepository;
+import org.springframework.session.events.AsyncSessionEventPublisher;
 import org.springframework.session.events.SessionCreatedEvent;
 import org.springframework.session.events.SessionDestroyedEvent;
 import org.springframework.session.web.http.CookieHttpSessionStrategy;
@@ -76,6 +78,13 @@ import org.springframework.session.web.http.SessionRepositoryFilter;
  * <li>
  * </ul>
  *
+ * <p>
+ * If an {@link AsyncSessionEventPublisher} is exposed as a Bean, the
+ * configurations for the provided SessionRepository implementations publish the
+ * session events with it, so that the listeners are invoked on a separate
+ * thread.
+ * </p>
+ *
  * @author Rob Winch
  * @since 1.1
  *
@@ -93,6 +102,8 @@ public class SpringHttpSessionConfiguration {
 
 	private ServletContext servletContext;
 
+	private AsyncSessionEventPublisher asyncSessionEventPublisher;
+
 	@Bean
 	public SessionEventHttpSessionListenerAdapter sessionEventHttpSessionListenerAdapter() {
 		return new SessionEventHttpSessionListenerAdapter(httpSessionListeners);
@@ -129,4 +140,20 @@ public class SpringHttpSessionConfiguration {
 	public void setHttpSessionListeners(List<HttpSessionListener> listeners) {
 		this.httpSessionListeners = listeners;
 	}
+
+	@Autowired(required = false)
+	public void setAsyncSessionEventPublisher(AsyncSessionEventPublisher asyncSessionEventPublisher) {
+		this.asyncSessionEventPublisher = asyncSessionEventPublisher;
+	}
+
+	/**
+	 * Gets the {@link ApplicationEventPublisher} that the session events should be published with.
+	 *
+	 * @param applicationEventPublisher the {@link ApplicationEventPublisher} to use if no
+	 * {@link AsyncSessionEventPublisher} was configured
+	 * @return the {@link AsyncSessionEventPublisher} if one was configured, else applicationEventPublisher
+	 */
+	protected ApplicationEventPublisher getSessionEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
+		return this.asyncSessionEventPublisher != null ? this.asyncSessionEventPublisher : applicationEventPublisher;
+	}
 }
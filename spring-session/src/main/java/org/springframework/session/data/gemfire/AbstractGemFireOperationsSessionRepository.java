@@ -16,8 +16,12 @@
 
 package org.springframework.session.data.gemfire;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -38,16 +42,19 @@ import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.data.gemfire.GemfireAccessor;
 import org.springframework.data.gemfire.GemfireOperations;
-import org.springframework.expression.Expression;
-import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.session.DefaultPrincipalNameExtractor;
+import org.springframework.session.DirtyTrackingSession;
 import org.springframework.session.ExpiringSession;
 import org.springframework.session.FindByIndexNameSessionRepository;
+import org.springframework.session.PrincipalNameExtractor;
 import org.springframework.session.Session;
 import org.springframework.session.data.gemfire.config.annotation.web.http.GemFireHttpSessionConfiguration;
 import org.springframework.session.events.SessionCreatedEvent;
 import org.springframework.session.events.SessionDeletedEvent;
 import org.springframework.session.events.SessionDestroyedEvent;
 import org.springframework.session.events.SessionExpiredEvent;
+import org.springframework.session.serializer.CompactSerializer;
+import org.springframework.session.serializer.CompressionCodec;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
@@ -84,11 +91,17 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 
 	private int maxInactiveIntervalInSeconds = GemFireHttpSessionConfiguration.DEFAULT_MAX_INACTIVE_INTERVAL_IN_SECONDS;
 
+	private int touchGranularityInSeconds;
+
+	private boolean saveOnlyChangedSessions;
+
 	private ApplicationEventPublisher applicationEventPublisher = new ApplicationEventPublisher() {
 		public void publishEvent(ApplicationEvent event) {
 		}
 	};
 
+	private ApplicationEventPublisher sessionEventPublisher;
+
 	private final GemfireOperations template;
 
 	protected final Log logger = newLogger();
@@ -135,7 +148,21 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 	 * @see org.springframework.context.ApplicationEventPublisher
 	 */
 	protected ApplicationEventPublisher getApplicationEventPublisher() {
-		return applicationEventPublisher;
+		return (sessionEventPublisher != null ? sessionEventPublisher : applicationEventPublisher);
+	}
+
+	/**
+	 * Sets the ApplicationEventPublisher used to publish Session events in place of the ApplicationEventPublisher
+	 * set by the Spring container (i.e. an {@link org.springframework.session.events.AsyncSessionEventPublisher}).
+	 * Unlike {@link #setApplicationEventPublisher(ApplicationEventPublisher)}, this is not overridden when the
+	 * Spring container initializes this repository.
+	 *
+	 * @param sessionEventPublisher the ApplicationEventPublisher used to publish Session-based events.
+	 * @see org.springframework.session.events.AsyncSessionEventPublisher
+	 */
+	public void setSessionEventPublisher(ApplicationEventPublisher sessionEventPublisher) {
+		Assert.notNull(sessionEventPublisher, "ApplicationEventPublisher must not be null");
+		this.sessionEventPublisher = sessionEventPublisher;
 	}
 
 	/**
@@ -168,6 +195,96 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 		return maxInactiveIntervalInSeconds;
 	}
 
+	/**
+	 * Sets the interval in seconds within which a Session that has only been accessed is not saved again.  Since
+	 * the Session expires based on the last accessed time that was saved, a Session may expire up to this many
+	 * seconds early.  The default is 0, which means the Session is saved on every access.  This only applies
+	 * if {@link #setSaveOnlyChangedSessions(boolean)} is true.
+	 *
+	 * @param touchGranularityInSeconds an integer value specifying the interval in seconds within which a Session
+	 * that has only been accessed is not saved again.
+	 */
+	public void setTouchGranularityInSeconds(int touchGranularityInSeconds) {
+		this.touchGranularityInSeconds = touchGranularityInSeconds;
+	}
+
+	/**
+	 * Gets the interval in seconds within which a Session that has only been accessed is not saved again.
+	 *
+	 * @return an integer value specifying the interval in seconds within which a Session that has only been
+	 * accessed is not saved again.
+	 */
+	public int getTouchGranularityInSeconds() {
+		return touchGranularityInSeconds;
+	}
+
+	/**
+	 * Sets whether a Session that was retrieved from GemFire is only saved if it was changed through the
+	 * {@link org.springframework.session.Session} API.  This avoids writing Sessions that were only read, but since
+	 * the whole Session is written on every save, a Session attribute value that is modified in place
+	 * (e.g. an element added to a List) is not saved unless the attribute is set again.  The default is false,
+	 * which means the Session is saved on every access.
+	 *
+	 * @param saveOnlyChangedSessions a boolean value indicating whether only changed Sessions are saved.
+	 */
+	public void setSaveOnlyChangedSessions(boolean saveOnlyChangedSessions) {
+		this.saveOnlyChangedSessions = saveOnlyChangedSessions;
+	}
+
+	/**
+	 * Determines whether a Session that was retrieved from GemFire is only saved if it was changed.
+	 *
+	 * @return a boolean value indicating whether only changed Sessions are saved.
+	 */
+	public boolean isSaveOnlyChangedSessions() {
+		return saveOnlyChangedSessions;
+	}
+
+	/**
+	 * Sets the CompactSerializer used to serialize the Session attribute values in place of GemFire's
+	 * {@link DataSerializer}.  Since GemFire instantiates the Session attributes container using an
+	 * {@link Instantiator}, the CompactSerializer applies to every Session repository in the JVM.  Every
+	 * GemFire member (including servers) that deserializes the Session attributes must register the same class ids.
+	 * The default is null, which means the attribute values are written with GemFire's {@link DataSerializer}.
+	 *
+	 * @param compactSerializer the CompactSerializer used to serialize the Session attribute values.
+	 * @see org.springframework.session.serializer.CompactSerializer
+	 * @see GemFireSessionAttributes#setAttributeSerializer(CompactSerializer)
+	 */
+	public void setCompactSerializer(CompactSerializer compactSerializer) {
+		GemFireSessionAttributes.setAttributeSerializer(compactSerializer);
+	}
+
+	/**
+	 * Sets the number of bytes a serialized Session attribute value must have for it to be compressed.  Like
+	 * {@link #setCompactSerializer(CompactSerializer)}, this applies to every Session repository in the JVM.
+	 * Attribute values that were written without compression are still read.  The default is 0, which means
+	 * attribute values are never compressed.
+	 *
+	 * @param compressionThresholdInBytes an integer value specifying the number of bytes a serialized Session
+	 * attribute value must have for it to be compressed.
+	 * @see org.springframework.session.serializer.CompressionCodec
+	 * @see GemFireSessionAttributes#setCompressionCodec(CompressionCodec)
+	 */
+	public void setCompressionThresholdInBytes(int compressionThresholdInBytes) {
+		GemFireSessionAttributes.setCompressionCodec(compressionThresholdInBytes > 0
+			? new CompressionCodec(compressionThresholdInBytes) : null);
+	}
+
+	/**
+	 * Sets the PrincipalNameExtractor used to determine the principal name a Session is indexed by.  Like
+	 * {@link #setCompactSerializer(CompactSerializer)}, this applies to every Session repository in the JVM.
+	 * The principal name is cached by the Session and only determined again when an attribute the
+	 * PrincipalNameExtractor depends on changes.  The default is {@link DefaultPrincipalNameExtractor}.
+	 *
+	 * @param principalNameExtractor the PrincipalNameExtractor used to determine the principal name of a Session.
+	 * @see org.springframework.session.PrincipalNameExtractor
+	 * @see GemFireSession#setPrincipalNameExtractor(PrincipalNameExtractor)
+	 */
+	public void setPrincipalNameExtractor(PrincipalNameExtractor principalNameExtractor) {
+		GemFireSession.setPrincipalNameExtractor(principalNameExtractor);
+	}
+
 	/**
 	 * Gets a reference to the GemfireOperations (template) used to perform data access operations
 	 * and other interactions on the GemFire cache {@link Region} backing this SessionRepository.
@@ -319,7 +436,8 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 	 * @see com.gemstone.gemfire.Instantiator
 	 */
 	@SuppressWarnings("serial")
-	public static class GemFireSession implements Comparable<ExpiringSession>, DataSerializable, Delta, ExpiringSession {
+	public static class GemFireSession implements Comparable<ExpiringSession>, DataSerializable, Delta,
+			DirtyTrackingSession, ExpiringSession {
 
 		protected static final boolean DEFAULT_ALLOW_JAVA_SERIALIZATION = true;
 
@@ -333,12 +451,20 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 			});
 		}
 
-		private String SPRING_SECURITY_CONTEXT = "SPRING_SECURITY_CONTEXT";
-
-		private SpelExpressionParser parser = new SpelExpressionParser();
+		private static volatile PrincipalNameExtractor principalNameExtractor = new DefaultPrincipalNameExtractor();
 
 		private transient boolean delta = false;
 
+		private transient boolean principalNameResolved = false;
+
+		private transient volatile boolean modified = false;
+
+		private transient Long originalLastAccessedTime;
+
+		private transient boolean changeTracking;
+
+		private transient long touchGranularityInMillis;
+
 		private int maxInactiveIntervalInSeconds;
 
 		private long creationTime;
@@ -348,6 +474,8 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 
 		private String id;
 
+		private transient String principalName;
+
 		/* (non-Javadoc) */
 		protected GemFireSession() {
 			this(UUID.randomUUID().toString());
@@ -371,6 +499,19 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 			this.sessionAttributes.from(session);
 		}
 
+		/**
+		 * Sets the PrincipalNameExtractor used to determine the principal name a Session is indexed by.  Since
+		 * GemFire instantiates the Session using an {@link Instantiator}, the PrincipalNameExtractor applies to
+		 * every Session in the JVM.
+		 *
+		 * @param extractor the PrincipalNameExtractor used to determine the principal name of a Session.
+		 * @throws IllegalArgumentException if the PrincipalNameExtractor is null.
+		 */
+		public static void setPrincipalNameExtractor(PrincipalNameExtractor extractor) {
+			Assert.notNull(extractor, "The PrincipalNameExtractor cannot be null");
+			principalNameExtractor = extractor;
+		}
+
 		/* (non-Javadoc) */
 		public static GemFireSession create(int maxInactiveIntervalInSeconds) {
 			GemFireSession session = new GemFireSession();
@@ -381,6 +522,7 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 		/* (non-Javadoc) */
 		public static GemFireSession from(ExpiringSession expiringSession) {
 			GemFireSession session = new GemFireSession(expiringSession);
+			session.originalLastAccessedTime = session.getLastAccessedTime();
 			session.setLastAccessedTime(System.currentTimeMillis());
 			return session;
 		}
@@ -409,11 +551,24 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 		/* (non-Javadoc) */
 		public void setAttribute(String attributeName, Object attributeValue) {
 			sessionAttributes.setAttribute(attributeName, attributeValue);
+			this.modified = true;
+			invalidatePrincipalName(attributeName);
 		}
 
 		/* (non-Javadoc) */
 		public void removeAttribute(String attributeName) {
 			sessionAttributes.removeAttribute(attributeName);
+			this.modified = true;
+			invalidatePrincipalName(attributeName);
+		}
+
+		/* (non-Javadoc) */
+		private void invalidatePrincipalName(String attributeName) {
+			if (principalNameExtractor.isPrincipalAttribute(attributeName)) {
+				synchronized (this) {
+					this.principalNameResolved = false;
+				}
+			}
 		}
 
 		/* (non-Javadoc) */
@@ -453,6 +608,7 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 
 		/* (non-Javadoc) */
 		public synchronized void setMaxInactiveIntervalInSeconds(final int maxInactiveIntervalInSeconds) {
+			this.modified |= (this.maxInactiveIntervalInSeconds != maxInactiveIntervalInSeconds);
 			this.delta |= (this.maxInactiveIntervalInSeconds != maxInactiveIntervalInSeconds);
 			this.maxInactiveIntervalInSeconds = maxInactiveIntervalInSeconds;
 		}
@@ -462,6 +618,47 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 			return maxInactiveIntervalInSeconds;
 		}
 
+		/**
+		 * Sets the interval in milliseconds within which a change to only the last accessed time of this Session
+		 * is not considered dirty.
+		 *
+		 * @param touchGranularityInMillis a long value specifying the touch granularity in milliseconds.
+		 * @see #isDirty()
+		 */
+		synchronized void setTouchGranularityInMillis(long touchGranularityInMillis) {
+			this.touchGranularityInMillis = touchGranularityInMillis;
+		}
+
+		/**
+		 * Sets whether this Session keeps track of its changes.  If it does not, it is always dirty.
+		 *
+		 * @param changeTracking a boolean value indicating whether this Session keeps track of its changes.
+		 * @see #isDirty()
+		 */
+		synchronized void setChangeTracking(boolean changeTracking) {
+			this.changeTracking = changeTracking;
+		}
+
+		/**
+		 * Determines whether this Session needs to be saved.  A Session that does not keep track of its changes,
+		 * or that was not copied from an existing Session is always dirty.  Otherwise, the Session is dirty if an attribute or the max inactive interval changed,
+		 * or if the last accessed time changed by at least the touch granularity.
+		 *
+		 * @return a boolean value indicating whether this Session needs to be saved.
+		 * @see #from(ExpiringSession)
+		 * @see #setChangeTracking(boolean)
+		 * @see #setTouchGranularityInMillis(long)
+		 */
+		public synchronized boolean isDirty() {
+			if (!changeTracking || originalLastAccessedTime == null || modified) {
+				return true;
+			}
+
+			long touched = (getLastAccessedTime() - originalLastAccessedTime);
+
+			return (touched != 0 && touched >= touchGranularityInMillis);
+		}
+
 		/* (non-Javadoc) */
 		public synchronized void setPrincipalName(String principalName) {
 			setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, principalName);
@@ -469,16 +666,12 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 
 		/* (non-Javadoc) */
 		public synchronized String getPrincipalName() {
-			String principalName = getAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME);
-			if(principalName != null) {
-				return principalName;
-			}
-			Object authentication = getAttribute(SPRING_SECURITY_CONTEXT);
-			if(authentication != null) {
-				Expression expression = parser.parseExpression("authentication?.name");
-				return expression.getValue(authentication, String.class);
+			if (!principalNameResolved) {
+				this.principalName = principalNameExtractor.extractPrincipalName(this);
+				this.principalNameResolved = true;
 			}
-			return null;
+
+			return principalName;
 		}
 
 		/* (non-Javadoc) */
@@ -523,6 +716,7 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 			sessionAttributes.from(this.<GemFireSessionAttributes>readObject(in));
 
 			this.delta = false;
+			this.principalNameResolved = false;
 		}
 
 		/* (non-Javadoc) */
@@ -549,6 +743,7 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 			setMaxInactiveIntervalInSeconds(in.readInt());
 			sessionAttributes.fromDelta(in);
 			this.delta = false;
+			this.principalNameResolved = false;
 		}
 
 		/* (non-Javadoc) */
@@ -617,8 +812,24 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 					return new GemFireSessionAttributes();
 				}
 			});
+			// registered along with the attributes that contain them, since a peer or server that deserializes
+			// the attributes may never have initialized the value class itself
+			Instantiator.register(new Instantiator(CompactSerializedValue.class, 800828009) {
+				@Override public DataSerializable newInstance() {
+					return new CompactSerializedValue();
+				}
+			});
+			Instantiator.register(new Instantiator(CompressedValue.class, 800828010) {
+				@Override public DataSerializable newInstance() {
+					return new CompressedValue();
+				}
+			});
 		}
 
+		private static volatile CompactSerializer attributeSerializer;
+
+		private static volatile CompressionCodec compressionCodec;
+
 		private transient final Map<String, Object> sessionAttributes = new HashMap<String, Object>();
 		private transient final Map<String, Object> sessionAttributeDeltas = new HashMap<String, Object>();
 
@@ -629,6 +840,41 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 			this.lock = this;
 		}
 
+		/**
+		 * Sets the CompactSerializer used to serialize the Session attribute values.  When set, non-null attribute
+		 * values are written as a {@link CompactSerializedValue}.  Attribute values written by GemFire's
+		 * {@link DataSerializer} are still read, regardless of this setting.
+		 *
+		 * @param serializer the CompactSerializer used to serialize the Session attribute values, or null to
+		 * use GemFire's {@link DataSerializer}.
+		 */
+		public static void setAttributeSerializer(CompactSerializer serializer) {
+			attributeSerializer = serializer;
+		}
+
+		/* (non-Javadoc) */
+		static CompactSerializer getAttributeSerializer() {
+			return attributeSerializer;
+		}
+
+		/**
+		 * Sets the CompressionCodec used to compress large Session attribute values.  When set, serialized
+		 * attribute values of at least {@link CompressionCodec#getThresholdInBytes()} bytes are written as a
+		 * {@link CompressedValue}.  Attribute values that were not compressed are still read, regardless of
+		 * this setting.
+		 *
+		 * @param codec the CompressionCodec used to compress large Session attribute values, or null to
+		 * not compress the attribute values.
+		 */
+		public static void setCompressionCodec(CompressionCodec codec) {
+			compressionCodec = codec;
+		}
+
+		/* (non-Javadoc) */
+		static CompressionCodec getCompressionCodec() {
+			return compressionCodec;
+		}
+
 		/* (non-Javadoc) */
 		protected GemFireSessionAttributes(Object lock) {
 			this.lock = (lock != null ? lock : this);
@@ -711,7 +957,30 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 
 		/* (non-Javadoc) */
 		void writeObject(Object obj, DataOutput out) throws IOException {
-			DataSerializer.writeObject(obj, out, allowJavaSerialization());
+			CompactSerializer serializer = attributeSerializer;
+
+			if (serializer != null && obj != null) {
+				obj = new CompactSerializedValue(serializer.serialize(obj));
+			}
+
+			CompressionCodec codec = compressionCodec;
+
+			if (codec != null && obj != null) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DataSerializer.writeObject(obj, new DataOutputStream(bytes), allowJavaSerialization());
+				byte[] serialized = bytes.toByteArray();
+				byte[] compressed = codec.compress(serialized);
+
+				if (compressed != serialized) {
+					DataSerializer.writeObject(new CompressedValue(compressed), out, allowJavaSerialization());
+				}
+				else {
+					out.write(serialized);
+				}
+			}
+			else {
+				DataSerializer.writeObject(obj, out, allowJavaSerialization());
+			}
 		}
 
 		/* (non-Javadoc) */
@@ -726,8 +995,24 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 		}
 
 		/* (non-Javadoc) */
+		@SuppressWarnings("unchecked")
 		<T> T readObject(DataInput in) throws ClassNotFoundException , IOException {
-			return DataSerializer.readObject(in);
+			Object obj = DataSerializer.readObject(in);
+
+			if (obj instanceof CompressedValue) {
+				CompressionCodec codec = compressionCodec;
+				byte[] bytes = ((CompressedValue) obj).getBytes();
+				bytes = (codec != null ? codec : new CompressionCodec()).decompress(bytes);
+				obj = DataSerializer.readObject(new DataInputStream(new ByteArrayInputStream(bytes)));
+			}
+
+			if (obj instanceof CompactSerializedValue) {
+				CompactSerializer serializer = attributeSerializer;
+				byte[] bytes = ((CompactSerializedValue) obj).getBytes();
+				return (T) (serializer != null ? serializer : new CompactSerializer()).deserialize(bytes);
+			}
+
+			return (T) obj;
 		}
 
 		/* (non-Javadoc) */
@@ -780,4 +1065,81 @@ public abstract class AbstractGemFireOperationsSessionRepository extends CacheLi
 		}
 	}
 
+	/**
+	 * The CompactSerializedValue class holds a Session attribute value that was serialized with a
+	 * {@link CompactSerializer} so it can be distinguished from the values written by GemFire's
+	 * {@link DataSerializer}.
+	 *
+	 * @see com.gemstone.gemfire.DataSerializable
+	 * @see com.gemstone.gemfire.Instantiator
+	 * @see org.springframework.session.serializer.CompactSerializer
+	 */
+	@SuppressWarnings("serial")
+	public static class CompactSerializedValue implements DataSerializable {
+
+		private byte[] bytes;
+
+		/* (non-Javadoc) */
+		protected CompactSerializedValue() {
+		}
+
+		/* (non-Javadoc) */
+		protected CompactSerializedValue(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		/* (non-Javadoc) */
+		public byte[] getBytes() {
+			return bytes;
+		}
+
+		/* (non-Javadoc) */
+		public void toData(DataOutput out) throws IOException {
+			DataSerializer.writeByteArray(bytes, out);
+		}
+
+		/* (non-Javadoc) */
+		public void fromData(DataInput in) throws IOException, ClassNotFoundException {
+			this.bytes = DataSerializer.readByteArray(in);
+		}
+	}
+
+	/**
+	 * The CompressedValue class holds a serialized Session attribute value that was compressed with a
+	 * {@link CompressionCodec}.
+	 *
+	 * @see com.gemstone.gemfire.DataSerializable
+	 * @see com.gemstone.gemfire.Instantiator
+	 * @see org.springframework.session.serializer.CompressionCodec
+	 */
+	@SuppressWarnings("serial")
+	public static class CompressedValue implements DataSerializable {
+
+		private byte[] bytes;
+
+		/* (non-Javadoc) */
+		protected CompressedValue() {
+		}
+
+		/* (non-Javadoc) */
+		protected CompressedValue(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		/* (non-Javadoc) */
+		public byte[] getBytes() {
+			return bytes;
+		}
+
+		/* (non-Javadoc) */
+		public void toData(DataOutput out) throws IOException {
+			DataSerializer.writeByteArray(bytes, out);
+		}
+
+		/* (non-Javadoc) */
+		public void fromData(DataInput in) throws IOException, ClassNotFoundException {
+			this.bytes = DataSerializer.readByteArray(in);
+		}
+	}
+
 }
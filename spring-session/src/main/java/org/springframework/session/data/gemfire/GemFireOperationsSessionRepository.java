@@ -19,6 +19,7 @@ package org.springframework.session.data.gemfire;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.springframework.data.gemfire.GemfireOperations;
 import org.springframework.session.ExpiringSession;
@@ -107,7 +108,10 @@ public class GemFireOperationsSessionRepository extends AbstractGemFireOperation
 				delete(storedSession.getId());
 			}
 			else {
-				return GemFireSession.from(storedSession);
+				GemFireSession session = GemFireSession.from(storedSession);
+				session.setChangeTracking(isSaveOnlyChangedSessions());
+				session.setTouchGranularityInMillis(TimeUnit.SECONDS.toMillis(getTouchGranularityInSeconds()));
+				return session;
 			}
 		}
 
@@ -115,13 +119,20 @@ public class GemFireOperationsSessionRepository extends AbstractGemFireOperation
 	}
 
 	/**
-	 * Saves the specified {@link ExpiringSession} to GemFire.
+	 * Saves the specified {@link ExpiringSession} to GemFire.  If the Session is a {@link GemFireSession} that is not
+	 * dirty, the Session is not saved.  A {@link GemFireSession} is only ever clean if
+	 * {@link #setSaveOnlyChangedSessions(boolean)} is true.
 	 *
 	 * @param session the {@link ExpiringSession} to save.
 	 * @see org.springframework.data.gemfire.GemfireOperations#put(Object, Object)
 	 * @see org.springframework.session.ExpiringSession
+	 * @see org.springframework.session.data.gemfire.GemFireOperationsSessionRepository.GemFireSession#isDirty()
 	 */
 	public void save(ExpiringSession session) {
+		if (session instanceof GemFireSession && !((GemFireSession) session).isDirty()) {
+			return;
+		}
+
 		getTemplate().put(session.getId(), new GemFireSession(session));
 	}
 
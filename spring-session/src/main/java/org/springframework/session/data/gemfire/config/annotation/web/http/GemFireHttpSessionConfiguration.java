@@ -19,7 +19,9 @@ package org.springframework.session.data.gemfire.config.annotation.web.http;
 import java.util.concurrent.TimeUnit;
 
 import org.springframework.beans.factory.BeanClassLoaderAware;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.DependsOn;
@@ -32,11 +34,13 @@ import org.springframework.data.gemfire.IndexFactoryBean;
 import org.springframework.data.gemfire.IndexType;
 import org.springframework.data.gemfire.RegionAttributesFactoryBean;
 import org.springframework.session.ExpiringSession;
+import org.springframework.session.PrincipalNameExtractor;
 import org.springframework.session.config.annotation.web.http.SpringHttpSessionConfiguration;
 import org.springframework.session.data.gemfire.AbstractGemFireOperationsSessionRepository.GemFireSession;
 import org.springframework.session.data.gemfire.GemFireOperationsSessionRepository;
 import org.springframework.session.data.gemfire.config.annotation.web.http.support.GemFireCacheTypeAwareRegionFactoryBean;
 import org.springframework.session.data.gemfire.support.GemFireUtils;
+import org.springframework.session.serializer.CompactSerializer;
 import org.springframework.util.StringUtils;
 
 import com.gemstone.gemfire.cache.ExpirationAction;
@@ -89,6 +93,12 @@ public class GemFireHttpSessionConfiguration extends SpringHttpSessionConfigurat
 
 	private ClassLoader beanClassLoader;
 
+	private CompactSerializer compactSerializer;
+
+	private int compressionThresholdInBytes;
+
+	private PrincipalNameExtractor principalNameExtractor;
+
 	private ClientRegionShortcut clientRegionShortcut = DEFAULT_CLIENT_REGION_SHORTCUT;
 
 	private RegionShortcut serverRegionShortcut = DEFAULT_SERVER_REGION_SHORTCUT;
@@ -116,6 +126,73 @@ public class GemFireHttpSessionConfiguration extends SpringHttpSessionConfigurat
 		return beanClassLoader;
 	}
 
+	/**
+	 * Sets the CompactSerializer used to serialize the Session attribute values in place of GemFire's
+	 * DataSerializer.
+	 *
+	 * @param compactSerializer the CompactSerializer used to serialize the Session attribute values.
+	 * @see org.springframework.session.serializer.CompactSerializer
+	 */
+	@Autowired(required = false)
+	public void setCompactSerializer(CompactSerializer compactSerializer) {
+		this.compactSerializer = compactSerializer;
+	}
+
+	/**
+	 * Gets the CompactSerializer used to serialize the Session attribute values.
+	 *
+	 * @return the CompactSerializer used to serialize the Session attribute values, or null if GemFire's
+	 * DataSerializer is used.
+	 * @see org.springframework.session.serializer.CompactSerializer
+	 */
+	protected CompactSerializer getCompactSerializer() {
+		return compactSerializer;
+	}
+
+	/**
+	 * Sets the PrincipalNameExtractor used to determine the principal name a Session is indexed by.
+	 *
+	 * @param principalNameExtractor the PrincipalNameExtractor used to determine the principal name of a Session.
+	 * @see org.springframework.session.PrincipalNameExtractor
+	 */
+	@Autowired(required = false)
+	public void setPrincipalNameExtractor(PrincipalNameExtractor principalNameExtractor) {
+		this.principalNameExtractor = principalNameExtractor;
+	}
+
+	/**
+	 * Gets the PrincipalNameExtractor used to determine the principal name a Session is indexed by.
+	 *
+	 * @return the PrincipalNameExtractor used to determine the principal name of a Session, or null if
+	 * the default is used.
+	 * @see org.springframework.session.PrincipalNameExtractor
+	 */
+	protected PrincipalNameExtractor getPrincipalNameExtractor() {
+		return principalNameExtractor;
+	}
+
+	/**
+	 * Sets the number of bytes a serialized Session attribute value must have for it to be compressed.
+	 *
+	 * @param compressionThresholdInBytes an integer value specifying the number of bytes a serialized Session
+	 * attribute value must have for it to be compressed.  0 means attribute values are never compressed.
+	 * @see org.springframework.session.serializer.CompressionCodec
+	 */
+	public void setCompressionThresholdInBytes(int compressionThresholdInBytes) {
+		this.compressionThresholdInBytes = compressionThresholdInBytes;
+	}
+
+	/**
+	 * Gets the number of bytes a serialized Session attribute value must have for it to be compressed.
+	 * Defaults to 0, which means attribute values are never compressed.
+	 *
+	 * @return an integer value specifying the number of bytes a serialized Session attribute value must have
+	 * for it to be compressed.
+	 */
+	protected int getCompressionThresholdInBytes() {
+		return compressionThresholdInBytes;
+	}
+
 	/**
 	 * Sets the {@link ClientRegionShortcut} used to configure the GemFire ClientCache Region
 	 * that will store Spring Sessions.
@@ -241,6 +318,24 @@ public class GemFireHttpSessionConfiguration extends SpringHttpSessionConfigurat
 
 		sessionRepository.setMaxInactiveIntervalInSeconds(getMaxInactiveIntervalInSeconds());
 
+		if (getCompactSerializer() != null) {
+			sessionRepository.setCompactSerializer(getCompactSerializer());
+		}
+
+		if (getCompressionThresholdInBytes() > 0) {
+			sessionRepository.setCompressionThresholdInBytes(getCompressionThresholdInBytes());
+		}
+
+		if (getPrincipalNameExtractor() != null) {
+			sessionRepository.setPrincipalNameExtractor(getPrincipalNameExtractor());
+		}
+
+		ApplicationEventPublisher sessionEventPublisher = getSessionEventPublisher(null);
+
+		if (sessionEventPublisher != null) {
+			sessionRepository.setSessionEventPublisher(sessionEventPublisher);
+		}
+
 		return sessionRepository;
 	}
 
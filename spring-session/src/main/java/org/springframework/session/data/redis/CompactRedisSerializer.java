@@ -0,0 +1,83 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.session.serializer.CompactSerializer;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link RedisSerializer} that delegates to a {@link CompactSerializer}. Like
+ * the JDK serialization based {@link RedisSerializer}, null is written as an
+ * empty value and an empty value is read as null. Values that were written
+ * using JDK serialization are still read, so existing sessions can be read
+ * after switching to it. However, a JDK serialization based
+ * {@link RedisSerializer} cannot read the values it writes, so every
+ * application must switch at once. It is meant to be used for the attribute
+ * values (see
+ * {@link RedisOperationsSessionRepository#setAttributeValueSerializer(RedisSerializer)}),
+ * since the members of the principal index written by it do not match the
+ * members written using JDK serialization.
+ *
+ * @author agent
+ * @since 1.1
+ * @see org.springframework.session.data.redis.config.annotation.web.http.RedisHttpSessionConfiguration#setCompactSerializer(CompactSerializer)
+ */
+public class CompactRedisSerializer implements RedisSerializer<Object> {
+	private static final byte[] EMPTY_ARRAY = new byte[0];
+
+	private final CompactSerializer serializer;
+
+	/**
+	 * Creates a new instance with a {@link CompactSerializer} that only has the default types registered.
+	 */
+	public CompactRedisSerializer() {
+		this(new CompactSerializer());
+	}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param serializer the {@link CompactSerializer} to delegate to. Cannot be null.
+	 */
+	public CompactRedisSerializer(CompactSerializer serializer) {
+		Assert.notNull(serializer, "serializer cannot be null");
+		this.serializer = serializer;
+	}
+
+	public byte[] serialize(Object value) throws SerializationException {
+		if(value == null) {
+			return EMPTY_ARRAY;
+		}
+		try {
+			return this.serializer.serialize(value);
+		} catch(RuntimeException e) {
+			throw new SerializationException("Cannot serialize", e);
+		}
+	}
+
+	public Object deserialize(byte[] bytes) throws SerializationException {
+		if(bytes == null || bytes.length == 0) {
+			return null;
+		}
+		try {
+			return this.serializer.deserialize(bytes);
+		} catch(RuntimeException e) {
+			throw new SerializationException("Cannot deserialize", e);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import org.springframework.core.serializer.support.SerializationFailedException;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.session.serializer.CompressionCodec;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link RedisSerializer} that compresses the values written by another
+ * {@link RedisSerializer} using a {@link CompressionCodec}. Only values of at
+ * least {@link CompressionCodec#getThresholdInBytes()} bytes are compressed,
+ * smaller values are prefixed with a header that marks them as uncompressed
+ * (see {@link CompressionCodec#encode(byte[])}). Values that were written
+ * before compression was enabled are passed to the delegate unchanged.
+ * It is meant to be used for the attribute values (see
+ * {@link RedisOperationsSessionRepository#setAttributeValueSerializer(RedisSerializer)}),
+ * since the members of the indexes written by it do not match the members
+ * written by the delegate.
+ *
+ * @author agent
+ * @since 1.1
+ * @see org.springframework.session.data.redis.config.annotation.web.http.EnableRedisHttpSession#compressionThresholdInBytes()
+ */
+public class CompressingRedisSerializer implements RedisSerializer<Object> {
+	private final RedisSerializer<Object> delegate;
+
+	private final CompressionCodec codec;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param delegate the {@link RedisSerializer} that serializes the values. Cannot be null.
+	 * @param codec the {@link CompressionCodec} to use. Cannot be null.
+	 */
+	public CompressingRedisSerializer(RedisSerializer<Object> delegate, CompressionCodec codec) {
+		Assert.notNull(delegate, "delegate cannot be null");
+		Assert.notNull(codec, "codec cannot be null");
+		this.delegate = delegate;
+		this.codec = codec;
+	}
+
+	public byte[] serialize(Object value) throws SerializationException {
+		return this.codec.encode(this.delegate.serialize(value));
+	}
+
+	public Object deserialize(byte[] bytes) throws SerializationException {
+		byte[] decompressed;
+		try {
+			decompressed = this.codec.decode(bytes);
+		} catch(IllegalArgumentException e) {
+			throw new SerializationException("Cannot decompress", e);
+		} catch(SerializationFailedException e) {
+			throw new SerializationException("Cannot decompress", e);
+		}
+		return this.delegate.deserialize(decompressed);
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import org.springframework.session.Session;
+import org.springframework.session.events.SessionCreatedEvent;
+
+/**
+ * A {@link SessionCreatedEvent} that was published with only the session id
+ * (see {@link RedisSessionCreatedEventMode#ID_ONLY}). The session is read from
+ * Redis the first time {@link #getSession()} is invoked, so listeners that only
+ * need the session id do not cost a read.
+ *
+ * @author agent
+ * @since 1.1
+ */
+@SuppressWarnings("serial")
+class LazySessionCreatedEvent extends SessionCreatedEvent {
+	private final transient RedisOperationsSessionRepository repository;
+
+	private transient Session session;
+
+	private transient boolean loaded;
+
+	LazySessionCreatedEvent(RedisOperationsSessionRepository repository, String sessionId) {
+		super(repository, sessionId);
+		this.repository = repository;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public synchronized <S extends Session> S getSession() {
+		if(!this.loaded && this.repository != null) {
+			this.session = this.repository.getSession(getSessionId());
+			this.loaded = true;
+		}
+		return (S) this.session;
+	}
+}
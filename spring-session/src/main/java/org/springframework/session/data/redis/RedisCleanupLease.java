@@ -0,0 +1,113 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.session.data.redis.RedisSessionSaveScript.ByteArrayRedisSerializer;
+import org.springframework.util.Assert;
+
+/**
+ * <p>
+ * Coordinates {@link RedisOperationsSessionRepository#cleanupExpiredSessions()}
+ * across every application that shares the sessions. Each application attempts
+ * to acquire a lease with:
+ * </p>
+ *
+ * <pre>
+ * SET spring:session:expirations:lease 9bb4a0f3-b4b9-4a2c-a2c0-4b1e01a9a1e2 NX PX 50000
+ * </pre>
+ *
+ * <p>
+ * Only the application that acquired the lease cleans up the expired sessions.
+ * The lease is not released, so the other applications that run the cleanup in
+ * the same minute do not acquire it. Since the cleanup processes every minute
+ * since the last minute that was processed, no minute is skipped if the
+ * application holding the lease stops.
+ * </p>
+ *
+ * <p>
+ * The command is issued using a Lua script since SET with the NX and PX options
+ * is not exposed by {@link RedisOperations}. This requires Redis 2.6.12 or later.
+ * </p>
+ *
+ * @author agent
+ * @since 1.1
+ * @see RedisOperationsSessionRepository#setCleanupLease(RedisCleanupLease)
+ */
+public class RedisCleanupLease {
+
+	/**
+	 * The default number of milliseconds a lease is held (50 seconds). This is less than a minute so that the lease
+	 * is available again when the next cleanup runs.
+	 */
+	public static final long DEFAULT_LEASE_TIME_IN_MILLIS = 50000;
+
+	/**
+	 * <ul>
+	 * <li>KEYS[1] - the lease key</li>
+	 * <li>ARGV[1] - the token identifying the holder of the lease</li>
+	 * <li>ARGV[2] - the number of milliseconds the lease is held</li>
+	 * </ul>
+	 */
+	static final String SCRIPT = "return redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) and 1 or 0\n";
+
+	private static final RedisSerializer<byte[]> ARGS_SERIALIZER = new ByteArrayRedisSerializer();
+
+	private final DefaultRedisScript<Long> script;
+
+	private final byte[] token = UUID.randomUUID().toString().getBytes(RedisOperationsSessionRepository.UTF_8);
+
+	private final byte[] leaseTimeInMillis;
+
+	/**
+	 * Creates a new instance that holds the lease for {@link #DEFAULT_LEASE_TIME_IN_MILLIS}.
+	 */
+	public RedisCleanupLease() {
+		this(DEFAULT_LEASE_TIME_IN_MILLIS);
+	}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param leaseTimeInMillis the number of milliseconds the lease is held. It should be less than a minute and
+	 * greater than the time it takes to clean up the expired sessions.
+	 */
+	public RedisCleanupLease(long leaseTimeInMillis) {
+		Assert.isTrue(leaseTimeInMillis > 0, "leaseTimeInMillis must be greater than 0");
+		this.leaseTimeInMillis = String.valueOf(leaseTimeInMillis).getBytes(RedisOperationsSessionRepository.UTF_8);
+		this.script = new DefaultRedisScript<Long>();
+		this.script.setScriptText(SCRIPT);
+		this.script.setResultType(Long.class);
+	}
+
+	/**
+	 * Attempts to acquire the lease.
+	 *
+	 * @param redis the {@link RedisOperations} to use
+	 * @param leaseKey the key of the lease
+	 * @return true if the lease was acquired, else false
+	 */
+	boolean tryAcquire(RedisOperations<Object, Object> redis, String leaseKey) {
+		Long acquired = redis.execute(this.script, ARGS_SERIALIZER, null, Collections.<Object>singletonList(leaseKey),
+				this.token, this.leaseTimeInMillis);
+		return acquired != null && acquired == 1L;
+	}
+}
@@ -15,9 +15,15 @@
  */
 package org.springframework.session.data.redis;
 
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -25,21 +31,27 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.connection.Message;
 import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.BoundHashOperations;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
-import org.springframework.expression.Expression;
-import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.session.DefaultPrincipalNameExtractor;
+import org.springframework.session.DirtyTrackingSession;
 import org.springframework.session.ExpiringSession;
 import org.springframework.session.FindByIndexNameSessionRepository;
+import org.springframework.session.LastAccessedTimeSessionRepository;
 import org.springframework.session.MapSession;
+import org.springframework.session.PrincipalNameExtractor;
 import org.springframework.session.Session;
 import org.springframework.session.events.SessionCreatedEvent;
 import org.springframework.session.events.SessionDeletedEvent;
@@ -133,13 +145,85 @@ import org.springframework.util.Assert;
  * HMSET spring:session:sessions:33fdd1b6-b496-4b33-9f7d-df96679d32fe sessionAttr:attrName2 newValue
  * </pre>
  *
+ * <h3>Lazy Attribute Loading</h3>
+ *
+ * <p>
+ * By default {@link #getSession(String)} reads the whole hash using HGETALL
+ * and deserializes every attribute. If
+ * {@link #setUseLazyAttributeLoading(boolean)} is set to true, only the
+ * creation time, maximum inactive interval and last accessed time are read up
+ * front:
+ * </p>
+ *
+ * <pre>
+ * HMGET spring:session:sessions:33fdd1b6-b496-4b33-9f7d-df96679d32fe creationTime maxInactiveInterval lastAccessedTime
+ * </pre>
+ *
+ * <p>
+ * Each attribute is then read (and cached for the lifetime of the
+ * {@link RedisSession}) the first time it is requested:
+ * </p>
+ *
+ * <pre>
+ * HGET spring:session:sessions:33fdd1b6-b496-4b33-9f7d-df96679d32fe sessionAttr:attrName
+ * </pre>
+ *
+ * <p>
+ * If all the attribute names are requested, the remaining attributes are read
+ * using HGETALL.
+ * </p>
+ *
+ * <h3>Deferred Deserialization</h3>
+ *
+ * <p>
+ * If {@link #setUseDeferredDeserialization(boolean)} is set to true, the
+ * whole hash is still read using HGETALL, but the attribute values are kept in
+ * their serialized form until they are requested. Attributes that are never
+ * requested are never deserialized. Since they are not part of the delta, they
+ * are not written back either.
+ * </p>
+ *
+ * <h3>Near Cache</h3>
+ *
+ * <p>
+ * If {@link #setNearCache(RedisSessionNearCache)} is used, every save also
+ * stores a random version in the session hash:
+ * </p>
+ *
+ * <pre>
+ * HMSET spring:session:sessions:33fdd1b6-b496-4b33-9f7d-df96679d32fe lastAccessedTime 1404360000000 version -4567346512034566231
+ * </pre>
+ *
+ * <p>
+ * Sessions that were recently read or saved are kept in the
+ * {@link RedisSessionNearCache} along with their version. When such a session is
+ * requested again, only the version is read and the cached session is used if
+ * the version has not changed:
+ * </p>
+ *
+ * <pre>
+ * HGET spring:session:sessions:33fdd1b6-b496-4b33-9f7d-df96679d32fe version
+ * </pre>
+ *
+ * <h3>Touch Granularity</h3>
+ *
+ * <p>
+ * Every request updates the last accessed time of the session which results in
+ * the commands described in "Saving a Session" even if nothing else changed.
+ * If {@link #setTouchGranularityInSeconds(int)} is used, a save in which only
+ * the last accessed time changed and the last accessed time that was previously
+ * written is within the granularity does not issue any commands. This means a
+ * session may expire up to the granularity early.
+ * </p>
+ *
  * <h3>SessionCreatedEvent</h3>
  *
  * <p>
  * When a session is created an event is sent to Redis with the channel of
  * "spring:session:channel:created:33fdd1b6-b496-4b33-9f7d-df96679d32fe" such
  * that "33fdd1b6-b496-4b33-9f7d-df96679d32fe" is the sesion id. The body of the
- * event will be the session that was created.
+ * event will be the session that was created and is serialized using the value
+ * serializer of the {@link RedisOperations}.
  * </p>
  *
  * <p>
@@ -148,6 +232,15 @@ import org.springframework.util.Assert;
  * message into a {@link SessionCreatedEvent}.
  * </p>
  *
+ * <p>
+ * Publishing the whole session means every node that is subscribed receives
+ * and deserializes it. If {@link #setSessionCreatedEventMode(RedisSessionCreatedEventMode)}
+ * is set to {@link RedisSessionCreatedEventMode#ID_ONLY}, the body of the event is
+ * empty and the session is only read from Redis if a listener invokes
+ * {@link SessionCreatedEvent#getSession()}. If set to
+ * {@link RedisSessionCreatedEventMode#NONE}, nothing is published.
+ * </p>
+ *
  * <h3>Expiration</h3>
  *
  * <p>
@@ -203,6 +296,37 @@ import org.springframework.util.Assert;
  * </p>
  *
  * <p>
+ * By default every application subscribes to the delete and expired
+ * notifications of every key in every database. The listener also accepts the
+ * notifications of the keyspace channels for the session expires keys only
+ * (i.e. "__keyspace@0__:spring:session:sessions:expires:*"), which lets Redis
+ * filter out unrelated keys. If
+ * {@link #setSessionDestroyedEventRelay(RedisSessionDestroyedEventRelay)} is
+ * used, only one elected application handles the notifications and relays
+ * them to the other applications. See {@link RedisSessionDestroyedEventRelay}
+ * for details.
+ * </p>
+ *
+ * <p>
+ * Looking up the session reads and deserializes the whole session, which is
+ * costly when many sessions expire at once. If
+ * {@link #setSessionDestroyedEventMode(RedisSessionDestroyedEventMode)} is set
+ * to {@link RedisSessionDestroyedEventMode#SNAPSHOT}, the principal name is
+ * stored in the session hash when it changes and the lookup only reads it
+ * along with the creation time, maximum inactive interval and last accessed
+ * time:
+ * </p>
+ *
+ * <pre>
+ * HMGET spring:session:sessions:33fdd1b6-b496-4b33-9f7d-df96679d32fe creationTime maxInactiveInterval lastAccessedTime principalName
+ * </pre>
+ *
+ * <p>
+ * The attributes of the session in the {@link SessionDestroyedEvent} are then
+ * only read if a listener requests them.
+ * </p>
+ *
+ * <p>
  * One problem with relying on Redis expiration exclusively is that Redis makes
  * no guarantee of when the expired event will be fired if they key has not been
  * accessed. Specifically the background task that Redis uses to clean up
@@ -234,8 +358,15 @@ import org.springframework.util.Assert;
  * <p>
  * The background task will then use these mappings to explicitly request each
  * session expires key. By accessing the key, rather than deleting it, we ensure
- * that Redis deletes the key for us only if the TTL is expired.
+ * that Redis deletes the key for us only if the TTL is expired. The mappings
+ * are read with SSCAN and each page of keys is accessed in a single pipeline.
+ * The last minute that was processed is stored so that minutes that were
+ * missed (i.e. during a restart) are processed by the next run:
  * </p>
+ *
+ * <pre>
+ * SET spring:session:expirations:watermark 1439245020000
+ * </pre>
  * <p>
  * <b>NOTE</b>: We do not explicitly delete the keys since in some instances
  * there may be a race condition that incorrectly identifies a key as expired
@@ -245,16 +376,89 @@ import org.springframework.util.Assert;
  * if the TTL on that key is expired.
  * </p>
  *
+ * <p>
+ * Every application runs the background task at the start of every minute. If
+ * {@link #setCleanupLease(RedisCleanupLease)} is used, only the application
+ * that acquires the lease runs it. See {@link RedisCleanupLease} for details.
+ * </p>
+ *
+ * <h3>Sorted Set Expirations</h3>
+ *
+ * <p>
+ * The expiration sets above only allow the background task to process the
+ * sessions of the previous minute. If the task does not run for a minute (i.e.
+ * during a deployment), those sessions are never processed. If
+ * {@link #setUseSortedSetExpirations(boolean)} is set to true, a single
+ * <a href="http://redis.io/topics/data-types#sorted-sets">Sorted Set</a> scored
+ * by the expiration time of each session is used instead:
+ * </p>
+ *
+ * <pre>
+ * ZADD spring:session:expirations 1439245080000 expires:33fdd1b6-b496-4b33-9f7d-df96679d32fe
+ * </pre>
+ *
+ * <p>
+ * Since ZADD replaces the score of an existing member, the session no longer
+ * needs to be removed from its previous expiration set. The background task
+ * reads every session that has expired in batches, regardless of when it
+ * expired:
+ * </p>
+ *
+ * <pre>
+ * ZRANGEBYSCORE spring:session:expirations 0 1439245080000 LIMIT 0 100
+ * ZREM spring:session:expirations expires:33fdd1b6-b496-4b33-9f7d-df96679d32fe ...
+ * </pre>
+ *
+ * <h3>Hash Tagged Keys</h3>
+ *
+ * <p>
+ * By default the keys of a session hash to unrelated slots of a
+ * <a href="http://redis.io/topics/cluster-spec">Redis Cluster</a>. If
+ * {@link #setUseHashTaggedKeys(boolean)} is set to true, the session id is
+ * wrapped in a hash tag so that every key specific to a session is stored in
+ * the same slot:
+ * </p>
+ *
+ * <pre>
+ * spring:session:sessions:{33fdd1b6-b496-4b33-9f7d-df96679d32fe}
+ * spring:session:sessions:expires:{33fdd1b6-b496-4b33-9f7d-df96679d32fe}
+ * </pre>
+ *
+ * <p>
+ * The expiration sets and the principal name index are shared by many
+ * sessions, so they are not part of the slot of any one session. For this
+ * reason, a {@link RedisSessionSaveScript} only updates the session hash and
+ * the session expires key atomically when the keys are hash tagged. The
+ * expiration sets are updated using separate commands afterwards.
+ * </p>
+ *
+ * <h3>Pipelined Saves</h3>
+ *
+ * <p>
+ * By default each of the commands above is sent to Redis as a separate round
+ * trip. If {@link #setUsePipelinedSave(boolean)} is set to true, all of the
+ * commands issued by a save (including the expiration bookkeeping and the
+ * {@link SessionCreatedEvent} message) are sent in a single
+ * <a href="http://redis.io/topics/pipelining">pipeline</a> so that each save
+ * costs a single round trip.
+ * </p>
+ *
+ * <p>
+ * Alternatively, {@link #setSessionSaveScript(RedisSessionSaveScript)} can be
+ * used to apply the delta and update all of the expirations with a single
+ * server side script. See {@link RedisSessionSaveScript} for details.
+ * </p>
+ *
  * @since 1.0
  *
  * @author Rob Winch
  */
-public class RedisOperationsSessionRepository implements FindByIndexNameSessionRepository<RedisOperationsSessionRepository.RedisSession>, MessageListener {
+public class RedisOperationsSessionRepository implements FindByIndexNameSessionRepository<RedisOperationsSessionRepository.RedisSession>, LastAccessedTimeSessionRepository<RedisOperationsSessionRepository.RedisSession>, MessageListener {
 	private static final Log logger = LogFactory.getLog(RedisOperationsSessionRepository.class);
 
-	private static final String SPRING_SECURITY_CONTEXT = "SPRING_SECURITY_CONTEXT";
+	static final Charset UTF_8 = Charset.forName("UTF-8");
 
-	static PrincipalNameResolver PRINCIPAL_NAME_RESOLVER = new PrincipalNameResolver();
+	private static final byte[] EMPTY_BODY = new byte[0];
 
 	/**
 	 * The default prefix for each key and channel in Redis used by Spring Session
@@ -283,14 +487,40 @@ public class RedisOperationsSessionRepository implements FindByIndexNameSessionR
 	 */
 	static final String SESSION_ATTR_PREFIX = "sessionAttr:";
 
+	/**
+	 * The key in the Hash representing the version of the session. It is only written if a
+	 * {@link RedisSessionNearCache} is used.
+	 */
+	static final String VERSION_ATTR = "version";
+
+	/**
+	 * The key in the Hash representing the principal name of the session. It is only written if the
+	 * {@link RedisSessionDestroyedEventMode#SNAPSHOT} is used.
+	 */
+	static final String PRINCIPAL_NAME_ATTR = "principalName";
+
+	private static final Random VERSION_GENERATOR = new Random();
+
+	/**
+	 * The keys in the Hash that are read up front when attributes are lazily loaded.
+	 */
+	private static final List<Object> METADATA_ATTRS = Collections.unmodifiableList(Arrays.<Object>asList(CREATION_TIME_ATTR, MAX_INACTIVE_ATTR, LAST_ACCESSED_ATTR));
+
+	private static final List<Object> SNAPSHOT_ATTRS = Collections.unmodifiableList(Arrays.<Object>asList(CREATION_TIME_ATTR, MAX_INACTIVE_ATTR, LAST_ACCESSED_ATTR, PRINCIPAL_NAME_ATTR));
+
 	/**
 	 * The prefix for every key used by Spring Session in Redis.
 	 */
 	private String keyPrefix = DEFAULT_SPRING_SESSION_REDIS_PREFIX;
 
+	/**
+	 * Matches the channels and keys for {@link #keyPrefix} without decoding the messages that are received.
+	 */
+	private RedisSessionMessageMatcher messageMatcher = createMessageMatcher();
+
 	private final RedisOperations<Object,Object> sessionRedisOperations;
 
-	private final RedisSessionExpirationPolicy expirationPolicy;
+	private RedisSessionExpirationPolicy expirationPolicy;
 
 	private ApplicationEventPublisher eventPublisher = new ApplicationEventPublisher() {
 		public void publishEvent(ApplicationEvent event) {
@@ -303,104 +533,880 @@ public class RedisOperationsSessionRepository implements FindByIndexNameSessionR
 	private Integer defaultMaxInactiveInterval;
 
 	/**
-	 * Allows creating an instance and uses a default {@link RedisOperations} for both managing the session and the expirations.
+	 * If true, all of the commands issued by {@link #save(RedisSession)} are sent in a single pipeline.
+	 */
+	private boolean usePipelinedSave;
+
+	private RedisSessionCreatedEventMode sessionCreatedEventMode = RedisSessionCreatedEventMode.FULL;
+
+	private RedisSessionDestroyedEventMode sessionDestroyedEventMode = RedisSessionDestroyedEventMode.FULL;
+
+	private PrincipalNameExtractor principalNameExtractor = new DefaultPrincipalNameExtractor();
+
+	/**
+	 * If non-null, used to apply the delta and update the expirations of a session in a single server side step.
+	 */
+	private RedisSessionSaveScript sessionSaveScript;
+
+	/**
+	 * If true, {@link #getSession(String)} only reads the attributes of a session as they are requested.
+	 */
+	private boolean useLazyAttributeLoading;
+
+	/**
+	 * If true, the attribute values are only deserialized as they are requested.
+	 */
+	private boolean useDeferredDeserialization;
+
+	/**
+	 * If non-null, used instead of the hash value serializer of the {@link RedisOperations} for the attribute values.
+	 */
+	private RedisSerializer<Object> attributeValueSerializer;
+
+	/**
+	 * The maximum number of sessions read in a single pipeline by {@link #findByIndexNameAndIndexValue(String, String)}.
+	 */
+	private int findByIndexBatchSize = 100;
+
+	/**
+	 * The number of milliseconds within which a change to only the last accessed time is not saved.
+	 */
+	private long touchGranularityInMillis;
+
+	/**
+	 * If true, the session id is wrapped in a hash tag within the keys specific to a session.
+	 */
+	private boolean useHashTaggedKeys;
+
+	/**
+	 * If non-null, only the application holding the lease cleans up expired sessions.
+	 */
+	private RedisCleanupLease cleanupLease;
+
+	private RedisSessionDestroyedEventRelay destroyedEventRelay;
+
+	/**
+	 * If non-null, recently used sessions are cached in the JVM.
+	 */
+	private RedisSessionNearCache nearCache;
+
+	/**
+	 * Allows creating an instance and uses a default {@link RedisOperations} for both managing the session and the expirations.
+	 *
+	 * @param redisConnectionFactory the {@link RedisConnectionFactory} to use.
+	 */
+	public RedisOperationsSessionRepository(RedisConnectionFactory redisConnectionFactory) {
+		this(createDefaultTemplate(redisConnectionFactory));
+	}
+
+	/**
+	 * Creates a new instance. For an example, refer to the class level javadoc.
+	 *
+	 * @param sessionRedisOperations The {@link RedisOperations} to use for managing the sessions. Cannot be null.
+	 */
+	public RedisOperationsSessionRepository(RedisOperations<Object, Object> sessionRedisOperations) {
+		Assert.notNull(sessionRedisOperations, "sessionRedisOperations cannot be null");
+		this.sessionRedisOperations = sessionRedisOperations;
+		this.expirationPolicy = new RedisSessionExpirationPolicy(sessionRedisOperations, this);
+	}
+
+	/**
+	 * Sets the {@link ApplicationEventPublisher} that is used to publish
+	 * {@link SessionDestroyedEvent}. The default is to not publish a
+	 * {@link SessionDestroyedEvent}.
+	 *
+	 * @param applicationEventPublisher
+	 *            the {@link ApplicationEventPublisher} that is used to publish
+	 *            {@link SessionDestroyedEvent}. Cannot be null.
+	 */
+	public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
+		Assert.notNull(applicationEventPublisher, "applicationEventPublisher cannot be null");
+		this.eventPublisher = applicationEventPublisher;
+	}
+
+	/**
+	 * Sets the maximum inactive interval in seconds between requests before newly created sessions will be
+	 * invalidated. A negative time indicates that the session will never timeout. The default is 1800 (30 minutes).
+	 *
+	 *  @param defaultMaxInactiveInterval the number of seconds that the {@link Session} should be kept alive between
+	 *                                    client requests.
+	 */
+	public void setDefaultMaxInactiveInterval(int defaultMaxInactiveInterval) {
+		this.defaultMaxInactiveInterval = defaultMaxInactiveInterval;
+	}
+
+	/**
+	 * Sets if the expiration of every session should be tracked in a single Sorted Set scored by the expiration time
+	 * instead of a Set per minute. This allows {@link #cleanupExpiredSessions()} to process sessions that expired
+	 * while it was not running. The default is false. Since the expirations are stored under a different key, the
+	 * setting must be the same for every application sharing the sessions.
+	 *
+	 * <p>
+	 * The {@link RedisSessionSaveScript} only supports the Set per minute. If a {@link RedisSessionSaveScript} is
+	 * used along with this setting, the delta is applied with HMSET and the Sorted Set is updated separately.
+	 * </p>
+	 *
+	 * @param useSortedSetExpirations true if a Sorted Set should be used to track expirations, else false
+	 */
+	public void setUseSortedSetExpirations(boolean useSortedSetExpirations) {
+		this.expirationPolicy = useSortedSetExpirations ?
+				new RedisSessionSortedSetExpirationPolicy(sessionRedisOperations, this) :
+				new RedisSessionExpirationPolicy(sessionRedisOperations, this);
+	}
+
+	/**
+	 * Sets if the session id should be wrapped in a hash tag (i.e. "{33fdd1b6-b496-4b33-9f7d-df96679d32fe}") within the
+	 * keys specific to a session so that they are stored in the same slot of a Redis Cluster. The default is false.
+	 * Since the keys change, existing sessions are not found after changing this setting and the setting must be the
+	 * same for every application sharing the sessions.
+	 *
+	 * <p>
+	 * The expiration sets and the principal name index are shared by many sessions and are not hash tagged. If a
+	 * {@link RedisSessionSaveScript} is used, it only updates the keys specific to the session, so that it does not
+	 * fail with CROSSSLOT on a Redis Cluster, and the expiration sets are updated using separate commands.
+	 * </p>
+	 *
+	 * @param useHashTaggedKeys true if the session id should be wrapped in a hash tag, else false
+	 */
+	public void setUseHashTaggedKeys(boolean useHashTaggedKeys) {
+		this.useHashTaggedKeys = useHashTaggedKeys;
+	}
+
+	/**
+	 * Sets the {@link RedisCleanupLease} used to ensure that only a single application that shares the sessions
+	 * runs {@link #cleanupExpiredSessions()} at a time. The default is null which means every application runs it.
+	 *
+	 * @param cleanupLease the {@link RedisCleanupLease} to use or null to not coordinate the cleanup
+	 */
+	public void setCleanupLease(RedisCleanupLease cleanupLease) {
+		this.cleanupLease = cleanupLease;
+	}
+
+	/**
+	 * Sets the {@link RedisSessionDestroyedEventRelay} used to elect a single application that handles the keyspace
+	 * notifications for deleted and expired sessions and relays them as compact messages. When set, the
+	 * {@link SessionDestroyedEvent} only contains the session id. The default is null which means every application
+	 * handles every keyspace notification.
+	 *
+	 * @param destroyedEventRelay the {@link RedisSessionDestroyedEventRelay} to use or null to not relay the
+	 * notifications
+	 */
+	public void setSessionDestroyedEventRelay(RedisSessionDestroyedEventRelay destroyedEventRelay) {
+		this.destroyedEventRelay = destroyedEventRelay;
+	}
+
+	/**
+	 * Sets if all of the commands issued when saving a {@link RedisSession} should be sent to Redis in a single
+	 * pipeline. This includes updating the session hash, the principal index, the expiration mappings and publishing
+	 * the {@link SessionCreatedEvent}. The default is false which means each command is a separate round trip.
+	 *
+	 * @param usePipelinedSave true if saves should be sent in a single pipeline, else false
+	 */
+	public void setUsePipelinedSave(boolean usePipelinedSave) {
+		this.usePipelinedSave = usePipelinedSave;
+	}
+
+	/**
+	 * Sets what is published to Redis when a session is created so that every node can fire a
+	 * {@link SessionCreatedEvent}. The default is {@link RedisSessionCreatedEventMode#FULL} which publishes the delta
+	 * of the new session. {@link RedisSessionCreatedEventMode#ID_ONLY} publishes an empty message and
+	 * {@link RedisSessionCreatedEventMode#NONE} publishes nothing.
+	 *
+	 * @param sessionCreatedEventMode the {@link RedisSessionCreatedEventMode} to use. Cannot be null.
+	 */
+	public void setSessionCreatedEventMode(RedisSessionCreatedEventMode sessionCreatedEventMode) {
+		Assert.notNull(sessionCreatedEventMode, "sessionCreatedEventMode cannot be null");
+		this.sessionCreatedEventMode = sessionCreatedEventMode;
+	}
+
+	/**
+	 * Sets what is read from Redis when a session is deleted or expires. The default is
+	 * {@link RedisSessionDestroyedEventMode#FULL} which reads and deserializes the whole session.
+	 * {@link RedisSessionDestroyedEventMode#SNAPSHOT} writes the principal name to the session hash when it changes and
+	 * only reads it along with the creation time, maximum inactive interval and last accessed time.
+	 *
+	 * @param sessionDestroyedEventMode the {@link RedisSessionDestroyedEventMode} to use. Cannot be null.
+	 */
+	public void setSessionDestroyedEventMode(RedisSessionDestroyedEventMode sessionDestroyedEventMode) {
+		Assert.notNull(sessionDestroyedEventMode, "sessionDestroyedEventMode cannot be null");
+		this.sessionDestroyedEventMode = sessionDestroyedEventMode;
+	}
+
+	/**
+	 * Sets the {@link PrincipalNameExtractor} used to determine the principal name a session is indexed by. The
+	 * principal name is only determined again when an attribute the {@link PrincipalNameExtractor} depends on is
+	 * changed. The default is {@link DefaultPrincipalNameExtractor}.
+	 *
+	 * @param principalNameExtractor the {@link PrincipalNameExtractor} to use. Cannot be null.
+	 */
+	public void setPrincipalNameExtractor(PrincipalNameExtractor principalNameExtractor) {
+		Assert.notNull(principalNameExtractor, "principalNameExtractor cannot be null");
+		this.principalNameExtractor = principalNameExtractor;
+	}
+
+	/**
+	 * Sets the {@link RedisSessionSaveScript} used to apply the delta and update the expirations of a session in a
+	 * single server side step. The script is loaded into Redis when this method is invoked. The default is null which
+	 * means that the delta and expirations are updated using individual commands.
+	 *
+	 * <p>
+	 * When a script is used, the script is not sent in a pipeline even if {@link #setUsePipelinedSave(boolean)} is
+	 * true. This ensures the script can be sent again if Redis no longer has it cached.
+	 * </p>
+	 *
+	 * <p>
+	 * If {@link #setUseHashTaggedKeys(boolean)} is true, the expirations are not updated by the script, since the
+	 * expiration sets are in other slots of a Redis Cluster than the session.
+	 * </p>
+	 *
+	 * @param sessionSaveScript the {@link RedisSessionSaveScript} to use or null to use individual commands
+	 */
+	public void setSessionSaveScript(RedisSessionSaveScript sessionSaveScript) {
+		if(sessionSaveScript != null) {
+			sessionSaveScript.load(this.sessionRedisOperations);
+		}
+		this.sessionSaveScript = sessionSaveScript;
+	}
+
+	/**
+	 * Sets if {@link #getSession(String)} should only read the creation time, maximum inactive interval and last
+	 * accessed time of the session up front and read each attribute the first time it is requested. This is
+	 * beneficial when sessions contain large attributes that most requests do not use. The default is false which
+	 * means all of the attributes are read when the session is retrieved.
+	 *
+	 * @param useLazyAttributeLoading true if attributes should be read as they are requested, else false
+	 */
+	public void setUseLazyAttributeLoading(boolean useLazyAttributeLoading) {
+		this.useLazyAttributeLoading = useLazyAttributeLoading;
+	}
+
+	/**
+	 * Sets if the attribute values read by {@link #getSession(String)} should be kept in their serialized form and only
+	 * be deserialized the first time they are requested. This avoids the cost of deserializing attributes that a
+	 * request does not use. The default is false which means every attribute is deserialized when the session is
+	 * retrieved. This setting has no effect if {@link #setUseLazyAttributeLoading(boolean)} is true.
+	 *
+	 * @param useDeferredDeserialization true if attributes should be deserialized as they are requested, else false
+	 */
+	public void setUseDeferredDeserialization(boolean useDeferredDeserialization) {
+		this.useDeferredDeserialization = useDeferredDeserialization;
+	}
+
+	/**
+	 * Sets the {@link RedisSerializer} used for the values of the session attributes (i.e. a
+	 * {@link CompactRedisSerializer}). The other entries of the session hash (i.e. the creation time), the members of
+	 * the expiration and principal indexes and the published messages are still serialized by the
+	 * {@link RedisOperations}. The default is null which means the hash value serializer of the
+	 * {@link RedisOperations} is used for the attribute values as well.
+	 *
+	 * @param attributeValueSerializer the {@link RedisSerializer} to use for the attribute values or null
+	 */
+	public void setAttributeValueSerializer(RedisSerializer<Object> attributeValueSerializer) {
+		this.attributeValueSerializer = attributeValueSerializer;
+	}
+
+	/**
+	 * Gets the {@link RedisSerializer} used for the values of the session attributes.
+	 *
+	 * @return the {@link RedisSerializer} used for the attribute values
+	 */
+	@SuppressWarnings("unchecked")
+	RedisSerializer<Object> getAttributeValueSerializer() {
+		if(attributeValueSerializer != null) {
+			return attributeValueSerializer;
+		}
+		return (RedisSerializer<Object>) this.sessionRedisOperations.getHashValueSerializer();
+	}
+
+	/**
+	 * Sets the maximum number of sessions {@link #findByIndexNameAndIndexValue(String, String)} reads from Redis in a
+	 * single pipeline. Larger batches mean fewer round trips, but hold more replies in memory at once. The default is
+	 * 100.
+	 *
+	 * @param findByIndexBatchSize the maximum number of sessions to read in a single pipeline. Must be greater than 0.
+	 */
+	public void setFindByIndexBatchSize(int findByIndexBatchSize) {
+		Assert.isTrue(findByIndexBatchSize > 0, "findByIndexBatchSize must be greater than 0");
+		this.findByIndexBatchSize = findByIndexBatchSize;
+	}
+
+	/**
+	 * Sets the {@link RedisSessionNearCache} used to cache recently used sessions in the JVM. When set,
+	 * {@link #setUseLazyAttributeLoading(boolean)} and {@link #setUseDeferredDeserialization(boolean)} are not used by
+	 * {@link #getSession(String)} since the near cache holds fully deserialized sessions. The default is null which
+	 * means sessions are not cached.
+	 *
+	 * @param nearCache the {@link RedisSessionNearCache} to use or null to not cache sessions
+	 */
+	public void setNearCache(RedisSessionNearCache nearCache) {
+		this.nearCache = nearCache;
+	}
+
+	/**
+	 * Sets the number of seconds within which a change to only the last accessed time of a {@link RedisSession} is not
+	 * saved. Since the expiration of a session is based upon the last accessed time that was saved, a session may expire
+	 * up to this many seconds early. The default is 0 which means the last accessed time is saved every time.
+	 *
+	 * @param touchGranularityInSeconds the number of seconds within which only touching a session is not saved
+	 */
+	public void setTouchGranularityInSeconds(int touchGranularityInSeconds) {
+		this.touchGranularityInMillis = TimeUnit.SECONDS.toMillis(touchGranularityInSeconds);
+	}
+
+	public void save(final RedisSession session) {
+		if(session.isOnlyTouchedWithin(touchGranularityInMillis)) {
+			return;
+		}
+		if(usePipelinedSave && sessionSaveScript == null) {
+			this.sessionRedisOperations.executePipelined(new SessionCallback<Object>() {
+				@SuppressWarnings("unchecked")
+				public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+					save((RedisOperations<Object, Object>) operations, session);
+					return null;
+				}
+			});
+		} else {
+			save(this.sessionRedisOperations, session);
+		}
+		session.setNew(false);
+		if(nearCache != null) {
+			session.updateNearCache();
+		}
+	}
+
+	/**
+	 * Saves the {@link RedisSession} using the provided {@link RedisOperations}.
+	 *
+	 * @param redis the {@link RedisOperations} to issue the commands with
+	 * @param session the {@link RedisSession} to save
+	 */
+	private void save(RedisOperations<Object, Object> redis, RedisSession session) {
+		session.saveDelta(redis);
+		if(session.isNew()) {
+			publishSessionCreated(redis, session);
+		}
+	}
+
+	/**
+	 * Publishes the message for a new {@link RedisSession} according to the {@link RedisSessionCreatedEventMode}.
+	 *
+	 * @param redis the {@link RedisOperations} to publish the message with
+	 * @param session the new {@link RedisSession}
+	 */
+	private void publishSessionCreated(RedisOperations<Object, Object> redis, RedisSession session) {
+		String sessionCreatedKey = getSessionCreatedChannel(session.getId());
+		if(sessionCreatedEventMode == RedisSessionCreatedEventMode.FULL) {
+			redis.convertAndSend(sessionCreatedKey, session.delta);
+		} else if(sessionCreatedEventMode == RedisSessionCreatedEventMode.ID_ONLY) {
+			final byte[] channel = sessionCreatedKey.getBytes(UTF_8);
+			redis.execute(new RedisCallback<Object>() {
+				public Object doInRedis(RedisConnection connection) throws DataAccessException {
+					connection.publish(channel, EMPTY_BODY);
+					return null;
+				}
+			});
+		}
+	}
+
+	@Scheduled(cron="0 * * * * *")
+	public void cleanupExpiredSessions() {
+		if(this.cleanupLease != null && !this.cleanupLease.tryAcquire(this.sessionRedisOperations, getCleanupLeaseKey())) {
+			if(logger.isDebugEnabled()) {
+				logger.debug("Skipping cleanup of expired sessions since another application holds the lease");
+			}
+			return;
+		}
+		this.expirationPolicy.cleanExpiredSessions();
+	}
+
+	public RedisSession getSession(String id) {
+		if(nearCache != null) {
+			return getNearCachedSession(id);
+		}
+		return getSession(id, false, useLazyAttributeLoading);
+	}
+
+	/**
+	 * Reads only the last accessed time of a session with a single HGET.
+	 *
+	 * @param id the session id
+	 * @return the last accessed time or null if the session does not exist
+	 */
+	public Long getLastAccessedTime(String id) {
+		return (Long) getSessionBoundHashOperations(id).get(LAST_ACCESSED_ATTR);
+	}
+
+	/**
+	 * Finds the sessions of a principal. The sessions are read in pipelines of up to
+	 * {@link #setFindByIndexBatchSize(int)} sessions. The ids of sessions that no longer exist are removed from the
+	 * principal index as part of the next pipeline.
+	 *
+	 * @param indexName the name of the index. Only
+	 * {@link FindByIndexNameSessionRepository#PRINCIPAL_NAME_INDEX_NAME} is supported.
+	 * @param indexValue the principal name
+	 * @return the session ids mapped to the sessions
+	 */
+	public Map<String,RedisSession> findByIndexNameAndIndexValue(String indexName, String indexValue) {
+		return findByIndexNameAndIndexValue(indexName, indexValue, useLazyAttributeLoading);
+	}
+
+	/**
+	 * Finds the sessions of a principal like {@link #findByIndexNameAndIndexValue(String, String)}, but only reads the
+	 * creation time, maximum inactive interval and last accessed time of each session. No attribute is read or
+	 * deserialized unless it is requested from the returned session. This is useful to list the sessions of a
+	 * principal that has many sessions.
+	 *
+	 * @param indexName the name of the index. Only
+	 * {@link FindByIndexNameSessionRepository#PRINCIPAL_NAME_INDEX_NAME} is supported.
+	 * @param indexValue the principal name
+	 * @return the session ids mapped to the sessions that only have their metadata read
+	 */
+	public Map<String,RedisSession> findMetadataByIndexNameAndIndexValue(String indexName, String indexValue) {
+		return findByIndexNameAndIndexValue(indexName, indexValue, true);
+	}
+
+	private Map<String,RedisSession> findByIndexNameAndIndexValue(String indexName, String indexValue, boolean lazy) {
+		if(!PRINCIPAL_NAME_INDEX_NAME.equals(indexName)) {
+			return Collections.emptyMap();
+		}
+		String principalKey = getPrincipalKey(indexValue);
+		Set<Object> sessionIds = sessionRedisOperations.boundSetOps(principalKey).members();
+		if(sessionIds == null) {
+			return Collections.emptyMap();
+		}
+		Map<String,RedisSession> sessions = new HashMap<String,RedisSession>(sessionIds.size());
+		List<String> staleIds = new ArrayList<String>();
+		List<String> batch = new ArrayList<String>(Math.min(sessionIds.size(), findByIndexBatchSize));
+		for(Object id : sessionIds) {
+			batch.add((String) id);
+			if(batch.size() == findByIndexBatchSize) {
+				readSessions(principalKey, batch, staleIds, lazy, sessions);
+				batch.clear();
+			}
+		}
+		if(!batch.isEmpty()) {
+			readSessions(principalKey, batch, staleIds, lazy, sessions);
+		}
+		if(!staleIds.isEmpty()) {
+			readSessions(principalKey, Collections.<String>emptyList(), staleIds, lazy, sessions);
+		}
+		return sessions;
+	}
+
+	/**
+	 * Reads the sessions with a single pipeline using HGETALL, or HMGET of the metadata if lazy. The ids in staleIds
+	 * are removed from the principal index in the same pipeline. Afterwards staleIds contains the ids of the sessions
+	 * that were not found.
+	 *
+	 * @param principalKey the key of the principal index
+	 * @param ids the ids of the sessions to read
+	 * @param staleIds the ids to remove from the principal index
+	 * @param lazy if true, only the metadata is read and the attributes are read as they are requested
+	 * @param sessions the {@link Map} to add the sessions that were found and are not expired to
+	 */
+	@SuppressWarnings("unchecked")
+	private void readSessions(String principalKey, List<String> ids, List<String> staleIds, boolean lazy, Map<String,RedisSession> sessions) {
+		RedisSerializer<Object> keySerializer = (RedisSerializer<Object>) this.sessionRedisOperations.getKeySerializer();
+		RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) this.sessionRedisOperations.getValueSerializer();
+		RedisSerializer<Object> hashKeySerializer = (RedisSerializer<Object>) this.sessionRedisOperations.getHashKeySerializer();
+		RedisSerializer<Object> hashValueSerializer = (RedisSerializer<Object>) this.sessionRedisOperations.getHashValueSerializer();
+
+		final byte[] rawPrincipalKey = keySerializer.serialize(principalKey);
+		final byte[][] rawStaleIds = new byte[staleIds.size()][];
+		for(int i = 0; i < rawStaleIds.length; i++) {
+			rawStaleIds[i] = valueSerializer.serialize(staleIds.get(i));
+		}
+		final byte[][] rawSessionKeys = new byte[ids.size()][];
+		for(int i = 0; i < rawSessionKeys.length; i++) {
+			rawSessionKeys[i] = keySerializer.serialize(getSessionKey(ids.get(i)));
+		}
+		final byte[][] rawMetadataFields = lazy ? new byte[METADATA_ATTRS.size()][] : null;
+		if(lazy) {
+			for(int i = 0; i < rawMetadataFields.length; i++) {
+				rawMetadataFields[i] = hashKeySerializer.serialize(METADATA_ATTRS.get(i));
+			}
+		}
+
+		List<Object> results = this.sessionRedisOperations.execute(new RedisCallback<List<Object>>() {
+			public List<Object> doInRedis(RedisConnection connection) throws DataAccessException {
+				connection.openPipeline();
+				boolean pipelineClosed = false;
+				try {
+					if(rawStaleIds.length > 0) {
+						connection.sRem(rawPrincipalKey, rawStaleIds);
+					}
+					for(byte[] rawSessionKey : rawSessionKeys) {
+						if(rawMetadataFields != null) {
+							connection.hMGet(rawSessionKey, rawMetadataFields);
+						} else {
+							connection.hGetAll(rawSessionKey);
+						}
+					}
+					List<Object> closed = connection.closePipeline();
+					pipelineClosed = true;
+					return closed;
+				} finally {
+					if(!pipelineClosed) {
+						connection.closePipeline();
+					}
+				}
+			}
+		});
+
+		staleIds.clear();
+		if(results == null) {
+			return;
+		}
+		int offset = rawStaleIds.length > 0 ? 1 : 0;
+		for(int i = 0; i < ids.size(); i++) {
+			String id = ids.get(i);
+			Object result = results.get(offset + i);
+			MapSession loaded;
+			Map<String, byte[]> serializedAttributes = null;
+			if(lazy) {
+				List<Object> values = null;
+				if(result != null) {
+					values = new ArrayList<Object>(METADATA_ATTRS.size());
+					for(byte[] rawValue : (List<byte[]>) result) {
+						values.add(rawValue == null ? null : hashValueSerializer.deserialize(rawValue));
+					}
+				}
+				Map<Object, Object> entries = toEntries(METADATA_ATTRS, values);
+				loaded = entries.isEmpty() ? null : loadSession(id, entries);
+			} else {
+				SerializedSession serialized = toSerializedSession((Map<byte[], byte[]>) result);
+				loaded = serialized == null ? null : loadSession(id, serialized.entries);
+				if(loaded != null) {
+					if(useDeferredDeserialization) {
+						serializedAttributes = serialized.attributes;
+					} else {
+						deserializeAttributes(loaded, serialized.attributes);
+					}
+				}
+			}
+			if(loaded == null) {
+				staleIds.add(id);
+				continue;
+			}
+			if(loaded.isExpired()) {
+				continue;
+			}
+			RedisSession session = new RedisSession(loaded, lazy);
+			session.serializedAttributes = serializedAttributes;
+			session.originalLastAccessTime = loaded.getLastAccessedTime();
+			sessions.put(id, session);
+		}
+	}
+
+	/**
+	 *
+	 * @param id the session id
+	 * @param allowExpired
+	 *            if true, will also include expired sessions that have not been
+	 *            deleted. If false, will ensure expired sessions are not
+	 *            returned.
+	 * @return
+	 */
+	private RedisSession getSession(String id, boolean allowExpired) {
+		return getSession(id, allowExpired, false);
+	}
+
+	/**
+	 *
+	 * @param id the session id
+	 * @param allowExpired
+	 *            if true, will also include expired sessions that have not been
+	 *            deleted. If false, will ensure expired sessions are not
+	 *            returned.
+	 * @param lazy if true, only the creation time, maximum inactive interval and last accessed time are read and the
+	 *            attributes are read as they are requested.
+	 * @return
+	 */
+	private RedisSession getSession(String id, boolean allowExpired, boolean lazy) {
+		MapSession loaded;
+		Map<String, byte[]> serializedAttributes = null;
+		if(lazy) {
+			loaded = loadSessionMetadata(id);
+		} else if(useDeferredDeserialization) {
+			serializedAttributes = new HashMap<String, byte[]>();
+			loaded = loadSerializedSession(id, serializedAttributes);
+		} else if(attributeValueSerializer != null) {
+			SerializedSession serialized = readSerializedSession(id);
+			loaded = serialized == null ? null : loadSession(id, serialized.entries);
+			if(loaded != null) {
+				deserializeAttributes(loaded, serialized.attributes);
+			}
+		} else {
+			Map<Object, Object> entries = getSessionBoundHashOperations(id).entries();
+			loaded = entries.isEmpty() ? null : loadSession(id, entries);
+		}
+		if(loaded == null) {
+			return null;
+		}
+		if(!allowExpired && loaded.isExpired()) {
+			return null;
+		}
+		RedisSession result = new RedisSession(loaded, lazy);
+		result.serializedAttributes = serializedAttributes;
+		result.originalLastAccessTime = loaded.getLastAccessedTime();
+		return result;
+	}
+
+	/**
+	 * Gets the session using the {@link RedisSessionNearCache} if possible.
+	 *
+	 * @param id the session id
+	 * @return the session or null if it was not found or is expired
+	 */
+	private RedisSession getNearCachedSession(String id) {
+		long now = System.currentTimeMillis();
+		RedisSessionNearCache.Entry entry = nearCache.get(id);
+		if(entry != null && !nearCache.isFresh(entry, now)) {
+			Object version = getSessionBoundHashOperations(id).get(VERSION_ATTR);
+			if(entry.getVersion().equals(version)) {
+				entry.verified(now);
+			} else {
+				nearCache.remove(id);
+				entry = null;
+			}
+		}
+
+		MapSession loaded;
+		long sizeInBytes;
+		if(entry != null) {
+			nearCache.hit();
+			loaded = entry.getSession();
+			sizeInBytes = entry.getSizeInBytes();
+		} else {
+			nearCache.miss();
+			SerializedSession serialized = readSerializedSession(id);
+			if(serialized == null) {
+				return null;
+			}
+			loaded = loadSession(id, serialized.entries);
+			deserializeAttributes(loaded, serialized.attributes);
+			sizeInBytes = serialized.sizeInBytes;
+			nearCache.put(id, new MapSession(loaded), serialized.entries.get(VERSION_ATTR), sizeInBytes);
+		}
+		if(loaded.isExpired()) {
+			return null;
+		}
+		RedisSession result = new RedisSession(loaded);
+		result.sizeInBytes = sizeInBytes;
+		result.originalLastAccessTime = loaded.getLastAccessedTime();
+		return result;
+	}
+
+	/**
+	 * Reads the whole session, but does not deserialize the attribute values.
+	 *
+	 * @param id the session id
+	 * @param serializedAttributes the {@link Map} to add the attribute name to serialized attribute value mappings to
+	 * @return a {@link MapSession} without any attributes or null if the session was not found
+	 */
+	private MapSession loadSerializedSession(String id, Map<String, byte[]> serializedAttributes) {
+		SerializedSession serialized = readSerializedSession(id);
+		if(serialized == null) {
+			return null;
+		}
+		serializedAttributes.putAll(serialized.attributes);
+		return loadSession(id, serialized.entries);
+	}
+
+	/**
+	 * Deserializes attribute values that were read in their serialized form and sets them on the session.
+	 *
+	 * @param loaded the session to set the attributes on
+	 * @param serializedAttributes the attribute names mapped to their serialized values
+	 */
+	private void deserializeAttributes(MapSession loaded, Map<String, byte[]> serializedAttributes) {
+		RedisSerializer<Object> serializer = getAttributeValueSerializer();
+		for(Map.Entry<String, byte[]> attribute : serializedAttributes.entrySet()) {
+			loaded.setAttribute(attribute.getKey(), serializer.deserialize(attribute.getValue()));
+		}
+	}
+
+	/**
+	 * Reads the value of a single attribute using HGET.
+	 *
+	 * @param id the session id
+	 * @param attributeName the name of the attribute
+	 * @return the value of the attribute or null if it was not found
+	 */
+	@SuppressWarnings("unchecked")
+	private Object readAttribute(String id, String attributeName) {
+		if(attributeValueSerializer == null) {
+			return getSessionBoundHashOperations(id).get(getSessionAttrNameKey(attributeName));
+		}
+		RedisSerializer<Object> keySerializer = (RedisSerializer<Object>) this.sessionRedisOperations.getKeySerializer();
+		RedisSerializer<Object> hashKeySerializer = (RedisSerializer<Object>) this.sessionRedisOperations.getHashKeySerializer();
+		final byte[] sessionKey = keySerializer.serialize(getSessionKey(id));
+		final byte[] field = hashKeySerializer.serialize(getSessionAttrNameKey(attributeName));
+		byte[] value = this.sessionRedisOperations.execute(new RedisCallback<byte[]>() {
+			public byte[] doInRedis(RedisConnection connection) throws DataAccessException {
+				return connection.hGet(sessionKey, field);
+			}
+		});
+		return value == null ? null : attributeValueSerializer.deserialize(value);
+	}
+
+	/**
+	 * Reads the values of all of the attributes of a session using HGETALL.
 	 *
-	 * @param redisConnectionFactory the {@link RedisConnectionFactory} to use.
+	 * @param id the session id
+	 * @return the attribute names mapped to their values. Removed attributes may be mapped to null.
 	 */
-	public RedisOperationsSessionRepository(RedisConnectionFactory redisConnectionFactory) {
-		this(createDefaultTemplate(redisConnectionFactory));
+	private Map<String, Object> readAttributes(String id) {
+		Map<String, Object> attributes = new HashMap<String, Object>();
+		if(attributeValueSerializer == null) {
+			Map<Object, Object> entries = getSessionBoundHashOperations(id).entries();
+			for(Map.Entry<Object,Object> entry : entries.entrySet()) {
+				String key = (String) entry.getKey();
+				if(key.startsWith(SESSION_ATTR_PREFIX)) {
+					attributes.put(key.substring(SESSION_ATTR_PREFIX.length()), entry.getValue());
+				}
+			}
+			return attributes;
+		}
+		SerializedSession serialized = readSerializedSession(id);
+		if(serialized != null) {
+			for(Map.Entry<String, byte[]> attribute : serialized.attributes.entrySet()) {
+				attributes.put(attribute.getKey(), attributeValueSerializer.deserialize(attribute.getValue()));
+			}
+		}
+		return attributes;
 	}
 
 	/**
-	 * Creates a new instance. For an example, refer to the class level javadoc.
+	 * Writes the changed entries of a session hash using HMSET. The attribute values are serialized using the
+	 * attribute value serializer and the other entries using the hash value serializer of the {@link RedisOperations}.
 	 *
-	 * @param sessionRedisOperations The {@link RedisOperations} to use for managing the sessions. Cannot be null.
+	 * @param redis the {@link RedisOperations} to issue the command with
+	 * @param sessionId the session id
+	 * @param delta the hash fields that have changed
 	 */
-	public RedisOperationsSessionRepository(RedisOperations<Object, Object> sessionRedisOperations) {
-		Assert.notNull(sessionRedisOperations, "sessionRedisOperations cannot be null");
-		this.sessionRedisOperations = sessionRedisOperations;
-		this.expirationPolicy = new RedisSessionExpirationPolicy(sessionRedisOperations, this);
+	@SuppressWarnings("unchecked")
+	void putAll(RedisOperations<Object, Object> redis, String sessionId, Map<String, Object> delta) {
+		if(attributeValueSerializer == null) {
+			redis.boundHashOps(getSessionKey(sessionId)).putAll(delta);
+			return;
+		}
+		if(delta.isEmpty()) {
+			return;
+		}
+		RedisSerializer<Object> keySerializer = (RedisSerializer<Object>) redis.getKeySerializer();
+		RedisSerializer<Object> hashKeySerializer = (RedisSerializer<Object>) redis.getHashKeySerializer();
+		RedisSerializer<Object> hashValueSerializer = (RedisSerializer<Object>) redis.getHashValueSerializer();
+		final byte[] sessionKey = keySerializer.serialize(getSessionKey(sessionId));
+		final Map<byte[], byte[]> rawDelta = new HashMap<byte[], byte[]>(delta.size());
+		for(Map.Entry<String, Object> entry : delta.entrySet()) {
+			RedisSerializer<Object> valueSerializer = entry.getKey().startsWith(SESSION_ATTR_PREFIX)
+					? attributeValueSerializer : hashValueSerializer;
+			rawDelta.put(hashKeySerializer.serialize(entry.getKey()), valueSerializer.serialize(entry.getValue()));
+		}
+		redis.execute(new RedisCallback<Object>() {
+			public Object doInRedis(RedisConnection connection) throws DataAccessException {
+				connection.hMSet(sessionKey, rawDelta);
+				return null;
+			}
+		});
 	}
 
 	/**
-	 * Sets the {@link ApplicationEventPublisher} that is used to publish
-	 * {@link SessionDestroyedEvent}. The default is to not publish a
-	 * {@link SessionDestroyedEvent}.
+	 * Reads only the creation time, maximum inactive interval and last accessed time of a session.
 	 *
-	 * @param applicationEventPublisher
-	 *            the {@link ApplicationEventPublisher} that is used to publish
-	 *            {@link SessionDestroyedEvent}. Cannot be null.
+	 * @param id the session id
+	 * @return a {@link MapSession} without any attributes or null if the session was not found
 	 */
-	public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
-		Assert.notNull(applicationEventPublisher, "applicationEventPublisher cannot be null");
-		this.eventPublisher = applicationEventPublisher;
+	private MapSession loadSessionMetadata(String id) {
+		List<Object> values = getSessionBoundHashOperations(id).multiGet(METADATA_ATTRS);
+		Map<Object, Object> entries = toEntries(METADATA_ATTRS, values);
+		return entries.isEmpty() ? null : loadSession(id, entries);
 	}
 
 	/**
-	 * Sets the maximum inactive interval in seconds between requests before newly created sessions will be
-	 * invalidated. A negative time indicates that the session will never timeout. The default is 1800 (30 minutes).
+	 * Reads the snapshot of a session that was deleted or expired using a single HMGET. The attributes of the
+	 * session are read as they are requested.
 	 *
-	 *  @param defaultMaxInactiveInterval the number of seconds that the {@link Session} should be kept alive between
-	 *                                    client requests.
+	 * @param id the session id
+	 * @return the session with its principal name resolved or null if the session was not found
+	 * @see RedisSessionDestroyedEventMode#SNAPSHOT
 	 */
-	public void setDefaultMaxInactiveInterval(int defaultMaxInactiveInterval) {
-		this.defaultMaxInactiveInterval = defaultMaxInactiveInterval;
-	}
-
-	public void save(RedisSession session) {
-		session.saveDelta();
-		if(session.isNew()) {
-			String sessionCreatedKey = getSessionCreatedChannel(session.getId());
-			this.sessionRedisOperations.convertAndSend(sessionCreatedKey, session.delta);
-			session.setNew(false);
+	private RedisSession getSessionSnapshot(String id) {
+		List<Object> values = getSessionBoundHashOperations(id).multiGet(SNAPSHOT_ATTRS);
+		Map<Object, Object> entries = toEntries(SNAPSHOT_ATTRS, values);
+		if(entries.isEmpty()) {
+			return null;
 		}
+		MapSession loaded = loadSession(id, entries);
+		RedisSession result = new RedisSession(loaded, true);
+		result.originalPrincipalName = (String) entries.get(PRINCIPAL_NAME_ATTR);
+		result.originalPrincipalNameResolved = true;
+		result.originalLastAccessTime = loaded.getLastAccessedTime();
+		return result;
 	}
 
-	@Scheduled(cron="0 * * * * *")
-	public void cleanupExpiredSessions() {
-		this.expirationPolicy.cleanExpiredSessions();
-	}
-
-	public RedisSession getSession(String id) {
-		return getSession(id, false);
-	}
-
-	public Map<String,RedisSession> findByIndexNameAndIndexValue(String indexName, String indexValue) {
-		if(!PRINCIPAL_NAME_INDEX_NAME.equals(indexName)) {
-			return Collections.emptyMap();
+	private static Map<Object, Object> toEntries(List<Object> keys, List<Object> values) {
+		Map<Object, Object> entries = new HashMap<Object, Object>(keys.size());
+		if(values == null) {
+			return entries;
 		}
-		String principalKey = getPrincipalKey(indexValue);
-		Set<Object> sessionIds = sessionRedisOperations.boundSetOps(principalKey).members();
-		Map<String,RedisSession> sessions = new HashMap<String,RedisSession>(sessionIds.size());
-		for(Object id : sessionIds) {
-			RedisSession session = getSession((String) id);
-			if(session != null) {
-				sessions.put(session.getId(), session);
+		for(int i = 0; i < keys.size(); i++) {
+			Object value = values.get(i);
+			if(value != null) {
+				entries.put(keys.get(i), value);
 			}
 		}
-		return sessions;
+		return entries;
 	}
 
 	/**
+	 * Reads the whole session using HGETALL, but only deserializes the entries that are not attributes.
 	 *
 	 * @param id the session id
-	 * @param allowExpired
-	 *            if true, will also include expired sessions that have not been
-	 *            deleted. If false, will ensure expired sessions are not
-	 *            returned.
-	 * @return
+	 * @return the {@link SerializedSession} or null if the session was not found
 	 */
-	private RedisSession getSession(String id, boolean allowExpired) {
-		Map<Object, Object> entries = getSessionBoundHashOperations(id).entries();
-		if(entries.isEmpty()) {
+	@SuppressWarnings("unchecked")
+	private SerializedSession readSerializedSession(String id) {
+		RedisSerializer<Object> keySerializer = (RedisSerializer<Object>) this.sessionRedisOperations.getKeySerializer();
+
+		final byte[] sessionKey = keySerializer.serialize(getSessionKey(id));
+		Map<byte[], byte[]> rawEntries = this.sessionRedisOperations.execute(new RedisCallback<Map<byte[], byte[]>>() {
+			public Map<byte[], byte[]> doInRedis(RedisConnection connection) throws DataAccessException {
+				return connection.hGetAll(sessionKey);
+			}
+		});
+		return toSerializedSession(rawEntries);
+	}
+
+	/**
+	 * Deserializes the entries of a session hash that are not attributes.
+	 *
+	 * @param rawEntries the raw entries returned by HGETALL
+	 * @return the {@link SerializedSession} or null if the session was not found
+	 */
+	@SuppressWarnings("unchecked")
+	private SerializedSession toSerializedSession(Map<byte[], byte[]> rawEntries) {
+		if(rawEntries == null || rawEntries.isEmpty()) {
 			return null;
 		}
-		MapSession loaded = loadSession(id, entries);
-		if(!allowExpired && loaded.isExpired()) {
-			return null;
+		RedisSerializer<Object> hashKeySerializer = (RedisSerializer<Object>) this.sessionRedisOperations.getHashKeySerializer();
+		RedisSerializer<Object> hashValueSerializer = (RedisSerializer<Object>) this.sessionRedisOperations.getHashValueSerializer();
+
+		SerializedSession result = new SerializedSession();
+		for(Map.Entry<byte[], byte[]> rawEntry : rawEntries.entrySet()) {
+			String key = (String) hashKeySerializer.deserialize(rawEntry.getKey());
+			byte[] value = rawEntry.getValue();
+			result.sizeInBytes += rawEntry.getKey().length + (value == null ? 0 : value.length);
+			if(key.startsWith(SESSION_ATTR_PREFIX)) {
+				// removed attributes are stored as empty values
+				if(value != null && value.length > 0) {
+					result.attributes.put(key.substring(SESSION_ATTR_PREFIX.length()), value);
+				}
+			} else {
+				result.entries.put(key, hashValueSerializer.deserialize(value));
+			}
 		}
-		RedisSession result = new RedisSession(loaded);
-		result.originalLastAccessTime = loaded.getLastAccessedTime();
 		return result;
 	}
 
@@ -434,6 +1440,10 @@ public class RedisOperationsSessionRepository implements FindByIndexNameSessionR
 
 		session.setMaxInactiveIntervalInSeconds(0);
 		save(session);
+
+		if(nearCache != null) {
+			nearCache.remove(sessionId);
+		}
 	}
 
 	public RedisSession createSession() {
@@ -452,48 +1462,136 @@ public class RedisOperationsSessionRepository implements FindByIndexNameSessionR
 			return;
 		}
 
-		String channel = new String(messageChannel);
+		RedisSessionMessageMatcher matcher = this.messageMatcher;
 
-
-		if(channel.startsWith(getSessionCreatedChannelPrefix())) {
-			RedisSerializer<Object> serializer = new JdkSerializationRedisSerializer();
-			Map<Object,Object> loaded = (Map<Object, Object>) serializer.deserialize(message.getBody());
-			handleCreated(loaded, channel);
+		int destroyedEvent = matcher.getDestroyedEvent(messageChannel, messageBody);
+		if(destroyedEvent != RedisSessionMessageMatcher.NO_EVENT) {
+			handleDestroyed(matcher.getDestroyedSessionId(messageChannel, messageBody),
+					destroyedEvent == RedisSessionMessageMatcher.DELETED_EVENT);
 			return;
 		}
 
-		String body = new String(messageBody);
-		if(!body.startsWith(getExpiredKeyPrefix())) {
+		String createdId = matcher.getCreatedSessionId(messageChannel);
+		if(createdId != null) {
+			if(messageBody.length == 0) {
+				publishEvent(new LazySessionCreatedEvent(this, createdId));
+				return;
+			}
+			RedisSerializer<Object> serializer = (RedisSerializer<Object>) sessionRedisOperations.getValueSerializer();
+			if(serializer == null) {
+				serializer = new JdkSerializationRedisSerializer();
+			}
+			Map<Object,Object> loaded = (Map<Object, Object>) serializer.deserialize(messageBody);
+			handleCreated(loaded, new String(messageChannel, UTF_8));
 			return;
 		}
 
-		boolean isDeleted = channel.endsWith(":del");
-		if(isDeleted || channel.endsWith(":expired")) {
-			int beginIndex = body.lastIndexOf(":") + 1;
-			int endIndex = body.length();
-			String sessionId = body.substring(beginIndex, endIndex);
+		String deletedId = matcher.getDeletedSessionId(messageChannel);
+		if(deletedId != null) {
+			handleRelayed(deletedId, true);
+			return;
+		}
 
-			RedisSession session = getSession(sessionId, true);
+		String expiredId = matcher.getExpiredSessionId(messageChannel);
+		if(expiredId != null) {
+			handleRelayed(expiredId, false);
+		}
+	}
 
-			if(logger.isDebugEnabled()) {
-				logger.debug("Publishing SessionDestroyedEvent for session " + sessionId);
+	private void handleDestroyed(String sessionId, boolean isDeleted) {
+		if(destroyedEventRelay != null) {
+			if(destroyedEventRelay.isLeader(sessionRedisOperations, getDestroyedEventLeaseKey())) {
+				relayDestroyed(sessionId, isDeleted);
 			}
+			return;
+		}
 
-			String principal = PRINCIPAL_NAME_RESOLVER.resolvePrincipal(session);
-			if(principal != null) {
-				sessionRedisOperations.boundSetOps(getPrincipalKey(principal)).remove(sessionId);
-			}
+		if(nearCache != null) {
+			nearCache.remove(sessionId);
+		}
 
-			if(isDeleted) {
-				handleDeleted(sessionId, session);
-			} else {
-				handleExpired(sessionId, session);
+		RedisSession session = getDestroyedSession(sessionId);
+
+		if(logger.isDebugEnabled()) {
+			logger.debug("Publishing SessionDestroyedEvent for session " + sessionId);
+		}
+
+		removePrincipalIndex(sessionId, session);
+
+		if(isDeleted) {
+			handleDeleted(sessionId, session);
+		} else {
+			handleExpired(sessionId, session);
+		}
+	}
+
+	/**
+	 * Removes the session from the principal name index and publishes a compact message so that every application
+	 * fires the {@link SessionDestroyedEvent}.
+	 *
+	 * @param sessionId the id of the session that was destroyed
+	 * @param isDeleted true if the session was deleted, false if it expired
+	 */
+	private void relayDestroyed(String sessionId, boolean isDeleted) {
+		removePrincipalIndex(sessionId, getDestroyedSession(sessionId));
+
+		String channel = (isDeleted ? getSessionDeletedChannelPrefix() : getSessionExpiredChannelPrefix()) + sessionId;
+		final byte[] rawChannel = channel.getBytes(UTF_8);
+		sessionRedisOperations.execute(new RedisCallback<Object>() {
+			public Object doInRedis(RedisConnection connection) throws DataAccessException {
+				connection.publish(rawChannel, EMPTY_BODY);
+				return null;
 			}
+		});
+	}
+
+	private void handleRelayed(String sessionId, boolean isDeleted) {
+		if(nearCache != null) {
+			nearCache.remove(sessionId);
+		}
+
+		if(logger.isDebugEnabled()) {
+			logger.debug("Publishing relayed SessionDestroyedEvent for session " + sessionId);
+		}
+
+		if(isDeleted) {
+			handleDeleted(sessionId, null);
+		} else {
+			handleExpired(sessionId, null);
+		}
+	}
+
+	/**
+	 * Reads the session that was deleted or expired according to the {@link RedisSessionDestroyedEventMode}.
+	 *
+	 * @param sessionId the id of the session that was destroyed
+	 * @return the session or null if it was not found
+	 */
+	private RedisSession getDestroyedSession(String sessionId) {
+		if(sessionDestroyedEventMode == RedisSessionDestroyedEventMode.SNAPSHOT) {
+			return getSessionSnapshot(sessionId);
+		}
+		return getSession(sessionId, true);
+	}
 
+	private void removePrincipalIndex(String sessionId, RedisSession session) {
+		if(session == null) {
 			return;
 		}
+		String principal = session.originalPrincipalNameResolved ? session.originalPrincipalName : principalNameExtractor.extractPrincipalName(session);
+		if(principal != null) {
+			sessionRedisOperations.boundSetOps(getPrincipalKey(principal)).remove(sessionId);
+		}
 	}
 
+	/**
+	 * Publishes a {@link SessionCreatedEvent} for a created message that contained the delta of the new session (i.e.
+	 * {@link RedisSessionCreatedEventMode#FULL}). Messages without a body are published as a lazily loaded event
+	 * without invoking this method.
+	 *
+	 * @param loaded the deserialized body of the message
+	 * @param channel the channel the message was received on. The suffix is the id of the session that was created.
+	 */
 	public void handleCreated(Map<Object,Object> loaded, String channel) {
 		String id = channel.substring(channel.lastIndexOf(":") + 1);
 		ExpiringSession session = loadSession(id, loaded);
@@ -527,6 +1625,12 @@ public class RedisOperationsSessionRepository implements FindByIndexNameSessionR
 
 	public void setRedisKeyNamespace(String namespace) {
 		this.keyPrefix = DEFAULT_SPRING_SESSION_REDIS_PREFIX + namespace + ":";
+		this.messageMatcher = createMessageMatcher();
+	}
+
+	private RedisSessionMessageMatcher createMessageMatcher() {
+		return new RedisSessionMessageMatcher(getSessionCreatedChannelPrefix(), getSessionDeletedChannelPrefix(),
+				getSessionExpiredChannelPrefix(), getExpiredKeyPrefix());
 	}
 
 	/**
@@ -536,7 +1640,7 @@ public class RedisOperationsSessionRepository implements FindByIndexNameSessionR
 	 * @return the Hash key for this session by prefixing it appropriately.
 	 */
 	String getSessionKey(String sessionId) {
-		return this.keyPrefix + "sessions:" + sessionId;
+		return this.keyPrefix + "sessions:" + getHashTag(sessionId);
 	}
 
 	String getPrincipalKey(String principalName) {
@@ -547,18 +1651,104 @@ public class RedisOperationsSessionRepository implements FindByIndexNameSessionR
 		return this.keyPrefix + "expirations:" + expiration;
 	}
 
-	private String getExpiredKey(String sessionId) {
-		return getExpiredKeyPrefix() + sessionId;
+	String getExpirationsKey() {
+		return this.keyPrefix + "expirations";
+	}
+
+	String getExpirationsWatermarkKey() {
+		return this.keyPrefix + "expirations:watermark";
+	}
+
+	String getCleanupLeaseKey() {
+		return this.keyPrefix + "expirations:lease";
+	}
+
+	String getExpiredKey(String sessionId) {
+		return getExpiredKeyPrefix() + getHashTag(sessionId);
+	}
+
+	/**
+	 * Gets the member that is added to the expiration sets for the session.
+	 *
+	 * @param sessionId the session id
+	 * @return the member that is added to the expiration sets for the session
+	 */
+	String getExpirationsMember(String sessionId) {
+		return "expires:" + getHashTag(sessionId);
+	}
+
+	/**
+	 * Gets the key of the session expires key from a member of the expiration sets.
+	 *
+	 * @param expirationsMember the member of the expiration set
+	 * @return the session expires key
+	 */
+	String getExpiredKeyFromMember(String expirationsMember) {
+		return this.keyPrefix + "sessions:" + expirationsMember;
+	}
+
+	/**
+	 * Gets the session id from a key specific to a session. Both keys with and without a hash tag are supported.
+	 *
+	 * @param key the key specific to a session
+	 * @return the session id
+	 */
+	static String getSessionIdFromKey(String key) {
+		String sessionId = key.substring(key.lastIndexOf(":") + 1);
+		if(sessionId.startsWith("{") && sessionId.endsWith("}")) {
+			return sessionId.substring(1, sessionId.length() - 1);
+		}
+		return sessionId;
+	}
+
+	boolean isUseHashTaggedKeys() {
+		return this.useHashTaggedKeys;
+	}
+
+	private String getHashTag(String sessionId) {
+		return this.useHashTaggedKeys ? "{" + sessionId + "}" : sessionId;
 	}
 
 	private String getSessionCreatedChannel(String sessionId) {
 		return getSessionCreatedChannelPrefix() + sessionId;
 	}
 
-	private String getExpiredKeyPrefix() {
+	/**
+	 * Gets the prefix of the keys whose deletion or expiration means a session was destroyed. The suffix is the
+	 * session id (possibly wrapped in a hash tag).
+	 *
+	 * @return the prefix of the keys whose deletion or expiration means a session was destroyed
+	 */
+	public String getExpiredKeyPrefix() {
 		return this.keyPrefix + "sessions:" + "expires:";
 	}
 
+	/**
+	 * Gets the prefix for the channel that relayed session deleted messages are published to. The suffix is the
+	 * session id of the session that was deleted.
+	 *
+	 * @return the prefix for the channel that relayed session deleted messages are published to
+	 * @see #setSessionDestroyedEventRelay(RedisSessionDestroyedEventRelay)
+	 */
+	public String getSessionDeletedChannelPrefix() {
+		return this.keyPrefix + "event:deleted:";
+	}
+
+	/**
+	 * Gets the prefix for the channel that relayed session expired messages are published to. The suffix is the
+	 * session id of the session that expired.
+	 *
+	 * @return the prefix for the channel that relayed session expired messages are published to
+	 * @see #setSessionDestroyedEventRelay(RedisSessionDestroyedEventRelay)
+	 */
+	public String getSessionExpiredChannelPrefix() {
+		return this.keyPrefix + "event:expired:";
+	}
+
+	String getDestroyedEventLeaseKey() {
+		return this.keyPrefix + "event:destroyed:lease";
+	}
+
 	/**
 	 * Gets the prefix for the channel that SessionCreatedEvent are published to. The suffix is the session id of the session that was created.
 	 *
@@ -598,21 +1788,65 @@ public class RedisOperationsSessionRepository implements FindByIndexNameSessionR
 		return template;
 	}
 
+	/**
+	 * The result of reading a session hash without deserializing the attributes.
+	 */
+	private static final class SerializedSession {
+		/**
+		 * The entries that are not attributes (i.e. the creation time) in their deserialized form.
+		 */
+		private final Map<Object, Object> entries = new HashMap<Object, Object>();
+
+		/**
+		 * The attribute names mapped to their serialized values.
+		 */
+		private final Map<String, byte[]> attributes = new HashMap<String, byte[]>();
+
+		/**
+		 * The number of bytes that were read.
+		 */
+		private long sizeInBytes;
+	}
+
 	/**
 	 * A custom implementation of {@link Session} that uses a {@link MapSession} as the basis for its mapping. It keeps
 	 * track of any attributes that have changed. When
-	 * {@link org.springframework.session.data.redis.RedisOperationsSessionRepository.RedisSession#saveDelta()} is invoked
+	 * {@link org.springframework.session.data.redis.RedisOperationsSessionRepository.RedisSession#saveDelta(RedisOperations)} is invoked
 	 * all the attributes that have been changed will be persisted.
 	 *
 	 * @since 1.0
 	 * @author Rob Winch
 	 */
-	final class RedisSession implements ExpiringSession {
+	final class RedisSession implements ExpiringSession, DirtyTrackingSession {
 		private final MapSession cached;
 		private Long originalLastAccessTime;
 		private Map<String, Object> delta = new HashMap<String,Object>();
 		private boolean isNew;
 		private String originalPrincipalName;
+		private boolean originalPrincipalNameResolved;
+		private boolean principalChanged;
+
+		/**
+		 * The names of the attributes that have been read from Redis or changed locally. If null, all of the
+		 * attributes have been read.
+		 */
+		private Set<String> resolvedAttributeNames;
+
+		/**
+		 * The attributes that have been read from Redis, but not deserialized yet. If null, there are no such
+		 * attributes.
+		 */
+		private Map<String, byte[]> serializedAttributes;
+
+		/**
+		 * The version written by the last save if a {@link RedisSessionNearCache} is used.
+		 */
+		private Long version;
+
+		/**
+		 * The approximate size of the session when it was read from Redis.
+		 */
+		private long sizeInBytes;
 
 		/**
 		 * Creates a new instance ensuring to mark all of the new attributes to be persisted in the next save operation.
@@ -623,6 +1857,7 @@ public class RedisOperationsSessionRepository implements FindByIndexNameSessionR
 			delta.put(MAX_INACTIVE_ATTR, getMaxInactiveIntervalInSeconds());
 			delta.put(LAST_ACCESSED_ATTR, getLastAccessedTime());
 			this.isNew = true;
+			this.originalPrincipalNameResolved = true;
 		}
 
 		/**
@@ -631,9 +1866,22 @@ public class RedisOperationsSessionRepository implements FindByIndexNameSessionR
 		 * @param cached the {@MapSession} that represents the persisted session that was retrieved. Cannot be null.
 		 */
 		RedisSession(MapSession cached) {
+			this(cached, false);
+		}
+
+		/**
+		 * Creates a new instance from the provided {@link MapSession}
+		 *
+		 * @param cached the {@MapSession} that represents the persisted session that was retrieved. Cannot be null.
+		 * @param lazy if true, the attributes of cached have not been read yet and are read from Redis as they are
+		 *            requested.
+		 */
+		RedisSession(MapSession cached, boolean lazy) {
 			Assert.notNull("MapSession cannot be null");
 			this.cached = cached;
-			this.originalPrincipalName = PRINCIPAL_NAME_RESOLVER.resolvePrincipal(this);
+			if(lazy) {
+				this.resolvedAttributeNames = new HashSet<String>();
+			}
 		}
 
 		public void setNew(boolean isNew) {
@@ -676,66 +1924,168 @@ public class RedisOperationsSessionRepository implements FindByIndexNameSessionR
 
 		@SuppressWarnings("unchecked")
 		public Object getAttribute(String attributeName) {
+			resolveAttribute(attributeName);
 			return cached.getAttribute(attributeName);
 		}
 
 		public Set<String> getAttributeNames() {
-			return cached.getAttributeNames();
+			resolveAllAttributes();
+			if(serializedAttributes == null || serializedAttributes.isEmpty()) {
+				return cached.getAttributeNames();
+			}
+			Set<String> attributeNames = new HashSet<String>(cached.getAttributeNames());
+			attributeNames.addAll(serializedAttributes.keySet());
+			return attributeNames;
 		}
 
 		public void setAttribute(String attributeName, Object attributeValue) {
+			beforeAttributeChanged(attributeName);
 			cached.setAttribute(attributeName, attributeValue);
 			delta.put(getSessionAttrNameKey(attributeName), attributeValue);
 		}
 
 		public void removeAttribute(String attributeName) {
+			beforeAttributeChanged(attributeName);
 			cached.removeAttribute(attributeName);
 			delta.put(getSessionAttrNameKey(attributeName), null);
 		}
 
+		/**
+		 * Ensures the original principal name is known and that a lazily loaded attribute is not read after it has
+		 * been changed locally.
+		 *
+		 * @param attributeName the name of the attribute that is about to change
+		 */
+		private void beforeAttributeChanged(String attributeName) {
+			if(principalNameExtractor.isPrincipalAttribute(attributeName)) {
+				if(!originalPrincipalNameResolved) {
+					originalPrincipalName = principalNameExtractor.extractPrincipalName(this);
+					originalPrincipalNameResolved = true;
+				}
+				principalChanged = true;
+			}
+			if(resolvedAttributeNames != null) {
+				resolvedAttributeNames.add(attributeName);
+			}
+			if(serializedAttributes != null) {
+				serializedAttributes.remove(attributeName);
+			}
+		}
+
+		/**
+		 * Reads the attribute from Redis if attributes are lazily loaded and it has not been read yet.
+		 *
+		 * @param attributeName the name of the attribute to read
+		 */
+		private void resolveAttribute(String attributeName) {
+			if(serializedAttributes != null) {
+				byte[] serializedValue = serializedAttributes.remove(attributeName);
+				if(serializedValue != null) {
+					cached.setAttribute(attributeName, getAttributeValueSerializer().deserialize(serializedValue));
+					return;
+				}
+			}
+			if(resolvedAttributeNames == null || !resolvedAttributeNames.add(attributeName)) {
+				return;
+			}
+			cached.setAttribute(attributeName, readAttribute(getId(), attributeName));
+		}
+
+		/**
+		 * Reads all of the attributes that have not been read yet if attributes are lazily loaded.
+		 */
+		private void resolveAllAttributes() {
+			if(resolvedAttributeNames == null) {
+				return;
+			}
+			for(Map.Entry<String,Object> attribute : readAttributes(getId()).entrySet()) {
+				if(!resolvedAttributeNames.contains(attribute.getKey())) {
+					cached.setAttribute(attribute.getKey(), attribute.getValue());
+				}
+			}
+			resolvedAttributeNames = null;
+		}
+
 		/**
 		 * Saves any attributes that have been changed and updates the expiration of this session.
+		 *
+		 * @param redis the {@link RedisOperations} to issue the commands with
 		 */
-		private void saveDelta() {
+		private void saveDelta(RedisOperations<Object, Object> redis) {
 			String sessionId = getId();
-			getSessionBoundHashOperations(sessionId).putAll(delta);
-			String principalSessionKey = getSessionAttrNameKey(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME);
-			String securityPrincipalSessionKey = getSessionAttrNameKey(SPRING_SECURITY_CONTEXT);
-			if(delta.containsKey(principalSessionKey) || delta.containsKey(securityPrincipalSessionKey)) {
+			if(nearCache != null) {
+				version = VERSION_GENERATOR.nextLong();
+				delta.put(VERSION_ATTR, version);
+			}
+			Long originalExpiration = originalLastAccessTime == null ? null : originalLastAccessTime + TimeUnit.SECONDS.toMillis(getMaxInactiveIntervalInSeconds());
+			boolean principalChanged = this.principalChanged;
+			String principal = null;
+			if(principalChanged) {
+				principal = principalNameExtractor.extractPrincipalName(this);
+				if(sessionDestroyedEventMode == RedisSessionDestroyedEventMode.SNAPSHOT) {
+					delta.put(PRINCIPAL_NAME_ATTR, principal);
+				}
+			}
+			if(sessionSaveScript == null) {
+				putAll(redis, sessionId, delta);
+			} else {
+				expirationPolicy.onExpirationUpdated(redis, sessionSaveScript, originalExpiration, this, delta);
+			}
+			if(principalChanged) {
 				if(originalPrincipalName != null) {
 					String originalPrincipalRedisKey = getPrincipalKey((String) originalPrincipalName);
-					sessionRedisOperations.boundSetOps(originalPrincipalRedisKey).remove(sessionId);
+					redis.boundSetOps(originalPrincipalRedisKey).remove(sessionId);
 				}
-				String principal = PRINCIPAL_NAME_RESOLVER.resolvePrincipal(this);
 				originalPrincipalName = principal;
 				if(principal != null) {
 					String principalRedisKey = getPrincipalKey(principal);
-					sessionRedisOperations.boundSetOps(principalRedisKey).add(sessionId);
+					redis.boundSetOps(principalRedisKey).add(sessionId);
 				}
 			}
 
 			delta = new HashMap<String,Object>(delta.size());
+			this.principalChanged = false;
+
+			if(sessionSaveScript == null) {
+				expirationPolicy.onExpirationUpdated(redis, originalExpiration, this);
+			}
 
-			Long originalExpiration = originalLastAccessTime == null ? null : originalLastAccessTime + TimeUnit.SECONDS.toMillis(getMaxInactiveIntervalInSeconds())    ;
-			expirationPolicy.onExpirationUpdated(originalExpiration, this);
+			// the saved expiration is the original expiration if this instance is saved again
+			originalLastAccessTime = getLastAccessedTime();
 		}
-	}
 
-	static class PrincipalNameResolver {
-		private SpelExpressionParser parser = new SpelExpressionParser();
+		public boolean isDirty() {
+			return isNew || (!delta.isEmpty() && !isOnlyTouchedWithin(touchGranularityInMillis));
+		}
 
-		public String resolvePrincipal(Session session) {
-			String principalName = session.getAttribute(PRINCIPAL_NAME_INDEX_NAME);
-			if(principalName != null) {
-				return principalName;
+		/**
+		 * Determines if the only change is to the last accessed time and the last accessed time that was saved is
+		 * within the provided granularity.
+		 *
+		 * @param granularityInMillis the granularity in milliseconds
+		 * @return true if saving the session can be skipped
+		 */
+		private boolean isOnlyTouchedWithin(long granularityInMillis) {
+			if(granularityInMillis <= 0 || isNew || originalLastAccessTime == null) {
+				return false;
 			}
-			Object authentication = session.getAttribute(SPRING_SECURITY_CONTEXT);
-			if(authentication != null) {
-				Expression expression = parser.parseExpression("authentication?.name");
-				return expression.getValue(authentication, String.class);
+			if(delta.size() != 1 || !delta.containsKey(LAST_ACCESSED_ATTR)) {
+				return false;
 			}
-			return null;
+			return getLastAccessedTime() - originalLastAccessTime < granularityInMillis;
 		}
 
+		/**
+		 * Caches a copy of this session in the {@link RedisSessionNearCache} along with the version written by the
+		 * last save. If not all of the attributes have been read, the session is removed from the cache instead.
+		 */
+		private void updateNearCache() {
+			boolean allAttributesRead = resolvedAttributeNames == null && (serializedAttributes == null || serializedAttributes.isEmpty());
+			if(allAttributesRead && version != null) {
+				nearCache.put(getId(), new MapSession(cached), version, sizeInBytes);
+			} else {
+				nearCache.remove(getId());
+			}
+		}
 	}
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import org.springframework.session.events.SessionCreatedEvent;
+
+/**
+ * Determines what {@link RedisOperationsSessionRepository} publishes to Redis
+ * when a session is created so that every node can fire a
+ * {@link SessionCreatedEvent}.
+ *
+ * @author agent
+ * @since 1.1
+ * @see RedisOperationsSessionRepository#setSessionCreatedEventMode(RedisSessionCreatedEventMode)
+ */
+public enum RedisSessionCreatedEventMode {
+	/**
+	 * The delta of the new session is serialized and published. The
+	 * {@link SessionCreatedEvent} contains the session that was published.
+	 */
+	FULL,
+
+	/**
+	 * A message with an empty body is published. The {@link SessionCreatedEvent}
+	 * only contains the session id and the session is read from Redis the
+	 * first time {@link SessionCreatedEvent#getSession()} is invoked.
+	 */
+	ID_ONLY,
+
+	/**
+	 * Nothing is published, so no {@link SessionCreatedEvent} is fired. This is
+	 * useful when the application has no listeners for the event.
+	 */
+	NONE
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import org.springframework.session.events.SessionDestroyedEvent;
+
+/**
+ * Determines what {@link RedisOperationsSessionRepository} reads from Redis when
+ * a session is deleted or expires in order to clean up the principal name index
+ * and fire a {@link SessionDestroyedEvent}.
+ *
+ * @author agent
+ * @since 1.1
+ * @see RedisOperationsSessionRepository#setSessionDestroyedEventMode(RedisSessionDestroyedEventMode)
+ */
+public enum RedisSessionDestroyedEventMode {
+	/**
+	 * The whole session is read and deserialized using HGETALL. The principal
+	 * name is resolved from the attributes of the session.
+	 */
+	FULL,
+
+	/**
+	 * The principal name is written to the session hash whenever it changes.
+	 * Only the creation time, maximum inactive interval, last accessed time and
+	 * principal name are read using a single HMGET. The attributes of the
+	 * session in the {@link SessionDestroyedEvent} are read from Redis the first
+	 * time a listener requests them. Every node that writes to the same
+	 * sessions must use this mode, since the principal name index of sessions
+	 * saved without the principal name is not cleaned up.
+	 */
+	SNAPSHOT
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.session.data.redis.RedisSessionSaveScript.ByteArrayRedisSerializer;
+import org.springframework.util.Assert;
+
+/**
+ * <p>
+ * Elects a single application, among every application that shares the
+ * sessions, to handle the keyspace notifications for deleted and expired
+ * sessions. The elected application looks up the session, removes it from the
+ * principal name index and publishes a compact message with an empty body to
+ * "spring:session:event:deleted:&lt;id&gt;" or
+ * "spring:session:event:expired:&lt;id&gt;". Every application (including the
+ * elected one) translates these messages into a
+ * {@link org.springframework.session.events.SessionDeletedEvent} or
+ * {@link org.springframework.session.events.SessionExpiredEvent} that only
+ * contains the session id. The other applications ignore the keyspace
+ * notifications, so each session that is destroyed is only read once rather
+ * than once per application.
+ * </p>
+ *
+ * <p>
+ * The election uses a lease that is acquired (or renewed by the current holder)
+ * with:
+ * </p>
+ *
+ * <pre>
+ * SET spring:session:event:destroyed:lease 9bb4a0f3-b4b9-4a2c-a2c0-4b1e01a9a1e2 NX PX 30000
+ * </pre>
+ *
+ * <p>
+ * To avoid a round trip for every notification, the outcome is reused for a
+ * third of the lease time. If the elected application stops, another
+ * application takes over once the lease expires. Notifications received in the
+ * meantime are not relayed.
+ * </p>
+ *
+ * @author agent
+ * @since 1.1
+ * @see RedisOperationsSessionRepository#setSessionDestroyedEventRelay(RedisSessionDestroyedEventRelay)
+ */
+public class RedisSessionDestroyedEventRelay {
+
+	/**
+	 * The default number of milliseconds the lease is held (30 seconds).
+	 */
+	public static final long DEFAULT_LEASE_TIME_IN_MILLIS = 30000;
+
+	/**
+	 * <ul>
+	 * <li>KEYS[1] - the lease key</li>
+	 * <li>ARGV[1] - the token identifying the holder of the lease</li>
+	 * <li>ARGV[2] - the number of milliseconds the lease is held</li>
+	 * </ul>
+	 */
+	static final String SCRIPT =
+			"if redis.call('GET', KEYS[1]) == ARGV[1] then\n" +
+			"  redis.call('PEXPIRE', KEYS[1], ARGV[2])\n" +
+			"  return 1\n" +
+			"end\n" +
+			"return redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) and 1 or 0\n";
+
+	private static final RedisSerializer<byte[]> ARGS_SERIALIZER = new ByteArrayRedisSerializer();
+
+	private final DefaultRedisScript<Long> script;
+
+	private final byte[] token = UUID.randomUUID().toString().getBytes(RedisOperationsSessionRepository.UTF_8);
+
+	private final long leaseTimeInMillis;
+
+	private final byte[] leaseTime;
+
+	private volatile boolean leader;
+
+	private volatile long checkAfter;
+
+	/**
+	 * Creates a new instance that holds the lease for {@link #DEFAULT_LEASE_TIME_IN_MILLIS}.
+	 */
+	public RedisSessionDestroyedEventRelay() {
+		this(DEFAULT_LEASE_TIME_IN_MILLIS);
+	}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param leaseTimeInMillis the number of milliseconds the lease is held. This is the longest time notifications
+	 * are not relayed if the elected application stops.
+	 */
+	public RedisSessionDestroyedEventRelay(long leaseTimeInMillis) {
+		Assert.isTrue(leaseTimeInMillis > 0, "leaseTimeInMillis must be greater than 0");
+		this.leaseTimeInMillis = leaseTimeInMillis;
+		this.leaseTime = String.valueOf(leaseTimeInMillis).getBytes(RedisOperationsSessionRepository.UTF_8);
+		this.script = new DefaultRedisScript<Long>();
+		this.script.setScriptText(SCRIPT);
+		this.script.setResultType(Long.class);
+	}
+
+	/**
+	 * Determines if this application is elected to handle the keyspace notifications, acquiring or renewing the lease
+	 * if the previous outcome is too old to be reused.
+	 *
+	 * @param redis the {@link RedisOperations} to use
+	 * @param leaseKey the key of the lease
+	 * @return true if this application is elected, else false
+	 */
+	boolean isLeader(RedisOperations<Object, Object> redis, String leaseKey) {
+		long now = System.currentTimeMillis();
+		if(now < this.checkAfter) {
+			return this.leader;
+		}
+		Long acquired = redis.execute(this.script, ARGS_SERIALIZER, null, Collections.<Object>singletonList(leaseKey),
+				this.token, this.leaseTime);
+		this.leader = acquired != null && acquired == 1L;
+		this.checkAfter = now + this.leaseTimeInMillis / 3;
+		return this.leader;
+	}
+}
@@ -15,15 +15,25 @@
  */
 package org.springframework.session.data.redis;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
-import java.util.Set;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.core.BoundSetOperations;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.session.ExpiringSession;
 import org.springframework.session.data.redis.RedisOperationsSessionRepository.RedisSession;
 
@@ -36,18 +46,33 @@ import org.springframework.session.data.redis.RedisOperationsSessionRepository.R
  * expiration (rounded to the nearest minute) is mapped to all the sessions that
  * expire at that time. Whenever {@link #cleanExpiredSessions()} is invoked, the
  * sessions for the previous minute are then accessed to ensure they are deleted if expired.
+ * The sessions are read using SSCAN in pages and each page is accessed using a single pipeline.
  *
  * In some instances the {@link #cleanExpiredSessions()} method may not be not
  * invoked for a specific time. For example, this may happen when a server is
- * restarted. To account for this, the expiration on the Redis session is also set.
+ * restarted. To account for this, the last minute that was processed is stored
+ * and any minutes that were missed since then are processed as well. The stored
+ * minute expires once it is too old to be used. The expiration on the Redis
+ * session is also set.
  *
  * @author Rob Winch
  * @since 1.0
  */
-final class RedisSessionExpirationPolicy {
+class RedisSessionExpirationPolicy {
 
-	private static final Log logger = LogFactory.getLog(RedisOperationsSessionRepository.class);
+	static final Log logger = LogFactory.getLog(RedisOperationsSessionRepository.class);
 
+	/**
+	 * The number of sessions each SSCAN of an expiration set is asked for. The sessions of a page are accessed at a
+	 * time.
+	 */
+	static final int PAGE_SIZE = 1000;
+
+	/**
+	 * The maximum number of minutes processed by a single invocation of {@link #cleanExpiredSessions()}. Any
+	 * remaining minutes are processed by the next invocation.
+	 */
+	static final int MAX_MINUTES = 60;
 
 	private final RedisOperations<Object,Object> redis;
 
@@ -63,11 +88,47 @@ final class RedisSessionExpirationPolicy {
 	public void onDelete(ExpiringSession session) {
 		long toExpire = roundUpToNextMinute(expiresInMillis(session));
 		String expireKey = getExpirationKey(toExpire);
-		redis.boundSetOps(expireKey).remove(session.getId());
+		redis.boundSetOps(expireKey).remove(getExpirationsMember(session.getId()));
 	}
 
 	public void onExpirationUpdated(Long originalExpirationTimeInMilli, ExpiringSession session) {
-		String keyToExpire = "expires:" + session.getId();
+		onExpirationUpdated(this.redis, originalExpirationTimeInMilli, session);
+	}
+
+	/**
+	 * Updates the expiration mappings using the provided {@link RedisOperations}. This allows the updates to be
+	 * issued on a pipelined connection along with the rest of the save.
+	 *
+	 * @param redis the {@link RedisOperations} to issue the commands with
+	 * @param originalExpirationTimeInMilli the expiration time the session was originally mapped to or null
+	 * @param session the session whose expiration was updated
+	 */
+	void onExpirationUpdated(RedisOperations<Object,Object> redis, Long originalExpirationTimeInMilli, ExpiringSession session) {
+		updateExpirationSets(redis, originalExpirationTimeInMilli, session);
+
+		long sessionExpireInSeconds = session.getMaxInactiveIntervalInSeconds();
+		long fiveMinutesAfterExpires = sessionExpireInSeconds + TimeUnit.MINUTES.toSeconds(5);
+		String sessionKey = getExpiredKey(session.getId());
+
+		if(sessionExpireInSeconds == 0) {
+			redis.delete(sessionKey);
+		} else {
+			redis.boundValueOps(sessionKey).append("");
+			redis.boundValueOps(sessionKey).expire(sessionExpireInSeconds, TimeUnit.SECONDS);
+		}
+		redis.boundHashOps(getSessionKey(session.getId())).expire(fiveMinutesAfterExpires, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Moves the session from the expiration set it was originally mapped to into the expiration set it is now
+	 * mapped to.
+	 *
+	 * @param redis the {@link RedisOperations} to issue the commands with
+	 * @param originalExpirationTimeInMilli the expiration time the session was originally mapped to or null
+	 * @param session the session whose expiration was updated
+	 */
+	private void updateExpirationSets(RedisOperations<Object,Object> redis, Long originalExpirationTimeInMilli, ExpiringSession session) {
+		String keyToExpire = getExpirationsMember(session.getId());
 		long toExpire = roundUpToNextMinute(expiresInMillis(session));
 
 		if(originalExpirationTimeInMilli != null) {
@@ -82,18 +143,48 @@ final class RedisSessionExpirationPolicy {
 		BoundSetOperations<Object, Object> expireOperations = redis.boundSetOps(expireKey);
 		expireOperations.add(keyToExpire);
 
+		long fiveMinutesAfterExpires = session.getMaxInactiveIntervalInSeconds() + TimeUnit.MINUTES.toSeconds(5);
+		expireOperations.expire(fiveMinutesAfterExpires, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Applies the delta and updates the expiration mappings using a single invocation of the
+	 * {@link RedisSessionSaveScript}. If the keys are hash tagged, the expiration sets are in other slots of a Redis
+	 * Cluster than the session, so they are updated using separate commands after the script was invoked.
+	 *
+	 * @param redis the {@link RedisOperations} to issue the script with
+	 * @param script the {@link RedisSessionSaveScript} to invoke
+	 * @param originalExpirationTimeInMilli the expiration time the session was originally mapped to or null
+	 * @param session the session whose expiration was updated
+	 * @param delta the hash fields of the session that have changed
+	 */
+	void onExpirationUpdated(RedisOperations<Object,Object> redis, RedisSessionSaveScript script,
+			Long originalExpirationTimeInMilli, ExpiringSession session, Map<String,Object> delta) {
+		String keyToExpire = getExpirationsMember(session.getId());
+		long toExpire = roundUpToNextMinute(expiresInMillis(session));
+		String expireKey = getExpirationKey(toExpire);
+		String originalExpireKey = originalExpirationTimeInMilli == null ? expireKey
+				: getExpirationKey(roundUpToNextMinute(originalExpirationTimeInMilli));
+
 		long sessionExpireInSeconds = session.getMaxInactiveIntervalInSeconds();
 		long fiveMinutesAfterExpires = sessionExpireInSeconds + TimeUnit.MINUTES.toSeconds(5);
-		String sessionKey = getSessionKey(keyToExpire);
 
-		expireOperations.expire(fiveMinutesAfterExpires, TimeUnit.SECONDS);
-		if(sessionExpireInSeconds == 0) {
-			redis.delete(sessionKey);
-		} else {
-			redis.boundValueOps(sessionKey).append("");
-			redis.boundValueOps(sessionKey).expire(sessionExpireInSeconds, TimeUnit.SECONDS);
+		if(this.redisSession.isUseHashTaggedKeys()) {
+			script.execute(redis, getSessionKey(session.getId()), getExpiredKey(session.getId()), null,
+					null, delta, getRepository().getAttributeValueSerializer(), keyToExpire, sessionExpireInSeconds, fiveMinutesAfterExpires);
+			updateExpirationSets(redis, originalExpirationTimeInMilli, session);
+			return;
 		}
-		redis.boundHashOps(getSessionKey(session.getId())).expire(fiveMinutesAfterExpires, TimeUnit.SECONDS);
+		script.execute(redis, getSessionKey(session.getId()), getExpiredKey(session.getId()), expireKey,
+				originalExpireKey, delta, getRepository().getAttributeValueSerializer(), keyToExpire, sessionExpireInSeconds, fiveMinutesAfterExpires);
+	}
+
+	RedisOperations<Object,Object> getRedisOperations() {
+		return this.redis;
+	}
+
+	RedisOperationsSessionRepository getRepository() {
+		return this.redisSession;
 	}
 
 	String getExpirationKey(long expires) {
@@ -104,31 +195,139 @@ final class RedisSessionExpirationPolicy {
 		return this.redisSession.getSessionKey(sessionId);
 	}
 
-	public void cleanExpiredSessions() {
-		long now = System.currentTimeMillis();
-		long prevMin = roundDownMinute(now);
+	String getExpiredKey(String sessionId) {
+		return this.redisSession.getExpiredKey(sessionId);
+	}
 
-		if(logger.isDebugEnabled()) {
-			logger.debug("Cleaning up sessions expiring at "+ new Date(prevMin));
+	String getExpirationsMember(String sessionId) {
+		return this.redisSession.getExpirationsMember(sessionId);
+	}
+
+	String getExpiredKeyFromMember(String expirationsMember) {
+		return this.redisSession.getExpiredKeyFromMember(expirationsMember);
+	}
+
+	/**
+	 * Accesses the sessions of every minute since the last minute that was processed (or the previous minute if
+	 * no minute was processed yet) up to and including the previous minute.
+	 *
+	 * @return the number of sessions that were accessed
+	 */
+	public int cleanExpiredSessions() {
+		long start = System.currentTimeMillis();
+		long prevMin = roundDownMinute(start);
+		long oneMinute = TimeUnit.MINUTES.toMillis(1);
+
+		String watermarkKey = getWatermarkKey();
+		Object watermark = redis.boundValueOps(watermarkKey).get();
+		long minute = watermark instanceof Long ? (Long) watermark + oneMinute : prevMin;
+		minute = Math.max(minute, prevMin - (MAX_MINUTES - 1) * oneMinute);
+
+		int touched = 0;
+		int minutes = 0;
+		for(; minute <= prevMin; minute += oneMinute) {
+			if(logger.isDebugEnabled()) {
+				logger.debug("Cleaning up sessions expiring at "+ new Date(minute));
+			}
+
+			String expirationKey = getExpirationKey(minute);
+			touched += touchAll(expirationKey);
+			redis.delete(expirationKey);
+			redis.boundValueOps(watermarkKey).set(minute, MAX_MINUTES, TimeUnit.MINUTES);
+			minutes++;
 		}
 
-		String expirationKey = getExpirationKey(prevMin);
-		Set<Object> sessionsToExpire = redis.boundSetOps(expirationKey).members();
-		redis.delete(expirationKey);
-		for(Object session : sessionsToExpire) {
-			String sessionKey = getSessionKey((String) session);
-			touch(sessionKey);
+		if(logger.isDebugEnabled()) {
+			logger.debug("Cleaned up " + touched + " sessions expiring in " + minutes + " minutes in "
+					+ (System.currentTimeMillis() - start) + " ms");
 		}
+		return touched;
+	}
+
+	/**
+	 * Accesses every session in the expiration set. The set is read using SSCAN and the sessions of each page are
+	 * accessed using a single pipeline on the same connection. The pipeline is only opened once the page was read
+	 * completely, so that it never interleaves with a SSCAN.
+	 *
+	 * @param expirationKey the key of the expiration set
+	 * @return the number of sessions that were accessed
+	 */
+	@SuppressWarnings("unchecked")
+	private int touchAll(String expirationKey) {
+		final RedisSerializer<Object> keySerializer = (RedisSerializer<Object>) redis.getKeySerializer();
+		final RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) redis.getValueSerializer();
+		final byte[] rawExpirationKey = keySerializer.serialize(expirationKey);
+
+		Integer touched = redis.execute(new RedisCallback<Integer>() {
+			public Integer doInRedis(RedisConnection connection) throws DataAccessException {
+				Cursor<byte[]> members = connection.sScan(rawExpirationKey, ScanOptions.scanOptions().count(PAGE_SIZE).build());
+				try {
+					int touched = 0;
+					List<byte[]> page = new ArrayList<byte[]>(PAGE_SIZE);
+					long cursorId = members.getCursorId();
+					while(members.hasNext()) {
+						if(members.getCursorId() != cursorId) {
+							// the next page was fetched, so the previous page was read completely
+							touched += touch(connection, page);
+							page.clear();
+							cursorId = members.getCursorId();
+						}
+						String member = (String) valueSerializer.deserialize(members.next());
+						page.add(keySerializer.serialize(getExpiredKeyFromMember(member)));
+					}
+					return touched + touch(connection, page);
+				} finally {
+					close(members);
+				}
+			}
+		});
+		return touched == null ? 0 : touched;
 	}
 
 	/**
 	 * By trying to access the session we only trigger a deletion if it the TTL is expired. This is done to handle
 	 * https://github.com/spring-projects/spring-session/issues/93
 	 *
-	 * @param key
+	 * @param connection the {@link RedisConnection} to use
+	 * @param keys the keys to access
+	 * @return the number of keys that were accessed
 	 */
-	private void touch(String key) {
-		redis.hasKey(key);
+	static int touch(RedisConnection connection, List<byte[]> keys) {
+		exists(connection, keys);
+		return keys.size();
+	}
+
+	/**
+	 * Accesses the provided keys using a single pipeline. Like {@link #touch(RedisConnection, List)} this triggers a
+	 * deletion of the keys whose TTL is expired.
+	 *
+	 * @param connection the {@link RedisConnection} to use
+	 * @param keys the keys to access
+	 * @return the replies of the pipeline, which are {@link Boolean#TRUE} for the keys that still exist. May be empty
+	 *         if the connection does not provide the replies.
+	 */
+	static List<Object> exists(RedisConnection connection, List<byte[]> keys) {
+		if(keys.isEmpty()) {
+			return Collections.emptyList();
+		}
+		connection.openPipeline();
+		for(byte[] key : keys) {
+			connection.exists(key);
+		}
+		List<Object> replies = connection.closePipeline();
+		return replies == null ? Collections.<Object>emptyList() : replies;
+	}
+
+	private static void close(Cursor<byte[]> cursor) {
+		try {
+			cursor.close();
+		} catch(IOException e) {
+			logger.debug("Could not close cursor", e);
+		}
+	}
+
+	String getWatermarkKey() {
+		return this.redisSession.getExpirationsWatermarkKey();
 	}
 
 	static long expiresInMillis(ExpiringSession session) {
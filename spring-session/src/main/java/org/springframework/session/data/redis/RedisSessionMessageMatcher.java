@@ -0,0 +1,202 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+/**
+ * <p>
+ * Matches the raw channel and body of the messages received by
+ * {@link RedisOperationsSessionRepository#onMessage(org.springframework.data.redis.connection.Message, byte[])}
+ * against the channels and keys used for a key prefix. The prefixes and
+ * suffixes are encoded once, so that messages are matched without decoding the
+ * channel or body. A String is only created for the session id of a message
+ * that matches.
+ * </p>
+ *
+ * <p>
+ * This matters when Redis is shared, since every node receives the keyspace
+ * notifications of every key that is deleted or expires.
+ * </p>
+ *
+ * @author agent
+ * @since 1.1
+ */
+final class RedisSessionMessageMatcher {
+	static final int NO_EVENT = 0;
+
+	static final int DELETED_EVENT = 1;
+
+	static final int EXPIRED_EVENT = 2;
+
+	private static final byte[] KEYSPACE_CHANNEL_PREFIX = bytes("__keyspace@");
+
+	private static final byte[] KEYSPACE_KEY_SEPARATOR = bytes("__:");
+
+	private static final byte[] DEL = bytes("del");
+
+	private static final byte[] EXPIRED = bytes("expired");
+
+	private static final byte[] DEL_SUFFIX = bytes(":del");
+
+	private static final byte[] EXPIRED_SUFFIX = bytes(":expired");
+
+	private final byte[] createdChannelPrefix;
+
+	private final byte[] deletedChannelPrefix;
+
+	private final byte[] expiredChannelPrefix;
+
+	private final byte[] expiredKeyPrefix;
+
+	/**
+	 * Creates a new instance
+	 *
+	 * @param createdChannelPrefix the prefix of the channel session created messages are published to
+	 * @param deletedChannelPrefix the prefix of the channel relayed session deleted messages are published to
+	 * @param expiredChannelPrefix the prefix of the channel relayed session expired messages are published to
+	 * @param expiredKeyPrefix the prefix of the keys whose deletion or expiration means a session was destroyed
+	 */
+	RedisSessionMessageMatcher(String createdChannelPrefix, String deletedChannelPrefix,
+			String expiredChannelPrefix, String expiredKeyPrefix) {
+		this.createdChannelPrefix = bytes(createdChannelPrefix);
+		this.deletedChannelPrefix = bytes(deletedChannelPrefix);
+		this.expiredChannelPrefix = bytes(expiredChannelPrefix);
+		this.expiredKeyPrefix = bytes(expiredKeyPrefix);
+	}
+
+	/**
+	 * Gets the session id of a session created message.
+	 *
+	 * @param channel the channel the message was received on
+	 * @return the session id or null if the message is not a session created message
+	 */
+	String getCreatedSessionId(byte[] channel) {
+		return getSuffix(channel, this.createdChannelPrefix);
+	}
+
+	/**
+	 * Gets the session id of a relayed session deleted message.
+	 *
+	 * @param channel the channel the message was received on
+	 * @return the session id or null if the message is not a relayed session deleted message
+	 */
+	String getDeletedSessionId(byte[] channel) {
+		return getSuffix(channel, this.deletedChannelPrefix);
+	}
+
+	/**
+	 * Gets the session id of a relayed session expired message.
+	 *
+	 * @param channel the channel the message was received on
+	 * @return the session id or null if the message is not a relayed session expired message
+	 */
+	String getExpiredSessionId(byte[] channel) {
+		return getSuffix(channel, this.expiredChannelPrefix);
+	}
+
+	/**
+	 * Determines if a keyspace (__keyspace@*) or keyevent (__keyevent@*) notification means a session was destroyed.
+	 *
+	 * @param channel the channel the message was received on
+	 * @param body the body of the message
+	 * @return {@link #DELETED_EVENT}, {@link #EXPIRED_EVENT} or {@link #NO_EVENT} if the notification is for another
+	 * key or another event
+	 */
+	int getDestroyedEvent(byte[] channel, byte[] body) {
+		int event;
+		if(startsWith(channel, 0, KEYSPACE_CHANNEL_PREFIX)) {
+			event = toEvent(equals(body, DEL), equals(body, EXPIRED));
+			if(event == NO_EVENT) {
+				return NO_EVENT;
+			}
+			int keyIndex = getKeyspaceKeyIndex(channel);
+			return keyIndex >= 0 && startsWith(channel, keyIndex, this.expiredKeyPrefix) ? event : NO_EVENT;
+		}
+		event = toEvent(endsWith(channel, DEL_SUFFIX), endsWith(channel, EXPIRED_SUFFIX));
+		if(event == NO_EVENT) {
+			return NO_EVENT;
+		}
+		return startsWith(body, 0, this.expiredKeyPrefix) ? event : NO_EVENT;
+	}
+
+	/**
+	 * Gets the session id of a notification that {@link #getDestroyedEvent(byte[], byte[])} matched. The hash tag is
+	 * removed if the key contains one.
+	 *
+	 * @param channel the channel the message was received on
+	 * @param body the body of the message
+	 * @return the session id
+	 */
+	String getDestroyedSessionId(byte[] channel, byte[] body) {
+		if(startsWith(channel, 0, KEYSPACE_CHANNEL_PREFIX)) {
+			return getSessionId(channel, getKeyspaceKeyIndex(channel) + this.expiredKeyPrefix.length);
+		}
+		return getSessionId(body, this.expiredKeyPrefix.length);
+	}
+
+	private static int toEvent(boolean deleted, boolean expired) {
+		return deleted ? DELETED_EVENT : expired ? EXPIRED_EVENT : NO_EVENT;
+	}
+
+	private static int getKeyspaceKeyIndex(byte[] channel) {
+		int last = channel.length - KEYSPACE_KEY_SEPARATOR.length;
+		for(int i = KEYSPACE_CHANNEL_PREFIX.length; i <= last; i++) {
+			if(startsWith(channel, i, KEYSPACE_KEY_SEPARATOR)) {
+				return i + KEYSPACE_KEY_SEPARATOR.length;
+			}
+		}
+		return -1;
+	}
+
+	private static String getSessionId(byte[] source, int offset) {
+		int end = source.length;
+		if(end - offset >= 2 && source[offset] == '{' && source[end - 1] == '}') {
+			offset++;
+			end--;
+		}
+		return new String(source, offset, end - offset, RedisOperationsSessionRepository.UTF_8);
+	}
+
+	private static String getSuffix(byte[] source, byte[] prefix) {
+		if(!startsWith(source, 0, prefix)) {
+			return null;
+		}
+		return new String(source, prefix.length, source.length - prefix.length, RedisOperationsSessionRepository.UTF_8);
+	}
+
+	static boolean startsWith(byte[] source, int offset, byte[] prefix) {
+		if(source.length - offset < prefix.length) {
+			return false;
+		}
+		for(int i = 0; i < prefix.length; i++) {
+			if(source[offset + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static boolean endsWith(byte[] source, byte[] suffix) {
+		return source.length >= suffix.length && startsWith(source, source.length - suffix.length, suffix);
+	}
+
+	private static boolean equals(byte[] source, byte[] other) {
+		return source.length == other.length && startsWith(source, 0, other);
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(RedisOperationsSessionRepository.UTF_8);
+	}
+}
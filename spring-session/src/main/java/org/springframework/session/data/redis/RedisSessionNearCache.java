@@ -0,0 +1,204 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.session.MapSession;
+import org.springframework.util.Assert;
+
+/**
+ * <p>
+ * An in JVM cache of recently used sessions that sits in front of
+ * {@link RedisOperationsSessionRepository#getSession(String)}. Each cached
+ * session is associated to the version that was stored in the session hash when
+ * the session was cached. Before a cached session is used, the version stored in
+ * Redis is read using a single HGET and the cached session is only used if the
+ * versions match. This means reading a session that has not been changed by
+ * another node does not require reading or deserializing the whole session.
+ * </p>
+ *
+ * <p>
+ * If a staleness window is configured using {@link #setMaxStalenessInMillis(long)},
+ * the version is not verified if it was verified within the window. This
+ * removes the read entirely at the cost of possibly using a session that was
+ * changed by another node within the window.
+ * </p>
+ *
+ * <p>
+ * The cache is bounded by the number of sessions and by the approximate size
+ * of the sessions (measured as the number of serialized bytes read from Redis).
+ * The least recently used sessions are evicted first.
+ * </p>
+ *
+ * <p>
+ * <b>NOTE:</b> Every node that writes to the same sessions must use a
+ * {@link RedisSessionNearCache}, since only repositories with a near cache
+ * update the version when a session is saved.
+ * </p>
+ *
+ * @author agent
+ * @since 1.1
+ * @see RedisOperationsSessionRepository#setNearCache(RedisSessionNearCache)
+ */
+public class RedisSessionNearCache {
+	private final int maxSessions;
+
+	private final long maxSizeInBytes;
+
+	private long maxStalenessInMillis;
+
+	private long sizeInBytes;
+
+	private final Map<String, Entry> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates a new instance
+	 *
+	 * @param maxSessions the maximum number of sessions to cache. Must be greater than 0.
+	 * @param maxSizeInBytes the maximum approximate size of all the cached sessions in bytes. Must be greater than 0.
+	 */
+	public RedisSessionNearCache(int maxSessions, long maxSizeInBytes) {
+		Assert.isTrue(maxSessions > 0, "maxSessions must be greater than 0");
+		Assert.isTrue(maxSizeInBytes > 0, "maxSizeInBytes must be greater than 0");
+		this.maxSessions = maxSessions;
+		this.maxSizeInBytes = maxSizeInBytes;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * Sets the number of milliseconds after the version of a cached session was verified that the cached session is
+	 * used without verifying the version again. The default is 0 which means the version is verified every time.
+	 *
+	 * @param maxStalenessInMillis the number of milliseconds a cached session can be used without verifying the version
+	 */
+	public void setMaxStalenessInMillis(long maxStalenessInMillis) {
+		this.maxStalenessInMillis = maxStalenessInMillis;
+	}
+
+	/**
+	 * Gets the number of times a cached session was used.
+	 *
+	 * @return the number of times a cached session was used
+	 */
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	/**
+	 * Gets the number of times a session had to be read from Redis.
+	 *
+	 * @return the number of times a session had to be read from Redis
+	 */
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	/**
+	 * Gets the number of sessions that are currently cached.
+	 *
+	 * @return the number of sessions that are currently cached
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	synchronized Entry get(String sessionId) {
+		return this.entries.get(sessionId);
+	}
+
+	boolean isFresh(Entry entry, long now) {
+		return now - entry.verifiedAt < this.maxStalenessInMillis;
+	}
+
+	synchronized void put(String sessionId, MapSession session, Object version, long sizeInBytes) {
+		remove(sessionId);
+		if(version == null || sizeInBytes > this.maxSizeInBytes) {
+			return;
+		}
+		this.entries.put(sessionId, new Entry(session, version, sizeInBytes, System.currentTimeMillis()));
+		this.sizeInBytes += sizeInBytes;
+		evict();
+	}
+
+	synchronized void remove(String sessionId) {
+		Entry removed = this.entries.remove(sessionId);
+		if(removed != null) {
+			this.sizeInBytes -= removed.sizeInBytes;
+		}
+	}
+
+	void hit() {
+		this.hits.incrementAndGet();
+	}
+
+	void miss() {
+		this.misses.incrementAndGet();
+	}
+
+	private void evict() {
+		Iterator<Entry> eldest = this.entries.values().iterator();
+		while(eldest.hasNext() && (this.entries.size() > this.maxSessions || this.sizeInBytes > this.maxSizeInBytes)) {
+			this.sizeInBytes -= eldest.next().sizeInBytes;
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * A cached session along with the version it was cached with.
+	 */
+	static final class Entry {
+		private final MapSession session;
+		private final Object version;
+		private final long sizeInBytes;
+		private volatile long verifiedAt;
+
+		Entry(MapSession session, Object version, long sizeInBytes, long verifiedAt) {
+			this.session = session;
+			this.version = version;
+			this.sizeInBytes = sizeInBytes;
+			this.verifiedAt = verifiedAt;
+		}
+
+		/**
+		 * Gets a copy of the cached session that can be modified.
+		 *
+		 * @return a copy of the cached session
+		 */
+		MapSession getSession() {
+			return new MapSession(this.session);
+		}
+
+		Object getVersion() {
+			return this.version;
+		}
+
+		long getSizeInBytes() {
+			return this.sizeInBytes;
+		}
+
+		void verified(long now) {
+			this.verifiedAt = now;
+		}
+	}
+}
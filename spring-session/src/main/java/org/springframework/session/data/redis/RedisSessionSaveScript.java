@@ -0,0 +1,200 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+/**
+ * <p>
+ * Saves a {@link RedisOperationsSessionRepository.RedisSession} using a single
+ * server side <a href="http://redis.io/commands/eval">Lua script</a>. The script
+ * applies the attribute delta to the session hash, moves the session between the
+ * expiration sets and refreshes the expiration of every key associated to the
+ * session in one atomic step. This replaces the separate HMSET, SREM, SADD,
+ * APPEND and EXPIRE commands that are otherwise issued for every save.
+ * </p>
+ *
+ * <p>
+ * The expiration sets are shared by many sessions, so on a Redis Cluster they
+ * are not in the slot of the session. If
+ * {@link RedisOperationsSessionRepository#setUseHashTaggedKeys(boolean)} is
+ * true, the script only updates the session hash and the session expires key,
+ * which are in the same slot, and the expiration sets are updated using
+ * separate commands afterwards.
+ * </p>
+ *
+ * <p>
+ * The script is loaded using SCRIPT LOAD when it is registered with
+ * {@link RedisOperationsSessionRepository#setSessionSaveScript(RedisSessionSaveScript)}
+ * and is invoked using EVALSHA afterwards. If the script is no longer cached by
+ * Redis (i.e. Redis was restarted), it is transparently sent again.
+ * </p>
+ *
+ * @author agent
+ * @since 1.1
+ * @see RedisOperationsSessionRepository#setSessionSaveScript(RedisSessionSaveScript)
+ */
+public class RedisSessionSaveScript {
+
+	/**
+	 * <ul>
+	 * <li>KEYS[1] - the session hash</li>
+	 * <li>KEYS[2] - the session expires key</li>
+	 * <li>KEYS[3] - the expirations set the session now belongs to (optional)</li>
+	 * <li>KEYS[4] - the expirations set the session previously belonged to (optional)</li>
+	 * <li>ARGV[1] - the number of hash fields (N) followed by N field and value pairs</li>
+	 * <li>ARGV[2N+2] - the member to add to the expirations set</li>
+	 * <li>ARGV[2N+3] - the number of seconds until the session expires</li>
+	 * <li>ARGV[2N+4] - the number of seconds until the session hash and expirations set expire</li>
+	 * </ul>
+	 */
+	static final String SCRIPT =
+			"local fieldCount = tonumber(ARGV[1])\n" +
+			"if fieldCount > 0 then\n" +
+			"  local fields = {}\n" +
+			"  for i = 2, fieldCount * 2 + 1 do\n" +
+			"    fields[#fields + 1] = ARGV[i]\n" +
+			"  end\n" +
+			"  redis.call('HMSET', KEYS[1], unpack(fields))\n" +
+			"end\n" +
+			"local index = fieldCount * 2 + 2\n" +
+			"local member = ARGV[index]\n" +
+			"local sessionExpire = tonumber(ARGV[index + 1])\n" +
+			"local dataExpire = tonumber(ARGV[index + 2])\n" +
+			"if #KEYS == 4 then\n" +
+			"  if KEYS[4] ~= KEYS[3] then\n" +
+			"    redis.call('SREM', KEYS[4], member)\n" +
+			"  end\n" +
+			"  redis.call('SADD', KEYS[3], member)\n" +
+			"  redis.call('EXPIRE', KEYS[3], dataExpire)\n" +
+			"end\n" +
+			"if sessionExpire == 0 then\n" +
+			"  redis.call('DEL', KEYS[2])\n" +
+			"else\n" +
+			"  redis.call('APPEND', KEYS[2], '')\n" +
+			"  redis.call('EXPIRE', KEYS[2], sessionExpire)\n" +
+			"end\n" +
+			"redis.call('EXPIRE', KEYS[1], dataExpire)\n" +
+			"return fieldCount\n";
+
+	private static final RedisSerializer<byte[]> ARGS_SERIALIZER = new ByteArrayRedisSerializer();
+
+	private final DefaultRedisScript<Long> script;
+
+	public RedisSessionSaveScript() {
+		this.script = new DefaultRedisScript<Long>();
+		this.script.setScriptText(SCRIPT);
+		this.script.setResultType(Long.class);
+	}
+
+	/**
+	 * Gets the SHA1 digest of the script that is used to invoke it with EVALSHA.
+	 *
+	 * @return the SHA1 digest of the script
+	 */
+	public String getSha1() {
+		return this.script.getSha1();
+	}
+
+	/**
+	 * Ensures the script is cached by Redis so that subsequent saves only need to send the SHA1 of the script.
+	 *
+	 * @param redis the {@link RedisOperations} to load the script with
+	 */
+	void load(RedisOperations<Object, Object> redis) {
+		final byte[] scriptText = SCRIPT.getBytes(RedisOperationsSessionRepository.UTF_8);
+		redis.execute(new RedisCallback<String>() {
+			public String doInRedis(RedisConnection connection) throws DataAccessException {
+				return connection.scriptLoad(scriptText);
+			}
+		});
+	}
+
+	/**
+	 * Invokes the script.
+	 *
+	 * @param redis the {@link RedisOperations} to use. The hash key and hash value serializers are used to serialize
+	 * the delta, except for the attribute values.
+	 * @param sessionKey the key of the session hash
+	 * @param expiresKey the key of the session expires key
+	 * @param expirationsKey the key of the expirations set the session now belongs to or null if the expiration sets
+	 * are not updated by the script
+	 * @param originalExpirationsKey the key of the expirations set the session previously belonged to. If the session
+	 * did not belong to an expirations set, this should be the same as expirationsKey.
+	 * @param delta the hash fields that have changed
+	 * @param attributeValueSerializer the {@link RedisSerializer} used to serialize the attribute values of the delta
+	 * @param expirationsMember the member to add to the expirations set
+	 * @param sessionExpireInSeconds the number of seconds until the session expires
+	 * @param dataExpireInSeconds the number of seconds until the session hash and expirations set expire
+	 */
+	@SuppressWarnings("unchecked")
+	void execute(RedisOperations<Object, Object> redis, String sessionKey, String expiresKey, String expirationsKey,
+			String originalExpirationsKey, Map<String, Object> delta, RedisSerializer<Object> attributeValueSerializer,
+			String expirationsMember, long sessionExpireInSeconds, long dataExpireInSeconds) {
+		RedisSerializer<Object> hashKeySerializer = (RedisSerializer<Object>) redis.getHashKeySerializer();
+		RedisSerializer<Object> hashValueSerializer = (RedisSerializer<Object>) redis.getHashValueSerializer();
+
+		List<Object> keys = new ArrayList<Object>(4);
+		keys.add(sessionKey);
+		keys.add(expiresKey);
+		if(expirationsKey != null) {
+			keys.add(expirationsKey);
+			keys.add(originalExpirationsKey);
+		}
+
+		Object[] args = new Object[delta.size() * 2 + 4];
+		int i = 0;
+		args[i++] = toBytes(delta.size());
+		for(Map.Entry<String, Object> entry : delta.entrySet()) {
+			args[i++] = hashKeySerializer.serialize(entry.getKey());
+			boolean attribute = entry.getKey().startsWith(RedisOperationsSessionRepository.SESSION_ATTR_PREFIX);
+			args[i++] = (attribute ? attributeValueSerializer : hashValueSerializer).serialize(entry.getValue());
+		}
+		args[i++] = toBytes(expirationsMember);
+		args[i++] = toBytes(sessionExpireInSeconds);
+		args[i] = toBytes(dataExpireInSeconds);
+
+		redis.execute(this.script, ARGS_SERIALIZER, null, keys, args);
+	}
+
+	private static byte[] toBytes(Object value) {
+		return String.valueOf(value).getBytes(RedisOperationsSessionRepository.UTF_8);
+	}
+
+	/**
+	 * A {@link RedisSerializer} for arguments that have already been serialized.
+	 */
+	static class ByteArrayRedisSerializer implements RedisSerializer<byte[]> {
+		public byte[] serialize(byte[] bytes) throws SerializationException {
+			return bytes;
+		}
+
+		public byte[] deserialize(byte[] bytes) throws SerializationException {
+			return bytes;
+		}
+	}
+}
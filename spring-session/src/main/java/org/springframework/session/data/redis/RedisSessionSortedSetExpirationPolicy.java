@@ -0,0 +1,222 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.session.ExpiringSession;
+import org.springframework.session.data.redis.RedisOperationsSessionRepository.RedisSession;
+
+/**
+ * A {@link RedisSessionExpirationPolicy} that tracks the expiration of every {@link RedisSession} in a single Sorted
+ * Set scored by the expiration time in milliseconds. Updating the expiration only requires a ZADD since it replaces
+ * the score of the existing member.
+ *
+ * Whenever {@link #cleanExpiredSessions()} is invoked, every session with an expiration time in the past is
+ * accessed in batches. This means sessions that expired while {@link #cleanExpiredSessions()} was not invoked (i.e.
+ * during a restart) are still processed. The sessions of a batch are accessed using a single pipeline. The sessions
+ * that no longer exist are then removed from the Sorted Set by a script, unless they were saved with a new expiration
+ * time in the meantime. The sessions that still exist are accessed again by the next invocation.
+ *
+ * @author agent
+ * @since 1.1
+ */
+final class RedisSessionSortedSetExpirationPolicy extends RedisSessionExpirationPolicy {
+
+	/**
+	 * The number of sessions read from the Sorted Set at a time.
+	 */
+	static final int BATCH_SIZE = 100;
+
+	/**
+	 * The maximum number of batches processed by a single invocation of {@link #cleanExpiredSessions()}. Any
+	 * remaining sessions are processed by the next invocation.
+	 */
+	static final int MAX_BATCHES = 100;
+
+	/**
+	 * Removes the members that still expire at or before the provided time.
+	 *
+	 * <ul>
+	 * <li>KEYS[1] - the Sorted Set of expirations</li>
+	 * <li>ARGV[1] - the current time in milliseconds</li>
+	 * <li>ARGV[2..N] - the members to remove</li>
+	 * </ul>
+	 */
+	static final String REMOVE_EXPIRED_SCRIPT =
+			"local now = tonumber(ARGV[1])\n" +
+			"local removed = 0\n" +
+			"for i = 2, #ARGV do\n" +
+			"  local score = redis.call('ZSCORE', KEYS[1], ARGV[i])\n" +
+			"  if score and tonumber(score) <= now then\n" +
+			"    removed = removed + redis.call('ZREM', KEYS[1], ARGV[i])\n" +
+			"  end\n" +
+			"end\n" +
+			"return removed\n";
+
+	private final DefaultRedisScript<Long> removeExpiredScript;
+
+	public RedisSessionSortedSetExpirationPolicy(
+			RedisOperations<Object,Object> sessionRedisOperations, RedisOperationsSessionRepository redisSession) {
+		super(sessionRedisOperations, redisSession);
+		this.removeExpiredScript = new DefaultRedisScript<Long>();
+		this.removeExpiredScript.setScriptText(REMOVE_EXPIRED_SCRIPT);
+		this.removeExpiredScript.setResultType(Long.class);
+	}
+
+	@Override
+	public void onDelete(ExpiringSession session) {
+		getRedisOperations().boundZSetOps(getExpirationsKey()).remove(getExpirationsMember(session.getId()));
+	}
+
+	@Override
+	void onExpirationUpdated(RedisOperations<Object,Object> redis, Long originalExpirationTimeInMilli, ExpiringSession session) {
+		String keyToExpire = getExpirationsMember(session.getId());
+		redis.boundZSetOps(getExpirationsKey()).add(keyToExpire, expiresInMillis(session));
+
+		long sessionExpireInSeconds = session.getMaxInactiveIntervalInSeconds();
+		long fiveMinutesAfterExpires = sessionExpireInSeconds + TimeUnit.MINUTES.toSeconds(5);
+		String sessionKey = getExpiredKey(session.getId());
+
+		if(sessionExpireInSeconds == 0) {
+			redis.delete(sessionKey);
+		} else {
+			redis.boundValueOps(sessionKey).append("");
+			redis.boundValueOps(sessionKey).expire(sessionExpireInSeconds, TimeUnit.SECONDS);
+		}
+		redis.boundHashOps(getSessionKey(session.getId())).expire(fiveMinutesAfterExpires, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * The {@link RedisSessionSaveScript} only supports a Set per minute, so the delta is applied with HMSET and the
+	 * expiration is updated separately.
+	 */
+	@Override
+	void onExpirationUpdated(RedisOperations<Object,Object> redis, RedisSessionSaveScript script,
+			Long originalExpirationTimeInMilli, ExpiringSession session, Map<String,Object> delta) {
+		if(!delta.isEmpty()) {
+			getRepository().putAll(redis, session.getId(), delta);
+		}
+		onExpirationUpdated(redis, originalExpirationTimeInMilli, session);
+	}
+
+	@Override
+	public int cleanExpiredSessions() {
+		long now = System.currentTimeMillis();
+		String expirationsKey = getExpirationsKey();
+
+		int touched = 0;
+		int kept = 0;
+		for(int batch = 0; batch < MAX_BATCHES; batch++) {
+			// the members that were kept are still in the Sorted Set, ahead of the ones that were not read yet
+			Set<Object> sessionsToExpire = getRedisOperations().opsForZSet().rangeByScore(expirationsKey, 0, now, kept, BATCH_SIZE);
+			if(sessionsToExpire == null || sessionsToExpire.isEmpty()) {
+				break;
+			}
+
+			if(logger.isDebugEnabled()) {
+				logger.debug("Cleaning up " + sessionsToExpire.size() + " sessions expiring before " + now);
+			}
+
+			List<Object> deleted = touchAll(sessionsToExpire);
+			if(!deleted.isEmpty()) {
+				removeExpired(expirationsKey, now, deleted);
+			}
+			touched += sessionsToExpire.size();
+			kept += sessionsToExpire.size() - deleted.size();
+
+			if(sessionsToExpire.size() < BATCH_SIZE) {
+				break;
+			}
+		}
+
+		if(logger.isDebugEnabled()) {
+			logger.debug("Cleaned up " + touched + " sessions in " + (System.currentTimeMillis() - now) + " ms, "
+					+ kept + " of them did not expire yet");
+		}
+		return touched;
+	}
+
+	/**
+	 * Accesses the sessions of the provided members using a single pipeline. The expiration time in the Sorted Set is
+	 * based on the last accessed time, while the key that expires is only updated when the session is saved, which may
+	 * be slightly later. A member whose key still exists has not expired yet, so it is kept and accessed again by the
+	 * next invocation of {@link #cleanExpiredSessions()}.
+	 *
+	 * @param members the members of the Sorted Set
+	 * @return the members whose key no longer exists
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Object> touchAll(Set<Object> members) {
+		RedisSerializer<Object> keySerializer = (RedisSerializer<Object>) getRedisOperations().getKeySerializer();
+		final List<byte[]> keys = new ArrayList<byte[]>(members.size());
+		for(Object member : members) {
+			keys.add(keySerializer.serialize(getExpiredKeyFromMember((String) member)));
+		}
+		List<Object> replies = getRedisOperations().execute(new RedisCallback<List<Object>>() {
+			public List<Object> doInRedis(RedisConnection connection) throws DataAccessException {
+				return exists(connection, keys);
+			}
+		});
+		List<Object> deleted = new ArrayList<Object>(members.size());
+		int i = 0;
+		for(Object member : members) {
+			Object exists = replies != null && i < replies.size() ? replies.get(i) : null;
+			// removed unless the reply shows that it still exists, so that it is not kept forever without replies
+			if(!Boolean.TRUE.equals(exists)) {
+				deleted.add(member);
+			}
+			i++;
+		}
+		return deleted;
+	}
+
+	/**
+	 * Removes the provided members from the Sorted Set. A member whose expiration time was updated since it was read
+	 * is no longer expired and is kept.
+	 *
+	 * @param expirationsKey the key of the Sorted Set
+	 * @param now the time the members were read at in milliseconds
+	 * @param members the members to remove
+	 */
+	@SuppressWarnings("unchecked")
+	private void removeExpired(String expirationsKey, long now, List<Object> members) {
+		RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) getRedisOperations().getValueSerializer();
+		Object[] args = new Object[members.size() + 1];
+		int i = 0;
+		args[i++] = String.valueOf(now).getBytes(RedisOperationsSessionRepository.UTF_8);
+		for(Object member : members) {
+			args[i++] = valueSerializer.serialize(member);
+		}
+		getRedisOperations().execute(this.removeExpiredScript, new RedisSessionSaveScript.ByteArrayRedisSerializer(),
+				null, Collections.<Object>singletonList(expirationsKey), args);
+	}
+
+	String getExpirationsKey() {
+		return getRepository().getExpirationsKey();
+	}
+}
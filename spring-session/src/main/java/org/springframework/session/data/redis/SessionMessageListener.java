@@ -66,9 +66,7 @@ public class SessionMessageListener implements MessageListener {
 			return;
 		}
 
-		int beginIndex = body.lastIndexOf(":") + 1;
-		int endIndex = body.length();
-		String sessionId = body.substring(beginIndex, endIndex);
+		String sessionId = RedisOperationsSessionRepository.getSessionIdFromKey(body);
 
 		if(logger.isDebugEnabled()) {
 			logger.debug("Publishing SessionDestroyedEvent for session " + sessionId);
@@ -23,7 +23,7 @@ import org.springframework.data.redis.connection.RedisConnection;
 /**
  * <p>
  * Ensures that Redis Keyspace events for Generic commands and Expired events are enabled.
- * For example, it might set the following:
+ * By default the keyevent notifications are enabled. For example, it might set the following:
  * </p>
  *
  * <pre>
@@ -43,14 +43,33 @@ public class ConfigureNotifyKeyspaceEventsAction implements ConfigureRedisAction
 
 	static final String CONFIG_NOTIFY_KEYSPACE_EVENTS = "notify-keyspace-events";
 
+	private final String channelClass;
+
+	/**
+	 * Creates a new instance that ensures the keyevent notifications ("E") are enabled.
+	 */
+	public ConfigureNotifyKeyspaceEventsAction() {
+		this(false);
+	}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param keyspaceEvents true if the keyspace notifications ("K") should be enabled instead of the keyevent
+	 * notifications ("E")
+	 */
+	public ConfigureNotifyKeyspaceEventsAction(boolean keyspaceEvents) {
+		this.channelClass = keyspaceEvents ? "K" : "E";
+	}
+
 	/* (non-Javadoc)
 	 * @see org.springframework.session.data.redis.config.ConfigureRedisAction#configure(org.springframework.data.redis.connection.RedisConnection)
 	 */
 	public void configure(RedisConnection connection) {
 		String notifyOptions = getNotifyOptions(connection);
 		String customizedNotifyOptions = notifyOptions;
-		if(!customizedNotifyOptions.contains("E")) {
-			customizedNotifyOptions += "E";
+		if(!customizedNotifyOptions.contains(channelClass)) {
+			customizedNotifyOptions += channelClass;
 		}
 		boolean A = customizedNotifyOptions.contains("A");
 		if(!(A || customizedNotifyOptions.contains("g"))) {
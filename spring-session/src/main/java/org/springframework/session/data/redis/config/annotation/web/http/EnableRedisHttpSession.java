@@ -23,6 +23,8 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.session.config.annotation.web.http.EnableSpringHttpSession;
+import org.springframework.session.data.redis.RedisSessionCreatedEventMode;
+import org.springframework.session.data.redis.RedisSessionDestroyedEventMode;
 
 /**
  * Add this annotation to an {@code @Configuration} class to expose the
@@ -76,4 +78,96 @@ public @interface EnableRedisHttpSession {
 	 * @return the unique namespace for keys
 	 */
 	String redisNamespace() default "";
+
+	/**
+	 * <p>
+	 * The number of seconds within which a change to only the last accessed time
+	 * of a session is not written to Redis. The default is 0 which means the last
+	 * accessed time is written on every request.
+	 * </p>
+	 *
+	 * <p>
+	 * For example, a value of 30 means a session that is only read is written
+	 * at most once every 30 seconds. Since the expiration of the session is based
+	 * upon the last accessed time that was written, a session may expire up to
+	 * this many seconds early. The value should be significantly smaller than
+	 * {@link #maxInactiveIntervalInSeconds()}.
+	 * </p>
+	 *
+	 * @return the number of seconds within which only touching a session is not written
+	 * @since 1.1
+	 */
+	int touchGranularityInSeconds() default 0;
+
+	/**
+	 * <p>
+	 * The number of bytes a serialized session attribute value must have for it
+	 * to be compressed before it is written to Redis. The default is 0 which
+	 * means values are never compressed.
+	 * </p>
+	 *
+	 * <p>
+	 * Only the attribute values are compressed. The other values stored in
+	 * Redis (i.e. the creation time and the members of the principal index)
+	 * are written as before. Values that were written without compression are
+	 * still read, so compression can be enabled for existing sessions.
+	 * However, values below the threshold are marked as uncompressed, so
+	 * nodes that do not have compression enabled cannot read any attribute
+	 * value written by a node that has it enabled. This means every node must
+	 * enable compression at once.
+	 * </p>
+	 *
+	 * @return the number of bytes a serialized value must have for it to be compressed
+	 * @since 1.1
+	 */
+	int compressionThresholdInBytes() default 0;
+
+	/**
+	 * Determines what is published to Redis when a session is created so that
+	 * every node can fire a
+	 * {@link org.springframework.session.events.SessionCreatedEvent}. The default
+	 * is {@link RedisSessionCreatedEventMode#FULL} which publishes the new
+	 * session. {@link RedisSessionCreatedEventMode#NONE} also stops listening for
+	 * the messages.
+	 *
+	 * @return the {@link RedisSessionCreatedEventMode} to use
+	 * @since 1.1
+	 */
+	RedisSessionCreatedEventMode sessionCreatedEventMode() default RedisSessionCreatedEventMode.FULL;
+
+	/**
+	 * Determines what is read from Redis when a session is deleted or expires.
+	 * The default is {@link RedisSessionDestroyedEventMode#FULL} which reads the
+	 * whole session. {@link RedisSessionDestroyedEventMode#SNAPSHOT} only reads
+	 * the principal name and the expiration related fields of the session.
+	 *
+	 * @return the {@link RedisSessionDestroyedEventMode} to use
+	 * @since 1.1
+	 */
+	RedisSessionDestroyedEventMode sessionDestroyedEventMode() default RedisSessionDestroyedEventMode.FULL;
+
+	/**
+	 * <p>
+	 * If true, subscribes to the keyspace channels of the session expires keys
+	 * (i.e. "__keyspace@*__:spring:session:sessions:expires:*") instead of the
+	 * delete and expired keyevent channels for every key. This lets Redis filter
+	 * out notifications for unrelated keys. Redis is configured to send keyspace
+	 * notifications ("K") instead of keyevent notifications ("E"). The default
+	 * is false.
+	 * </p>
+	 *
+	 * @return true if the keyspace channels of the session expires keys should be subscribed to
+	 * @since 1.1
+	 */
+	boolean useKeyspaceChannels() default false;
+
+	/**
+	 * The index of the Redis database whose keyspace notifications are
+	 * subscribed to. The default is -1 which means the notifications of every
+	 * database are subscribed to.
+	 *
+	 * @return the index of the Redis database whose keyspace notifications are subscribed to
+	 * @since 1.1
+	 */
+	int keyspaceNotificationsDatabase() default -1;
 }
\ No newline at end of file
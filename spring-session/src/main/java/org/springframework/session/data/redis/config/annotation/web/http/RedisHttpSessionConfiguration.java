@@ -31,15 +31,25 @@ import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
 import org.springframework.data.redis.listener.PatternTopic;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.session.PrincipalNameExtractor;
 import org.springframework.session.config.annotation.web.http.SpringHttpSessionConfiguration;
+import org.springframework.session.data.redis.CompactRedisSerializer;
+import org.springframework.session.data.redis.CompressingRedisSerializer;
 import org.springframework.session.data.redis.RedisOperationsSessionRepository;
+import org.springframework.session.data.redis.RedisSessionCreatedEventMode;
+import org.springframework.session.data.redis.RedisSessionDestroyedEventMode;
+import org.springframework.session.data.redis.RedisSessionDestroyedEventRelay;
 import org.springframework.session.data.redis.config.ConfigureNotifyKeyspaceEventsAction;
 import org.springframework.session.data.redis.config.ConfigureRedisAction;
+import org.springframework.session.serializer.CompactSerializer;
+import org.springframework.session.serializer.CompressionCodec;
 import org.springframework.session.web.http.SessionRepositoryFilter;
 import org.springframework.util.StringUtils;
 
@@ -63,17 +73,52 @@ public class RedisHttpSessionConfiguration extends SpringHttpSessionConfiguratio
 
 	private String redisNamespace = "";
 
+	private int touchGranularityInSeconds;
+
+	private int compressionThresholdInBytes;
+
+	private RedisSessionCreatedEventMode sessionCreatedEventMode = RedisSessionCreatedEventMode.FULL;
+
+	private RedisSessionDestroyedEventMode sessionDestroyedEventMode = RedisSessionDestroyedEventMode.FULL;
+
+	private boolean useKeyspaceChannels;
+
+	private int keyspaceNotificationsDatabase = -1;
+
+	private RedisSessionDestroyedEventRelay sessionDestroyedEventRelay;
+
 	private RedisSerializer<Object> defaultRedisSerializer;
 
+	private CompactSerializer compactSerializer;
+
+	private PrincipalNameExtractor principalNameExtractor;
+
 	@Bean
 	public RedisMessageListenerContainer redisMessageListenerContainer(
 			RedisConnectionFactory connectionFactory, RedisOperationsSessionRepository messageListener) {
 
 		RedisMessageListenerContainer container = new RedisMessageListenerContainer();
 		container.setConnectionFactory(connectionFactory);
-		container.addMessageListener(messageListener,
-				Arrays.asList(new PatternTopic("__keyevent@*:del"), new PatternTopic("__keyevent@*:expired")));
-		container.addMessageListener(messageListener, Arrays.asList(new PatternTopic(messageListener.getSessionCreatedChannelPrefix() + "*")));
+		if(useKeyspaceChannels) {
+			String database = keyspaceNotificationsDatabase < 0 ? "*" : String.valueOf(keyspaceNotificationsDatabase);
+			container.addMessageListener(messageListener,
+					new PatternTopic("__keyspace@" + database + "__:" + messageListener.getExpiredKeyPrefix() + "*"));
+		} else if(keyspaceNotificationsDatabase < 0) {
+			container.addMessageListener(messageListener,
+					Arrays.asList(new PatternTopic("__keyevent@*:del"), new PatternTopic("__keyevent@*:expired")));
+		} else {
+			String database = String.valueOf(keyspaceNotificationsDatabase);
+			container.addMessageListener(messageListener, Arrays.asList(new ChannelTopic("__keyevent@" + database + "__:del"),
+					new ChannelTopic("__keyevent@" + database + "__:expired")));
+		}
+		if(sessionDestroyedEventRelay != null) {
+			container.addMessageListener(messageListener,
+					Arrays.asList(new PatternTopic(messageListener.getSessionDeletedChannelPrefix() + "*"),
+							new PatternTopic(messageListener.getSessionExpiredChannelPrefix() + "*")));
+		}
+		if(sessionCreatedEventMode != RedisSessionCreatedEventMode.NONE) {
+			container.addMessageListener(messageListener, Arrays.asList(new PatternTopic(messageListener.getSessionCreatedChannelPrefix() + "*")));
+		}
 		return container;
 	}
 
@@ -92,20 +137,73 @@ public class RedisHttpSessionConfiguration extends SpringHttpSessionConfiguratio
 	@Bean
 	public RedisOperationsSessionRepository sessionRepository(@Qualifier("sessionRedisTemplate") RedisOperations<Object, Object> sessionRedisTemplate, ApplicationEventPublisher applicationEventPublisher) {
 		RedisOperationsSessionRepository sessionRepository = new RedisOperationsSessionRepository(sessionRedisTemplate);
-		sessionRepository.setApplicationEventPublisher(applicationEventPublisher);
+		sessionRepository.setApplicationEventPublisher(getSessionEventPublisher(applicationEventPublisher));
 		sessionRepository.setDefaultMaxInactiveInterval(maxInactiveIntervalInSeconds);
 
 		String redisNamespace = getRedisNamespace();
 		if(StringUtils.hasText(redisNamespace)) {
 			sessionRepository.setRedisKeyNamespace(redisNamespace);
 		}
+		sessionRepository.setTouchGranularityInSeconds(touchGranularityInSeconds);
+		sessionRepository.setSessionCreatedEventMode(sessionCreatedEventMode);
+		sessionRepository.setSessionDestroyedEventMode(sessionDestroyedEventMode);
+		sessionRepository.setSessionDestroyedEventRelay(sessionDestroyedEventRelay);
+		if(principalNameExtractor != null) {
+			sessionRepository.setPrincipalNameExtractor(principalNameExtractor);
+		}
+		sessionRepository.setAttributeValueSerializer(getAttributeValueSerializer());
 		return sessionRepository;
 	}
 
+	/**
+	 * Gets the {@link RedisSerializer} for the values of the session attributes. The other values stored in Redis are
+	 * serialized by the "sessionRedisTemplate" so they stay readable by applications that do not use the
+	 * {@link CompactSerializer} or compression.
+	 *
+	 * @return the {@link RedisSerializer} for the attribute values or null to use the "sessionRedisTemplate"
+	 */
+	private RedisSerializer<Object> getAttributeValueSerializer() {
+		RedisSerializer<Object> serializer = null;
+		if(defaultRedisSerializer == null && compactSerializer != null) {
+			serializer = new CompactRedisSerializer(compactSerializer);
+		}
+		if(compressionThresholdInBytes > 0) {
+			if(serializer == null) {
+				serializer = defaultRedisSerializer == null ? new JdkSerializationRedisSerializer() : defaultRedisSerializer;
+			}
+			serializer = new CompressingRedisSerializer(serializer, new CompressionCodec(compressionThresholdInBytes));
+		}
+		return serializer;
+	}
+
 	public void setMaxInactiveIntervalInSeconds(int maxInactiveIntervalInSeconds) {
 		this.maxInactiveIntervalInSeconds = maxInactiveIntervalInSeconds;
 	}
 
+	public void setTouchGranularityInSeconds(int touchGranularityInSeconds) {
+		this.touchGranularityInSeconds = touchGranularityInSeconds;
+	}
+
+	public void setCompressionThresholdInBytes(int compressionThresholdInBytes) {
+		this.compressionThresholdInBytes = compressionThresholdInBytes;
+	}
+
+	public void setSessionCreatedEventMode(RedisSessionCreatedEventMode sessionCreatedEventMode) {
+		this.sessionCreatedEventMode = sessionCreatedEventMode;
+	}
+
+	public void setSessionDestroyedEventMode(RedisSessionDestroyedEventMode sessionDestroyedEventMode) {
+		this.sessionDestroyedEventMode = sessionDestroyedEventMode;
+	}
+
+	public void setUseKeyspaceChannels(boolean useKeyspaceChannels) {
+		this.useKeyspaceChannels = useKeyspaceChannels;
+	}
+
+	public void setKeyspaceNotificationsDatabase(int keyspaceNotificationsDatabase) {
+		this.keyspaceNotificationsDatabase = keyspaceNotificationsDatabase;
+	}
+
 	public void setRedisNamespace(String namespace) {
 		this.redisNamespace = namespace;
 	}
@@ -123,11 +221,21 @@ public class RedisHttpSessionConfiguration extends SpringHttpSessionConfiguratio
 		AnnotationAttributes enableAttrs = AnnotationAttributes.fromMap(enableAttrMap);
 		maxInactiveIntervalInSeconds = enableAttrs.getNumber("maxInactiveIntervalInSeconds");
 		this.redisNamespace = enableAttrs.getString("redisNamespace");
+		this.touchGranularityInSeconds = enableAttrs.getNumber("touchGranularityInSeconds");
+		this.compressionThresholdInBytes = enableAttrs.getNumber("compressionThresholdInBytes");
+		this.sessionCreatedEventMode = enableAttrs.getEnum("sessionCreatedEventMode");
+		this.sessionDestroyedEventMode = enableAttrs.getEnum("sessionDestroyedEventMode");
+		this.useKeyspaceChannels = enableAttrs.getBoolean("useKeyspaceChannels");
+		this.keyspaceNotificationsDatabase = enableAttrs.getNumber("keyspaceNotificationsDatabase");
 	}
 
 	@Bean
 	public InitializingBean enableRedisKeyspaceNotificationsInitializer(RedisConnectionFactory connectionFactory) {
-		return new EnableRedisKeyspaceNotificationsInitializer(connectionFactory, configureRedisAction);
+		ConfigureRedisAction action = configureRedisAction;
+		if(useKeyspaceChannels && action.getClass() == ConfigureNotifyKeyspaceEventsAction.class) {
+			action = new ConfigureNotifyKeyspaceEventsAction(true);
+		}
+		return new EnableRedisKeyspaceNotificationsInitializer(connectionFactory, action);
 	}
 
 	/**
@@ -166,4 +274,45 @@ public class RedisHttpSessionConfiguration extends SpringHttpSessionConfiguratio
 	public void setDefaultRedisSerializer(RedisSerializer<Object> defaultRedisSerializer) {
 		this.defaultRedisSerializer = defaultRedisSerializer;
 	}
+
+	/**
+	 * Sets the {@link CompactSerializer} used to serialize the values of the session attributes when no
+	 * {@link RedisSerializer} named "defaultRedisSerializer" is defined. The other values stored in Redis, like the
+	 * members of the principal index, are still serialized using JDK serialization. The default is to use JDK
+	 * serialization for the attribute values as well.
+	 *
+	 * <p>
+	 * Attribute values written using JDK serialization are still read, so existing sessions are kept. However,
+	 * applications that do not use the {@link CompactSerializer} cannot read the attribute values it writes, so every
+	 * application must switch at once.
+	 * </p>
+	 *
+	 * @param compactSerializer the {@link CompactSerializer} to use
+	 */
+	@Autowired(required = false)
+	public void setCompactSerializer(CompactSerializer compactSerializer) {
+		this.compactSerializer = compactSerializer;
+	}
+
+	/**
+	 * Sets the {@link PrincipalNameExtractor} used to determine the principal name sessions are indexed by. The
+	 * default is {@link org.springframework.session.DefaultPrincipalNameExtractor}.
+	 *
+	 * @param principalNameExtractor the {@link PrincipalNameExtractor} to use
+	 */
+	@Autowired(required = false)
+	public void setPrincipalNameExtractor(PrincipalNameExtractor principalNameExtractor) {
+		this.principalNameExtractor = principalNameExtractor;
+	}
+
+	/**
+	 * Sets the {@link RedisSessionDestroyedEventRelay} used to elect a single application that handles the keyspace
+	 * notifications for destroyed sessions. The default is null which means every application handles them.
+	 *
+	 * @param sessionDestroyedEventRelay the {@link RedisSessionDestroyedEventRelay} to use
+	 */
+	@Autowired(required = false)
+	public void setSessionDestroyedEventRelay(RedisSessionDestroyedEventRelay sessionDestroyedEventRelay) {
+		this.sessionDestroyedEventRelay = sessionDestroyedEventRelay;
+	}
 }
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+/**
+ * <p>
+ * An {@link ApplicationEventPublisher} that publishes the session events
+ * ({@link SessionCreatedEvent}, {@link SessionDeletedEvent} and
+ * {@link SessionExpiredEvent}) using another {@link ApplicationEventPublisher}
+ * (typically the ApplicationContext) on a separate thread. This means a slow
+ * listener (i.e. an HttpSessionListener invoked by the
+ * {@link org.springframework.session.web.http.SessionEventHttpSessionListenerAdapter})
+ * does not stall the thread that receives the events from the session store
+ * (i.e. the Redis listener thread or the GemFire and Hazelcast event threads).
+ * </p>
+ *
+ * <p>
+ * The events are placed in a bounded queue and delivered in batches in the
+ * order they were published. Only one task delivers the events at any time,
+ * even if the {@link Executor} has several threads. When the queue is full the
+ * {@link SessionEventOverflowPolicy} determines what happens to the event. The
+ * default, {@link SessionEventOverflowPolicy#BLOCK}, waits for space so that no
+ * event is lost and the order is kept.
+ * </p>
+ *
+ * <p>
+ * To use it, expose it as a Bean. Each of the provided configurations
+ * (i.e. EnableRedisHttpSession) then publishes the session events with it:
+ * </p>
+ *
+ * <pre>
+ * {@literal @Bean}
+ * public AsyncSessionEventPublisher asyncSessionEventPublisher() {
+ *     AsyncSessionEventPublisher publisher = new AsyncSessionEventPublisher();
+ *     publisher.setQueueCapacity(50000);
+ *     return publisher;
+ * }
+ * </pre>
+ *
+ * @author agent
+ * @since 1.1
+ */
+public class AsyncSessionEventPublisher implements ApplicationEventPublisher, ApplicationEventPublisherAware, DisposableBean {
+	/**
+	 * The default number of events that can be waiting to be published.
+	 */
+	public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+	/**
+	 * The default maximum number of events that are published by a single task.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	/**
+	 * The default number of milliseconds the {@link SessionEventOverflowPolicy#BLOCK} policy waits for space. A
+	 * negative value waits until there is space.
+	 */
+	public static final long DEFAULT_MAX_BLOCK_TIME_IN_MILLIS = -1;
+
+	private static final Log logger = LogFactory.getLog(AsyncSessionEventPublisher.class);
+
+	private ApplicationEventPublisher delegate;
+
+	private BlockingQueue<ApplicationEvent> queue = new ArrayBlockingQueue<ApplicationEvent>(DEFAULT_QUEUE_CAPACITY);
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	private SessionEventOverflowPolicy overflowPolicy = SessionEventOverflowPolicy.BLOCK;
+
+	private long maxBlockTimeInMillis = DEFAULT_MAX_BLOCK_TIME_IN_MILLIS;
+
+	private Executor executor;
+
+	/**
+	 * The {@link ExecutorService} created when no {@link Executor} was configured. It is shutdown by
+	 * {@link #destroy()}.
+	 */
+	private ExecutorService defaultExecutor;
+
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	private volatile boolean destroyed;
+
+	/**
+	 * The thread that is delivering the queued events, used to avoid waiting for space on that thread (i.e. when a
+	 * listener causes another event to be published) which would never be made.
+	 */
+	private volatile Thread dispatchingThread;
+
+	private final ConcurrentMap<Class<?>, EventStatistics> statistics = new ConcurrentHashMap<Class<?>, EventStatistics>();
+
+	private final Runnable dispatcher = new Runnable() {
+		public void run() {
+			dispatch();
+		}
+	};
+
+	/**
+	 * Sets the {@link ApplicationEventPublisher} the events are published to. This is invoked by Spring with the
+	 * ApplicationContext.
+	 *
+	 * @param delegate the {@link ApplicationEventPublisher} to publish the events to. Cannot be null.
+	 */
+	public void setApplicationEventPublisher(ApplicationEventPublisher delegate) {
+		Assert.notNull(delegate, "delegate cannot be null");
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Sets the {@link Executor} that publishes the events. If not set, a single daemon thread is used.
+	 *
+	 * @param executor the {@link Executor} to use. Cannot be null.
+	 */
+	public void setExecutor(Executor executor) {
+		Assert.notNull(executor, "executor cannot be null");
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets the maximum number of events that can be waiting to be published. The default is
+	 * {@link #DEFAULT_QUEUE_CAPACITY}. This must be set before any event is published.
+	 *
+	 * @param queueCapacity the maximum number of events that can be waiting to be published. Must be greater than 0.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		Assert.isTrue(queueCapacity > 0, "queueCapacity must be greater than 0");
+		this.queue = new ArrayBlockingQueue<ApplicationEvent>(queueCapacity);
+	}
+
+	/**
+	 * Sets the maximum number of events removed from the queue at once. The default is {@link #DEFAULT_BATCH_SIZE}.
+	 *
+	 * @param batchSize the maximum number of events removed from the queue at once. Must be greater than 0.
+	 */
+	public void setBatchSize(int batchSize) {
+		Assert.isTrue(batchSize > 0, "batchSize must be greater than 0");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Sets what happens to an event that is published when the queue is full. The default is
+	 * {@link SessionEventOverflowPolicy#BLOCK}.
+	 *
+	 * @param overflowPolicy the {@link SessionEventOverflowPolicy} to use. Cannot be null.
+	 */
+	public void setOverflowPolicy(SessionEventOverflowPolicy overflowPolicy) {
+		Assert.notNull(overflowPolicy, "overflowPolicy cannot be null");
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Sets the number of milliseconds {@link SessionEventOverflowPolicy#BLOCK} waits for space in the queue before
+	 * discarding the event. The default is {@link #DEFAULT_MAX_BLOCK_TIME_IN_MILLIS} which waits until there is space,
+	 * so that no event (i.e. a {@link SessionDestroyedEvent} that releases resources) is lost.
+	 *
+	 * @param maxBlockTimeInMillis the number of milliseconds to wait for space in the queue. A negative value waits
+	 * until there is space.
+	 */
+	public void setMaxBlockTimeInMillis(long maxBlockTimeInMillis) {
+		this.maxBlockTimeInMillis = maxBlockTimeInMillis;
+	}
+
+	/**
+	 * Gets the number of events that are waiting to be published.
+	 *
+	 * @return the number of events that are waiting to be published
+	 */
+	public int getQueueSize() {
+		return this.queue.size();
+	}
+
+	/**
+	 * Gets the {@link EventStatistics} for every type of event that was published.
+	 *
+	 * @return the {@link EventStatistics} by the type of the event
+	 */
+	public Map<Class<?>, EventStatistics> getStatistics() {
+		return Collections.unmodifiableMap(this.statistics);
+	}
+
+	/**
+	 * Gets the {@link EventStatistics} for a type of event.
+	 *
+	 * @param eventType the type of the event (i.e. SessionExpiredEvent.class)
+	 * @return the {@link EventStatistics}. If no event of the type was published, the counts are all 0.
+	 */
+	public EventStatistics getStatistics(Class<? extends ApplicationEvent> eventType) {
+		EventStatistics result = this.statistics.get(eventType);
+		return result == null ? new EventStatistics() : result;
+	}
+
+	public void publishEvent(ApplicationEvent event) {
+		EventStatistics eventStatistics = getOrCreateStatistics(event.getClass());
+		eventStatistics.published.incrementAndGet();
+
+		if(this.destroyed) {
+			deliver(event, eventStatistics);
+			return;
+		}
+
+		if(!this.queue.offer(event) && !overflow(event, eventStatistics)) {
+			return;
+		}
+
+		schedule();
+	}
+
+	/**
+	 * Publishes the events that are still queued on the calling thread and shuts down the default {@link Executor}.
+	 */
+	public void destroy() {
+		this.destroyed = true;
+		List<ApplicationEvent> remaining = new ArrayList<ApplicationEvent>();
+		this.queue.drainTo(remaining);
+		for(ApplicationEvent event : remaining) {
+			deliver(event, getOrCreateStatistics(event.getClass()));
+		}
+		synchronized(this) {
+			if(this.defaultExecutor != null) {
+				this.defaultExecutor.shutdown();
+				this.defaultExecutor = null;
+			}
+		}
+	}
+
+	/**
+	 * Applies the {@link SessionEventOverflowPolicy} to an event that did not fit in the queue.
+	 *
+	 * @param event the event that did not fit in the queue
+	 * @param eventStatistics the {@link EventStatistics} for the type of the event
+	 * @return true if the event was queued
+	 */
+	private boolean overflow(ApplicationEvent event, EventStatistics eventStatistics) {
+		if(this.overflowPolicy == SessionEventOverflowPolicy.CALLER_RUNS
+				|| (this.overflowPolicy == SessionEventOverflowPolicy.BLOCK && Thread.currentThread() == this.dispatchingThread)) {
+			eventStatistics.callerRuns.incrementAndGet();
+			deliver(event, eventStatistics);
+			return false;
+		}
+		if(this.overflowPolicy == SessionEventOverflowPolicy.BLOCK) {
+			try {
+				if(this.maxBlockTimeInMillis < 0) {
+					this.queue.put(event);
+					return true;
+				}
+				if(this.queue.offer(event, this.maxBlockTimeInMillis, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		eventStatistics.discarded.incrementAndGet();
+		if(logger.isWarnEnabled()) {
+			logger.warn("Discarding " + event + " since the queue of " + getClass().getSimpleName() + " is full");
+		}
+		return false;
+	}
+
+	private void schedule() {
+		if(!this.scheduled.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			getExecutor().execute(this.dispatcher);
+		}
+		catch(RejectedExecutionException e) {
+			logger.error("Publishing session events on the calling thread since the executor rejected the task", e);
+			dispatch();
+		}
+	}
+
+	/**
+	 * Publishes the queued events in batches until the queue is empty.
+	 */
+	private void dispatch() {
+		List<ApplicationEvent> batch = new ArrayList<ApplicationEvent>(this.batchSize);
+		do {
+			this.dispatchingThread = Thread.currentThread();
+			try {
+				while(this.queue.drainTo(batch, this.batchSize) > 0) {
+					for(ApplicationEvent event : batch) {
+						deliver(event, getOrCreateStatistics(event.getClass()));
+					}
+					batch.clear();
+				}
+			}
+			finally {
+				this.dispatchingThread = null;
+			}
+			this.scheduled.set(false);
+		}
+		while(!this.queue.isEmpty() && this.scheduled.compareAndSet(false, true));
+	}
+
+	private void deliver(ApplicationEvent event, EventStatistics eventStatistics) {
+		try {
+			this.delegate.publishEvent(event);
+			eventStatistics.dispatched.incrementAndGet();
+		}
+		catch(Throwable ex) {
+			eventStatistics.failed.incrementAndGet();
+			logger.error("Error publishing " + event + ".", ex);
+		}
+	}
+
+	private synchronized Executor getExecutor() {
+		if(this.executor != null) {
+			return this.executor;
+		}
+		if(this.defaultExecutor == null) {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("spring-session-events-");
+			threadFactory.setDaemon(true);
+			this.defaultExecutor = Executors.newSingleThreadExecutor(threadFactory);
+		}
+		return this.defaultExecutor;
+	}
+
+	private EventStatistics getOrCreateStatistics(Class<?> eventType) {
+		EventStatistics result = this.statistics.get(eventType);
+		if(result == null) {
+			EventStatistics created = new EventStatistics();
+			result = this.statistics.putIfAbsent(eventType, created);
+			if(result == null) {
+				result = created;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The counts for a type of event.
+	 */
+	public static final class EventStatistics {
+		private final AtomicLong published = new AtomicLong();
+		private final AtomicLong dispatched = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final AtomicLong discarded = new AtomicLong();
+		private final AtomicLong callerRuns = new AtomicLong();
+
+		EventStatistics() {
+		}
+
+		/**
+		 * Gets the number of events that were passed to {@link AsyncSessionEventPublisher#publishEvent(ApplicationEvent)}.
+		 *
+		 * @return the number of events that were published
+		 */
+		public long getPublished() {
+			return this.published.get();
+		}
+
+		/**
+		 * Gets the number of events that were delivered to the listeners without an error.
+		 *
+		 * @return the number of events that were delivered
+		 */
+		public long getDispatched() {
+			return this.dispatched.get();
+		}
+
+		/**
+		 * Gets the number of events for which a listener threw an exception.
+		 *
+		 * @return the number of events that failed
+		 */
+		public long getFailed() {
+			return this.failed.get();
+		}
+
+		/**
+		 * Gets the number of events that were discarded because the queue was full.
+		 *
+		 * @return the number of events that were discarded
+		 */
+		public long getDiscarded() {
+			return this.discarded.get();
+		}
+
+		/**
+		 * Gets the number of events that were delivered on the publishing thread because the queue was full.
+		 *
+		 * @return the number of events that were delivered on the publishing thread
+		 */
+		public long getCallerRuns() {
+			return this.callerRuns.get();
+		}
+	}
+}
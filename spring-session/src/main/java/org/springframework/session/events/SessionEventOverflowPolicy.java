@@ -0,0 +1,50 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.events;
+
+/**
+ * Determines what {@link AsyncSessionEventPublisher} does with an event when
+ * its queue is full.
+ *
+ * @author agent
+ * @since 1.1
+ * @see AsyncSessionEventPublisher#setOverflowPolicy(SessionEventOverflowPolicy)
+ */
+public enum SessionEventOverflowPolicy {
+	/**
+	 * The publishing thread waits for space in the queue. This slows down the
+	 * source of the events (i.e. the Redis listener thread) instead of losing
+	 * events, and keeps them in order. By default it waits until there is space;
+	 * if {@link AsyncSessionEventPublisher#setMaxBlockTimeInMillis(long)} is
+	 * set and there is still no space after that time, the event is discarded.
+	 * This is the default.
+	 */
+	BLOCK,
+
+	/**
+	 * The event is published on the publishing thread. No event is lost, but
+	 * the event is delivered ahead of the events that are still in the queue.
+	 * This means a listener may, for example, receive the
+	 * {@link SessionDeletedEvent} for a session before its
+	 * {@link SessionCreatedEvent}.
+	 */
+	CALLER_RUNS,
+
+	/**
+	 * The event is discarded.
+	 */
+	DISCARD
+}
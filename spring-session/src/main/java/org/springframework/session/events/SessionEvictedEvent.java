@@ -0,0 +1,39 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.events;
+
+import org.springframework.session.Session;
+
+/**
+ * For {@link org.springframework.session.SessionRepository} implementations
+ * that support it, this event is fired when a {@link Session} is destroyed
+ * because the repository reached its capacity.
+ *
+ * @author agent
+ * @since 1.1
+ * @see org.springframework.session.MapSessionRepository#setMaxSessions(int)
+ */
+@SuppressWarnings("serial")
+public class SessionEvictedEvent extends SessionDestroyedEvent {
+
+	public SessionEvictedEvent(Object source, String sessionId) {
+		super(source, sessionId);
+	}
+
+	public SessionEvictedEvent(Object source, Session session) {
+		super(source, session);
+	}
+}
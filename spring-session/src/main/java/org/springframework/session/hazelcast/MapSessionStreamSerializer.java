@@ -0,0 +1,115 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.hazelcast;
+
+import java.io.IOException;
+import java.util.Set;
+
+import org.springframework.session.MapSession;
+import org.springframework.session.serializer.CompactSerializer;
+import org.springframework.util.Assert;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+
+/**
+ * A Hazelcast {@link StreamSerializer} for {@link MapSession} that writes the
+ * session attributes using a {@link CompactSerializer} instead of serializing
+ * the whole session using JDK serialization. Hazelcast only allows serializers
+ * to be registered before the {@link com.hazelcast.core.HazelcastInstance} is
+ * created, so it must be registered with the Hazelcast configuration that is
+ * used to create the instance exposed to {@code @EnableHazelcastHttpSession}.
+ * For example:
+ *
+ * <pre>
+ * <code>
+ * Config hazelcastConfig = new Config();
+ * SerializerConfig serializerConfig = new SerializerConfig()
+ *         .setImplementation(new MapSessionStreamSerializer())
+ *         .setTypeClass(MapSession.class);
+ * hazelcastConfig.getSerializationConfig().addSerializerConfig(serializerConfig);
+ * return Hazelcast.newHazelcastInstance(hazelcastConfig);
+ * </code>
+ * </pre>
+ *
+ * Every member and client that reads the sessions must register the serializer with the same type id.
+ *
+ * @author agent
+ * @since 1.1
+ */
+public class MapSessionStreamSerializer implements StreamSerializer<MapSession> {
+	/**
+	 * The default Hazelcast type id of {@link MapSession}.
+	 */
+	public static final int DEFAULT_TYPE_ID = 1453;
+
+	private final CompactSerializer serializer;
+
+	private final int typeId;
+
+	/**
+	 * Creates a new instance with a {@link CompactSerializer} that only has the default types registered.
+	 */
+	public MapSessionStreamSerializer() {
+		this(new CompactSerializer(), DEFAULT_TYPE_ID);
+	}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param serializer the {@link CompactSerializer} used to write the session attributes. Cannot be null.
+	 * @param typeId the Hazelcast type id of {@link MapSession}. Must be greater than 0.
+	 */
+	public MapSessionStreamSerializer(CompactSerializer serializer, int typeId) {
+		Assert.notNull(serializer, "serializer cannot be null");
+		Assert.isTrue(typeId > 0, "typeId must be greater than 0");
+		this.serializer = serializer;
+		this.typeId = typeId;
+	}
+
+	public void write(ObjectDataOutput out, MapSession session) throws IOException {
+		out.writeUTF(session.getId());
+		out.writeLong(session.getCreationTime());
+		out.writeLong(session.getLastAccessedTime());
+		out.writeInt(session.getMaxInactiveIntervalInSeconds());
+		Set<String> attributeNames = session.getAttributeNames();
+		out.writeInt(attributeNames.size());
+		for(String attributeName : attributeNames) {
+			out.writeUTF(attributeName);
+			this.serializer.writeObject(session.getAttribute(attributeName), out);
+		}
+	}
+
+	public MapSession read(ObjectDataInput in) throws IOException {
+		MapSession session = new MapSession(in.readUTF());
+		session.setCreationTime(in.readLong());
+		session.setLastAccessedTime(in.readLong());
+		session.setMaxInactiveIntervalInSeconds(in.readInt());
+		for(int count = in.readInt(); count > 0; count--) {
+			String attributeName = in.readUTF();
+			session.setAttribute(attributeName, this.serializer.readObject(in));
+		}
+		return session;
+	}
+
+	public int getTypeId() {
+		return this.typeId;
+	}
+
+	public void destroy() {
+	}
+}
@@ -79,7 +79,7 @@ public class HazelcastHttpSessionConfiguration extends SpringHttpSessionConfigur
 
 	@Bean
 	public SessionEntryListener sessionListener(ApplicationEventPublisher eventPublisher) {
-		return new SessionEntryListener(eventPublisher);
+		return new SessionEntryListener(getSessionEventPublisher(eventPublisher));
 	}
 
 	/**
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.serializer;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.springframework.core.serializer.support.SerializationFailedException;
+import org.springframework.util.Assert;
+
+/**
+ * <p>
+ * Compresses serialized session attribute values that are at least a
+ * configurable number of bytes using the JDK {@link Deflater}. Smaller values
+ * are left untouched since compressing them costs more CPU than it saves in
+ * network and memory.
+ * </p>
+ *
+ * <p>
+ * A compressed value is written as a two byte header, the length of the
+ * uncompressed value (as a variable length int) and the raw deflate data.
+ * {@link #compress(byte[])} and {@link #decompress(byte[])} are meant for
+ * stores that record whether a value was compressed themselves (i.e. as a
+ * distinct type). Stores that only hold the bytes should use
+ * {@link #encode(byte[])} and {@link #decode(byte[])} instead, which also
+ * frame values that are not compressed so that a value can never be mistaken
+ * for a compressed one, whatever bytes the underlying serializer produced.
+ * </p>
+ *
+ * <p>
+ * Both headers start with {@code 0x1F} followed by {@code 0xC0} or
+ * {@code 0xC1}, neither of which can appear in UTF-8 text nor starts JDK
+ * serialization or {@link CompactSerializer} output. This allows
+ * {@link #decode(byte[])} to return values that were written before
+ * compression was enabled unchanged.
+ * </p>
+ *
+ * <p>
+ * The default level is {@link Deflater#BEST_SPEED} which compresses typical
+ * session state (i.e. carts or wizard state made up of Strings and numbers)
+ * to a fraction of its size at a cost well below the cost of serializing it.
+ * If compressing a value does not make it smaller, it is left uncompressed.
+ * </p>
+ *
+ * @author agent
+ * @since 1.1
+ */
+public class CompressionCodec {
+	/**
+	 * The default number of bytes a value must have for it to be compressed.
+	 */
+	public static final int DEFAULT_THRESHOLD_IN_BYTES = 1024;
+
+	static final byte MAGIC = 0x1F;
+
+	static final byte COMPRESSED = (byte) 0xC1;
+
+	static final byte UNCOMPRESSED = (byte) 0xC0;
+
+	private static final int HEADER_LENGTH = 2;
+
+	private static final int MIN_LENGTH_IN_BYTES = 16;
+
+	private final int thresholdInBytes;
+
+	private final int level;
+
+	/**
+	 * Creates a new instance that compresses values of at least {@link #DEFAULT_THRESHOLD_IN_BYTES} bytes.
+	 */
+	public CompressionCodec() {
+		this(DEFAULT_THRESHOLD_IN_BYTES);
+	}
+
+	/**
+	 * Creates a new instance using {@link Deflater#BEST_SPEED}.
+	 *
+	 * @param thresholdInBytes the number of bytes a value must have for it to be compressed. Must be greater than 0.
+	 */
+	public CompressionCodec(int thresholdInBytes) {
+		this(thresholdInBytes, Deflater.BEST_SPEED);
+	}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param thresholdInBytes the number of bytes a value must have for it to be compressed. Must be greater than 0.
+	 * @param level the {@link Deflater} compression level (0-9)
+	 */
+	public CompressionCodec(int thresholdInBytes, int level) {
+		Assert.isTrue(thresholdInBytes > 0, "thresholdInBytes must be greater than 0");
+		Assert.isTrue(level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION, "level must be between 0 and 9");
+		this.thresholdInBytes = thresholdInBytes;
+		this.level = level;
+	}
+
+	/**
+	 * Gets the number of bytes a value must have for it to be compressed.
+	 *
+	 * @return the number of bytes a value must have for it to be compressed
+	 */
+	public int getThresholdInBytes() {
+		return this.thresholdInBytes;
+	}
+
+	/**
+	 * Compresses the value if it is at least the threshold and compressing it makes it smaller.
+	 *
+	 * @param bytes the serialized value
+	 * @return the compressed value, or the same instance that was passed in if the value was not compressed
+	 */
+	public byte[] compress(byte[] bytes) {
+		if(bytes == null || bytes.length < this.thresholdInBytes || bytes.length < MIN_LENGTH_IN_BYTES) {
+			return bytes;
+		}
+		Deflater deflater = new Deflater(this.level, true);
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			byte[] buffer = new byte[bytes.length];
+			int headerLength = writeHeader(buffer, bytes.length);
+			int length = headerLength;
+			while(!deflater.finished() && length < buffer.length) {
+				length += deflater.deflate(buffer, length, buffer.length - length);
+			}
+			if(!deflater.finished()) {
+				return bytes;
+			}
+			byte[] result = new byte[length];
+			System.arraycopy(buffer, 0, result, 0, length);
+			return result;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Decompresses a value that was compressed by {@link #compress(byte[])}.
+	 *
+	 * @param bytes the value that was possibly compressed
+	 * @return the decompressed value, or the same instance that was passed in if the value was not compressed
+	 */
+	public byte[] decompress(byte[] bytes) {
+		if(!isCompressed(bytes)) {
+			return bytes;
+		}
+		int length = 0;
+		int offset = HEADER_LENGTH;
+		for(int shift = 0; ; shift += 7) {
+			Assert.isTrue(shift < 32 && offset < bytes.length, "Malformed compressed value");
+			int b = bytes[offset++] & 0xFF;
+			length |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				break;
+			}
+		}
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(bytes, offset, bytes.length - offset);
+			byte[] result = new byte[length];
+			int read = 0;
+			while(read < length) {
+				int count = inflater.inflate(result, read, length - read);
+				if(count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					throw new SerializationFailedException("Compressed value is truncated");
+				}
+				read += count;
+			}
+			return result;
+		} catch(DataFormatException e) {
+			throw new SerializationFailedException("Cannot decompress value", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Compresses the value like {@link #compress(byte[])}, but marks a value that is not compressed as such so that
+	 * {@link #decode(byte[])} never mistakes it for a compressed value.
+	 *
+	 * @param bytes the serialized value
+	 * @return the compressed or framed value. Null and empty values are returned unchanged.
+	 */
+	public byte[] encode(byte[] bytes) {
+		if(bytes == null || bytes.length == 0) {
+			return bytes;
+		}
+		byte[] compressed = compress(bytes);
+		if(compressed != bytes) {
+			return compressed;
+		}
+		byte[] result = new byte[bytes.length + HEADER_LENGTH];
+		result[0] = MAGIC;
+		result[1] = UNCOMPRESSED;
+		System.arraycopy(bytes, 0, result, HEADER_LENGTH, bytes.length);
+		return result;
+	}
+
+	/**
+	 * Decodes a value that was written by {@link #encode(byte[])}. A value without a header (i.e. that was written
+	 * before compression was enabled) is returned unchanged.
+	 *
+	 * @param bytes the value that was possibly encoded
+	 * @return the decoded value
+	 */
+	public byte[] decode(byte[] bytes) {
+		if(isCompressed(bytes)) {
+			return decompress(bytes);
+		}
+		if(bytes != null && bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC && bytes[1] == UNCOMPRESSED) {
+			byte[] result = new byte[bytes.length - HEADER_LENGTH];
+			System.arraycopy(bytes, HEADER_LENGTH, result, 0, result.length);
+			return result;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Determines if the value was compressed by {@link #compress(byte[])}.
+	 *
+	 * @param bytes the value
+	 * @return true if the value was compressed, else false
+	 */
+	public static boolean isCompressed(byte[] bytes) {
+		return bytes != null && bytes.length > HEADER_LENGTH && bytes[0] == MAGIC && bytes[1] == COMPRESSED;
+	}
+
+	private static int writeHeader(byte[] buffer, int length) {
+		int i = 0;
+		buffer[i++] = MAGIC;
+		buffer[i++] = COMPRESSED;
+		while((length & ~0x7F) != 0) {
+			buffer[i++] = (byte) ((length & 0x7F) | 0x80);
+			length >>>= 7;
+		}
+		buffer[i++] = (byte) length;
+		return i;
+	}
+}
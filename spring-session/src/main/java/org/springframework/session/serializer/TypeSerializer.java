@@ -0,0 +1,54 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.serializer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes and reads the state of a single type that is registered with a
+ * {@link CompactSerializer}. Implementations only write the state of the value;
+ * the class id that identifies the type is written by the
+ * {@link CompactSerializer}.
+ *
+ * @param <T> the type that is serialized
+ * @author agent
+ * @since 1.1
+ * @see CompactSerializer#register(int, Class, TypeSerializer)
+ */
+public interface TypeSerializer<T> {
+
+	/**
+	 * Writes the state of the value.
+	 *
+	 * @param value the value to write. Never null.
+	 * @param out the {@link DataOutput} to write to
+	 * @param serializer the {@link CompactSerializer} that can be used to write nested values
+	 * @throws IOException if the value could not be written
+	 */
+	void write(T value, DataOutput out, CompactSerializer serializer) throws IOException;
+
+	/**
+	 * Reads a value that was written by {@link #write(Object, DataOutput, CompactSerializer)}.
+	 *
+	 * @param in the {@link DataInput} to read from
+	 * @param serializer the {@link CompactSerializer} that can be used to read nested values
+	 * @return the value that was read
+	 * @throws IOException if the value could not be read
+	 */
+	T read(DataInput in, CompactSerializer serializer) throws IOException;
+}
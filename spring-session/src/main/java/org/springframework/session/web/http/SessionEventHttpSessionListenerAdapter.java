@@ -34,6 +34,12 @@ import org.springframework.web.context.ServletContextAware;
  * translates them into {@link HttpSessionEvent} and submits the
  * {@link HttpSessionEvent} to every registered {@link HttpSessionListener}.
  *
+ * <p>
+ * The listeners are invoked on the thread that publishes the event. To keep
+ * slow listeners from delaying the session store, publish the events with an
+ * {@link org.springframework.session.events.AsyncSessionEventPublisher}.
+ * </p>
+ *
  * @author Rob Winch
  * @since 1.1
  */
@@ -29,6 +29,7 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 import org.springframework.core.annotation.Order;
+import org.springframework.session.DirtyTrackingSession;
 import org.springframework.session.ExpiringSession;
 import org.springframework.session.Session;
 import org.springframework.session.SessionRepository;
@@ -175,7 +176,8 @@ public class SessionRepositoryFilter<S extends ExpiringSession> extends OncePerR
 		}
 
 		/**
-		 * Uses the HttpSessionStrategy to write the session id tot he response and persist the Session.
+		 * Uses the HttpSessionStrategy to write the session id tot he response and persist the Session. A
+		 * {@link DirtyTrackingSession} is only persisted if it is dirty.
 		 */
 		private void commitSession() {
 			HttpSessionWrapper wrappedSession = getCurrentSession();
@@ -185,7 +187,9 @@ public class SessionRepositoryFilter<S extends ExpiringSession> extends OncePerR
 				}
 			} else {
 				S session = wrappedSession.getSession();
-				sessionRepository.save(session);
+				if(!(session instanceof DirtyTrackingSession) || ((DirtyTrackingSession) session).isDirty()) {
+					sessionRepository.save(session);
+				}
 				if(!isRequestedSessionIdValid() || !session.getId().equals(getRequestedSessionId())) {
 					httpSessionStrategy.onNewSession(session, this, response);
 				}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+
+public class DefaultPrincipalNameExtractorTests {
+	DefaultPrincipalNameExtractor extractor;
+
+	MapSession session;
+
+	@Before
+	public void setup() {
+		extractor = new DefaultPrincipalNameExtractor();
+		session = new MapSession();
+	}
+
+	@Test
+	public void extractPrincipalNameIndex() {
+		String username = "username";
+		session.setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, username);
+
+		assertThat(extractor.extractPrincipalName(session)).isEqualTo(username);
+	}
+
+	@Test
+	public void extractPrincipalNameSecurityContext() {
+		String principal = "extractPrincipalNameSecurityContext";
+		Authentication authentication = new UsernamePasswordAuthenticationToken(principal, "notused", AuthorityUtils.createAuthorityList("ROLE_USER"));
+		SecurityContext context = new SecurityContextImpl();
+		context.setAuthentication(authentication);
+		session.setAttribute(DefaultPrincipalNameExtractor.SPRING_SECURITY_CONTEXT, context);
+
+		assertThat(extractor.extractPrincipalName(session)).isEqualTo(principal);
+	}
+
+	@Test
+	public void extractPrincipalNameSecurityContextNoAuthentication() {
+		session.setAttribute(DefaultPrincipalNameExtractor.SPRING_SECURITY_CONTEXT, new SecurityContextImpl());
+
+		assertThat(extractor.extractPrincipalName(session)).isNull();
+	}
+
+	@Test
+	public void extractPrincipalNameCustomSecurityContext() {
+		session.setAttribute(DefaultPrincipalNameExtractor.SPRING_SECURITY_CONTEXT, new CustomContext("custom"));
+
+		assertThat(extractor.extractPrincipalName(session)).isEqualTo("custom");
+	}
+
+	@Test
+	public void extractPrincipalNameNone() {
+		assertThat(extractor.extractPrincipalName(session)).isNull();
+	}
+
+	@Test
+	public void isPrincipalAttribute() {
+		assertThat(extractor.isPrincipalAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME)).isTrue();
+		assertThat(extractor.isPrincipalAttribute(DefaultPrincipalNameExtractor.SPRING_SECURITY_CONTEXT)).isTrue();
+		assertThat(extractor.isPrincipalAttribute("other")).isFalse();
+	}
+
+	public static class CustomContext {
+		private final CustomAuthentication authentication;
+
+		CustomContext(String name) {
+			this.authentication = new CustomAuthentication(name);
+		}
+
+		public CustomAuthentication getAuthentication() {
+			return authentication;
+		}
+	}
+
+	public static class CustomAuthentication {
+		private final String name;
+
+		CustomAuthentication(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+}
@@ -16,23 +16,42 @@
 package org.springframework.session;
 
 import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
 
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.session.events.SessionEvictedEvent;
+import org.springframework.session.events.SessionExpiredEvent;
 
 public class MapSessionRepositoryTests {
 	MapSessionRepository repository;
 
 	MapSession session;
 
+	ApplicationEventPublisher eventPublisher;
+
 	@Before
 	public void setup() {
+		eventPublisher = mock(ApplicationEventPublisher.class);
 		repository = new MapSessionRepository();
+		repository.setApplicationEventPublisher(eventPublisher);
 		session = new MapSession();
 	}
 
+	@After
+	public void cleanup() {
+		repository.destroy();
+	}
+
 	@Test
 	public void getSessionExpired() {
 		session.setMaxInactiveIntervalInSeconds(1);
@@ -40,6 +59,137 @@ public class MapSessionRepositoryTests {
 		repository.save(session);
 
 		assertThat(repository.getSession(session.getId())).isNull();
+		assertExpiredEventPublished();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setApplicationEventPublisherNull() {
+		repository.setApplicationEventPublisher(null);
+	}
+
+	@Test
+	public void expireSessionsRemovesAbandonedSession() {
+		session.setMaxInactiveIntervalInSeconds(60);
+		repository.save(session);
+
+		repository.expireSessions(session.getLastAccessedTime() + TimeUnit.SECONDS.toMillis(59));
+
+		verifyZeroInteractions(eventPublisher);
+		assertThat(repository.getScheduledExpirationCount()).isEqualTo(1);
+
+		repository.expireSessions(session.getLastAccessedTime() + TimeUnit.SECONDS.toMillis(61));
+
+		assertExpiredEventPublished();
+		assertThat(repository.getScheduledExpirationCount()).isEqualTo(0);
+		assertThat(repository.getSession(session.getId())).isNull();
+	}
+
+	@Test
+	public void expireSessionsTouchedSession() {
+		session.setMaxInactiveIntervalInSeconds(60);
+		repository.save(session);
+		ExpiringSession touched = repository.getSession(session.getId());
+		touched.setLastAccessedTime(session.getLastAccessedTime() + TimeUnit.SECONDS.toMillis(30));
+		repository.save(touched);
+
+		repository.expireSessions(session.getLastAccessedTime() + TimeUnit.SECONDS.toMillis(61));
+
+		verifyZeroInteractions(eventPublisher);
+		assertThat(repository.getSession(session.getId())).isNotNull();
+
+		repository.expireSessions(touched.getLastAccessedTime() + TimeUnit.SECONDS.toMillis(61));
+
+		assertExpiredEventPublished();
+	}
+
+	@Test
+	public void expireSessionsNeverExpires() {
+		session.setMaxInactiveIntervalInSeconds(60);
+		repository.save(session);
+		ExpiringSession changed = repository.getSession(session.getId());
+		changed.setMaxInactiveIntervalInSeconds(-1);
+		repository.save(changed);
+
+		repository.expireSessions(session.getLastAccessedTime() + TimeUnit.DAYS.toMillis(1));
+
+		verifyZeroInteractions(eventPublisher);
+		assertThat(repository.getScheduledExpirationCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void expireSessionsDeletedSession() {
+		session.setMaxInactiveIntervalInSeconds(60);
+		repository.save(session);
+		repository.delete(session.getId());
+
+		repository.expireSessions(session.getLastAccessedTime() + TimeUnit.SECONDS.toMillis(61));
+
+		verifyZeroInteractions(eventPublisher);
+		assertThat(repository.getScheduledExpirationCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void saveCustomMapDoesNotTrackExpiration() {
+		repository = new MapSessionRepository(new ConcurrentHashMap<String, ExpiringSession>());
+
+		repository.save(session);
+
+		assertThat(repository.getScheduledExpirationCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void saveActiveExpirationDisabled() {
+		repository.setActiveExpiration(false);
+
+		repository.save(session);
+
+		assertThat(repository.getScheduledExpirationCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void saveOnlyTouchedWithinTouchGranularity() {
+		repository.setTouchGranularityInSeconds(30);
+		session.setAttribute("attrName", "attrValue");
+		repository.save(session);
+		long lastAccessedTime = session.getLastAccessedTime();
+
+		ExpiringSession touched = repository.getSession(session.getId());
+		touched.setLastAccessedTime(lastAccessedTime + 1000);
+		repository.save(touched);
+
+		assertThat(repository.getSession(session.getId()).getLastAccessedTime()).isEqualTo(lastAccessedTime);
+	}
+
+	@Test
+	public void saveAttributeChangedWithinTouchGranularity() {
+		repository.setTouchGranularityInSeconds(30);
+		repository.save(session);
+
+		ExpiringSession changed = repository.getSession(session.getId());
+		changed.setLastAccessedTime(session.getLastAccessedTime() + 1000);
+		changed.setAttribute("attrName", "attrValue");
+		repository.save(changed);
+
+		ExpiringSession result = repository.getSession(session.getId());
+		assertThat(result.getLastAccessedTime()).isEqualTo(changed.getLastAccessedTime());
+		assertThat(result.<String>getAttribute("attrName")).isEqualTo("attrValue");
+	}
+
+	@Test
+	public void getSessionCustomMapIsDirty() {
+		repository = new MapSessionRepository(new ConcurrentHashMap<String, ExpiringSession>());
+		repository.save(session);
+
+		assertThat(((MapSession) repository.getSession(session.getId())).isDirty()).isTrue();
+	}
+
+	@Test
+	public void getSessionCustomMapSaveOnlyChangedSessions() {
+		repository = new MapSessionRepository(new ConcurrentHashMap<String, ExpiringSession>());
+		repository.setSaveOnlyChangedSessions(true);
+		repository.save(session);
+
+		assertThat(((MapSession) repository.getSession(session.getId())).isDirty()).isFalse();
 	}
 
 	@Test
@@ -59,4 +209,222 @@ public class MapSessionRepositoryTests {
 
 		assertThat(session.getMaxInactiveIntervalInSeconds()).isEqualTo(expectedMaxInterval);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void getSessionDoesNotAffectSavedSession() {
+		session.setAttribute("attrName", "attrValue");
+		repository.save(session);
+
+		ExpiringSession result = repository.getSession(session.getId());
+		result.setAttribute("attrName", "changed");
+		result.setAttribute("other", "value");
+
+		assertThat(repository.getSession(session.getId()).<String>getAttribute("attrName")).isEqualTo("attrValue");
+		assertThat(repository.getSession(session.getId()).getAttributeNames()).containsOnly("attrName");
+	}
+
+	@Test
+	public void saveDoesNotShareChangesMadeAfterwards() {
+		session.setAttribute("attrName", "attrValue");
+		repository.save(session);
+
+		session.setAttribute("attrName", "changed");
+
+		assertThat(repository.getSession(session.getId()).<String>getAttribute("attrName")).isEqualTo("attrValue");
+	}
+
+	@Test
+	public void saveConcurrentChangesAreMerged() {
+		session.setAttribute("attrName", "attrValue");
+		repository.save(session);
+		ExpiringSession first = repository.getSession(session.getId());
+		ExpiringSession second = repository.getSession(session.getId());
+		first.setAttribute("first", "1");
+		second.setAttribute("second", "2");
+		second.removeAttribute("attrName");
+
+		repository.save(first);
+		repository.save(second);
+
+		ExpiringSession result = repository.getSession(session.getId());
+		assertThat(result.getAttributeNames()).containsOnly("first", "second");
+
+		second.setAttribute("second", "changed");
+		repository.save(second);
+
+		result = repository.getSession(session.getId());
+		assertThat(result.getAttributeNames()).containsOnly("first", "second");
+		assertThat(result.<String>getAttribute("second")).isEqualTo("changed");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setMaxSessionsNegative() {
+		repository.setMaxSessions(-1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setMaxSizeInBytesNegative() {
+		repository.setMaxSizeInBytes(-1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setEvictionPolicyNull() {
+		repository.setEvictionPolicy(null);
+	}
+
+	@Test
+	public void saveMaxSessionsEvictsLeastRecentlyUsed() {
+		repository.setMaxSessions(2);
+		MapSession second = new MapSession();
+		MapSession third = new MapSession();
+		repository.save(session);
+		repository.save(second);
+		repository.getSession(session.getId());
+
+		repository.save(third);
+
+		assertThat(repository.getSession(second.getId())).isNull();
+		assertThat(repository.getSession(session.getId())).isNotNull();
+		assertThat(repository.getSession(third.getId())).isNotNull();
+		assertThat(repository.getEvictionCount()).isEqualTo(1);
+		ArgumentCaptor<ApplicationEvent> event = ArgumentCaptor.forClass(ApplicationEvent.class);
+		verify(eventPublisher).publishEvent(event.capture());
+		assertThat(event.getValue()).isInstanceOf(SessionEvictedEvent.class);
+		assertThat(((SessionEvictedEvent) event.getValue()).getSessionId()).isEqualTo(second.getId());
+	}
+
+	@Test
+	public void saveMaxSessionsEvictsLeastFrequentlyUsed() {
+		repository.setMaxSessions(2);
+		repository.setEvictionPolicy(SessionEvictionPolicy.LFU);
+		MapSession second = new MapSession();
+		repository.save(session);
+		repository.getSession(session.getId());
+		repository.save(second);
+		repository.getSession(second.getId());
+		repository.getSession(session.getId());
+
+		// a burst of sessions that are never read again
+		for(int i = 0; i < 10; i++) {
+			repository.save(new MapSession());
+		}
+
+		assertThat(repository.getSession(session.getId())).isNotNull();
+		assertThat(repository.getSession(second.getId())).isNotNull();
+		assertThat(repository.getEvictionCount()).isEqualTo(10);
+	}
+
+	@Test
+	public void saveMaxSizeInBytes() {
+		repository.setMaxSizeInBytes(30000);
+		session.setAttribute("data", new byte[10000]);
+		repository.save(session);
+		MapSession second = new MapSession();
+		second.setAttribute("data", new byte[10000]);
+		repository.save(second);
+
+		assertThat(repository.getEvictionCount()).isEqualTo(0);
+		assertThat(repository.getEstimatedSizeInBytes()).isGreaterThan(20000);
+
+		MapSession third = new MapSession();
+		third.setAttribute("data", new byte[10000]);
+		repository.save(third);
+
+		assertThat(repository.getEvictionCount()).isEqualTo(1);
+		assertThat(repository.getSession(session.getId())).isNull();
+		assertThat(repository.getEstimatedSizeInBytes()).isLessThanOrEqualTo(30000);
+	}
+
+	@Test
+	public void saveEvictedToOverflow() {
+		MapSessionRepository overflow = new MapSessionRepository();
+		repository.setMaxSessions(1);
+		repository.setOverflowSessionRepository(overflow);
+		session.setAttribute("attrName", "attrValue");
+		repository.save(session);
+		MapSession second = new MapSession();
+
+		repository.save(second);
+
+		verifyZeroInteractions(eventPublisher);
+		assertThat(overflow.getSession(session.getId())).isNotNull();
+
+		ExpiringSession result = repository.getSession(session.getId());
+
+		assertThat(result.<String>getAttribute("attrName")).isEqualTo("attrValue");
+		assertThat(overflow.getSession(session.getId())).isNull();
+		// the other session was moved to the overflow to make room
+		assertThat(overflow.getSession(second.getId())).isNotNull();
+		overflow.destroy();
+	}
+
+	@Test
+	public void deleteDeletesFromOverflow() {
+		@SuppressWarnings("unchecked")
+		SessionRepository<ExpiringSession> overflow = mock(SessionRepository.class);
+		repository.setOverflowSessionRepository(overflow);
+
+		repository.delete(session.getId());
+
+		verify(overflow).delete(session.getId());
+	}
+
+	@Test
+	public void getSessionNotFoundInOverflow() {
+		@SuppressWarnings("unchecked")
+		SessionRepository<ExpiringSession> overflow = mock(SessionRepository.class);
+		repository.setOverflowSessionRepository(overflow);
+
+		assertThat(repository.getSession(session.getId())).isNull();
+
+		verify(overflow).getSession(session.getId());
+	}
+
+	@Test
+	public void getSessionFromOverflowFoundWhileDeletedFromOverflow() {
+		@SuppressWarnings("unchecked")
+		SessionRepository<ExpiringSession> overflow = mock(SessionRepository.class);
+		repository.setOverflowSessionRepository(overflow);
+		final String id = session.getId();
+		final ExpiringSession[] foundWhileDeleted = new ExpiringSession[1];
+		when(overflow.getSession(id)).thenReturn(session);
+		doAnswer(new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				foundWhileDeleted[0] = repository.getSession(id);
+				return null;
+			}
+		}).when(overflow).delete(id);
+
+		assertThat(repository.getSession(id)).isNotNull();
+
+		verify(overflow).delete(id);
+		assertThat(foundWhileDeleted[0]).isNotNull();
+	}
+
+	@Test
+	public void getSessionMovedFromOverflowConcurrently() {
+		@SuppressWarnings("unchecked")
+		SessionRepository<ExpiringSession> overflow = mock(SessionRepository.class);
+		repository.setOverflowSessionRepository(overflow);
+		session.setAttribute("attrName", "attrValue");
+		when(overflow.getSession(session.getId())).thenAnswer(new Answer<ExpiringSession>() {
+			public ExpiringSession answer(InvocationOnMock invocation) throws Throwable {
+				// another request moved it back and deleted it from the overflow in the meantime
+				repository.save(session);
+				return null;
+			}
+		});
+
+		ExpiringSession result = repository.getSession(session.getId());
+
+		assertThat(result).isNotNull();
+		assertThat(result.<String>getAttribute("attrName")).isEqualTo("attrValue");
+	}
+
+	private void assertExpiredEventPublished() {
+		ArgumentCaptor<ApplicationEvent> event = ArgumentCaptor.forClass(ApplicationEvent.class);
+		verify(eventPublisher).publishEvent(event.capture());
+		assertThat(event.getValue()).isInstanceOf(SessionExpiredEvent.class);
+		assertThat(((SessionExpiredEvent) event.getValue()).getSessionId()).isEqualTo(session.getId());
+	}
+}
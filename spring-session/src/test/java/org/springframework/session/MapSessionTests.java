@@ -48,6 +48,45 @@ public class MapSessionTests {
 		assertThat(session.getAttributeNames()).isEmpty();
 	}
 
+	@Test
+	public void isDirtyNew() {
+		assertThat(session.isDirty()).isTrue();
+	}
+
+	@Test
+	public void isDirtyMarkClean() {
+		session.markClean(0);
+
+		assertThat(session.isDirty()).isFalse();
+	}
+
+	@Test
+	public void isDirtySetAttribute() {
+		session.markClean(0);
+
+		session.setAttribute("attr", "value");
+
+		assertThat(session.isDirty()).isTrue();
+	}
+
+	@Test
+	public void isDirtyTouchedWithinGranularity() {
+		session.markClean(1000);
+
+		session.setLastAccessedTime(session.getLastAccessedTime() + 999);
+
+		assertThat(session.isDirty()).isFalse();
+	}
+
+	@Test
+	public void isDirtyTouchedOutsideGranularity() {
+		session.markClean(1000);
+
+		session.setLastAccessedTime(session.getLastAccessedTime() + 1000);
+
+		assertThat(session.isDirty()).isTrue();
+	}
+
 	@Test
 	public void equalsNonSessionFalse() {
 		assertThat(session.equals(new Object())).isFalse();
@@ -131,4 +170,47 @@ public class MapSessionTests {
 		}
 	}
 
-}
\ No newline at end of file
+
+	@Test
+	public void snapshotSharesAttributesUntilChanged() {
+		session.setAttribute("attr", "value");
+		MapSession snapshot = session.snapshot();
+
+		snapshot.setAttribute("attr", "changed");
+		snapshot.setAttribute("other", "value");
+
+		assertThat(session.<String>getAttribute("attr")).isEqualTo("value");
+		assertThat(session.getAttributeNames()).containsOnly("attr");
+		assertThat(snapshot.<String>getAttribute("attr")).isEqualTo("changed");
+
+		session.removeAttribute("attr");
+
+		assertThat(session.getAttributeNames()).isEmpty();
+		assertThat(snapshot.getAttributeNames()).containsOnly("attr", "other");
+	}
+
+	@Test
+	public void mergeAppliesOnlyChangedAttributes() {
+		session.setAttribute("unchanged", "value");
+		session.setAttribute("removed", "value");
+		session.markSaved(1);
+		MapSession current = session.snapshot();
+		current.setAttribute("unchanged", "concurrent");
+		current.setAttribute("added", "concurrent");
+
+		session.setAttribute("changed", "value");
+		session.removeAttribute("removed");
+		MapSession merged = session.merge(current);
+
+		assertThat(merged.getAttributeNames()).containsOnly("unchanged", "added", "changed");
+		assertThat(merged.<String>getAttribute("unchanged")).isEqualTo("concurrent");
+		assertThat(merged.<String>getAttribute("changed")).isEqualTo("value");
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void getAttributeNamesUnmodifiable() {
+		session.setAttribute("attr", "value");
+
+		session.getAttributeNames().clear();
+	}
+}
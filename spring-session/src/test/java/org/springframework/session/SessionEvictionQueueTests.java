@@ -0,0 +1,107 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.junit.Test;
+
+public class SessionEvictionQueueTests {
+
+	@Test
+	public void peekEmpty() {
+		SessionEvictionQueue queue = new SessionEvictionQueue(SessionEvictionPolicy.LRU);
+
+		assertThat(queue.peek()).isNull();
+		assertThat(queue.size()).isEqualTo(0);
+	}
+
+	@Test
+	public void lruEvictsLeastRecentlyUsed() {
+		SessionEvictionQueue queue = new SessionEvictionQueue(SessionEvictionPolicy.LRU);
+		queue.add("1", 0);
+		queue.add("2", 0);
+		queue.add("3", 0);
+
+		assertThat(queue.peek()).isEqualTo("1");
+
+		queue.touch("1");
+
+		assertThat(queue.peek()).isEqualTo("2");
+
+		queue.add("2", 0);
+
+		assertThat(queue.peek()).isEqualTo("3");
+	}
+
+	@Test
+	public void lfuEvictsLeastFrequentlyUsed() {
+		SessionEvictionQueue queue = new SessionEvictionQueue(SessionEvictionPolicy.LFU);
+		queue.add("1", 0);
+		queue.add("2", 0);
+		queue.add("3", 0);
+		queue.touch("1");
+		queue.touch("1");
+		queue.touch("2");
+
+		assertThat(queue.peek()).isEqualTo("3");
+
+		queue.remove("3");
+
+		assertThat(queue.peek()).isEqualTo("2");
+
+		queue.touch("2");
+		queue.touch("2");
+
+		assertThat(queue.peek()).isEqualTo("1");
+
+		// saving does not count as a use
+		queue.add("1", 0);
+		queue.add("4", 0);
+
+		assertThat(queue.peek()).isEqualTo("4");
+	}
+
+	@Test
+	public void lfuEqualFrequencyEvictsLeastRecentlyAdded() {
+		SessionEvictionQueue queue = new SessionEvictionQueue(SessionEvictionPolicy.LFU);
+		queue.add("1", 0);
+		queue.add("2", 0);
+		queue.touch("2");
+		queue.touch("1");
+
+		assertThat(queue.peek()).isEqualTo("2");
+	}
+
+	@Test
+	public void sizeInBytes() {
+		SessionEvictionQueue queue = new SessionEvictionQueue(SessionEvictionPolicy.LRU);
+		queue.add("1", 100);
+		queue.add("2", 50);
+
+		assertThat(queue.getSizeInBytes()).isEqualTo(150);
+
+		queue.add("1", 10);
+
+		assertThat(queue.getSizeInBytes()).isEqualTo(60);
+
+		queue.remove("2");
+		queue.remove("unknown");
+
+		assertThat(queue.getSizeInBytes()).isEqualTo(10);
+		assertThat(queue.size()).isEqualTo(1);
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SessionSizeEstimatorTests {
+
+	@Test
+	public void estimateSizeEmpty() {
+		assertThat(SessionSizeEstimator.estimateSize(new MapSession())).isEqualTo(SessionSizeEstimator.SESSION_SIZE);
+	}
+
+	@Test
+	public void estimateSizeGrowsWithAttributes() {
+		MapSession session = new MapSession();
+		session.setAttribute("small", "a");
+		long small = SessionSizeEstimator.estimateSize(session);
+
+		session.setAttribute("large", new byte[10000]);
+
+		assertThat(SessionSizeEstimator.estimateSize(session)).isGreaterThan(small + 10000);
+	}
+
+	@Test
+	public void estimateSizeSerializable() {
+		List<String> value = new ArrayList<String>();
+		for(int i = 0; i < 1000; i++) {
+			value.add("value" + i);
+		}
+
+		assertThat(SessionSizeEstimator.estimateSize(value)).isGreaterThan(8000);
+	}
+
+	@Test
+	public void estimateSizeNotSerializable() {
+		assertThat(SessionSizeEstimator.estimateSize(new Object())).isEqualTo(SessionSizeEstimator.UNKNOWN_VALUE_SIZE);
+
+		List<Object> value = new ArrayList<Object>();
+		value.add(new Object());
+
+		assertThat(SessionSizeEstimator.estimateSize(value)).isEqualTo(SessionSizeEstimator.UNKNOWN_VALUE_SIZE);
+	}
+}
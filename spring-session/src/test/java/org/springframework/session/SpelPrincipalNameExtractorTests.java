@@ -0,0 +1,101 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpelPrincipalNameExtractorTests {
+	SpelPrincipalNameExtractor extractor;
+
+	MapSession session;
+
+	@Before
+	public void setup() {
+		extractor = new SpelPrincipalNameExtractor("user", "account?.login");
+		session = new MapSession();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructorNullAttributeName() {
+		new SpelPrincipalNameExtractor(null, "account?.login");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructorEmptyExpression() {
+		new SpelPrincipalNameExtractor("user", "");
+	}
+
+	@Test
+	public void extractPrincipalName() {
+		session.setAttribute("user", new User("rob"));
+
+		assertThat(extractor.extractPrincipalName(session)).isEqualTo("rob");
+	}
+
+	@Test
+	public void extractPrincipalNameRepeatedly() {
+		for(int i = 0; i < 200; i++) {
+			session.setAttribute("user", new User("rob" + i));
+
+			assertThat(extractor.extractPrincipalName(session)).isEqualTo("rob" + i);
+		}
+	}
+
+	@Test
+	public void extractPrincipalNameNullNavigation() {
+		session.setAttribute("user", new User(null));
+
+		assertThat(extractor.extractPrincipalName(session)).isNull();
+	}
+
+	@Test
+	public void extractPrincipalNameNoAttribute() {
+		assertThat(extractor.extractPrincipalName(session)).isNull();
+	}
+
+	@Test
+	public void isPrincipalAttribute() {
+		assertThat(extractor.isPrincipalAttribute("user")).isTrue();
+		assertThat(extractor.isPrincipalAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME)).isFalse();
+	}
+
+	public static class User {
+		private final Account account;
+
+		User(String login) {
+			this.account = login == null ? null : new Account(login);
+		}
+
+		public Account getAccount() {
+			return account;
+		}
+	}
+
+	public static class Account {
+		private final String login;
+
+		Account(String login) {
+			this.login = login;
+		}
+
+		public String getLogin() {
+			return login;
+		}
+	}
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.Cookie;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.session.web.http.DefaultCookieSerializer;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TieredSessionRepositoryTests {
+	@Mock
+	LastAccessedTimeSessionRepository<MapSession> remote;
+
+	MapSession remoteSession;
+
+	TieredSessionRepository<MapSession> repository;
+
+	@Before
+	public void setup() {
+		remoteSession = new MapSession();
+		when(remote.createSession()).thenReturn(remoteSession);
+		stubRemoteLastAccessedTime();
+		repository = new TieredSessionRepository<MapSession>(remote);
+		repository.setJvmRoute("a");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructorNullRemote() {
+		new TieredSessionRepository<MapSession>(null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setMaxLocalSessionsZero() {
+		repository.setMaxLocalSessions(0);
+	}
+
+	@Test
+	public void saveWritesThrough() {
+		ExpiringSession session = repository.createSession();
+		session.setAttribute("attrName", "attrValue");
+
+		repository.save(session);
+
+		MapSession written = getWritten();
+		assertThat(written).isSameAs(remoteSession);
+		assertThat(written.<String>getAttribute("attrName")).isEqualTo("attrValue");
+		assertThat(repository.getLocalSessionCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void getSessionLocalRoute() {
+		ExpiringSession session = repository.createSession();
+		session.setAttribute("attrName", "attrValue");
+		repository.save(session);
+
+		ExpiringSession result = repository.getSession(session.getId());
+
+		assertThat(result.getId()).isEqualTo(session.getId());
+		assertThat(result.<String>getAttribute("attrName")).isEqualTo("attrValue");
+		verify(remote, never()).getSession(anyString());
+		verify(remote).getLastAccessedTime(session.getId());
+		assertThat(repository.getLocalHitCount()).isEqualTo(1);
+		assertThat(repository.getLocalMissCount()).isEqualTo(0);
+		assertThat(repository.getRemoteReadCount()).isEqualTo(0);
+		assertThat(repository.getRemoteCheckCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void getSessionDeletedByAnotherJvm() {
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+		when(remote.getLastAccessedTime(session.getId())).thenReturn(null);
+
+		assertThat(repository.getSession(session.getId())).isNull();
+		assertThat(repository.getLocalSessionCount()).isEqualTo(0);
+		verify(remote, never()).getSession(anyString());
+	}
+
+	@Test
+	public void getSessionChangedByAnotherJvm() {
+		ExpiringSession session = repository.createSession();
+		session.setAttribute("attrName", "stale");
+		repository.save(session);
+		MapSession changed = new MapSession(remoteSession);
+		changed.setAttribute("attrName", "changed");
+		changed.setLastAccessedTime(remoteSession.getLastAccessedTime() + 1000);
+		when(remote.getLastAccessedTime(session.getId())).thenReturn(changed.getLastAccessedTime());
+		when(remote.getSession(session.getId())).thenReturn(changed);
+
+		ExpiringSession result = repository.getSession(session.getId());
+
+		assertThat(result.<String>getAttribute("attrName")).isEqualTo("changed");
+		assertThat(repository.getLocalMissCount()).isEqualTo(1);
+		assertThat(repository.getRemoteReadCount()).isEqualTo(1);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void getSessionRemoteCannotCheckReadsRemote() {
+		SessionRepository<MapSession> remote = mock(SessionRepository.class);
+		when(remote.createSession()).thenReturn(remoteSession);
+		repository = new TieredSessionRepository<MapSession>(remote);
+		repository.setJvmRoute("a");
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+		when(remote.getSession(session.getId())).thenReturn(new MapSession(remoteSession));
+
+		assertThat(repository.getSession(session.getId())).isNotNull();
+
+		verify(remote).getSession(session.getId());
+	}
+
+	@Test
+	public void getSessionOwnRouteIsLocal() {
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+
+		ExpiringSession result = repository.getSession(session.getId() + ".a");
+
+		assertThat(result.getId()).isEqualTo(session.getId());
+		verify(remote, never()).getSession(anyString());
+	}
+
+	@Test
+	public void getSessionRouteMismatchReadsRemote() {
+		ExpiringSession session = repository.createSession();
+		session.setAttribute("attrName", "stale");
+		repository.save(session);
+		MapSession changed = new MapSession(remoteSession);
+		changed.setAttribute("attrName", "changed");
+		when(remote.getSession(session.getId())).thenReturn(changed);
+
+		ExpiringSession result = repository.getSession(session.getId() + ".b");
+
+		assertThat(result.getId()).isEqualTo(session.getId());
+		assertThat(result.<String>getAttribute("attrName")).isEqualTo("changed");
+		assertThat(repository.getLocalMissCount()).isEqualTo(1);
+		assertThat(repository.getRemoteReadCount()).isEqualTo(1);
+
+		// rehydrated
+		assertThat(repository.getSession(session.getId()).<String>getAttribute("attrName")).isEqualTo("changed");
+		verify(remote, times(1)).getSession(anyString());
+	}
+
+	@Test
+	public void getSessionRouteMismatchNotFound() {
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+
+		assertThat(repository.getSession(session.getId() + ".b")).isNull();
+		assertThat(repository.getLocalSessionCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void getSessionNoJvmRouteChecksRemote() {
+		repository.setJvmRoute(null);
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+
+		assertThat(repository.getSession(session.getId())).isNotNull();
+
+		verify(remote).getLastAccessedTime(session.getId());
+		verify(remote, never()).getSession(anyString());
+	}
+
+	@Test
+	public void getSessionExpired() {
+		remoteSession.setMaxInactiveIntervalInSeconds(1);
+		remoteSession.setLastAccessedTime(System.currentTimeMillis() - 5000);
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+
+		assertThat(repository.getSession(session.getId())).isNull();
+		assertThat(repository.getLocalSessionCount()).isEqualTo(0);
+		verify(remote, never()).getSession(anyString());
+	}
+
+	@Test
+	public void saveUnchangedSession() {
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+		reset(remote);
+		stubRemoteLastAccessedTime();
+
+		repository.save(repository.getSession(session.getId()));
+
+		verify(remote, never()).save(any(MapSession.class));
+	}
+
+	@Test
+	public void saveAfterLocalSessionDropped() {
+		repository.setMaxLocalSessions(1);
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+		ExpiringSession toSave = repository.getSession(session.getId());
+		toSave.setAttribute("attrName", "attrValue");
+		when(remote.createSession()).thenReturn(new MapSession());
+		repository.save(repository.createSession());
+		reset(remote);
+		when(remote.getSession(session.getId())).thenReturn(remoteSession);
+
+		repository.save(toSave);
+
+		MapSession written = getWritten();
+		assertThat(written.getId()).isEqualTo(session.getId());
+		assertThat(written.<String>getAttribute("attrName")).isEqualTo("attrValue");
+	}
+
+	@Test
+	public void saveFailureDropsLocalSession() {
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+		ExpiringSession toSave = repository.getSession(session.getId());
+		toSave.setAttribute("attrName", "attrValue");
+		doThrow(new IllegalStateException()).when(remote).save(any(MapSession.class));
+
+		try {
+			repository.save(toSave);
+			fail("Expected Exception");
+		}
+		catch(IllegalStateException success) {}
+
+		assertThat(repository.getLocalSessionCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void deleteRemovesBothTiers() {
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+
+		repository.delete(session.getId());
+
+		verify(remote).delete(session.getId());
+		assertThat(repository.getLocalSessionCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void maxLocalSessionsDropsLeastRecentlyUsed() {
+		repository.setMaxLocalSessions(2);
+		List<ExpiringSession> sessions = new ArrayList<ExpiringSession>();
+		for(int i = 0; i < 3; i++) {
+			when(remote.createSession()).thenReturn(new MapSession());
+			ExpiringSession session = repository.createSession();
+			repository.save(session);
+			sessions.add(session);
+			if(i == 1) {
+				// use the first session so that the second one is the least recently used
+				repository.getSession(sessions.get(0).getId());
+			}
+		}
+
+		assertThat(repository.getLocalSessionCount()).isEqualTo(2);
+		assertThat(repository.getSession(sessions.get(0).getId())).isNotNull();
+		assertThat(repository.getSession(sessions.get(2).getId())).isNotNull();
+		verify(remote, never()).getSession(anyString());
+
+		repository.getSession(sessions.get(1).getId());
+
+		verify(remote).getSession(sessions.get(1).getId());
+	}
+
+	/**
+	 * Simulates two JVMs behind a sticky load balancer that share a remote tier, and compares the number of remote
+	 * reads and checks per request with and without routes.
+	 */
+	@Test
+	public void stickyLoadBalancingRemoteReadsPerRequest() {
+		int sessionCount = 100;
+		int requestsPerSession = 60;
+
+		long[] withoutRoute = remoteReadsAndChecks(null, sessionCount, requestsPerSession);
+		long[] withRoute = remoteReadsAndChecks("a", sessionCount, requestsPerSession);
+
+		// only the requests that fail over and back read the remote tier
+		assertThat(withoutRoute[0]).isEqualTo(2 * sessionCount);
+		assertThat(withRoute[0]).isEqualTo(2 * sessionCount);
+		// the route saves the check of the stale local copy when failing back
+		assertThat(withoutRoute[1]).isEqualTo(sessionCount * requestsPerSession - sessionCount);
+		assertThat(withRoute[1]).isEqualTo(sessionCount * requestsPerSession - 2 * sessionCount);
+	}
+
+	private long[] remoteReadsAndChecks(String jvmRoute, int sessionCount, int requestsPerSession) {
+		MapSessionRepository remote = new MapSessionRepository();
+		Node a = new Node(remote, jvmRoute == null ? null : "a");
+		Node b = new Node(remote, jvmRoute == null ? null : "b");
+
+		List<String> cookies = new ArrayList<String>();
+		for(int i = 0; i < sessionCount; i++) {
+			cookies.add(a.request(null));
+		}
+		for(int i = 0; i < requestsPerSession; i++) {
+			for(int s = 0; s < sessionCount; s++) {
+				// the first JVM is unavailable for the middle third, so the load balancer fails over and back
+				Node node = i < requestsPerSession / 3 || i >= 2 * requestsPerSession / 3 ? a : b;
+				cookies.set(s, node.request(cookies.get(s)));
+			}
+		}
+		for(String cookie : cookies) {
+			String id = cookie.indexOf('.') < 0 ? cookie : cookie.substring(0, cookie.indexOf('.'));
+			assertThat(remote.getSession(id).<Integer>getAttribute("count")).isEqualTo(requestsPerSession + 1);
+		}
+		return new long[] { a.repository.getRemoteReadCount() + b.repository.getRemoteReadCount(),
+				a.repository.getRemoteCheckCount() + b.repository.getRemoteCheckCount() };
+	}
+
+	/**
+	 * A JVM that reads the session id from the cookie like the SessionRepositoryFilter.
+	 */
+	static class Node {
+		/**
+		 * Ensures every request has a later last accessed time, even if it is processed within the same millisecond.
+		 */
+		static final AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+
+		final TieredSessionRepository<ExpiringSession> repository;
+
+		final DefaultCookieSerializer serializer = new DefaultCookieSerializer();
+
+		final String jvmRoute;
+
+		Node(MapSessionRepository remote, String jvmRoute) {
+			this.repository = new TieredSessionRepository<ExpiringSession>(remote);
+			this.repository.setJvmRoute(jvmRoute);
+			this.serializer.setJvmRoute(jvmRoute);
+			this.jvmRoute = jvmRoute;
+		}
+
+		/**
+		 * Processes a request.
+		 *
+		 * @param cookie the value of the session cookie or null
+		 * @return the value of the session cookie after the request
+		 */
+		String request(String cookie) {
+			ExpiringSession session;
+			String requestedSessionId = null;
+			if(cookie == null) {
+				session = repository.createSession();
+			} else {
+				MockHttpServletRequest request = new MockHttpServletRequest();
+				request.setCookies(new Cookie("SESSION", cookie));
+				requestedSessionId = serializer.readCookieValues(request).get(0);
+				session = repository.getSession(requestedSessionId);
+			}
+			assertThat(session).isNotNull();
+			session.setLastAccessedTime(clock.incrementAndGet());
+			session.setAttribute("count", session.getAttribute("count") == null ? 1 : session.<Integer>getAttribute("count") + 1);
+			repository.save(session);
+			if(session.getId().equals(requestedSessionId)) {
+				return cookie;
+			}
+			return jvmRoute == null ? session.getId() : session.getId() + "." + jvmRoute;
+		}
+	}
+
+	private void stubRemoteLastAccessedTime() {
+		when(remote.getLastAccessedTime(anyString())).thenAnswer(new Answer<Long>() {
+			public Long answer(InvocationOnMock invocation) throws Throwable {
+				return remoteSession.getLastAccessedTime();
+			}
+		});
+	}
+
+	private MapSession getWritten() {
+		ArgumentCaptor<MapSession> written = ArgumentCaptor.forClass(MapSession.class);
+		verify(remote, atLeastOnce()).save(written.capture());
+		return written.getValue();
+	}
+}
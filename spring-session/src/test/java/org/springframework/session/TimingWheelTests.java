@@ -0,0 +1,137 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelTests {
+	static final long TICK = 1000;
+
+	long now;
+
+	TimingWheel wheel;
+
+	@Before
+	public void setup() {
+		now = 1431640000000L;
+		wheel = new TimingWheel(TICK, now);
+	}
+
+	@Test
+	public void advanceNotExpired() {
+		wheel.schedule("id", now + TICK);
+
+		assertThat(wheel.advance(now + TICK - 1)).isEmpty();
+		assertThat(wheel.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void advanceExpired() {
+		wheel.schedule("id", now + TICK);
+
+		assertThat(wheel.advance(now + TICK)).containsOnly("id");
+		assertThat(wheel.size()).isEqualTo(0);
+		assertThat(wheel.advance(now + 2 * TICK)).isEmpty();
+	}
+
+	@Test
+	public void advanceNeverEarly() {
+		wheel.schedule("id", now + TICK + 1);
+
+		assertThat(wheel.advance(now + TICK)).isEmpty();
+		assertThat(wheel.advance(now + 2 * TICK)).containsOnly("id");
+	}
+
+	@Test
+	public void advanceExpiredInThePast() {
+		wheel.schedule("id", now - TimeUnit.HOURS.toMillis(1));
+
+		assertThat(wheel.advance(now)).containsOnly("id");
+	}
+
+	@Test
+	public void scheduleReplacesExpiration() {
+		wheel.schedule("id", now + TICK);
+		wheel.schedule("id", now + TimeUnit.MINUTES.toMillis(30));
+
+		assertThat(wheel.size()).isEqualTo(1);
+		assertThat(wheel.advance(now + TimeUnit.MINUTES.toMillis(30) - TICK)).isEmpty();
+		assertThat(wheel.advance(now + TimeUnit.MINUTES.toMillis(30))).containsOnly("id");
+	}
+
+	@Test
+	public void cancel() {
+		wheel.schedule("id", now + TICK);
+
+		wheel.cancel("id");
+
+		assertThat(wheel.size()).isEqualTo(0);
+		assertThat(wheel.advance(now + TICK)).isEmpty();
+	}
+
+	@Test
+	public void cancelUnknown() {
+		wheel.cancel("unknown");
+
+		assertThat(wheel.size()).isEqualTo(0);
+	}
+
+	@Test
+	public void advanceBeyondRange() {
+		long expirationTime = now + TimeUnit.DAYS.toMillis(400);
+		wheel.schedule("id", expirationTime);
+
+		for(long time = now; time < expirationTime; time += TimeUnit.HOURS.toMillis(1)) {
+			assertThat(wheel.advance(time)).isEmpty();
+		}
+		assertThat(wheel.advance(expirationTime)).containsOnly("id");
+	}
+
+	@Test
+	public void advanceMatchesExpirationTimes() {
+		Random random = new Random(0);
+		Map<String, Long> expirationTimes = new HashMap<String, Long>();
+		long end = now + TimeUnit.DAYS.toMillis(2);
+		for(long time = now; time < end; time += random.nextInt(60000)) {
+			// reschedule or add sessions with a mix of short and long timeouts
+			for(int i = 0; i < 5; i++) {
+				String id = String.valueOf(random.nextInt(1000));
+				long expirationTime = time + (random.nextBoolean() ? random.nextInt(120000) : random.nextInt((int) TimeUnit.HOURS.toMillis(30)));
+				wheel.schedule(id, expirationTime);
+				expirationTimes.put(id, expirationTime);
+			}
+
+			for(String id : wheel.advance(time)) {
+				Long expirationTime = expirationTimes.remove(id);
+				assertThat(expirationTime).isNotNull();
+				assertThat(expirationTime).isLessThanOrEqualTo(time);
+			}
+			for(Long expirationTime : expirationTimes.values()) {
+				// not reported late by more than a tick
+				assertThat(expirationTime).isGreaterThan(time - TICK);
+			}
+			assertThat(wheel.size()).isEqualTo(expirationTimes.size());
+		}
+	}
+}
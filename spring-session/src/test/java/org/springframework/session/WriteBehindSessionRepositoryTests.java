@@ -0,0 +1,275 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class WriteBehindSessionRepositoryTests {
+	@Mock
+	SessionRepository<MapSession> delegate;
+
+	WriteBehindSessionRepository<MapSession> repository;
+
+	@Before
+	public void setup() {
+		when(delegate.createSession()).thenReturn(new MapSession());
+		repository = new WriteBehindSessionRepository<MapSession>(delegate);
+		repository.setFlushIntervalInMillis(TimeUnit.HOURS.toMillis(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructorNullDelegate() {
+		new WriteBehindSessionRepository<MapSession>(null);
+	}
+
+	@Test
+	public void saveDoesNotWriteUntilFlush() {
+		ExpiringSession session = repository.createSession();
+		session.setAttribute("attrName", "attrValue");
+
+		repository.save(session);
+
+		verify(delegate, never()).save(any(MapSession.class));
+		assertThat(repository.getDirtySessionCount()).isEqualTo(1);
+		assertThat(repository.getSession(session.getId()).<String>getAttribute("attrName")).isEqualTo("attrValue");
+		verify(delegate, never()).getSession(anyString());
+
+		repository.flush();
+
+		MapSession written = getWritten();
+		assertThat(written.getId()).isEqualTo(session.getId());
+		assertThat(written.<String>getAttribute("attrName")).isEqualTo("attrValue");
+		assertThat(repository.getDirtySessionCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void saveCoalescesChanges() {
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+		ExpiringSession first = repository.getSession(session.getId());
+		ExpiringSession second = repository.getSession(session.getId());
+		first.setAttribute("first", "1");
+		second.setAttribute("second", "2");
+
+		repository.save(first);
+		repository.save(second);
+
+		assertThat(repository.getDirtySessionCount()).isEqualTo(1);
+
+		repository.flush();
+
+		MapSession written = getWritten();
+		assertThat(written.getAttributeNames()).containsOnly("first", "second");
+	}
+
+	@Test
+	public void saveUnchangedSession() {
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+		repository.flush();
+		reset(delegate);
+
+		repository.save(repository.getSession(session.getId()));
+
+		assertThat(repository.getDirtySessionCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void flushRetriesFailedWrite() {
+		ExpiringSession session = repository.createSession();
+		session.setAttribute("attrName", "attrValue");
+		repository.save(session);
+		doThrow(new IllegalStateException()).doNothing().when(delegate).save(any(MapSession.class));
+
+		repository.flush();
+
+		assertThat(repository.getDirtySessionCount()).isEqualTo(1);
+
+		repository.flush();
+
+		verify(delegate, times(2)).save(any(MapSession.class));
+		assertThat(repository.getDirtySessionCount()).isEqualTo(0);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void flushChecksSessionStillExists() {
+		LastAccessedTimeSessionRepository<MapSession> delegate = mock(LastAccessedTimeSessionRepository.class);
+		when(delegate.createSession()).thenReturn(new MapSession());
+		repository = new WriteBehindSessionRepository<MapSession>(delegate);
+		repository.setFlushIntervalInMillis(TimeUnit.HOURS.toMillis(1));
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+		repository.flush();
+		when(delegate.getLastAccessedTime(session.getId())).thenReturn(session.getLastAccessedTime());
+		ExpiringSession toSave = repository.getSession(session.getId());
+		toSave.setAttribute("attrName", "attrValue");
+
+		repository.save(toSave);
+		repository.flush();
+
+		verify(delegate, times(2)).save(any(MapSession.class));
+		verify(delegate, never()).getSession(anyString());
+		assertThat(repository.getLocalSessionCount()).isEqualTo(1);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void flushDropsSessionDeletedFromDelegate() {
+		LastAccessedTimeSessionRepository<MapSession> delegate = mock(LastAccessedTimeSessionRepository.class);
+		when(delegate.createSession()).thenReturn(new MapSession());
+		repository = new WriteBehindSessionRepository<MapSession>(delegate);
+		repository.setFlushIntervalInMillis(TimeUnit.HOURS.toMillis(1));
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+		repository.flush();
+		ExpiringSession toSave = repository.getSession(session.getId());
+		toSave.setAttribute("attrName", "attrValue");
+
+		// deleted by another JVM
+		repository.save(toSave);
+		repository.flush();
+
+		verify(delegate, times(1)).save(any(MapSession.class));
+		assertThat(repository.getLocalSessionCount()).isEqualTo(0);
+		assertThat(repository.getSession(session.getId())).isNull();
+	}
+
+	@Test
+	public void flushReadsDelegateToCheckSessionStillExists() {
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+		repository.flush();
+		ExpiringSession toSave = repository.getSession(session.getId());
+		toSave.setAttribute("attrName", "attrValue");
+
+		// deleted by another JVM
+		repository.save(toSave);
+		repository.flush();
+
+		verify(delegate).getSession(session.getId());
+		verify(delegate, times(1)).save(any(MapSession.class));
+		assertThat(repository.getLocalSessionCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void getSessionReadsDelegateOnce() {
+		MapSession stored = new MapSession();
+		stored.setAttribute("attrName", "attrValue");
+		when(delegate.getSession(stored.getId())).thenReturn(stored);
+
+		assertThat(repository.getSession(stored.getId()).<String>getAttribute("attrName")).isEqualTo("attrValue");
+		assertThat(repository.getSession(stored.getId()).<String>getAttribute("attrName")).isEqualTo("attrValue");
+
+		verify(delegate, times(1)).getSession(stored.getId());
+	}
+
+	@Test
+	public void getSessionExpired() {
+		MapSession stored = new MapSession();
+		stored.setMaxInactiveIntervalInSeconds(1);
+		stored.setLastAccessedTime(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1));
+		when(delegate.getSession(stored.getId())).thenReturn(stored);
+
+		assertThat(repository.getSession(stored.getId())).isNull();
+		assertThat(repository.getLocalSessionCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void evictIdleSessionsReadsDelegateAgain() {
+		MapSession stored = new MapSession();
+		when(delegate.getSession(stored.getId())).thenReturn(stored);
+		repository.setLocalIdleTimeoutInSeconds(60);
+		repository.getSession(stored.getId());
+
+		repository.evictIdleSessions(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(2));
+
+		assertThat(repository.getLocalSessionCount()).isEqualTo(0);
+		repository.getSession(stored.getId());
+		verify(delegate, times(2)).getSession(stored.getId());
+	}
+
+	@Test
+	public void evictIdleSessionsKeepsDirtySessions() {
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+
+		repository.evictIdleSessions(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10));
+
+		assertThat(repository.getLocalSessionCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void deleteWritesThrough() {
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+
+		repository.delete(session.getId());
+
+		verify(delegate).delete(session.getId());
+		repository.flush();
+		verify(delegate, never()).save(any(MapSession.class));
+	}
+
+	@Test
+	public void destroyFlushes() {
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+
+		repository.destroy();
+
+		verify(delegate).save(any(MapSession.class));
+	}
+
+	@Test
+	public void saveAfterDestroyWritesThrough() {
+		repository.destroy();
+		ExpiringSession session = repository.createSession();
+
+		repository.save(session);
+
+		verify(delegate).save(any(MapSession.class));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setFlushIntervalInMillisZero() {
+		repository.setFlushIntervalInMillis(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setBatchSizeZero() {
+		repository.setBatchSize(0);
+	}
+
+	private MapSession getWritten() {
+		ArgumentCaptor<MapSession> written = ArgumentCaptor.forClass(MapSession.class);
+		verify(delegate).save(written.capture());
+		return written.getValue();
+	}
+}
@@ -61,8 +61,10 @@ import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.gemfire.GemfireOperations;
 import org.springframework.data.gemfire.GemfireTemplate;
+import org.springframework.session.DefaultPrincipalNameExtractor;
 import org.springframework.session.ExpiringSession;
 import org.springframework.session.FindByIndexNameSessionRepository;
+import org.springframework.session.PrincipalNameExtractor;
 import org.springframework.session.Session;
 import org.springframework.session.data.gemfire.config.annotation.web.http.GemFireHttpSessionConfiguration;
 import org.springframework.session.events.AbstractSessionEvent;
@@ -70,6 +72,8 @@ import org.springframework.session.events.SessionCreatedEvent;
 import org.springframework.session.events.SessionDeletedEvent;
 import org.springframework.session.events.SessionDestroyedEvent;
 import org.springframework.session.events.SessionExpiredEvent;
+import org.springframework.session.serializer.CompactSerializer;
+import org.springframework.session.serializer.CompressionCodec;
 
 import com.gemstone.gemfire.cache.AttributesMutator;
 import com.gemstone.gemfire.cache.EntryEvent;
@@ -193,6 +197,19 @@ public class AbstractGemFireOperationsSessionRepositoryTest {
 		verify(mockAttributesMutator, times(1)).addCacheListener(same(sessionRepository));
 	}
 
+	@Test
+	public void sessionEventPublisherTakesPrecedenceOverApplicationEventPublisher() {
+		ApplicationEventPublisher mockApplicationEventPublisher = mock(ApplicationEventPublisher.class,
+			"MockApplicationEventPublisher");
+		ApplicationEventPublisher mockSessionEventPublisher = mock(ApplicationEventPublisher.class,
+			"MockSessionEventPublisher");
+
+		sessionRepository.setSessionEventPublisher(mockSessionEventPublisher);
+		sessionRepository.setApplicationEventPublisher(mockApplicationEventPublisher);
+
+		assertThat(sessionRepository.getApplicationEventPublisher()).isSameAs(mockSessionEventPublisher);
+	}
+
 	@Test
 	public void maxInactiveIntervalInSecondsAllowsNegativeValuesAndExtremelyLargeValues() {
 		assertThat(sessionRepository.getMaxInactiveIntervalInSeconds()).isEqualTo(
@@ -772,6 +789,41 @@ public class AbstractGemFireOperationsSessionRepositoryTest {
 		assertThat(session.getPrincipalName()).isNull();
 	}
 
+	@Test
+	public void getPrincipalNameIsCachedUntilPrincipalAttributeChanges() {
+		PrincipalNameExtractor mockPrincipalNameExtractor = mock(PrincipalNameExtractor.class);
+
+		when(mockPrincipalNameExtractor.isPrincipalAttribute(eq("user"))).thenReturn(true);
+		when(mockPrincipalNameExtractor.extractPrincipalName(any(Session.class))).thenReturn("jblum", "rwinch");
+
+		GemFireSession.setPrincipalNameExtractor(mockPrincipalNameExtractor);
+
+		try {
+			GemFireSession session = GemFireSession.create(0);
+
+			assertThat(session.getPrincipalName()).isEqualTo("jblum");
+
+			session.setAttribute("attrOne", "testOne");
+
+			assertThat(session.getPrincipalName()).isEqualTo("jblum");
+
+			session.setAttribute("user", "rwinch");
+
+			assertThat(session.getPrincipalName()).isEqualTo("rwinch");
+			assertThat(session.getPrincipalName()).isEqualTo("rwinch");
+
+			verify(mockPrincipalNameExtractor, times(2)).extractPrincipalName(same(session));
+		}
+		finally {
+			GemFireSession.setPrincipalNameExtractor(new DefaultPrincipalNameExtractor());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setPrincipalNameExtractorToNull() {
+		GemFireSession.setPrincipalNameExtractor(null);
+	}
+
 	@Test
 	public void sessionToData() throws Exception {
 		@SuppressWarnings("serial")
@@ -1159,6 +1211,70 @@ public class AbstractGemFireOperationsSessionRepositoryTest {
 		assertThat(sessionAttributes.hasDelta()).isTrue();
 	}
 
+	@Test
+	public void sessionAttributesToDataThenFromDataWithCompactSerializer() throws Exception {
+		GemFireSessionAttributes.setAttributeSerializer(new CompactSerializer());
+
+		try {
+			GemFireSessionAttributes expectedSessionAttributes = new GemFireSessionAttributes();
+
+			expectedSessionAttributes.setAttribute("attrOne", "testOne");
+			expectedSessionAttributes.setAttribute("attrTwo", 2L);
+
+			ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+
+			expectedSessionAttributes.toData(new DataOutputStream(outBytes));
+
+			GemFireSessionAttributes.setAttributeSerializer(null);
+
+			GemFireSessionAttributes sessionAttributes = new GemFireSessionAttributes();
+
+			sessionAttributes.fromData(new DataInputStream(new ByteArrayInputStream(outBytes.toByteArray())));
+
+			assertThat(sessionAttributes.getAttributeNames()).containsOnly("attrOne", "attrTwo");
+			assertThat(sessionAttributes.<String>getAttribute("attrOne")).isEqualTo("testOne");
+			assertThat(sessionAttributes.<Long>getAttribute("attrTwo")).isEqualTo(2L);
+		}
+		finally {
+			GemFireSessionAttributes.setAttributeSerializer(null);
+		}
+	}
+
+	@Test
+	public void sessionAttributesToDataThenFromDataWithCompression() throws Exception {
+		GemFireSessionAttributes.setCompressionCodec(new CompressionCodec(100));
+
+		try {
+			char[] chars = new char[10000];
+			Arrays.fill(chars, 'x');
+			String largeValue = new String(chars);
+
+			GemFireSessionAttributes expectedSessionAttributes = new GemFireSessionAttributes();
+
+			expectedSessionAttributes.setAttribute("attrOne", "testOne");
+			expectedSessionAttributes.setAttribute("attrTwo", largeValue);
+
+			ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+
+			expectedSessionAttributes.toData(new DataOutputStream(outBytes));
+
+			assertThat(outBytes.size()).isLessThan(largeValue.length());
+
+			GemFireSessionAttributes.setCompressionCodec(null);
+
+			GemFireSessionAttributes sessionAttributes = new GemFireSessionAttributes();
+
+			sessionAttributes.fromData(new DataInputStream(new ByteArrayInputStream(outBytes.toByteArray())));
+
+			assertThat(sessionAttributes.getAttributeNames()).containsOnly("attrOne", "attrTwo");
+			assertThat(sessionAttributes.<String>getAttribute("attrOne")).isEqualTo("testOne");
+			assertThat(sessionAttributes.<String>getAttribute("attrTwo")).isEqualTo(largeValue);
+		}
+		finally {
+			GemFireSessionAttributes.setCompressionCodec(null);
+		}
+	}
+
 	@Test
 	public void sessionAttributesToDelta() throws Exception {
 		final DataOutput mockDataOutput = mock(DataOutput.class);
@@ -24,6 +24,7 @@ import static org.mockito.Matchers.isA;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -303,6 +304,58 @@ public class GemFireOperationsSessionRepositoryTest {
 		verify(mockTemplate, times(1)).put(eq(expectedSessionId), isA(GemFireSession.class));
 	}
 
+	@Test
+	public void saveNotChangedStoresSessionByDefault() {
+		GemFireSession storedSession = GemFireSession.create(MAX_INACTIVE_INTERVAL_IN_SECONDS);
+
+		when(mockTemplate.get(eq(storedSession.getId()))).thenReturn(storedSession);
+
+		ExpiringSession session = sessionRepository.getSession(storedSession.getId());
+
+		assertThat(((GemFireSession) session).isDirty()).isTrue();
+
+		sessionRepository.save(session);
+
+		verify(mockTemplate, times(1)).put(eq(session.getId()), isA(GemFireSession.class));
+	}
+
+	@Test
+	public void saveOnlyTouchedWithinTouchGranularityIsSkipped() {
+		sessionRepository.setSaveOnlyChangedSessions(true);
+		sessionRepository.setTouchGranularityInSeconds(30);
+
+		GemFireSession storedSession = GemFireSession.create(MAX_INACTIVE_INTERVAL_IN_SECONDS);
+
+		when(mockTemplate.get(eq(storedSession.getId()))).thenReturn(storedSession);
+
+		ExpiringSession session = sessionRepository.getSession(storedSession.getId());
+
+		assertThat(((GemFireSession) session).isDirty()).isFalse();
+
+		sessionRepository.save(session);
+
+		verify(mockTemplate, never()).put(any(), any());
+	}
+
+	@Test
+	public void saveModifiedWithinTouchGranularityStoresSession() {
+		sessionRepository.setSaveOnlyChangedSessions(true);
+		sessionRepository.setTouchGranularityInSeconds(30);
+
+		GemFireSession storedSession = GemFireSession.create(MAX_INACTIVE_INTERVAL_IN_SECONDS);
+
+		when(mockTemplate.get(eq(storedSession.getId()))).thenReturn(storedSession);
+
+		ExpiringSession session = sessionRepository.getSession(storedSession.getId());
+
+		session.setAttribute("attrName", "attrValue");
+
+		assertThat(((GemFireSession) session).isDirty()).isTrue();
+		sessionRepository.save(session);
+
+		verify(mockTemplate, times(1)).put(eq(session.getId()), isA(GemFireSession.class));
+	}
+
 	@Test
 	public void deleteRemovesExistingSessionAndHandlesDelete() {
 		final String expectedSessionId = "1";
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.junit.Test;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+public class CompactRedisSerializerTests {
+	private CompactRedisSerializer serializer = new CompactRedisSerializer();
+
+	@Test
+	public void serializeNull() {
+		assertThat(serializer.serialize(null)).isEmpty();
+	}
+
+	@Test
+	public void deserializeEmpty() {
+		assertThat(serializer.deserialize(new byte[0])).isNull();
+		assertThat(serializer.deserialize(null)).isNull();
+	}
+
+	@Test
+	public void roundTrip() {
+		assertThat(serializer.deserialize(serializer.serialize(1413258262962L))).isEqualTo(1413258262962L);
+	}
+
+	@Test
+	public void readsJdkSerialization() {
+		byte[] bytes = new JdkSerializationRedisSerializer().serialize("value");
+
+		assertThat(serializer.deserialize(bytes)).isEqualTo("value");
+	}
+
+	@Test(expected = SerializationException.class)
+	public void deserializeInvalid() {
+		serializer.deserialize(new byte[] { 99 });
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.session.serializer.CompressionCodec;
+
+public class CompressingRedisSerializerTests {
+	private RedisSerializer<Object> jdk = new JdkSerializationRedisSerializer();
+
+	private CompressingRedisSerializer serializer = new CompressingRedisSerializer(jdk, new CompressionCodec(1024));
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructorNullDelegate() {
+		new CompressingRedisSerializer(null, new CompressionCodec());
+	}
+
+	@Test
+	public void smallValueNotCompressed() {
+		byte[] bytes = serializer.serialize("value");
+
+		assertThat(bytes.length).isEqualTo(jdk.serialize("value").length + 2);
+		assertThat(serializer.deserialize(bytes)).isEqualTo("value");
+	}
+
+	@Test
+	public void smallValueStartingWithCompressedHeader() {
+		RedisSerializer<Object> raw = new RedisSerializer<Object>() {
+			public byte[] serialize(Object value) {
+				return (byte[]) value;
+			}
+
+			public Object deserialize(byte[] bytes) {
+				return bytes;
+			}
+		};
+		CompressingRedisSerializer serializer = new CompressingRedisSerializer(raw, new CompressionCodec(1024));
+		byte[] value = new byte[] { 0x1F, (byte) 0xC1, 5, 0, 0, 0 };
+
+		assertThat((byte[]) serializer.deserialize(serializer.serialize(value))).isEqualTo(value);
+	}
+
+	@Test
+	public void largeValueCompressed() {
+		List<String> cart = new ArrayList<String>();
+		for(int i = 0; i < 1000; i++) {
+			cart.add("item" + i);
+		}
+
+		byte[] bytes = serializer.serialize(cart);
+
+		assertThat(bytes.length).isLessThan(jdk.serialize(cart).length);
+		assertThat(serializer.deserialize(bytes)).isEqualTo(cart);
+	}
+
+	@Test
+	public void readsUncompressed() {
+		assertThat(serializer.deserialize(jdk.serialize("value"))).isEqualTo("value");
+	}
+
+	@Test
+	public void nullValue() {
+		assertThat(serializer.deserialize(serializer.serialize(null))).isNull();
+	}
+}
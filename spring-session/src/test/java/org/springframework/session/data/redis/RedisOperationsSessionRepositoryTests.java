@@ -16,11 +16,19 @@
 package org.springframework.session.data.redis;
 
 import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyMap;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.springframework.session.data.redis.RedisOperationsSessionRepository.CREATION_TIME_ATTR;
 import static org.springframework.session.data.redis.RedisOperationsSessionRepository.LAST_ACCESSED_ATTR;
@@ -30,9 +38,9 @@ import static org.springframework.session.data.redis.RedisOperationsSessionRepos
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
@@ -40,8 +48,11 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.Matchers;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.redis.connection.DefaultMessage;
 import org.springframework.data.redis.connection.RedisConnection;
@@ -49,25 +60,30 @@ import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.BoundHashOperations;
 import org.springframework.data.redis.core.BoundSetOperations;
 import org.springframework.data.redis.core.BoundValueOperations;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
-import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.authority.AuthorityUtils;
-import org.springframework.security.core.context.SecurityContext;
-import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.session.ExpiringSession;
 import org.springframework.session.FindByIndexNameSessionRepository;
 import org.springframework.session.MapSession;
-import org.springframework.session.data.redis.RedisOperationsSessionRepository.PrincipalNameResolver;
+import org.springframework.session.PrincipalNameExtractor;
+import org.springframework.session.Session;
 import org.springframework.session.data.redis.RedisOperationsSessionRepository.RedisSession;
 import org.springframework.session.events.AbstractSessionEvent;
+import org.springframework.session.events.SessionDeletedEvent;
+import org.springframework.session.events.SessionExpiredEvent;
 
 
 @RunWith(MockitoJUnitRunner.class)
 @SuppressWarnings({"unchecked","rawtypes"})
 public class RedisOperationsSessionRepositoryTests {
-	static final String SPRING_SECURITY_CONTEXT_KEY = "SPRING_SECURITY_CONTEXT";
+	RedisSerializer serializer = new JdkSerializationRedisSerializer();
 
 	@Mock
 	RedisConnectionFactory factory;
@@ -155,6 +171,41 @@ public class RedisOperationsSessionRepositoryTests {
 		assertThat(delta.get(LAST_ACCESSED_ATTR)).isEqualTo(session.getCreationTime());
 	}
 
+	@Test
+	@SuppressWarnings("unchecked")
+	public void saveNewSessionIdOnlyCreatedEvent() {
+		redisRepository.setSessionCreatedEventMode(RedisSessionCreatedEventMode.ID_ONLY);
+		RedisSession session = redisRepository.createSession();
+		when(redisOperations.boundHashOps(anyString())).thenReturn(boundHashOperations);
+		when(redisOperations.boundSetOps(anyString())).thenReturn(boundSetOperations);
+		when(redisOperations.boundValueOps(anyString())).thenReturn(boundValueOperations);
+
+		redisRepository.save(session);
+
+		verify(redisOperations, never()).convertAndSend(anyString(), any());
+		verify(redisOperations).execute(any(RedisCallback.class));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void saveNewSessionNoCreatedEvent() {
+		redisRepository.setSessionCreatedEventMode(RedisSessionCreatedEventMode.NONE);
+		RedisSession session = redisRepository.createSession();
+		when(redisOperations.boundHashOps(anyString())).thenReturn(boundHashOperations);
+		when(redisOperations.boundSetOps(anyString())).thenReturn(boundSetOperations);
+		when(redisOperations.boundValueOps(anyString())).thenReturn(boundValueOperations);
+
+		redisRepository.save(session);
+
+		verify(redisOperations, never()).convertAndSend(anyString(), any());
+		verify(redisOperations, never()).execute(any(RedisCallback.class));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setSessionCreatedEventModeNull() {
+		redisRepository.setSessionCreatedEventMode(null);
+	}
+
 	@Test
 	public void saveJavadocSummary() {
 		RedisSession session = redisRepository.createSession();
@@ -179,6 +230,31 @@ public class RedisOperationsSessionRepositoryTests {
 		verify(boundValueOperations).append("");
 	}
 
+	@Test
+	public void saveNewSessionPipelined() {
+		redisRepository.setUsePipelinedSave(true);
+		RedisSession session = redisRepository.createSession();
+		when(redisOperations.boundHashOps(anyString())).thenReturn(boundHashOperations);
+		when(redisOperations.boundSetOps(anyString())).thenReturn(boundSetOperations);
+		when(redisOperations.boundValueOps(anyString())).thenReturn(boundValueOperations);
+		when(redisOperations.executePipelined(any(SessionCallback.class))).thenAnswer(new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				SessionCallback<?> callback = (SessionCallback<?>) invocation.getArguments()[0];
+				callback.execute(redisOperations);
+				return Collections.emptyList();
+			}
+		});
+
+		redisRepository.save(session);
+
+		verify(redisOperations).executePipelined(any(SessionCallback.class));
+		assertThat(getDelta()).hasSize(3);
+		verify(boundSetOperations).add("expires:" + session.getId());
+		verify(boundValueOperations).append("");
+		verify(redisOperations).convertAndSend(anyString(), any());
+		assertThat(session.isNew()).isFalse();
+	}
+
 	@Test
 	public void saveJavadoc() {
 		RedisSession session = redisRepository.new RedisSession(cached);
@@ -194,6 +270,49 @@ public class RedisOperationsSessionRepositoryTests {
 		verify(boundHashOperations).expire(session.getMaxInactiveIntervalInSeconds() + TimeUnit.MINUTES.toSeconds(5), TimeUnit.SECONDS);
 	}
 
+	@Test
+	public void saveSessionSaveScript() {
+		when(redisOperations.getHashKeySerializer()).thenReturn((RedisSerializer) new StringRedisSerializer());
+		when(redisOperations.getHashValueSerializer()).thenReturn((RedisSerializer) new JdkSerializationRedisSerializer());
+		redisRepository.setSessionSaveScript(new RedisSessionSaveScript());
+		RedisSession session = redisRepository.new RedisSession(cached);
+		session.setAttribute("attrName", "attrValue");
+
+		redisRepository.save(session);
+
+		ArgumentCaptor<List> keys = ArgumentCaptor.forClass(List.class);
+		verify(redisOperations).execute(any(RedisScript.class), any(RedisSerializer.class), any(RedisSerializer.class), keys.capture(), Matchers.<Object>anyVararg());
+		assertThat(keys.getValue()).containsExactly("spring:session:sessions:session-id",
+				"spring:session:sessions:expires:session-id", "spring:session:expirations:1404361860000",
+				"spring:session:expirations:1404361860000");
+		verify(redisOperations, never()).boundHashOps(anyString());
+		verify(redisOperations, never()).boundValueOps(anyString());
+	}
+
+	@Test
+	public void saveSessionSaveScriptHashTaggedKeys() {
+		when(redisOperations.getHashKeySerializer()).thenReturn((RedisSerializer) new StringRedisSerializer());
+		when(redisOperations.getHashValueSerializer()).thenReturn((RedisSerializer) new JdkSerializationRedisSerializer());
+		when(redisOperations.boundSetOps(anyString())).thenReturn(boundSetOperations);
+		redisRepository.setUseHashTaggedKeys(true);
+		redisRepository.setSessionSaveScript(new RedisSessionSaveScript());
+		RedisSession session = redisRepository.new RedisSession(cached);
+		session.setAttribute("attrName", "attrValue");
+
+		redisRepository.save(session);
+
+		// only the keys in the slot of the session
+		ArgumentCaptor<List> keys = ArgumentCaptor.forClass(List.class);
+		verify(redisOperations).execute(any(RedisScript.class), any(RedisSerializer.class), any(RedisSerializer.class), keys.capture(), Matchers.<Object>anyVararg());
+		assertThat(keys.getValue()).containsExactly("spring:session:sessions:{session-id}",
+				"spring:session:sessions:expires:{session-id}");
+		verify(redisOperations).boundSetOps("spring:session:expirations:1404361860000");
+		verify(boundSetOperations).add("expires:{session-id}");
+		verify(boundSetOperations).expire(cached.getMaxInactiveIntervalInSeconds() + TimeUnit.MINUTES.toSeconds(5), TimeUnit.SECONDS);
+		verify(redisOperations, never()).boundHashOps(anyString());
+		verify(redisOperations, never()).boundValueOps(anyString());
+	}
+
 	@Test
 	public void saveLastAccessChanged() {
 		RedisSession session = redisRepository.new RedisSession(new MapSession(cached));
@@ -207,6 +326,55 @@ public class RedisOperationsSessionRepositoryTests {
 		assertThat(getDelta()).isEqualTo(map(LAST_ACCESSED_ATTR, session.getLastAccessedTime()));
 	}
 
+	@Test
+	public void saveOnlyTouchedWithinTouchGranularity() {
+		redisRepository.setTouchGranularityInSeconds(30);
+		long lastAccessedTime = System.currentTimeMillis() - 5000;
+		when(redisOperations.boundHashOps(getKey(cached.getId()))).thenReturn(boundHashOperations);
+		when(boundHashOperations.entries()).thenReturn(map(
+				CREATION_TIME_ATTR, cached.getCreationTime(),
+				MAX_INACTIVE_ATTR, cached.getMaxInactiveIntervalInSeconds(),
+				LAST_ACCESSED_ATTR, lastAccessedTime));
+		RedisSession session = redisRepository.getSession(cached.getId());
+		session.setLastAccessedTime(lastAccessedTime + 4000);
+
+		redisRepository.save(session);
+
+		verify(boundHashOperations, never()).putAll(anyMap());
+		verify(redisOperations, never()).boundSetOps(anyString());
+	}
+
+	@Test
+	public void isDirty() {
+		RedisSession session = redisRepository.new RedisSession(new MapSession(cached));
+
+		assertThat(session.isDirty()).isFalse();
+
+		session.setAttribute("attrName", "attrValue");
+
+		assertThat(session.isDirty()).isTrue();
+		assertThat(redisRepository.createSession().isDirty()).isTrue();
+	}
+
+	@Test
+	public void saveOnlyTouchedOutsideTouchGranularity() {
+		redisRepository.setTouchGranularityInSeconds(30);
+		long lastAccessedTime = System.currentTimeMillis() - 60000;
+		when(redisOperations.boundHashOps(anyString())).thenReturn(boundHashOperations);
+		when(redisOperations.boundSetOps(anyString())).thenReturn(boundSetOperations);
+		when(redisOperations.boundValueOps(anyString())).thenReturn(boundValueOperations);
+		when(boundHashOperations.entries()).thenReturn(map(
+				CREATION_TIME_ATTR, cached.getCreationTime(),
+				MAX_INACTIVE_ATTR, cached.getMaxInactiveIntervalInSeconds(),
+				LAST_ACCESSED_ATTR, lastAccessedTime));
+		RedisSession session = redisRepository.getSession(cached.getId());
+		session.setLastAccessedTime(lastAccessedTime + 31000);
+
+		redisRepository.save(session);
+
+		assertThat(getDelta()).isEqualTo(map(LAST_ACCESSED_ATTR, session.getLastAccessedTime()));
+	}
+
 	@Test
 	public void saveSetAttribute() {
 		String attrName = "attrName";
@@ -307,6 +475,24 @@ public class RedisOperationsSessionRepositoryTests {
 		assertThat(redisRepository.getSession(id)).isNull();
 	}
 
+	@Test
+	public void getLastAccessedTime() {
+		String id = "abc";
+		when(redisOperations.boundHashOps(getKey(id))).thenReturn(boundHashOperations);
+		when(boundHashOperations.get(LAST_ACCESSED_ATTR)).thenReturn(1234L);
+
+		assertThat(redisRepository.getLastAccessedTime(id)).isEqualTo(1234L);
+		verify(boundHashOperations, never()).entries();
+	}
+
+	@Test
+	public void getLastAccessedTimeNotFound() {
+		String id = "abc";
+		when(redisOperations.boundHashOps(getKey(id))).thenReturn(boundHashOperations);
+
+		assertThat(redisRepository.getLastAccessedTime(id)).isNull();
+	}
+
 	@Test
 	public void getSessionFound() {
 		String attrName = "attrName";
@@ -331,6 +517,236 @@ public class RedisOperationsSessionRepositoryTests {
 
 	}
 
+	@Test
+	public void getSessionLazyAttributeLoading() {
+		redisRepository.setUseLazyAttributeLoading(true);
+		String attrName = "attrName";
+		MapSession expected = new MapSession();
+		expected.setLastAccessedTime(System.currentTimeMillis() - 60000);
+		when(redisOperations.boundHashOps(getKey(expected.getId()))).thenReturn(boundHashOperations);
+		when(boundHashOperations.multiGet(anyCollection())).thenReturn(Arrays.<Object>asList(expected.getCreationTime(),
+				expected.getMaxInactiveIntervalInSeconds(), expected.getLastAccessedTime()));
+		when(boundHashOperations.get(getSessionAttrNameKey(attrName))).thenReturn("attrValue");
+
+		RedisSession session = redisRepository.getSession(expected.getId());
+		assertThat(session.getCreationTime()).isEqualTo(expected.getCreationTime());
+		assertThat(session.getMaxInactiveIntervalInSeconds()).isEqualTo(expected.getMaxInactiveIntervalInSeconds());
+		assertThat(session.getLastAccessedTime()).isEqualTo(expected.getLastAccessedTime());
+		verify(boundHashOperations, never()).get(anyString());
+
+		assertThat(session.getAttribute(attrName)).isEqualTo("attrValue");
+		assertThat(session.getAttribute(attrName)).isEqualTo("attrValue");
+
+		verify(boundHashOperations, times(1)).get(getSessionAttrNameKey(attrName));
+		verify(boundHashOperations, never()).entries();
+	}
+
+	@Test
+	public void getSessionLazyAttributeLoadingGetAttributeNames() {
+		redisRepository.setUseLazyAttributeLoading(true);
+		MapSession expected = new MapSession();
+		when(redisOperations.boundHashOps(getKey(expected.getId()))).thenReturn(boundHashOperations);
+		when(boundHashOperations.multiGet(anyCollection())).thenReturn(Arrays.<Object>asList(expected.getCreationTime(),
+				expected.getMaxInactiveIntervalInSeconds(), expected.getLastAccessedTime()));
+		Map map = map(
+				getSessionAttrNameKey("a"), "b",
+				getSessionAttrNameKey("c"), "d",
+				CREATION_TIME_ATTR, expected.getCreationTime());
+		when(boundHashOperations.entries()).thenReturn(map);
+
+		RedisSession session = redisRepository.getSession(expected.getId());
+		session.setAttribute("a", "changed");
+
+		assertThat(session.getAttributeNames()).containsOnly("a", "c");
+		assertThat(session.getAttribute("a")).isEqualTo("changed");
+		assertThat(session.getAttribute("c")).isEqualTo("d");
+		verify(boundHashOperations, never()).get(anyString());
+	}
+
+	@Test
+	public void getSessionLazyAttributeLoadingNotFound() {
+		redisRepository.setUseLazyAttributeLoading(true);
+		String id = "abc";
+		when(redisOperations.boundHashOps(getKey(id))).thenReturn(boundHashOperations);
+		when(boundHashOperations.multiGet(anyCollection())).thenReturn(Arrays.<Object>asList(null, null, null));
+
+		assertThat(redisRepository.getSession(id)).isNull();
+	}
+
+	@Test
+	public void getSessionDeferredDeserialization() {
+		redisRepository.setUseDeferredDeserialization(true);
+		StringRedisSerializer stringSerializer = new StringRedisSerializer();
+		JdkSerializationRedisSerializer valueSerializer = spy(new JdkSerializationRedisSerializer());
+		when(redisOperations.getKeySerializer()).thenReturn((RedisSerializer) stringSerializer);
+		when(redisOperations.getHashKeySerializer()).thenReturn((RedisSerializer) stringSerializer);
+		when(redisOperations.getHashValueSerializer()).thenReturn((RedisSerializer) valueSerializer);
+		MapSession expected = new MapSession();
+		expected.setLastAccessedTime(System.currentTimeMillis() - 60000);
+		byte[] serializedValue = valueSerializer.serialize("attrValue");
+		Map<byte[], byte[]> raw = new HashMap<byte[], byte[]>();
+		raw.put(stringSerializer.serialize(CREATION_TIME_ATTR), valueSerializer.serialize(expected.getCreationTime()));
+		raw.put(stringSerializer.serialize(MAX_INACTIVE_ATTR), valueSerializer.serialize(expected.getMaxInactiveIntervalInSeconds()));
+		raw.put(stringSerializer.serialize(LAST_ACCESSED_ATTR), valueSerializer.serialize(expected.getLastAccessedTime()));
+		raw.put(stringSerializer.serialize(getSessionAttrNameKey("attrName")), serializedValue);
+		raw.put(stringSerializer.serialize(getSessionAttrNameKey("removed")), new byte[0]);
+		when(redisOperations.execute(any(RedisCallback.class))).thenReturn(raw);
+
+		RedisSession session = redisRepository.getSession(expected.getId());
+
+		assertThat(session.getCreationTime()).isEqualTo(expected.getCreationTime());
+		assertThat(session.getLastAccessedTime()).isEqualTo(expected.getLastAccessedTime());
+		assertThat(session.getAttributeNames()).containsOnly("attrName");
+		verify(valueSerializer, never()).deserialize(serializedValue);
+
+		assertThat(session.getAttribute("attrName")).isEqualTo("attrValue");
+		assertThat(session.getAttribute("attrName")).isEqualTo("attrValue");
+		verify(valueSerializer, times(1)).deserialize(serializedValue);
+		assertThat(session.getAttributeNames()).containsOnly("attrName");
+	}
+
+	@Test
+	public void getSessionAttributeValueSerializer() {
+		CompactRedisSerializer attributeValueSerializer = new CompactRedisSerializer();
+		redisRepository.setAttributeValueSerializer(attributeValueSerializer);
+		StringRedisSerializer stringSerializer = new StringRedisSerializer();
+		when(redisOperations.getKeySerializer()).thenReturn((RedisSerializer) stringSerializer);
+		when(redisOperations.getHashKeySerializer()).thenReturn((RedisSerializer) stringSerializer);
+		when(redisOperations.getHashValueSerializer()).thenReturn(serializer);
+		MapSession expected = new MapSession();
+		expected.setLastAccessedTime(System.currentTimeMillis() - 60000);
+		Map<byte[], byte[]> raw = new HashMap<byte[], byte[]>();
+		raw.put(stringSerializer.serialize(CREATION_TIME_ATTR), serializer.serialize(expected.getCreationTime()));
+		raw.put(stringSerializer.serialize(MAX_INACTIVE_ATTR), serializer.serialize(expected.getMaxInactiveIntervalInSeconds()));
+		raw.put(stringSerializer.serialize(LAST_ACCESSED_ATTR), serializer.serialize(expected.getLastAccessedTime()));
+		raw.put(stringSerializer.serialize(getSessionAttrNameKey("attrName")), attributeValueSerializer.serialize("attrValue"));
+		when(redisOperations.execute(any(RedisCallback.class))).thenReturn(raw);
+
+		RedisSession session = redisRepository.getSession(expected.getId());
+
+		assertThat(session.getLastAccessedTime()).isEqualTo(expected.getLastAccessedTime());
+		assertThat(session.getAttribute("attrName")).isEqualTo("attrValue");
+		verify(redisOperations, never()).boundHashOps(anyString());
+	}
+
+	@Test
+	public void saveAttributeValueSerializer() {
+		CompactRedisSerializer attributeValueSerializer = new CompactRedisSerializer();
+		redisRepository.setAttributeValueSerializer(attributeValueSerializer);
+		mockPipeline();
+		when(redisOperations.boundHashOps(anyString())).thenReturn(boundHashOperations);
+		when(redisOperations.boundSetOps(anyString())).thenReturn(boundSetOperations);
+		when(redisOperations.boundValueOps(anyString())).thenReturn(boundValueOperations);
+		RedisSession session = redisRepository.new RedisSession(cached);
+		session.setAttribute("attrName", "attrValue");
+
+		redisRepository.save(session);
+
+		ArgumentCaptor<Map> rawDelta = ArgumentCaptor.forClass(Map.class);
+		verify(connection).hMSet(eq(serializer.serialize(getKey(session.getId()))), rawDelta.capture());
+		Map<Object, byte[]> values = new HashMap<Object, byte[]>();
+		for(Map.Entry<byte[], byte[]> entry : ((Map<byte[], byte[]>) rawDelta.getValue()).entrySet()) {
+			values.put(serializer.deserialize(entry.getKey()), entry.getValue());
+		}
+		assertThat(values.keySet()).containsOnly(LAST_ACCESSED_ATTR, getSessionAttrNameKey("attrName"));
+		// only the attribute values are written using the attribute value serializer
+		assertThat(attributeValueSerializer.deserialize(values.get(getSessionAttrNameKey("attrName")))).isEqualTo("attrValue");
+		assertThat(serializer.deserialize(values.get(LAST_ACCESSED_ATTR))).isEqualTo(session.getLastAccessedTime());
+		verify(boundHashOperations, never()).putAll(anyMap());
+	}
+
+	@Test
+	public void saveSessionSaveScriptAttributeValueSerializer() throws Exception {
+		CompactRedisSerializer attributeValueSerializer = new CompactRedisSerializer();
+		redisRepository.setAttributeValueSerializer(attributeValueSerializer);
+		when(redisOperations.getHashKeySerializer()).thenReturn((RedisSerializer) new StringRedisSerializer());
+		when(redisOperations.getHashValueSerializer()).thenReturn(serializer);
+		redisRepository.setSessionSaveScript(new RedisSessionSaveScript());
+		RedisSession session = redisRepository.new RedisSession(cached);
+		session.setAttribute("attrName", "attrValue");
+
+		redisRepository.save(session);
+
+		ArgumentCaptor<Object> args = ArgumentCaptor.forClass(Object.class);
+		verify(redisOperations).execute(any(RedisScript.class), any(RedisSerializer.class), any(RedisSerializer.class), anyList(), args.capture());
+		List<Object> values = args.getAllValues();
+		Map<String, byte[]> fields = new HashMap<String, byte[]>();
+		for(int i = 1; i < values.size() - 3; i += 2) {
+			fields.put(new String((byte[]) values.get(i), "UTF-8"), (byte[]) values.get(i + 1));
+		}
+		assertThat(attributeValueSerializer.deserialize(fields.get(getSessionAttrNameKey("attrName")))).isEqualTo("attrValue");
+		assertThat(serializer.deserialize(fields.get(LAST_ACCESSED_ATTR))).isEqualTo(session.getLastAccessedTime());
+	}
+
+	@Test
+	public void getSessionNearCacheHit() {
+		RedisSessionNearCache nearCache = new RedisSessionNearCache(10, 1024);
+		redisRepository.setNearCache(nearCache);
+		MapSession expected = new MapSession();
+		expected.setLastAccessedTime(System.currentTimeMillis() - 60000);
+		expected.setAttribute("attrName", "attrValue");
+		nearCache.put(expected.getId(), new MapSession(expected), 1L, 100);
+		when(redisOperations.boundHashOps(getKey(expected.getId()))).thenReturn(boundHashOperations);
+		when(boundHashOperations.get(RedisOperationsSessionRepository.VERSION_ATTR)).thenReturn(1L);
+
+		RedisSession session = redisRepository.getSession(expected.getId());
+
+		assertThat(session.getAttribute("attrName")).isEqualTo("attrValue");
+		assertThat(session.getLastAccessedTime()).isEqualTo(expected.getLastAccessedTime());
+		assertThat(nearCache.getHits()).isEqualTo(1);
+		verify(boundHashOperations, never()).entries();
+		verify(redisOperations, never()).execute(any(RedisCallback.class));
+	}
+
+	@Test
+	public void getSessionNearCacheVersionChanged() {
+		RedisSessionNearCache nearCache = new RedisSessionNearCache(10, 1024);
+		redisRepository.setNearCache(nearCache);
+		StringRedisSerializer stringSerializer = new StringRedisSerializer();
+		JdkSerializationRedisSerializer valueSerializer = new JdkSerializationRedisSerializer();
+		when(redisOperations.getKeySerializer()).thenReturn((RedisSerializer) stringSerializer);
+		when(redisOperations.getHashKeySerializer()).thenReturn((RedisSerializer) stringSerializer);
+		when(redisOperations.getHashValueSerializer()).thenReturn((RedisSerializer) valueSerializer);
+		MapSession expected = new MapSession();
+		expected.setLastAccessedTime(System.currentTimeMillis() - 60000);
+		nearCache.put(expected.getId(), new MapSession(expected), 1L, 100);
+		when(redisOperations.boundHashOps(getKey(expected.getId()))).thenReturn(boundHashOperations);
+		when(boundHashOperations.get(RedisOperationsSessionRepository.VERSION_ATTR)).thenReturn(2L);
+		Map<byte[], byte[]> raw = new HashMap<byte[], byte[]>();
+		raw.put(stringSerializer.serialize(CREATION_TIME_ATTR), valueSerializer.serialize(expected.getCreationTime()));
+		raw.put(stringSerializer.serialize(MAX_INACTIVE_ATTR), valueSerializer.serialize(expected.getMaxInactiveIntervalInSeconds()));
+		raw.put(stringSerializer.serialize(LAST_ACCESSED_ATTR), valueSerializer.serialize(expected.getLastAccessedTime()));
+		raw.put(stringSerializer.serialize(RedisOperationsSessionRepository.VERSION_ATTR), valueSerializer.serialize(2L));
+		raw.put(stringSerializer.serialize(getSessionAttrNameKey("attrName")), valueSerializer.serialize("changed"));
+		when(redisOperations.execute(any(RedisCallback.class))).thenReturn(raw);
+
+		RedisSession session = redisRepository.getSession(expected.getId());
+
+		assertThat(session.getAttribute("attrName")).isEqualTo("changed");
+		assertThat(nearCache.getMisses()).isEqualTo(1);
+		assertThat(nearCache.get(expected.getId()).getVersion()).isEqualTo(2L);
+		assertThat(nearCache.get(expected.getId()).getSession().getAttribute("attrName")).isEqualTo("changed");
+	}
+
+	@Test
+	public void saveNearCacheWritesVersion() {
+		RedisSessionNearCache nearCache = new RedisSessionNearCache(10, 1024);
+		redisRepository.setNearCache(nearCache);
+		RedisSession session = redisRepository.new RedisSession(new MapSession());
+		session.setAttribute("attrName", "attrValue");
+		when(redisOperations.boundHashOps(anyString())).thenReturn(boundHashOperations);
+		when(redisOperations.boundSetOps(anyString())).thenReturn(boundSetOperations);
+		when(redisOperations.boundValueOps(anyString())).thenReturn(boundValueOperations);
+
+		redisRepository.save(session);
+
+		verify(boundHashOperations).putAll(delta.capture());
+		Object version = delta.getValue().get(RedisOperationsSessionRepository.VERSION_ATTR);
+		assertThat(version).isNotNull();
+		assertThat(nearCache.get(session.getId()).getVersion()).isEqualTo(version);
+		assertThat(nearCache.get(session.getId()).getSession().getAttribute("attrName")).isEqualTo("attrValue");
+	}
+
 	@Test
 	public void getSessionExpired() {
 		String expiredId = "expired-id";
@@ -346,15 +762,16 @@ public class RedisOperationsSessionRepositoryTests {
 	@Test
 	public void findByPrincipalNameExpired() {
 		String expiredId = "expired-id";
+		mockPipeline();
 		when(redisOperations.boundSetOps(anyString())).thenReturn(boundSetOperations);
 		when(boundSetOperations.members()).thenReturn(Collections.<Object>singleton(expiredId));
-		when(redisOperations.boundHashOps(getKey(expiredId))).thenReturn(boundHashOperations);
 		Map map = map(
 				MAX_INACTIVE_ATTR, 1,
 				LAST_ACCESSED_ATTR, System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5));
-		when(boundHashOperations.entries()).thenReturn(map);
+		when(connection.closePipeline()).thenReturn(Arrays.<Object>asList(serialize(map)));
 
 		assertThat(redisRepository.findByIndexNameAndIndexValue(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "principal")).isEmpty();
+		verify(connection, never()).sRem(any(byte[].class), Matchers.<byte[]>anyVararg());
 	}
 
 	@Test
@@ -363,14 +780,15 @@ public class RedisOperationsSessionRepositoryTests {
 		long createdTime = lastAccessed - 10;
 		int maxInactive = 3600;
 		String sessionId = "some-id";
+		mockPipeline();
 		when(redisOperations.boundSetOps(anyString())).thenReturn(boundSetOperations);
 		when(boundSetOperations.members()).thenReturn(Collections.<Object>singleton(sessionId));
-		when(redisOperations.boundHashOps(getKey(sessionId))).thenReturn(boundHashOperations);
 		Map map = map(
 				CREATION_TIME_ATTR, createdTime,
 				MAX_INACTIVE_ATTR, maxInactive,
-				LAST_ACCESSED_ATTR, lastAccessed);
-		when(boundHashOperations.entries()).thenReturn(map);
+				LAST_ACCESSED_ATTR, lastAccessed,
+				getSessionAttrNameKey("attrName"), "attrValue");
+		when(connection.closePipeline()).thenReturn(Arrays.<Object>asList(serialize(map)));
 
 		Map<String, RedisSession> sessionIdToSessions = redisRepository.findByIndexNameAndIndexValue(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "principal");
 
@@ -381,24 +799,329 @@ public class RedisOperationsSessionRepositoryTests {
 		assertThat(session.getLastAccessedTime()).isEqualTo(lastAccessed);
 		assertThat(session.getMaxInactiveIntervalInSeconds()).isEqualTo(maxInactive);
 		assertThat(session.getCreationTime()).isEqualTo(createdTime);
+		assertThat(session.getAttribute("attrName")).isEqualTo("attrValue");
+		verify(connection).openPipeline();
+		verify(connection).hGetAll(serializer.serialize(getKey(sessionId)));
 	}
 
 	@Test
-	public void cleanupExpiredSessions() {
-		String expiredId = "expired-id";
-		when(redisOperations.boundHashOps(getKey(expiredId))).thenReturn(boundHashOperations);
+	public void findByPrincipalNameBatches() {
+		redisRepository.setFindByIndexBatchSize(2);
+		mockPipeline();
+		when(redisOperations.boundSetOps(anyString())).thenReturn(boundSetOperations);
+		when(boundSetOperations.members()).thenReturn(new LinkedHashSet<Object>(Arrays.<Object>asList("1", "2", "3")));
+		Map map = map(
+				CREATION_TIME_ATTR, System.currentTimeMillis(),
+				MAX_INACTIVE_ATTR, 3600,
+				LAST_ACCESSED_ATTR, System.currentTimeMillis());
+		when(connection.closePipeline()).thenReturn(Arrays.<Object>asList(serialize(map), serialize(map)), Arrays.<Object>asList(serialize(map)));
+
+		Map<String, RedisSession> sessionIdToSessions = redisRepository.findByIndexNameAndIndexValue(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "principal");
+
+		assertThat(sessionIdToSessions.keySet()).containsOnly("1", "2", "3");
+		verify(connection, times(2)).openPipeline();
+		verify(connection, times(3)).hGetAll(any(byte[].class));
+	}
+
+	@Test
+	public void findByPrincipalNameRemovesStaleIds() {
+		redisRepository.setFindByIndexBatchSize(1);
+		mockPipeline();
 		when(redisOperations.boundSetOps(anyString())).thenReturn(boundSetOperations);
+		when(boundSetOperations.members()).thenReturn(new LinkedHashSet<Object>(Arrays.<Object>asList("stale", "active")));
+		Map map = map(
+				CREATION_TIME_ATTR, System.currentTimeMillis(),
+				MAX_INACTIVE_ATTR, 3600,
+				LAST_ACCESSED_ATTR, System.currentTimeMillis());
+		when(connection.closePipeline()).thenReturn(Arrays.<Object>asList(Collections.emptyMap()), Arrays.<Object>asList(1L, serialize(map)));
+
+		Map<String, RedisSession> sessionIdToSessions = redisRepository.findByIndexNameAndIndexValue(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "principal");
 
-		Set<Object> expiredIds = new HashSet<Object>(Arrays.asList("expired-key1","expired-key2"));
-		when(boundSetOperations.members()).thenReturn(expiredIds);
+		assertThat(sessionIdToSessions.keySet()).containsOnly("active");
+		verify(connection, times(2)).openPipeline();
+		verify(connection).sRem(serializer.serialize("spring:session:index:" + FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME + ":principal"), serializer.serialize("stale"));
+	}
+
+	@Test
+	public void findMetadataByPrincipalName() {
+		long lastAccessed = System.currentTimeMillis() - 10;
+		String sessionId = "some-id";
+		mockPipeline();
+		when(redisOperations.boundSetOps(anyString())).thenReturn(boundSetOperations);
+		when(boundSetOperations.members()).thenReturn(Collections.<Object>singleton(sessionId));
+		when(redisOperations.boundHashOps(getKey(sessionId))).thenReturn(boundHashOperations);
+		when(boundHashOperations.get(getSessionAttrNameKey("attrName"))).thenReturn("attrValue");
+		when(connection.closePipeline()).thenReturn(Arrays.<Object>asList(Arrays.asList(serializer.serialize(lastAccessed - 10),
+				serializer.serialize(3600), serializer.serialize(lastAccessed))));
+
+		Map<String, RedisSession> sessionIdToSessions = redisRepository.findMetadataByIndexNameAndIndexValue(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "principal");
+
+		RedisSession session = sessionIdToSessions.get(sessionId);
+		assertThat(session.getCreationTime()).isEqualTo(lastAccessed - 10);
+		assertThat(session.getLastAccessedTime()).isEqualTo(lastAccessed);
+		verify(connection).hMGet(any(byte[].class), Matchers.<byte[]>anyVararg());
+		verify(connection, never()).hGetAll(any(byte[].class));
+
+		assertThat(session.getAttribute("attrName")).isEqualTo("attrValue");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setFindByIndexBatchSizeZero() {
+		redisRepository.setFindByIndexBatchSize(0);
+	}
+
+	@Test
+	public void cleanupExpiredSessions() throws Exception {
+		StringRedisSerializer serializer = new StringRedisSerializer();
+		when(redisOperations.getKeySerializer()).thenReturn((RedisSerializer) serializer);
+		when(redisOperations.getValueSerializer()).thenReturn((RedisSerializer) serializer);
+		when(redisOperations.boundValueOps(anyString())).thenReturn(boundValueOperations);
+		Cursor<byte[]> cursor = mock(Cursor.class);
+		when(cursor.hasNext()).thenReturn(true, true, false);
+		when(cursor.next()).thenReturn(serializer.serialize("expired-key1"), serializer.serialize("expired-key2"));
+		when(connection.sScan(any(byte[].class), any(ScanOptions.class))).thenReturn(cursor);
+		when(redisOperations.execute(any(RedisCallback.class))).thenAnswer(new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				return ((RedisCallback) invocation.getArguments()[0]).doInRedis(connection);
+			}
+		});
 
 		redisRepository.cleanupExpiredSessions();
 
-		for(Object id : expiredIds) {
+		for(String id : Arrays.asList("expired-key1","expired-key2")) {
 			String expiredKey = "spring:session:sessions:" + id;
 			// https://github.com/spring-projects/spring-session/issues/93
-			verify(redisOperations).hasKey(expiredKey);
+			verify(connection).exists(serializer.serialize(expiredKey));
 		}
+		verify(connection, times(1)).openPipeline();
+		verify(connection, times(1)).closePipeline();
+		verify(cursor).close();
+		verify(boundValueOperations).set(any(), eq((long) RedisSessionExpirationPolicy.MAX_MINUTES), eq(TimeUnit.MINUTES));
+	}
+
+	@Test
+	public void cleanupExpiredSessionsLeaseNotAcquired() {
+		redisRepository.setCleanupLease(new RedisCleanupLease());
+		when(redisOperations.execute(any(RedisScript.class), any(RedisSerializer.class), any(RedisSerializer.class), anyList(), Matchers.<Object>anyVararg())).thenReturn(0L);
+
+		redisRepository.cleanupExpiredSessions();
+
+		ArgumentCaptor<List> keys = ArgumentCaptor.forClass(List.class);
+		verify(redisOperations).execute(any(RedisScript.class), any(RedisSerializer.class), any(RedisSerializer.class), keys.capture(), Matchers.<Object>anyVararg());
+		assertThat(keys.getValue()).containsExactly("spring:session:expirations:lease");
+		verify(redisOperations, never()).boundValueOps(anyString());
+		verify(redisOperations, never()).execute(any(RedisCallback.class));
+	}
+
+	@Test
+	public void cleanupExpiredSessionsLeaseAcquired() {
+		redisRepository.setCleanupLease(new RedisCleanupLease());
+		when(redisOperations.execute(any(RedisScript.class), any(RedisSerializer.class), any(RedisSerializer.class), anyList(), Matchers.<Object>anyVararg())).thenReturn(1L);
+		when(redisOperations.getKeySerializer()).thenReturn((RedisSerializer) new StringRedisSerializer());
+		when(redisOperations.boundValueOps(anyString())).thenReturn(boundValueOperations);
+
+		redisRepository.cleanupExpiredSessions();
+
+		verify(redisOperations).execute(any(RedisCallback.class));
+	}
+
+	@Test
+	public void saveHashTaggedKeys() {
+		redisRepository.setUseHashTaggedKeys(true);
+		RedisSession session = redisRepository.createSession();
+		String backgroundExpireKey = "spring:session:expirations:" + RedisSessionExpirationPolicy.roundUpToNextMinute(RedisSessionExpirationPolicy.expiresInMillis(session));
+		when(redisOperations.boundHashOps(anyString())).thenReturn(boundHashOperations);
+		when(redisOperations.boundSetOps(anyString())).thenReturn(boundSetOperations);
+		when(redisOperations.boundValueOps(anyString())).thenReturn(boundValueOperations);
+
+		redisRepository.save(session);
+
+		verify(redisOperations, atLeastOnce()).boundHashOps("spring:session:sessions:{" + session.getId() + "}");
+		verify(redisOperations, atLeastOnce()).boundValueOps("spring:session:sessions:expires:{" + session.getId() + "}");
+		verify(redisOperations).boundSetOps(backgroundExpireKey);
+		verify(boundSetOperations).add("expires:{" + session.getId() + "}");
+	}
+
+	@Test
+	public void saveSnapshotPrincipalName() {
+		redisRepository.setSessionDestroyedEventMode(RedisSessionDestroyedEventMode.SNAPSHOT);
+		RedisSession session = redisRepository.new RedisSession(new MapSession());
+		session.setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "user");
+		when(redisOperations.boundHashOps(anyString())).thenReturn(boundHashOperations);
+		when(redisOperations.boundSetOps(anyString())).thenReturn(boundSetOperations);
+		when(redisOperations.boundValueOps(anyString())).thenReturn(boundValueOperations);
+
+		redisRepository.save(session);
+
+		assertThat(getDelta()).containsEntry(RedisOperationsSessionRepository.PRINCIPAL_NAME_ATTR, "user");
+		verify(redisOperations).boundSetOps("spring:session:index:" + FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME + ":user");
+	}
+
+	@Test
+	public void saveFullNoPrincipalName() {
+		RedisSession session = redisRepository.new RedisSession(new MapSession());
+		session.setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "user");
+		when(redisOperations.boundHashOps(anyString())).thenReturn(boundHashOperations);
+		when(redisOperations.boundSetOps(anyString())).thenReturn(boundSetOperations);
+		when(redisOperations.boundValueOps(anyString())).thenReturn(boundValueOperations);
+
+		redisRepository.save(session);
+
+		assertThat(getDelta()).doesNotContainKey(RedisOperationsSessionRepository.PRINCIPAL_NAME_ATTR);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setSessionDestroyedEventModeNull() {
+		redisRepository.setSessionDestroyedEventMode(null);
+	}
+
+	@Test
+	public void onMessageExpiredSnapshot() throws Exception {
+		redisRepository.setSessionDestroyedEventMode(RedisSessionDestroyedEventMode.SNAPSHOT);
+		redisRepository.setApplicationEventPublisher(publisher);
+		when(redisOperations.boundHashOps(anyString())).thenReturn(boundHashOperations);
+		when(redisOperations.boundSetOps(anyString())).thenReturn(boundSetOperations);
+		when(boundHashOperations.multiGet(anyCollection())).thenReturn(Arrays.<Object>asList(cached.getCreationTime(),
+				cached.getMaxInactiveIntervalInSeconds(), cached.getLastAccessedTime(), "user"));
+		byte[] pattern = "".getBytes("UTF-8");
+		String channel = "__keyevent@0__:expired";
+		String body = "spring:session:sessions:expires:" + cached.getId();
+		DefaultMessage message = new DefaultMessage(channel.getBytes("UTF-8"), body.getBytes("UTF-8"));
+
+		redisRepository.onMessage(message, pattern);
+
+		verify(redisOperations).boundSetOps("spring:session:index:" + FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME + ":user");
+		verify(boundSetOperations).remove(cached.getId());
+		verify(boundHashOperations, never()).entries();
+		verify(publisher).publishEvent(event.capture());
+		assertThat(event.getValue()).isInstanceOf(SessionExpiredEvent.class);
+		assertThat(event.getValue().getSessionId()).isEqualTo(cached.getId());
+		assertThat(event.getValue().<ExpiringSession>getSession().getCreationTime()).isEqualTo(cached.getCreationTime());
+	}
+
+	@Test
+	public void onMessageExpiredSnapshotReadsAttributesOnDemand() throws Exception {
+		redisRepository.setSessionDestroyedEventMode(RedisSessionDestroyedEventMode.SNAPSHOT);
+		redisRepository.setApplicationEventPublisher(publisher);
+		when(redisOperations.boundHashOps(anyString())).thenReturn(boundHashOperations);
+		when(boundHashOperations.multiGet(anyCollection())).thenReturn(Arrays.<Object>asList(cached.getCreationTime(),
+				cached.getMaxInactiveIntervalInSeconds(), cached.getLastAccessedTime(), null));
+		when(boundHashOperations.get(getSessionAttrNameKey("attrName"))).thenReturn("attrValue");
+		byte[] pattern = "".getBytes("UTF-8");
+		String channel = "__keyevent@0__:del";
+		String body = "spring:session:sessions:expires:" + cached.getId();
+		DefaultMessage message = new DefaultMessage(channel.getBytes("UTF-8"), body.getBytes("UTF-8"));
+
+		redisRepository.onMessage(message, pattern);
+
+		verify(redisOperations, never()).boundSetOps(anyString());
+		verify(publisher).publishEvent(event.capture());
+		assertThat(event.getValue()).isInstanceOf(SessionDeletedEvent.class);
+		assertThat(event.getValue().getSession().getAttribute("attrName")).isEqualTo("attrValue");
+	}
+
+	@Test
+	public void onMessageExpiredHashTagged() throws Exception {
+		redisRepository.setUseHashTaggedKeys(true);
+		redisRepository.setApplicationEventPublisher(publisher);
+		when(redisOperations.boundHashOps(anyString())).thenReturn(boundHashOperations);
+		byte[] pattern = "".getBytes("UTF-8");
+		String channel = "__keyevent@0__:expired";
+		String body = "spring:session:sessions:expires:{" + cached.getId() + "}";
+		DefaultMessage message = new DefaultMessage(channel.getBytes("UTF-8"), body.getBytes("UTF-8"));
+
+		redisRepository.onMessage(message, pattern);
+
+		verify(redisOperations).boundHashOps("spring:session:sessions:{" + cached.getId() + "}");
+		verify(publisher).publishEvent(event.capture());
+		assertThat(event.getValue().getSessionId()).isEqualTo(cached.getId());
+	}
+
+	@Test
+	public void onMessageKeyspaceChannel() throws Exception {
+		redisRepository.setApplicationEventPublisher(publisher);
+		when(redisOperations.boundHashOps(anyString())).thenReturn(boundHashOperations);
+		byte[] pattern = "".getBytes("UTF-8");
+		String channel = "__keyspace@0__:spring:session:sessions:expires:" + cached.getId();
+		DefaultMessage message = new DefaultMessage(channel.getBytes("UTF-8"), "expired".getBytes("UTF-8"));
+
+		redisRepository.onMessage(message, pattern);
+
+		verify(publisher).publishEvent(event.capture());
+		assertThat(event.getValue()).isInstanceOf(SessionExpiredEvent.class);
+		assertThat(event.getValue().getSessionId()).isEqualTo(cached.getId());
+	}
+
+	@Test
+	public void onMessageKeyspaceChannelOtherEvent() throws Exception {
+		redisRepository.setApplicationEventPublisher(publisher);
+		byte[] pattern = "".getBytes("UTF-8");
+		String channel = "__keyspace@0__:spring:session:sessions:expires:" + cached.getId();
+		DefaultMessage message = new DefaultMessage(channel.getBytes("UTF-8"), "expire".getBytes("UTF-8"));
+
+		redisRepository.onMessage(message, pattern);
+
+		verifyZeroInteractions(publisher);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void onMessageDestroyedEventRelayNotLeader() throws Exception {
+		redisRepository.setSessionDestroyedEventRelay(new RedisSessionDestroyedEventRelay());
+		redisRepository.setApplicationEventPublisher(publisher);
+		when(redisOperations.execute(any(RedisScript.class), any(RedisSerializer.class), any(RedisSerializer.class),
+				anyList(), Matchers.<Object>anyVararg())).thenReturn(0L);
+		byte[] pattern = "".getBytes("UTF-8");
+		String channel = "__keyevent@0__:del";
+		String body = "spring:session:sessions:expires:" + cached.getId();
+		DefaultMessage message = new DefaultMessage(channel.getBytes("UTF-8"), body.getBytes("UTF-8"));
+
+		redisRepository.onMessage(message, pattern);
+
+		verifyZeroInteractions(publisher);
+		verify(redisOperations, never()).boundHashOps(anyString());
+		verify(redisOperations, never()).execute(any(RedisCallback.class));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void onMessageDestroyedEventRelayLeader() throws Exception {
+		redisRepository.setSessionDestroyedEventRelay(new RedisSessionDestroyedEventRelay());
+		redisRepository.setApplicationEventPublisher(publisher);
+		when(redisOperations.execute(any(RedisScript.class), any(RedisSerializer.class), any(RedisSerializer.class),
+				anyList(), Matchers.<Object>anyVararg())).thenReturn(1L);
+		when(redisOperations.boundHashOps(anyString())).thenReturn(boundHashOperations);
+		byte[] pattern = "".getBytes("UTF-8");
+		String channel = "__keyevent@0__:del";
+		String body = "spring:session:sessions:expires:" + cached.getId();
+		DefaultMessage message = new DefaultMessage(channel.getBytes("UTF-8"), body.getBytes("UTF-8"));
+
+		redisRepository.onMessage(message, pattern);
+
+		verifyZeroInteractions(publisher);
+		verify(redisOperations).boundHashOps(getKey(cached.getId()));
+		verify(redisOperations).execute(any(RedisCallback.class));
+	}
+
+	@Test
+	public void onMessageRelayedDeleted() throws Exception {
+		redisRepository.setApplicationEventPublisher(publisher);
+		byte[] pattern = "".getBytes("UTF-8");
+		String channel = "spring:session:event:deleted:" + cached.getId();
+		DefaultMessage message = new DefaultMessage(channel.getBytes("UTF-8"), new byte[0]);
+
+		redisRepository.onMessage(message, pattern);
+
+		verify(publisher).publishEvent(event.capture());
+		assertThat(event.getValue()).isInstanceOf(SessionDeletedEvent.class);
+		assertThat(event.getValue().getSessionId()).isEqualTo(cached.getId());
+		verify(redisOperations, never()).boundHashOps(anyString());
+	}
+
+	@Test
+	public void getSessionIdFromKey() {
+		assertThat(RedisOperationsSessionRepository.getSessionIdFromKey("spring:session:sessions:expires:id")).isEqualTo("id");
+		assertThat(RedisOperationsSessionRepository.getSessionIdFromKey("spring:session:sessions:expires:{id}")).isEqualTo("id");
 	}
 
 	@Test
@@ -418,28 +1141,109 @@ public class RedisOperationsSessionRepositoryTests {
 	}
 
 	@Test
-	public void resolvePrincipalIndex() {
-		PrincipalNameResolver resolver = RedisOperationsSessionRepository.PRINCIPAL_NAME_RESOLVER;
-		String username = "username";
-		RedisSession session = redisRepository.createSession();
-		session.setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, username);
+	@SuppressWarnings("rawtypes")
+	public void onMessageCreatedInvokesHandleCreated() throws Exception {
+		MapSession session = cached;
+		byte[] pattern = "".getBytes("UTF-8");
+		String channel = "spring:session:event:created:" + session.getId();
+		HashMap loaded = new HashMap();
+		byte[] body = new JdkSerializationRedisSerializer().serialize(loaded);
+		DefaultMessage message = new DefaultMessage(channel.getBytes("UTF-8"), body);
+		redisRepository = spy(redisRepository);
+
+		redisRepository.onMessage(message, pattern);
 
-		assertThat(resolver.resolvePrincipal(session)).isEqualTo(username);
+		verify(redisRepository).handleCreated(loaded, channel);
 	}
 
 	@Test
-	public void resolveIndexOnSecurityContext() {
-		String principal = "resolveIndexOnSecurityContext";
-		Authentication authentication = new UsernamePasswordAuthenticationToken(principal, "notused", AuthorityUtils.createAuthorityList("ROLE_USER"));
-		SecurityContext context = new SecurityContextImpl();
-		context.setAuthentication(authentication);
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void onMessageCreatedUsesValueSerializer() throws Exception {
+		MapSession session = cached;
+		byte[] pattern = "".getBytes("UTF-8");
+		String channel = "spring:session:event:created:" + session.getId();
+		CompactRedisSerializer serializer = new CompactRedisSerializer();
+		when(redisOperations.getValueSerializer()).thenReturn((RedisSerializer) serializer);
+		byte[] body = serializer.serialize(new HashMap());
+		DefaultMessage message = new DefaultMessage(channel.getBytes("UTF-8"), body);
 
-		PrincipalNameResolver resolver = RedisOperationsSessionRepository.PRINCIPAL_NAME_RESOLVER;
+		redisRepository.setApplicationEventPublisher(publisher);
 
-		RedisSession session = redisRepository.createSession();
-		session.setAttribute(SPRING_SECURITY_CONTEXT_KEY, context);
+		redisRepository.onMessage(message, pattern);
+
+		verify(publisher).publishEvent(event.capture());
+		assertThat(event.getValue().getSessionId()).isEqualTo(session.getId());
+	}
+
+	@Test
+	public void onMessageCreatedIdOnly() throws Exception {
+		MapSession session = cached;
+		byte[] pattern = "".getBytes("UTF-8");
+		String channel = "spring:session:event:created:" + session.getId();
+		DefaultMessage message = new DefaultMessage(channel.getBytes("UTF-8"), new byte[0]);
+		when(redisOperations.boundHashOps(getKey(session.getId()))).thenReturn(boundHashOperations);
+		Map map = map(MAX_INACTIVE_ATTR, 1, LAST_ACCESSED_ATTR, System.currentTimeMillis());
+		when(boundHashOperations.entries()).thenReturn(map);
+
+		redisRepository.setApplicationEventPublisher(publisher);
+
+		redisRepository.onMessage(message, pattern);
 
-		assertThat(resolver.resolvePrincipal(session)).isEqualTo(principal);
+		verify(publisher).publishEvent(event.capture());
+		assertThat(event.getValue().getSessionId()).isEqualTo(session.getId());
+		verify(boundHashOperations, never()).entries();
+
+		ExpiringSession loaded = event.getValue().getSession();
+
+		assertThat(loaded.getId()).isEqualTo(session.getId());
+	}
+
+	@Test
+	public void savePrincipalNameExtractor() {
+		PrincipalNameExtractor extractor = mock(PrincipalNameExtractor.class);
+		when(extractor.isPrincipalAttribute("user")).thenReturn(true);
+		when(extractor.extractPrincipalName(any(Session.class))).thenReturn(null, "principal");
+		redisRepository.setPrincipalNameExtractor(extractor);
+		RedisSession session = redisRepository.new RedisSession(new MapSession());
+		session.setAttribute("other", "value");
+		when(redisOperations.boundHashOps(anyString())).thenReturn(boundHashOperations);
+		when(redisOperations.boundSetOps(anyString())).thenReturn(boundSetOperations);
+		when(redisOperations.boundValueOps(anyString())).thenReturn(boundValueOperations);
+
+		redisRepository.save(session);
+
+		verify(extractor, never()).extractPrincipalName(any(Session.class));
+
+		session.setAttribute("user", "value");
+		redisRepository.save(session);
+
+		verify(redisOperations).boundSetOps("spring:session:index:" + FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME + ":principal");
+		verify(boundSetOperations).add(session.getId());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setPrincipalNameExtractorNull() {
+		redisRepository.setPrincipalNameExtractor(null);
+	}
+
+	private void mockPipeline() {
+		when(redisOperations.getKeySerializer()).thenReturn(serializer);
+		when(redisOperations.getValueSerializer()).thenReturn(serializer);
+		when(redisOperations.getHashKeySerializer()).thenReturn(serializer);
+		when(redisOperations.getHashValueSerializer()).thenReturn(serializer);
+		when(redisOperations.execute(any(RedisCallback.class))).thenAnswer(new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				return ((RedisCallback) invocation.getArguments()[0]).doInRedis(connection);
+			}
+		});
+	}
+
+	private Map<byte[], byte[]> serialize(Map<Object, Object> entries) {
+		Map<byte[], byte[]> raw = new HashMap<byte[], byte[]>();
+		for(Map.Entry<Object, Object> entry : entries.entrySet()) {
+			raw.put(serializer.serialize(entry.getKey()), serializer.serialize(entry.getValue()));
+		}
+		return raw;
 	}
 
 	private String getKey(String id) {
@@ -15,6 +15,7 @@
  */
 package org.springframework.session.data.redis;
 
+import static org.assertj.core.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 import java.util.concurrent.TimeUnit;
@@ -22,18 +23,28 @@ import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.core.BoundHashOperations;
 import org.springframework.data.redis.core.BoundSetOperations;
 import org.springframework.data.redis.core.BoundValueOperations;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.session.MapSession;
 
 /**
  * @author Rob Winch
  */
 @RunWith(MockitoJUnitRunner.class)
+@SuppressWarnings({"unchecked","rawtypes"})
 public class RedisSessionExpirationPolicyTests {
 	// Wed Apr 15 10:28:32 CDT 2015
 	final static Long NOW = 1429111712346L;
@@ -49,6 +60,10 @@ public class RedisSessionExpirationPolicyTests {
 	BoundHashOperations<Object,Object, Object> hashOperations;
 	@Mock
 	BoundValueOperations<Object, Object> valueOperations;
+	@Mock
+	RedisConnection connection;
+	@Mock
+	Cursor<byte[]> cursor;
 
 	RedisSessionExpirationPolicy policy;
 
@@ -116,4 +131,75 @@ public class RedisSessionExpirationPolicyTests {
 		verify(sessionRedisOperations).boundHashOps(sessionKey);
 		verify(hashOperations).expire(session.getMaxInactiveIntervalInSeconds() + TimeUnit.MINUTES.toSeconds(5), TimeUnit.SECONDS);
 	}
+
+	@Test
+	public void cleanExpiredSessionsNoWatermarkProcessesPreviousMinute() throws Exception {
+		when(sessionRedisOperations.getKeySerializer()).thenReturn((RedisSerializer) new StringRedisSerializer());
+		long prevMin = RedisSessionExpirationPolicy.roundDownMinute(System.currentTimeMillis());
+
+		policy.cleanExpiredSessions();
+
+		verify(sessionRedisOperations, times(1)).execute(any(RedisCallback.class));
+		verify(sessionRedisOperations).delete(policy.getExpirationKey(prevMin));
+		verify(valueOperations).set(prevMin, RedisSessionExpirationPolicy.MAX_MINUTES, TimeUnit.MINUTES);
+	}
+
+	@Test
+	public void cleanExpiredSessionsProcessesMissedMinutes() throws Exception {
+		when(sessionRedisOperations.getKeySerializer()).thenReturn((RedisSerializer) new StringRedisSerializer());
+		long prevMin = RedisSessionExpirationPolicy.roundDownMinute(System.currentTimeMillis());
+		long threeMinutesAgo = prevMin - TimeUnit.MINUTES.toMillis(3);
+		when(valueOperations.get()).thenReturn(threeMinutesAgo);
+
+		policy.cleanExpiredSessions();
+
+		verify(sessionRedisOperations, times(3)).execute(any(RedisCallback.class));
+		verify(sessionRedisOperations, never()).delete(policy.getExpirationKey(threeMinutesAgo));
+		for(int i = 2; i >= 0; i--) {
+			long minute = prevMin - TimeUnit.MINUTES.toMillis(i);
+			verify(sessionRedisOperations).delete(policy.getExpirationKey(minute));
+			verify(valueOperations).set(minute, RedisSessionExpirationPolicy.MAX_MINUTES, TimeUnit.MINUTES);
+		}
+	}
+
+	@Test
+	public void cleanExpiredSessionsLimitsMissedMinutes() throws Exception {
+		when(sessionRedisOperations.getKeySerializer()).thenReturn((RedisSerializer) new StringRedisSerializer());
+		when(valueOperations.get()).thenReturn(0L);
+
+		assertThat(policy.cleanExpiredSessions()).isEqualTo(0);
+
+		verify(sessionRedisOperations, times(RedisSessionExpirationPolicy.MAX_MINUTES)).execute(any(RedisCallback.class));
+	}
+
+	@Test
+	public void cleanExpiredSessionsAccessesEachScanPageOnceRead() throws Exception {
+		when(sessionRedisOperations.getKeySerializer()).thenReturn((RedisSerializer) new StringRedisSerializer());
+		when(sessionRedisOperations.getValueSerializer()).thenReturn((RedisSerializer) new StringRedisSerializer());
+		when(sessionRedisOperations.execute(any(RedisCallback.class))).thenAnswer(new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				return ((RedisCallback<?>) invocation.getArguments()[0]).doInRedis(connection);
+			}
+		});
+		when(connection.sScan(any(byte[].class), any(ScanOptions.class))).thenReturn(cursor);
+		// the first page contains two sessions and the second page one session
+		when(cursor.getCursorId()).thenReturn(5L, 5L, 5L, 0L);
+		when(cursor.hasNext()).thenReturn(true, true, true, false);
+		when(cursor.next()).thenReturn("expires:1".getBytes("UTF-8"), "expires:2".getBytes("UTF-8"), "expires:3".getBytes("UTF-8"));
+
+		assertThat(policy.cleanExpiredSessions()).isEqualTo(3);
+
+		InOrder inOrder = inOrder(cursor, connection);
+		inOrder.verify(cursor, times(2)).next();
+		inOrder.verify(cursor).hasNext();
+		inOrder.verify(connection).openPipeline();
+		inOrder.verify(connection).exists(policy.getExpiredKey("1").getBytes("UTF-8"));
+		inOrder.verify(connection).exists(policy.getExpiredKey("2").getBytes("UTF-8"));
+		inOrder.verify(connection).closePipeline();
+		inOrder.verify(cursor).next();
+		inOrder.verify(connection).openPipeline();
+		inOrder.verify(connection).exists(policy.getExpiredKey("3").getBytes("UTF-8"));
+		inOrder.verify(connection).closePipeline();
+		inOrder.verify(cursor).close();
+	}
 }
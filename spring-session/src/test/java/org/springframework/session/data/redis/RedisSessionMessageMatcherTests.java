@@ -0,0 +1,103 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.junit.Test;
+
+public class RedisSessionMessageMatcherTests {
+	private static final String PREFIX = "spring:session:ns:";
+
+	private RedisSessionMessageMatcher matcher = new RedisSessionMessageMatcher(PREFIX + "event:created:",
+			PREFIX + "event:deleted:", PREFIX + "event:expired:", PREFIX + "sessions:expires:");
+
+	@Test
+	public void keyeventDeleted() {
+		byte[] channel = bytes("__keyevent@0__:del");
+		byte[] body = bytes(PREFIX + "sessions:expires:id");
+
+		assertThat(matcher.getDestroyedEvent(channel, body)).isEqualTo(RedisSessionMessageMatcher.DELETED_EVENT);
+		assertThat(matcher.getDestroyedSessionId(channel, body)).isEqualTo("id");
+	}
+
+	@Test
+	public void keyeventExpiredHashTagged() {
+		byte[] channel = bytes("__keyevent@0__:expired");
+		byte[] body = bytes(PREFIX + "sessions:expires:{id}");
+
+		assertThat(matcher.getDestroyedEvent(channel, body)).isEqualTo(RedisSessionMessageMatcher.EXPIRED_EVENT);
+		assertThat(matcher.getDestroyedSessionId(channel, body)).isEqualTo("id");
+	}
+
+	@Test
+	public void keyeventOtherKey() {
+		byte[] channel = bytes("__keyevent@0__:expired");
+
+		assertThat(matcher.getDestroyedEvent(channel, bytes("other:key"))).isEqualTo(RedisSessionMessageMatcher.NO_EVENT);
+		assertThat(matcher.getDestroyedEvent(channel, bytes("spring:session:sessions:expires:id")))
+				.isEqualTo(RedisSessionMessageMatcher.NO_EVENT);
+		assertThat(matcher.getDestroyedEvent(channel, new byte[0])).isEqualTo(RedisSessionMessageMatcher.NO_EVENT);
+	}
+
+	@Test
+	public void keyeventOtherEvent() {
+		byte[] body = bytes(PREFIX + "sessions:expires:id");
+
+		assertThat(matcher.getDestroyedEvent(bytes("__keyevent@0__:expire"), body))
+				.isEqualTo(RedisSessionMessageMatcher.NO_EVENT);
+		assertThat(matcher.getDestroyedEvent(bytes("del"), body)).isEqualTo(RedisSessionMessageMatcher.NO_EVENT);
+	}
+
+	@Test
+	public void keyspaceExpired() {
+		byte[] channel = bytes("__keyspace@12__:" + PREFIX + "sessions:expires:id");
+		byte[] body = bytes("expired");
+
+		assertThat(matcher.getDestroyedEvent(channel, body)).isEqualTo(RedisSessionMessageMatcher.EXPIRED_EVENT);
+		assertThat(matcher.getDestroyedSessionId(channel, body)).isEqualTo("id");
+	}
+
+	@Test
+	public void keyspaceOtherEvent() {
+		byte[] channel = bytes("__keyspace@0__:" + PREFIX + "sessions:expires:id");
+
+		assertThat(matcher.getDestroyedEvent(channel, bytes("expire"))).isEqualTo(RedisSessionMessageMatcher.NO_EVENT);
+	}
+
+	@Test
+	public void keyspaceMalformedChannel() {
+		assertThat(matcher.getDestroyedEvent(bytes("__keyspace@0"), bytes("del")))
+				.isEqualTo(RedisSessionMessageMatcher.NO_EVENT);
+	}
+
+	@Test
+	public void createdSessionId() {
+		assertThat(matcher.getCreatedSessionId(bytes(PREFIX + "event:created:id"))).isEqualTo("id");
+		assertThat(matcher.getCreatedSessionId(bytes(PREFIX + "event:deleted:id"))).isNull();
+	}
+
+	@Test
+	public void relayedSessionIds() {
+		assertThat(matcher.getDeletedSessionId(bytes(PREFIX + "event:deleted:id"))).isEqualTo("id");
+		assertThat(matcher.getExpiredSessionId(bytes(PREFIX + "event:expired:id"))).isEqualTo("id");
+		assertThat(matcher.getExpiredSessionId(bytes(PREFIX + "event:deleted:id"))).isNull();
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(RedisOperationsSessionRepository.UTF_8);
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.junit.Test;
+import org.springframework.session.MapSession;
+
+public class RedisSessionNearCacheTests {
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructorMaxSessionsZero() {
+		new RedisSessionNearCache(0, 1);
+	}
+
+	@Test
+	public void putNullVersionNotCached() {
+		RedisSessionNearCache cache = new RedisSessionNearCache(2, 100);
+
+		cache.put("a", new MapSession(), null, 1);
+
+		assertThat(cache.get("a")).isNull();
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedSession() {
+		RedisSessionNearCache cache = new RedisSessionNearCache(2, 100);
+		cache.put("a", new MapSession(), 1L, 1);
+		cache.put("b", new MapSession(), 1L, 1);
+		cache.get("a");
+
+		cache.put("c", new MapSession(), 1L, 1);
+
+		assertThat(cache.size()).isEqualTo(2);
+		assertThat(cache.get("a")).isNotNull();
+		assertThat(cache.get("b")).isNull();
+		assertThat(cache.get("c")).isNotNull();
+	}
+
+	@Test
+	public void evictsWhenMaxSizeInBytesExceeded() {
+		RedisSessionNearCache cache = new RedisSessionNearCache(10, 100);
+		cache.put("a", new MapSession(), 1L, 60);
+		cache.put("b", new MapSession(), 1L, 60);
+
+		assertThat(cache.get("a")).isNull();
+		assertThat(cache.get("b")).isNotNull();
+
+		cache.put("c", new MapSession(), 1L, 101);
+
+		assertThat(cache.get("c")).isNull();
+	}
+
+	@Test
+	public void getSessionReturnsCopy() {
+		RedisSessionNearCache cache = new RedisSessionNearCache(10, 100);
+		cache.put("a", new MapSession(), 1L, 1);
+
+		cache.get("a").getSession().setAttribute("attrName", "attrValue");
+
+		assertThat(cache.get("a").getSession().getAttribute("attrName")).isNull();
+	}
+
+	@Test
+	public void isFreshWithinMaxStaleness() {
+		RedisSessionNearCache cache = new RedisSessionNearCache(10, 100);
+		cache.setMaxStalenessInMillis(1000);
+		cache.put("a", new MapSession(), 1L, 1);
+		RedisSessionNearCache.Entry entry = cache.get("a");
+		entry.verified(5000);
+
+		assertThat(cache.isFresh(entry, 5999)).isTrue();
+		assertThat(cache.isFresh(entry, 6000)).isFalse();
+	}
+}
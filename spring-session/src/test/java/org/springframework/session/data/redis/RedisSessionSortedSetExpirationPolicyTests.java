@@ -0,0 +1,214 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.BoundHashOperations;
+import org.springframework.data.redis.core.BoundValueOperations;
+import org.springframework.data.redis.core.BoundZSetOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.session.MapSession;
+
+/**
+ * @author agent
+ */
+@RunWith(MockitoJUnitRunner.class)
+@SuppressWarnings({"unchecked","rawtypes"})
+public class RedisSessionSortedSetExpirationPolicyTests {
+	@Mock
+	RedisOperations<Object,Object> sessionRedisOperations;
+	@Mock
+	BoundZSetOperations<Object,Object> boundZSetOperations;
+	@Mock
+	ZSetOperations<Object,Object> zSetOperations;
+	@Mock
+	BoundHashOperations<Object,Object, Object> hashOperations;
+	@Mock
+	BoundValueOperations<Object, Object> valueOperations;
+	@Mock
+	RedisConnection connection;
+
+	RedisSessionSortedSetExpirationPolicy policy;
+
+	private MapSession session;
+
+	@Before
+	public void setup() {
+		RedisOperationsSessionRepository repository = new RedisOperationsSessionRepository(sessionRedisOperations);
+		policy = new RedisSessionSortedSetExpirationPolicy(sessionRedisOperations, repository);
+		session = new MapSession();
+		session.setLastAccessedTime(1429116694675L);
+		session.setId("12345");
+
+		when(sessionRedisOperations.boundZSetOps(anyString())).thenReturn(boundZSetOperations);
+		when(sessionRedisOperations.opsForZSet()).thenReturn(zSetOperations);
+		when(sessionRedisOperations.boundHashOps(anyString())).thenReturn(hashOperations);
+		when(sessionRedisOperations.boundValueOps(anyString())).thenReturn(valueOperations);
+		when(sessionRedisOperations.getKeySerializer()).thenReturn((RedisSerializer) new StringRedisSerializer());
+		when(sessionRedisOperations.getValueSerializer()).thenReturn((RedisSerializer) new StringRedisSerializer());
+		when(sessionRedisOperations.execute(any(RedisCallback.class))).thenAnswer(new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				return ((RedisCallback<?>) invocation.getArguments()[0]).doInRedis(connection);
+			}
+		});
+	}
+
+	@Test
+	public void onExpirationUpdatedAddsExpirationTime() throws Exception {
+		policy.onExpirationUpdated(RedisSessionExpirationPolicy.expiresInMillis(session) - TimeUnit.MINUTES.toMillis(5), session);
+
+		verify(sessionRedisOperations).boundZSetOps(policy.getExpirationsKey());
+		verify(boundZSetOperations).add("expires:" + session.getId(), RedisSessionExpirationPolicy.expiresInMillis(session));
+		verify(boundZSetOperations, never()).remove(anyVararg());
+		verify(sessionRedisOperations, never()).boundSetOps(anyString());
+	}
+
+	@Test
+	public void onExpirationUpdatedSetExpireSession() throws Exception {
+		String sessionKey = policy.getSessionKey(session.getId());
+
+		policy.onExpirationUpdated(null, session);
+
+		verify(sessionRedisOperations).boundHashOps(sessionKey);
+		verify(hashOperations).expire(session.getMaxInactiveIntervalInSeconds() + TimeUnit.MINUTES.toSeconds(5), TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void onDeleteRemovesExpiration() throws Exception {
+		policy.onDelete(session);
+
+		verify(boundZSetOperations).remove("expires:" + session.getId());
+	}
+
+	@Test
+	public void cleanExpiredSessionsProcessesBatches() throws Exception {
+		Set<Object> fullBatch = new LinkedHashSet<Object>();
+		for(int i = 0; i < RedisSessionSortedSetExpirationPolicy.BATCH_SIZE; i++) {
+			fullBatch.add("expires:" + i);
+		}
+		Set<Object> lastBatch = new LinkedHashSet<Object>();
+		lastBatch.add("expires:last");
+		when(zSetOperations.rangeByScore(anyString(), anyDouble(), anyDouble(), anyLong(), anyLong())).thenReturn(fullBatch, lastBatch);
+
+		assertThat(policy.cleanExpiredSessions()).isEqualTo(RedisSessionSortedSetExpirationPolicy.BATCH_SIZE + 1);
+
+		verify(zSetOperations, times(2)).rangeByScore(eq(policy.getExpirationsKey()), eq(0D), anyDouble(), eq(0L), eq((long) RedisSessionSortedSetExpirationPolicy.BATCH_SIZE));
+		// each batch is accessed using a single pipeline
+		verify(connection, times(2)).openPipeline();
+		verify(connection).exists(policy.getExpiredKey("0").getBytes("UTF-8"));
+		verify(connection).exists(policy.getExpiredKey("last").getBytes("UTF-8"));
+		verify(connection, times(RedisSessionSortedSetExpirationPolicy.BATCH_SIZE + 1)).exists(any(byte[].class));
+		verify(connection, times(2)).closePipeline();
+		verify(sessionRedisOperations, never()).hasKey(anyObject());
+		// only removed if still expired
+		verify(sessionRedisOperations, times(2)).execute(any(RedisScript.class), any(RedisSerializer.class), any(RedisSerializer.class),
+				eq(Collections.<Object>singletonList(policy.getExpirationsKey())), Matchers.<Object>anyVararg());
+		verify(boundZSetOperations, never()).remove(anyVararg());
+	}
+
+	@Test
+	public void cleanExpiredSessionsRemovesFetchedMembers() throws Exception {
+		Set<Object> batch = new LinkedHashSet<Object>(Arrays.<Object>asList("expires:1", "expires:2"));
+		when(zSetOperations.rangeByScore(anyString(), anyDouble(), anyDouble(), anyLong(), anyLong())).thenReturn(batch);
+
+		policy.cleanExpiredSessions();
+
+		ArgumentCaptor<Object> args = ArgumentCaptor.forClass(Object.class);
+		verify(sessionRedisOperations).execute(any(RedisScript.class), any(RedisSerializer.class), any(RedisSerializer.class),
+				anyList(), args.capture());
+		List<String> values = new ArrayList<String>();
+		for(Object arg : args.getAllValues()) {
+			values.add(new String((byte[]) arg, "UTF-8"));
+		}
+		assertThat(Long.valueOf(values.get(0))).isLessThanOrEqualTo(System.currentTimeMillis());
+		assertThat(values.subList(1, values.size())).containsExactly("expires:1", "expires:2");
+	}
+
+	@Test
+	public void cleanExpiredSessionsKeepsSessionsThatStillExist() throws Exception {
+		Set<Object> batch = new LinkedHashSet<Object>(Arrays.<Object>asList("expires:1", "expires:2"));
+		when(zSetOperations.rangeByScore(anyString(), anyDouble(), anyDouble(), anyLong(), anyLong())).thenReturn(batch);
+		// the key of the first session was saved after its last accessed time and did not expire yet
+		when(connection.closePipeline()).thenReturn(Arrays.<Object>asList(Boolean.TRUE, Boolean.FALSE));
+
+		policy.cleanExpiredSessions();
+
+		ArgumentCaptor<Object> args = ArgumentCaptor.forClass(Object.class);
+		verify(sessionRedisOperations).execute(any(RedisScript.class), any(RedisSerializer.class), any(RedisSerializer.class),
+				anyList(), args.capture());
+		List<String> values = new ArrayList<String>();
+		for(Object arg : args.getAllValues()) {
+			values.add(new String((byte[]) arg, "UTF-8"));
+		}
+		assertThat(values.subList(1, values.size())).containsExactly("expires:2");
+	}
+
+	@Test
+	public void cleanExpiredSessionsSkipsSessionsThatStillExist() throws Exception {
+		Set<Object> fullBatch = new LinkedHashSet<Object>();
+		List<Object> exists = new ArrayList<Object>();
+		for(int i = 0; i < RedisSessionSortedSetExpirationPolicy.BATCH_SIZE; i++) {
+			fullBatch.add("expires:" + i);
+			exists.add(Boolean.TRUE);
+		}
+		when(zSetOperations.rangeByScore(anyString(), anyDouble(), anyDouble(), anyLong(), anyLong())).thenReturn(fullBatch, new LinkedHashSet<Object>());
+		when(connection.closePipeline()).thenReturn(exists);
+
+		assertThat(policy.cleanExpiredSessions()).isEqualTo(RedisSessionSortedSetExpirationPolicy.BATCH_SIZE);
+
+		// the next batch is read after the sessions that were kept
+		verify(zSetOperations).rangeByScore(eq(policy.getExpirationsKey()), eq(0D), anyDouble(), eq((long) RedisSessionSortedSetExpirationPolicy.BATCH_SIZE), eq((long) RedisSessionSortedSetExpirationPolicy.BATCH_SIZE));
+		verify(sessionRedisOperations, never()).execute(any(RedisScript.class), any(RedisSerializer.class), any(RedisSerializer.class),
+				anyList(), Matchers.<Object>anyVararg());
+	}
+
+	@Test
+	public void cleanExpiredSessionsNoneExpired() throws Exception {
+		when(zSetOperations.rangeByScore(anyString(), anyDouble(), anyDouble(), anyLong(), anyLong())).thenReturn(new LinkedHashSet<Object>());
+
+		policy.cleanExpiredSessions();
+
+		verify(zSetOperations, times(1)).rangeByScore(anyString(), anyDouble(), anyDouble(), anyLong(), anyLong());
+		verify(boundZSetOperations, never()).remove(anyVararg());
+	}
+}
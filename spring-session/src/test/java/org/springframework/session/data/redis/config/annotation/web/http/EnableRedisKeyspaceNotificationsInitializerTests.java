@@ -153,6 +153,26 @@ public class EnableRedisKeyspaceNotificationsInitializerTests {
 		verify(connection, never()).setConfig(anyString(), anyString());
 	}
 
+	@Test
+	public void afterPropertiesSetKeyspaceEventsUnset() throws Exception {
+		initializer = new EnableRedisKeyspaceNotificationsInitializer(connectionFactory, new ConfigureNotifyKeyspaceEventsAction(true));
+		setConfigNotification("");
+
+		initializer.afterPropertiesSet();
+
+		assertOptionsContains("K", "g", "x");
+	}
+
+	@Test
+	public void afterPropertiesSetKeyspaceEventsAK() throws Exception {
+		initializer = new EnableRedisKeyspaceNotificationsInitializer(connectionFactory, new ConfigureNotifyKeyspaceEventsAction(true));
+		setConfigNotification("AK");
+
+		initializer.afterPropertiesSet();
+
+		verify(connection, never()).setConfig(anyString(), anyString());
+	}
+
 	private void assertOptionsContains(String... expectedValues) {
 		verify(connection).setConfig(eq(CONFIG_NOTIFY_KEYSPACE_EVENTS), options.capture());
 		for(String expectedValue : expectedValues) {
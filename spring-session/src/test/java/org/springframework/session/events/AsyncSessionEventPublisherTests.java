@@ -0,0 +1,224 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.events;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncSessionEventPublisherTests {
+	@Mock
+	ApplicationEventPublisher delegate;
+
+	QueuingExecutor executor;
+
+	AsyncSessionEventPublisher publisher;
+
+	@Before
+	public void setup() {
+		executor = new QueuingExecutor();
+		publisher = new AsyncSessionEventPublisher();
+		publisher.setApplicationEventPublisher(delegate);
+		publisher.setExecutor(executor);
+	}
+
+	@Test
+	public void publishEventDelegatesOnExecutor() {
+		SessionDeletedEvent event = new SessionDeletedEvent(this, "id");
+
+		publisher.publishEvent(event);
+
+		verifyZeroInteractions(delegate);
+		assertThat(publisher.getQueueSize()).isEqualTo(1);
+
+		executor.runAll();
+
+		verify(delegate).publishEvent(event);
+		assertThat(publisher.getQueueSize()).isEqualTo(0);
+		assertThat(publisher.getStatistics(SessionDeletedEvent.class).getPublished()).isEqualTo(1);
+		assertThat(publisher.getStatistics(SessionDeletedEvent.class).getDispatched()).isEqualTo(1);
+	}
+
+	@Test
+	public void publishEventSchedulesSingleTask() {
+		publisher.setBatchSize(1);
+
+		publisher.publishEvent(new SessionDeletedEvent(this, "1"));
+		publisher.publishEvent(new SessionExpiredEvent(this, "2"));
+		publisher.publishEvent(new SessionDeletedEvent(this, "3"));
+
+		assertThat(executor.tasks).hasSize(1);
+
+		executor.runAll();
+
+		verify(delegate, times(3)).publishEvent(any(ApplicationEvent.class));
+		assertThat(publisher.getStatistics(SessionDeletedEvent.class).getDispatched()).isEqualTo(2);
+		assertThat(publisher.getStatistics(SessionExpiredEvent.class).getDispatched()).isEqualTo(1);
+	}
+
+	@Test
+	public void publishEventFailureCounted() {
+		SessionExpiredEvent event = new SessionExpiredEvent(this, "id");
+		doThrow(new IllegalStateException()).when(delegate).publishEvent(event);
+
+		publisher.publishEvent(event);
+		executor.runAll();
+
+		assertThat(publisher.getStatistics(SessionExpiredEvent.class).getFailed()).isEqualTo(1);
+		assertThat(publisher.getStatistics(SessionExpiredEvent.class).getDispatched()).isEqualTo(0);
+	}
+
+	@Test
+	public void overflowDiscard() {
+		publisher.setQueueCapacity(1);
+		publisher.setOverflowPolicy(SessionEventOverflowPolicy.DISCARD);
+
+		publisher.publishEvent(new SessionDeletedEvent(this, "1"));
+		publisher.publishEvent(new SessionDeletedEvent(this, "2"));
+		executor.runAll();
+
+		verify(delegate, times(1)).publishEvent(any(ApplicationEvent.class));
+		assertThat(publisher.getStatistics(SessionDeletedEvent.class).getDiscarded()).isEqualTo(1);
+	}
+
+	@Test
+	public void overflowCallerRuns() {
+		publisher.setQueueCapacity(1);
+		publisher.setOverflowPolicy(SessionEventOverflowPolicy.CALLER_RUNS);
+		SessionDeletedEvent overflow = new SessionDeletedEvent(this, "2");
+
+		publisher.publishEvent(new SessionDeletedEvent(this, "1"));
+		publisher.publishEvent(overflow);
+
+		verify(delegate).publishEvent(overflow);
+		assertThat(publisher.getStatistics(SessionDeletedEvent.class).getCallerRuns()).isEqualTo(1);
+	}
+
+	@Test
+	public void overflowBlockWaitsForSpaceByDefault() throws Exception {
+		publisher.setQueueCapacity(1);
+		final SessionDeletedEvent overflow = new SessionDeletedEvent(this, "2");
+		publisher.publishEvent(new SessionDeletedEvent(this, "1"));
+		Thread publishing = new Thread() {
+			public void run() {
+				publisher.publishEvent(overflow);
+			}
+		};
+		publishing.start();
+		for(int i = 0; i < 500 && publishing.getState() != Thread.State.WAITING; i++) {
+			Thread.sleep(10);
+		}
+		assertThat(publishing.getState()).isEqualTo(Thread.State.WAITING);
+
+		executor.tasks.remove(0).run();
+		publishing.join(5000);
+		executor.runAll();
+
+		verify(delegate).publishEvent(overflow);
+		assertThat(publisher.getStatistics(SessionDeletedEvent.class).getDispatched()).isEqualTo(2);
+		assertThat(publisher.getStatistics(SessionDeletedEvent.class).getDiscarded()).isEqualTo(0);
+	}
+
+	@Test
+	public void overflowBlockOnDispatchingThreadRunsEvent() {
+		publisher.setQueueCapacity(1);
+		SessionDeletedEvent event = new SessionDeletedEvent(this, "1");
+		final SessionExpiredEvent queued = new SessionExpiredEvent(this, "2");
+		final SessionExpiredEvent overflow = new SessionExpiredEvent(this, "3");
+		doAnswer(new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				publisher.publishEvent(queued);
+				publisher.publishEvent(overflow);
+				return null;
+			}
+		}).when(delegate).publishEvent(event);
+
+		publisher.publishEvent(event);
+		executor.runAll();
+
+		verify(delegate).publishEvent(queued);
+		verify(delegate).publishEvent(overflow);
+		assertThat(publisher.getStatistics(SessionExpiredEvent.class).getCallerRuns()).isEqualTo(1);
+	}
+
+	@Test
+	public void overflowBlockTimesOut() {
+		publisher.setQueueCapacity(1);
+		publisher.setOverflowPolicy(SessionEventOverflowPolicy.BLOCK);
+		publisher.setMaxBlockTimeInMillis(1);
+
+		publisher.publishEvent(new SessionDeletedEvent(this, "1"));
+		publisher.publishEvent(new SessionDeletedEvent(this, "2"));
+
+		assertThat(publisher.getStatistics(SessionDeletedEvent.class).getDiscarded()).isEqualTo(1);
+	}
+
+	@Test
+	public void destroyPublishesQueuedEvents() {
+		SessionDeletedEvent event = new SessionDeletedEvent(this, "id");
+		publisher.publishEvent(event);
+
+		publisher.destroy();
+
+		verify(delegate).publishEvent(event);
+		assertThat(publisher.getQueueSize()).isEqualTo(0);
+	}
+
+	@Test
+	public void getStatisticsUnknownType() {
+		assertThat(publisher.getStatistics(SessionCreatedEvent.class).getPublished()).isEqualTo(0);
+		assertThat(publisher.getStatistics()).isEmpty();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setQueueCapacityZero() {
+		publisher.setQueueCapacity(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setOverflowPolicyNull() {
+		publisher.setOverflowPolicy(null);
+	}
+
+	static class QueuingExecutor implements Executor {
+		List<Runnable> tasks = new ArrayList<Runnable>();
+
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		void runAll() {
+			while(!tasks.isEmpty()) {
+				tasks.remove(0).run();
+			}
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.serializer;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.serializer.support.SerializationFailedException;
+
+public class CompactSerializerTests {
+	private CompactSerializer serializer;
+
+	@Before
+	public void setup() {
+		serializer = new CompactSerializer();
+	}
+
+	@Test
+	public void defaultTypes() {
+		assertRoundTrip(null);
+		assertRoundTrip("");
+		assertRoundTrip("value \u00e9\u4e2d");
+		assertRoundTrip(1);
+		assertRoundTrip(-1L);
+		assertRoundTrip(Long.MAX_VALUE);
+		assertRoundTrip(true);
+		assertRoundTrip(1.5d);
+		assertRoundTrip(new Date(1413258262962L));
+		assertRoundTrip(new ArrayList<Object>(Arrays.asList("a", 1L, null)));
+		assertRoundTrip(new HashSet<Object>(Arrays.asList("a", "b")));
+
+		Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+		map.put("b", 2L);
+		map.put("a", new HashMap<Object, Object>());
+		assertRoundTrip(map);
+		assertThat(((Map<?, ?>) serializer.deserialize(serializer.serialize(map))).keySet()).containsExactly("b", "a");
+	}
+
+	@Test
+	public void byteArray() {
+		byte[] bytes = new byte[] { 1, 2, 3 };
+
+		assertThat((byte[]) serializer.deserialize(serializer.serialize(bytes))).isEqualTo(bytes);
+	}
+
+	@Test
+	public void longString() {
+		char[] chars = new char[100000];
+		Arrays.fill(chars, 'a');
+
+		assertRoundTrip(new String(chars));
+	}
+
+	@Test
+	public void unknownTypeUsesJdkSerialization() {
+		TreeMap<String, Object> value = new TreeMap<String, Object>();
+		value.put("a", new Person("rob"));
+
+		Object result = serializer.deserialize(serializer.serialize(value));
+
+		assertThat(result).isInstanceOf(TreeMap.class).isEqualTo(value);
+	}
+
+	@Test
+	public void readsJdkSerialization() throws Exception {
+		HashMap<String, Object> value = new HashMap<String, Object>();
+		value.put("a", 1L);
+
+		assertThat(serializer.deserialize(jdk(value))).isEqualTo(value);
+	}
+
+	@Test
+	public void smallerThanJdkSerialization() throws Exception {
+		Object[] values = new Object[] { 1413258262962L, 1800, "user@example.com",
+				new ArrayList<String>(Arrays.asList("ROLE_USER", "ROLE_ADMIN")) };
+
+		for(Object value : values) {
+			assertThat(serializer.serialize(value).length).isLessThan(jdk(value).length);
+		}
+		assertThat(serializer.serialize(1413258262962L).length).isEqualTo(10);
+	}
+
+	@Test
+	public void registeredType() {
+		serializer.register(CompactSerializer.MIN_CLASS_ID, Person.class, new PersonSerializer());
+		Person person = new Person("rob");
+
+		byte[] bytes = serializer.serialize(person);
+
+		assertThat(serializer.deserialize(bytes)).isEqualTo(person);
+		assertThat(bytes.length).isEqualTo(1 + 1 + 1 + 3);
+	}
+
+	@Test
+	public void registeredTypeNested() {
+		serializer.register(100, Person.class, new PersonSerializer());
+		Map<String, Object> value = new HashMap<String, Object>();
+		value.put("person", new Person("rob"));
+
+		assertRoundTrip(value);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void registerReservedClassId() {
+		serializer.register(CompactSerializer.MIN_CLASS_ID - 1, Person.class, new PersonSerializer());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void registerDuplicateClassId() {
+		serializer.register(CompactSerializer.MIN_CLASS_ID, Person.class, new PersonSerializer());
+		serializer.register(CompactSerializer.MIN_CLASS_ID, Object.class, new PersonSerializer());
+	}
+
+	@Test(expected = SerializationFailedException.class)
+	public void deserializeUnknownClassId() {
+		serializer.register(CompactSerializer.MIN_CLASS_ID, Person.class, new PersonSerializer());
+		byte[] bytes = serializer.serialize(new Person("rob"));
+
+		new CompactSerializer().deserialize(bytes);
+	}
+
+	@Test(expected = SerializationFailedException.class)
+	public void deserializeUnknownFormat() {
+		serializer.deserialize(new byte[] { 2, 0 });
+	}
+
+	private void assertRoundTrip(Object value) {
+		assertThat(serializer.deserialize(serializer.serialize(value))).isEqualTo(value);
+	}
+
+	private static byte[] jdk(Object value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(value);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	@SuppressWarnings("serial")
+	static class Person implements Serializable {
+		private final String name;
+
+		Person(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Person && name.equals(((Person) obj).name);
+		}
+
+		@Override
+		public int hashCode() {
+			return name.hashCode();
+		}
+	}
+
+	static class PersonSerializer implements TypeSerializer<Object> {
+		public void write(Object value, DataOutput out, CompactSerializer serializer) throws IOException {
+			CompactSerializer.writeString(((Person) value).name, out);
+		}
+
+		public Object read(DataInput in, CompactSerializer serializer) throws IOException {
+			return new Person(CompactSerializer.readString(in));
+		}
+	}
+}
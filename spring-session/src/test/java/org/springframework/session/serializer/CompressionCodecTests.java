@@ -0,0 +1,124 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.serializer;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.springframework.core.serializer.support.SerializationFailedException;
+
+public class CompressionCodecTests {
+	private CompressionCodec codec = new CompressionCodec(100);
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructorThresholdZero() {
+		new CompressionCodec(0);
+	}
+
+	@Test
+	public void compressBelowThreshold() {
+		byte[] bytes = repeated(99);
+
+		assertThat(codec.compress(bytes)).isSameAs(bytes);
+	}
+
+	@Test
+	public void compressAboveThreshold() {
+		byte[] bytes = repeated(80 * 1024);
+
+		byte[] compressed = codec.compress(bytes);
+
+		assertThat(compressed.length).isLessThan(bytes.length / 10);
+		assertThat(CompressionCodec.isCompressed(compressed)).isTrue();
+		assertThat(codec.decompress(compressed)).isEqualTo(bytes);
+	}
+
+	@Test
+	public void compressIncompressible() {
+		byte[] bytes = new byte[1024];
+		new Random(1).nextBytes(bytes);
+
+		assertThat(codec.compress(bytes)).isSameAs(bytes);
+	}
+
+	@Test
+	public void decompressUncompressed() {
+		byte[] jdk = new byte[] { (byte) 0xAC, (byte) 0xED, 0, 5 };
+		byte[] compact = new byte[] { CompactSerializer.FORMAT_VERSION, 0 };
+
+		assertThat(codec.decompress(jdk)).isSameAs(jdk);
+		assertThat(codec.decompress(compact)).isSameAs(compact);
+		assertThat(codec.decompress(new byte[0])).isEmpty();
+		assertThat(codec.decompress(null)).isNull();
+	}
+
+	@Test
+	public void decompressWithDifferentThreshold() {
+		byte[] bytes = repeated(1024);
+
+		assertThat(new CompressionCodec(2048).decompress(codec.compress(bytes))).isEqualTo(bytes);
+	}
+
+	@Test(expected = SerializationFailedException.class)
+	public void decompressTruncated() {
+		byte[] compressed = codec.compress(repeated(1024));
+
+		codec.decompress(Arrays.copyOf(compressed, compressed.length / 2));
+	}
+
+	@Test
+	public void encodeBelowThreshold() {
+		byte[] bytes = new byte[] { CompressionCodec.MAGIC, CompressionCodec.COMPRESSED, 3, 1, 2, 3 };
+
+		byte[] encoded = codec.encode(bytes);
+
+		assertThat(CompressionCodec.isCompressed(encoded)).isFalse();
+		assertThat(codec.decode(encoded)).isEqualTo(bytes);
+	}
+
+	@Test
+	public void encodeAboveThreshold() {
+		byte[] bytes = repeated(80 * 1024);
+
+		byte[] encoded = codec.encode(bytes);
+
+		assertThat(CompressionCodec.isCompressed(encoded)).isTrue();
+		assertThat(codec.decode(encoded)).isEqualTo(bytes);
+	}
+
+	@Test
+	public void decodeNotEncoded() {
+		byte[] jdk = new byte[] { (byte) 0xAC, (byte) 0xED, 0, 5 };
+		byte[] text = new byte[] { 0x1F, 'a', 'b' };
+
+		assertThat(codec.decode(jdk)).isSameAs(jdk);
+		assertThat(codec.decode(text)).isSameAs(text);
+		assertThat(codec.decode(new byte[0])).isEmpty();
+		assertThat(codec.decode(null)).isNull();
+		assertThat(codec.encode(null)).isNull();
+	}
+
+	private static byte[] repeated(int length) {
+		byte[] bytes = new byte[length];
+		for(int i = 0; i < length; i++) {
+			bytes[i] = (byte) ('a' + i % 7);
+		}
+		return bytes;
+	}
+}
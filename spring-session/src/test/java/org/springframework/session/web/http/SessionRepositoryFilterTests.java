@@ -1220,6 +1220,71 @@ public class SessionRepositoryFilterTests {
 		verifyZeroInteractions(sessionRepository);
 	}
 
+	@Test
+	public void doFilterSessionNotDirtyNotSaved() throws Exception {
+		MapSessionRepository repository = new MapSessionRepository();
+		repository.setTouchGranularityInSeconds(30);
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+		SessionRepository<ExpiringSession> sessionRepository = spy(repository);
+		setSessionCookie(session.getId());
+
+		filter = new SessionRepositoryFilter<ExpiringSession>(sessionRepository);
+
+		doFilter(new DoInFilter(){
+			@Override
+			public void doFilter(HttpServletRequest wrappedRequest, HttpServletResponse wrappedResponse) throws IOException {
+				wrappedRequest.getSession().getAttribute("attrName");
+			}
+		});
+
+		verify(sessionRepository, never()).save(any(ExpiringSession.class));
+	}
+
+	@Test
+	public void doFilterSessionDirtySaved() throws Exception {
+		MapSessionRepository repository = new MapSessionRepository();
+		repository.setTouchGranularityInSeconds(30);
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+		SessionRepository<ExpiringSession> sessionRepository = spy(repository);
+		setSessionCookie(session.getId());
+
+		filter = new SessionRepositoryFilter<ExpiringSession>(sessionRepository);
+
+		doFilter(new DoInFilter(){
+			@Override
+			public void doFilter(HttpServletRequest wrappedRequest, HttpServletResponse wrappedResponse) throws IOException {
+				wrappedRequest.getSession().setAttribute("attrName", "attrValue");
+			}
+		});
+
+		verify(sessionRepository).save(any(ExpiringSession.class));
+		assertThat(repository.getSession(session.getId()).getAttribute("attrName")).isEqualTo("attrValue");
+	}
+
+	@Test
+	public void doFilterCustomMapSessionReadSaved() throws Exception {
+		MapSessionRepository repository = new MapSessionRepository(sessions);
+		repository.setTouchGranularityInSeconds(30);
+		ExpiringSession session = repository.createSession();
+		repository.save(session);
+		SessionRepository<ExpiringSession> sessionRepository = spy(repository);
+		setSessionCookie(session.getId());
+
+		filter = new SessionRepositoryFilter<ExpiringSession>(sessionRepository);
+
+		doFilter(new DoInFilter(){
+			@Override
+			public void doFilter(HttpServletRequest wrappedRequest, HttpServletResponse wrappedResponse) throws IOException {
+				// the value may be modified in place, so the session is saved
+				wrappedRequest.getSession().getAttribute("attrName");
+			}
+		});
+
+		verify(sessionRepository).save(any(ExpiringSession.class));
+	}
+
 	// --- order
 
 	@Test